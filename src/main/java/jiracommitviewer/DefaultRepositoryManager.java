@@ -20,6 +20,7 @@ import jiracommitviewer.repository.exception.RepositoryException;
 import jiracommitviewer.repository.service.RepositoryServiceHelper;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -44,6 +45,11 @@ public class DefaultRepositoryManager implements RepositoryManager {
 	/** The List<String> plugin setting that stores all properties for all repositories. */
 	private static final String SETTINGS_REPOSITORY_LIST = "repositoryList";
 	private static final String SETTINGS_REPOSITORY_VALUES = "repositoryValues";
+	/** The String plugin setting that stores whether duplicate commits are collapsed on the issue tab. */
+	private static final String SETTINGS_COLLAPSE_DUPLICATE_COMMITS = "collapseDuplicateCommits";
+	/** The String plugin setting that stores the most files of a commit listed straight away on the tabs. */
+	private static final String SETTINGS_INLINE_FILE_LIMIT = "inlineFileLimit";
+	private static final int DEFAULT_INLINE_FILE_LIMIT = 20;
 	
     private final static Logger log = LoggerFactory.getLogger(DefaultRepositoryManager.class);
 
@@ -145,7 +151,7 @@ public class DefaultRepositoryManager implements RepositoryManager {
      * {@inheritDoc}
      */
     @Override
-    public void saveRepository(final AbstractRepository repository) {
+    public synchronized void saveRepository(final AbstractRepository repository) {
     	Validate.notNull(repository, "repository must not be null");
     	
     	final Properties properties = new Properties();
@@ -165,6 +171,42 @@ public class DefaultRepositoryManager implements RepositoryManager {
     	repositorySettings.put(SETTINGS_REPOSITORY_VALUES, properties);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCollapseDuplicateCommits() {
+    	return Boolean.parseBoolean((String)pluginSettingsFactory.createGlobalSettings().get(SETTINGS_COLLAPSE_DUPLICATE_COMMITS));
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCollapseDuplicateCommits(final boolean collapseDuplicateCommits) {
+    	pluginSettingsFactory.createGlobalSettings().put(SETTINGS_COLLAPSE_DUPLICATE_COMMITS, 
+    			String.valueOf(collapseDuplicateCommits));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInlineFileLimit() {
+    	return NumberUtils.toInt((String)pluginSettingsFactory.createGlobalSettings().get(SETTINGS_INLINE_FILE_LIMIT), 
+    			DEFAULT_INLINE_FILE_LIMIT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setInlineFileLimit(final int inlineFileLimit) {
+    	Validate.isTrue(inlineFileLimit >= 0, "inlineFileLimit must not be negative");
+    	
+    	pluginSettingsFactory.createGlobalSettings().put(SETTINGS_INLINE_FILE_LIMIT, String.valueOf(inlineFileLimit));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -83,6 +83,36 @@ public interface RepositoryManager {
      */
     void removeRepository(Object id);
     
+    /**
+     * Gets whether a commit that is found in several repositories is shown once on the issue tab, listing all of its
+     * repositories, rather than once for each repository.
+     * 
+     * @return true if duplicate commits are collapsed
+     */
+    boolean isCollapseDuplicateCommits();
+    
+    /**
+     * Sets whether a commit that is found in several repositories is shown once on the issue tab.
+     * 
+     * @param collapseDuplicateCommits true to collapse duplicate commits
+     */
+    void setCollapseDuplicateCommits(boolean collapseDuplicateCommits);
+    
+    /**
+     * Gets the most files of a commit that the issue and project tabs list straight away. The files of commits with
+     * more are only loaded when the commit's file list is expanded.
+     * 
+     * @return the file limit
+     */
+    int getInlineFileLimit();
+    
+    /**
+     * Sets the most files of a commit that the tabs list straight away.
+     * 
+     * @param inlineFileLimit the file limit. Must not be negative
+     */
+    void setInlineFileLimit(int inlineFileLimit);
+    
     /**
      * Parses a repository identifier from a String in to the appropriate type.
      * 
@@ -1,14 +1,18 @@
 package jiracommitviewer.action;
 
 import java.io.File;
+import java.net.URISyntaxException;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.RepositoryType;
+import jiracommitviewer.domain.BranchFilter;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LinkFormatterType;
 import jiracommitviewer.repository.exception.RepositoryException;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.eclipse.jgit.transport.URIish;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +38,17 @@ public class AddGitRepositoryAction extends GitActionSupport {
 	private String fileReplacedFormat;
 	private String fileDeletedFormat;
 	private String fileViewFormat;
+	private String minPollInterval = String.valueOf(GitRepository.DEFAULT_MIN_POLL_INTERVAL);
+	private String maxPollInterval = String.valueOf(GitRepository.DEFAULT_MAX_POLL_INTERVAL);
+	private String connectTimeout = String.valueOf(GitRepository.DEFAULT_CONNECT_TIMEOUT);
+	private String readTimeout = String.valueOf(GitRepository.DEFAULT_READ_TIMEOUT);
+	private String fetchTimeout = String.valueOf(GitRepository.DEFAULT_FETCH_TIMEOUT);
+	private String branchIncludes;
+	private String branchExcludes;
+	private String paths;
+	private String renameLimit = String.valueOf(GitRepository.DEFAULT_RENAME_LIMIT);
+	private String maxCommitFiles = String.valueOf(GitRepository.DEFAULT_MAX_COMMIT_FILES);
+	private boolean direct;
 
 	public AddGitRepositoryAction(final RepositoryManager manager) {
 		super(manager);
@@ -227,6 +242,204 @@ public class AddGitRepositoryAction extends GitActionSupport {
 		this.linkFormatType = linkFormatType;
 	}
 	
+	/**
+	 * Gets the shortest time in minutes to wait between polls of the repository.
+	 * 
+	 * @return the minimum poll interval
+	 */
+	public String getMinPollInterval() {
+		return minPollInterval;
+	}
+	
+	/**
+	 * Sets the shortest time in minutes to wait between polls of the repository.
+	 * 
+	 * @param minPollInterval the minimum poll interval
+	 */
+	public void setMinPollInterval(final String minPollInterval) {
+		this.minPollInterval = minPollInterval != null ? minPollInterval.trim() : minPollInterval;
+	}
+	
+	/**
+	 * Gets the longest time in minutes to wait between polls of the repository.
+	 * 
+	 * @return the maximum poll interval
+	 */
+	public String getMaxPollInterval() {
+		return maxPollInterval;
+	}
+	
+	/**
+	 * Sets the longest time in minutes to wait between polls of the repository.
+	 * 
+	 * @param maxPollInterval the maximum poll interval
+	 */
+	public void setMaxPollInterval(final String maxPollInterval) {
+		this.maxPollInterval = maxPollInterval != null ? maxPollInterval.trim() : maxPollInterval;
+	}
+	
+	/**
+	 * Gets the time in seconds to wait for a connection to the remote repository.
+	 * 
+	 * @return the connect timeout
+	 */
+	public String getConnectTimeout() {
+		return connectTimeout;
+	}
+	
+	/**
+	 * Sets the time in seconds to wait for a connection to the remote repository.
+	 * 
+	 * @param connectTimeout the connect timeout
+	 */
+	public void setConnectTimeout(final String connectTimeout) {
+		this.connectTimeout = connectTimeout != null ? connectTimeout.trim() : connectTimeout;
+	}
+	
+	/**
+	 * Gets the time in seconds to wait for the remote repository to send anything.
+	 * 
+	 * @return the read timeout
+	 */
+	public String getReadTimeout() {
+		return readTimeout;
+	}
+	
+	/**
+	 * Sets the time in seconds to wait for the remote repository to send anything.
+	 * 
+	 * @param readTimeout the read timeout
+	 */
+	public void setReadTimeout(final String readTimeout) {
+		this.readTimeout = readTimeout != null ? readTimeout.trim() : readTimeout;
+	}
+	
+	/**
+	 * Gets the longest time in minutes that a single fetch may take.
+	 * 
+	 * @return the fetch timeout
+	 */
+	public String getFetchTimeout() {
+		return fetchTimeout;
+	}
+	
+	/**
+	 * Sets the longest time in minutes that a single fetch may take.
+	 * 
+	 * @param fetchTimeout the fetch timeout
+	 */
+	public void setFetchTimeout(final String fetchTimeout) {
+		this.fetchTimeout = fetchTimeout != null ? fetchTimeout.trim() : fetchTimeout;
+	}
+	
+	/**
+	 * Gets the rules for the branches to index. Blank to index all branches.
+	 * 
+	 * @return the branch include rules
+	 */
+	public String getBranchIncludes() {
+		return branchIncludes;
+	}
+	
+	/**
+	 * Sets the rules for the branches to index.
+	 * 
+	 * @param branchIncludes the branch include rules
+	 */
+	public void setBranchIncludes(final String branchIncludes) {
+		this.branchIncludes = branchIncludes != null ? branchIncludes.trim() : branchIncludes;
+	}
+	
+	/**
+	 * Gets the rules for the branches not to index.
+	 * 
+	 * @return the branch exclude rules
+	 */
+	public String getBranchExcludes() {
+		return branchExcludes;
+	}
+	
+	/**
+	 * Sets the rules for the branches not to index.
+	 * 
+	 * @param branchExcludes the branch exclude rules
+	 */
+	public void setBranchExcludes(final String branchExcludes) {
+		this.branchExcludes = branchExcludes != null ? branchExcludes.trim() : branchExcludes;
+	}
+	
+	/**
+	 * Gets the paths within the repository to index. Blank to index the whole repository.
+	 * 
+	 * @return the paths
+	 */
+	public String getPaths() {
+		return paths;
+	}
+	
+	/**
+	 * Sets the paths within the repository to index.
+	 * 
+	 * @param paths the paths
+	 */
+	public void setPaths(final String paths) {
+		this.paths = paths != null ? paths.trim() : paths;
+	}
+	
+	/**
+	 * Gets the most files that a commit may add or delete for their contents to be compared when detecting renames.
+	 * 
+	 * @return the rename limit
+	 */
+	public String getRenameLimit() {
+		return renameLimit;
+	}
+	
+	/**
+	 * Sets the most files that a commit may add or delete for their contents to be compared when detecting renames.
+	 * 
+	 * @param renameLimit the rename limit
+	 */
+	public void setRenameLimit(final String renameLimit) {
+		this.renameLimit = renameLimit != null ? renameLimit.trim() : renameLimit;
+	}
+	
+	/**
+	 * Gets the most files listed for a single commit.
+	 * 
+	 * @return the maximum number of files per commit
+	 */
+	public String getMaxCommitFiles() {
+		return maxCommitFiles;
+	}
+	
+	/**
+	 * Sets the most files listed for a single commit.
+	 * 
+	 * @param maxCommitFiles the maximum number of files per commit
+	 */
+	public void setMaxCommitFiles(final String maxCommitFiles) {
+		this.maxCommitFiles = maxCommitFiles != null ? maxCommitFiles.trim() : maxCommitFiles;
+	}
+	
+	/**
+	 * Gets whether the repository is to be indexed in place rather than cloned.
+	 * 
+	 * @return true to index in place
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+	
+	/**
+	 * Sets whether the repository is to be indexed in place rather than cloned.
+	 * 
+	 * @param direct true to index in place
+	 */
+	public void setDirect(final boolean direct) {
+		this.direct = direct;
+	}
+	
 	public String doExecute() {
         if (!hasPermissions()) {
             return PERMISSION_VIOLATION_RESULT;
@@ -240,6 +453,16 @@ public class AddGitRepositoryAction extends GitActionSupport {
 			}
 			repository.setPrivateKeyPath(privateKeyFile);
 			repository.setUri(repositoryUri);
+			repository.setDirect(direct);
+			repository.setMinPollInterval(Integer.parseInt(minPollInterval));
+			repository.setMaxPollInterval(Integer.parseInt(maxPollInterval));
+			repository.setConnectTimeout(Integer.parseInt(connectTimeout));
+			repository.setReadTimeout(Integer.parseInt(readTimeout));
+			repository.setFetchTimeout(Integer.parseInt(fetchTimeout));
+			repository.setBranchFilter(branchIncludes, branchExcludes);
+			repository.setPaths(paths);
+			repository.setRenameLimit(Integer.parseInt(renameLimit));
+			repository.setMaxCommitFiles(Integer.parseInt(maxCommitFiles));
 			repository.getLinkFormatter().setChangesetFormat(changesetFormat);
 			repository.getLinkFormatter().setFileAddedFormat(fileAddedFormat);
 			repository.getLinkFormatter().setFileDeletedFormat(fileDeletedFormat);
@@ -276,5 +499,55 @@ public class AddGitRepositoryAction extends GitActionSupport {
 		if (TextUtils.stringSet(getPrivateKeyFile()) && !new File(getPrivateKeyFile()).isFile()) {
 			addError("privateKeyFile", getText("admin.errors.private.key.file.does.not.exist"));
 		}
+		if (isDirect() && TextUtils.stringSet(getRepositoryUri()) && !isLocalUri(getRepositoryUri())) {
+			addError("direct", getText("admin.errors.direct.requires.local.repository"));
+		}
+		final int min = NumberUtils.toInt(getMinPollInterval(), 0);
+		final int max = NumberUtils.toInt(getMaxPollInterval(), 0);
+		if (min < 1) {
+			addError("minPollInterval", getText("admin.errors.poll.interval.invalid"));
+		}
+		if (max < 1) {
+			addError("maxPollInterval", getText("admin.errors.poll.interval.invalid"));
+		} else if (min >= 1 && max < min) {
+			addError("maxPollInterval", getText("admin.errors.poll.interval.max.less.than.min"));
+		}
+		if (NumberUtils.toInt(getConnectTimeout(), 0) < 1) {
+			addError("connectTimeout", getText("admin.errors.timeout.invalid"));
+		}
+		if (NumberUtils.toInt(getReadTimeout(), 0) < 1) {
+			addError("readTimeout", getText("admin.errors.timeout.invalid"));
+		}
+		if (NumberUtils.toInt(getFetchTimeout(), 0) < 1) {
+			addError("fetchTimeout", getText("admin.errors.timeout.invalid"));
+		}
+		if (NumberUtils.toInt(getRenameLimit(), -1) < 0) {
+			addError("renameLimit", getText("admin.errors.rename.limit.invalid"));
+		}
+		if (NumberUtils.toInt(getMaxCommitFiles(), 0) < 1) {
+			addError("maxCommitFiles", getText("admin.errors.max.commit.files.invalid"));
+		}
+		if (!BranchFilter.isValid(getBranchIncludes())) {
+			addError("branchIncludes", getText("admin.errors.branch.rules.invalid"));
+		}
+		if (!BranchFilter.isValid(getBranchExcludes())) {
+			addError("branchExcludes", getText("admin.errors.branch.rules.invalid"));
+		}
+	}
+	
+	/**
+	 * Tests whether the {@code uri} identifies a repository on the local file system.
+	 * 
+	 * @param uri the repository URI. Must not be {@code null}
+	 * @return true if the repository is local; false if it is remote or the URI is malformed
+	 */
+	private boolean isLocalUri(final String uri) {
+		assert uri != null : "uri must not be null";
+		
+		try {
+			return !new URIish(uri).isRemote();
+		} catch (final URISyntaxException urise) {
+			return false;
+		}
 	}
 }
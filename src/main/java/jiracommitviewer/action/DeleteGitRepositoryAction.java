@@ -2,6 +2,7 @@ package jiracommitviewer.action;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.AbstractRepository;
+import jiracommitviewer.domain.GitRepository;
 
 @SuppressWarnings("serial")
 public class DeleteGitRepositoryAction extends GitActionSupport {
@@ -35,7 +36,13 @@ public class DeleteGitRepositoryAction extends GitActionSupport {
             return PERMISSION_VIOLATION_RESULT;
         }
 
-		repositoryManager.removeRepository(repositoryManager.parseRepositoryId(repositoryId));
+		final Object id = repositoryManager.parseRepositoryId(repositoryId);
+		final AbstractRepository repository = repositoryManager.getRepository(id);
+		// Forgets the poll interval saved for the repository
+		if (repository instanceof GitRepository) {
+			indexPipeline.getPollingPolicy().reset((GitRepository)repository);
+		}
+		repositoryManager.removeRepository(id);
 		return getRedirect("ViewGitRepositories.jspa");
 	}
 
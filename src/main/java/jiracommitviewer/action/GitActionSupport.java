@@ -8,6 +8,7 @@ import java.util.Properties;
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.LinkFormatter;
 import jiracommitviewer.repository.service.RepositoryServiceHelper;
+import jiracommitviewer.revisions.scheduling.GitIndexPipeline;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,6 +28,9 @@ public class GitActionSupport extends JiraWebActionSupport {
 	@Autowired
 	protected RepositoryServiceHelper repositoryServiceHelper;
 	
+	@Autowired
+	protected GitIndexPipeline indexPipeline;
+	
 	private Map<String, LinkFormatter> webLinkTypes;
 
 	public GitActionSupport(final RepositoryManager manager) {
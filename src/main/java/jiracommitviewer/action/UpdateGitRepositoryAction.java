@@ -45,6 +45,17 @@ public class UpdateGitRepositoryAction extends AddGitRepositoryAction {
 		this.setDisplayName(repository.getDisplayName());
 		this.setRepositoryUri(repository.getUri());
 		this.setPrivateKeyFile(repository.getPrivateKeyPath() == null ? "" : repository.getPrivateKeyPath().getPath());
+		this.setMinPollInterval(String.valueOf(repository.getMinPollInterval()));
+		this.setMaxPollInterval(String.valueOf(repository.getMaxPollInterval()));
+		this.setConnectTimeout(String.valueOf(repository.getConnectTimeout()));
+		this.setReadTimeout(String.valueOf(repository.getReadTimeout()));
+		this.setFetchTimeout(String.valueOf(repository.getFetchTimeout()));
+		this.setBranchIncludes(repository.getBranchFilter().getIncludes());
+		this.setBranchExcludes(repository.getBranchFilter().getExcludes());
+		this.setPaths(StringUtils.join(repository.getPaths(), ", "));
+		this.setRenameLimit(String.valueOf(repository.getRenameLimit()));
+		this.setMaxCommitFiles(String.valueOf(repository.getMaxCommitFiles()));
+		this.setDirect(repository.isDirect());
         this.setFileAddedFormat(repository.getLinkFormatter().getFileAddedFormat());
         this.setChangesetFormat(repository.getLinkFormatter().getChangesetFormat());
         this.setFileDeletedFormat(repository.getLinkFormatter().getFileDeletedFormat());
@@ -76,6 +87,20 @@ public class UpdateGitRepositoryAction extends AddGitRepositoryAction {
 			}
 			repository.setPrivateKeyPath(getPrivateKeyFile());
 			repository.setUri(getRepositoryUri());
+			final boolean wasDirect = repository.isDirect();
+			repository.setDirect(isDirect());
+			repository.setMinPollInterval(Integer.parseInt(getMinPollInterval()));
+			repository.setMaxPollInterval(Integer.parseInt(getMaxPollInterval()));
+			repository.setConnectTimeout(Integer.parseInt(getConnectTimeout()));
+			repository.setReadTimeout(Integer.parseInt(getReadTimeout()));
+			repository.setFetchTimeout(Integer.parseInt(getFetchTimeout()));
+			repository.setBranchFilter(getBranchIncludes(), getBranchExcludes());
+			repository.setPaths(getPaths());
+			repository.setRenameLimit(Integer.parseInt(getRenameLimit()));
+			repository.setMaxCommitFiles(Integer.parseInt(getMaxCommitFiles()));
+			// Poll straight away with the new settings, giving a failing remote another chance
+			indexPipeline.getPollingPolicy().reset(repository);
+			indexPipeline.getCircuitBreaker().reset(repository);
 			repository.getLinkFormatter().setChangesetFormat(getChangesetFormat());
 			repository.getLinkFormatter().setFileAddedFormat(getFileAddedFormat());
 			repository.getLinkFormatter().setFileDeletedFormat(getFileDeletedFormat());
@@ -92,6 +117,15 @@ public class UpdateGitRepositoryAction extends AddGitRepositoryAction {
 				addErrorMessage(getText("admin.errors.occured.when.updating"));
 				return ERROR;
 			}
+			
+			// The clone is no longer needed once the repository is indexed in place
+			if (isDirect() && !wasDirect) {
+				try {
+					repositoryServiceHelper.getRepositoryService(repository).remove(repository);
+				} catch (final RepositoryException re) {
+					logger.warn("Could not remove clone of repository now indexed in place: " + repository.getId(), re);
+				}
+			}
 		} finally {
 			getRepositoryManager().saveRepository(repository);
 		}
@@ -1,15 +1,33 @@
 package jiracommitviewer.action;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.AbstractRepository;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.export.CommitExporter;
+import jiracommitviewer.export.ExportFormat;
+import jiracommitviewer.export.ExportProgress;
+import jiracommitviewer.index.GarbageCollectionStats;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.repository.service.FetchProgressMonitor;
+import jiracommitviewer.repository.service.GitRepositoryService;
+import jiracommitviewer.revisions.scheduling.CircuitBreaker.CircuitStatus;
+import jiracommitviewer.revisions.scheduling.PipelineStage;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * View 1 or more repositories
@@ -17,10 +35,155 @@ import org.apache.commons.lang.StringUtils;
 @SuppressWarnings("serial")
 public class ViewGitRepositoriesAction extends GitActionSupport {
 
+    @Autowired
+    private GitRepositoryService gitRepositoryService;
+    @Autowired
+    private GitCommitIndexer gitCommitIndexer;
+    @Autowired
+    private CommitExporter commitExporter;
+
+    /** The settings given to update, or {@code null} for those to leave as they are. */
+    private Boolean collapseDuplicateCommits;
+    private Integer inlineFileLimit;
+    
+    /** The parameters of an export. */
+    private String exportProjects;
+    private String exportFrom;
+    private String exportTo;
+    private String exportFormat;
+
     public ViewGitRepositoriesAction(final RepositoryManager manager) {
         super (manager);
     }
 
+    /**
+     * Saves the settings that apply to all repositories.
+     * 
+     * @return the result
+     */
+    public String doUpdateSettings() {
+    	if (!hasPermissions()) {
+    		return PERMISSION_VIOLATION_RESULT;
+    	}
+    	
+    	if (collapseDuplicateCommits != null) {
+    		repositoryManager.setCollapseDuplicateCommits(collapseDuplicateCommits);
+    	}
+    	if (inlineFileLimit != null) {
+    		repositoryManager.setInlineFileLimit(Math.max(0, inlineFileLimit));
+    	}
+    	return getRedirect("ViewGitRepositories.jspa");
+    }
+
+    /**
+     * Starts exporting the commits of the given projects and dates in the background.
+     * 
+     * @return the result
+     */
+    public String doExport() {
+    	if (!hasPermissions()) {
+    		return PERMISSION_VIOLATION_RESULT;
+    	}
+    	
+    	final Set<String> projectKeys = new LinkedHashSet<String>();
+    	for (final String projectKey : StringUtils.split(StringUtils.defaultString(exportProjects), ", ")) {
+    		projectKeys.add(projectKey.toUpperCase(Locale.ENGLISH));
+    	}
+    	final Date from = parseExportDate(exportFrom, 0);
+    	final Date to = parseExportDate(exportTo, 1);
+    	ExportFormat format = null;
+    	try {
+    		format = ExportFormat.valueOf(StringUtils.defaultString(exportFormat).toUpperCase(Locale.ENGLISH));
+    	} catch (final IllegalArgumentException iae) {
+    		addErrorMessage(getText("git.export.invalid.format"));
+    	}
+    	if (hasAnyErrors()) {
+    		return SUCCESS;
+    	}
+    	
+    	try {
+    		commitExporter.start(projectKeys, from, to, format);
+    	} catch (final IllegalStateException ise) {
+    		addErrorMessage(getText("git.export.running"));
+    		return SUCCESS;
+    	}
+    	return getRedirect("ViewGitRepositories.jspa");
+    }
+    
+    /**
+     * Parses a date given for an export, adding an error message if it is invalid.
+     * 
+     * @param date the date in the form yyyy-MM-dd or blank for none
+     * @param daysToAdd the number of days to add to the date
+     * @return the date or {@code null} if none was given or it is invalid
+     */
+    private Date parseExportDate(final String date, final int daysToAdd) {
+    	if (StringUtils.isBlank(date)) {
+    		return null;
+    	}
+    	final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+    	format.setLenient(false);
+    	try {
+    		return DateUtils.addDays(format.parse(date.trim()), daysToAdd);
+    	} catch (final ParseException pe) {
+    		addErrorMessage(getText("git.export.invalid.date", date));
+    		return null;
+    	}
+    }
+    
+    public String getExportProjects() {
+    	return exportProjects;
+    }
+    
+    public void setExportProjects(final String exportProjects) {
+    	this.exportProjects = exportProjects;
+    }
+    
+    public String getExportFrom() {
+    	return exportFrom;
+    }
+    
+    public void setExportFrom(final String exportFrom) {
+    	this.exportFrom = exportFrom;
+    }
+    
+    public String getExportTo() {
+    	return exportTo;
+    }
+    
+    public void setExportTo(final String exportTo) {
+    	this.exportTo = exportTo;
+    }
+    
+    public void setExportFormat(final String exportFormat) {
+    	this.exportFormat = exportFormat;
+    }
+    
+    /**
+     * Gets the progress of the latest export.
+     * 
+     * @return the progress or {@code null} if nothing has been exported
+     */
+    public ExportProgress getExportProgress() {
+    	return commitExporter.getProgress();
+    }
+
+    public boolean isCollapseDuplicateCommits() {
+    	return repositoryManager.isCollapseDuplicateCommits();
+    }
+
+    public void setCollapseDuplicateCommits(final boolean collapseDuplicateCommits) {
+    	this.collapseDuplicateCommits = collapseDuplicateCommits;
+    }
+
+    public int getInlineFileLimit() {
+    	return repositoryManager.getInlineFileLimit();
+    }
+
+    public void setInlineFileLimit(final int inlineFileLimit) {
+    	this.inlineFileLimit = inlineFileLimit;
+    }
+
     /**
      * Gets a list of repositories for display.
      * 
@@ -41,4 +204,71 @@ public class ViewGitRepositoriesAction extends GitActionSupport {
 
         return repositories;
     }
+
+    /**
+     * Gets the progress of the fetch or clone currently running for the {@code repository}.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @return the progress or {@code null} if the repository isn't being fetched
+     */
+    public FetchProgressMonitor getFetchProgress(final AbstractRepository repository) {
+    	if (repository instanceof GitRepository) {
+    		return gitRepositoryService.getFetchProgress((GitRepository)repository);
+    	}
+    	return null;
+    }
+
+    /**
+     * Gets the state of the circuit breaker for the {@code repository}'s remote.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @return the circuit state or {@code null} if fetches of the repository haven't failed since they last succeeded
+     */
+    public CircuitStatus getCircuitStatus(final AbstractRepository repository) {
+    	if (repository instanceof GitRepository) {
+    		return indexPipeline.getCircuitBreaker().getStatus((GitRepository)repository);
+    	}
+    	return null;
+    }
+
+    /**
+     * Gets the current time to wait between polls of the {@code repository}.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @return the poll interval in minutes, or 0 if the repository isn't polled
+     */
+    public int getPollInterval(final AbstractRepository repository) {
+    	if (repository instanceof GitRepository) {
+    		return indexPipeline.getPollingPolicy().getPollInterval((GitRepository)repository);
+    	}
+    	return 0;
+    }
+
+    /**
+     * Formats a time for display.
+     * 
+     * @param millis the time in milliseconds
+     * @return the formatted time. Never {@code null}
+     */
+    public String formatTime(final long millis) {
+    	return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(millis));
+    }
+
+    /**
+     * Gets the stages of the indexing pipeline for displaying their queue depth and latency.
+     * 
+     * @return the pipeline stages. Never {@code null}
+     */
+    public List<PipelineStage> getPipelineStages() {
+    	return indexPipeline.getStages();
+    }
+
+    /**
+     * Gets statistics about the removal of commits that are no longer reachable from any branch.
+     * 
+     * @return the statistics. Never {@code null}
+     */
+    public GarbageCollectionStats getGarbageCollectionStats() {
+    	return gitCommitIndexer.getGarbageCollectionStats();
+    }
 }
@@ -0,0 +1,239 @@
+package jiracommitviewer.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Decides which branches of a repository are indexed, from lists of include and exclude rules. A branch is indexed if
+ * it matches any include rule, or there are none, and matches no exclude rule.
+ * <p>
+ * Rules are separated by commas or whitespace and are matched against the short branch name, such as
+ * {@code release/1.0}. A rule is a glob, in which {@code *} matches any run of characters and {@code ?} matches any
+ * single character, unless it is enclosed in slashes, such as {@code /ci-\d+/}, in which case it is a regular
+ * expression that must match the whole name.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class BranchFilter {
+
+	private static final String RULE_SEPARATORS = ", \t\r\n";
+
+	/** A filter that accepts every branch. */
+	public static final BranchFilter ALL = new BranchFilter("", "");
+
+	private final String includes;
+	private final String excludes;
+	private final List<Pattern> includePatterns;
+	private final List<Pattern> excludePatterns;
+
+	/**
+	 * Creates a new filter.
+	 *
+	 * @param includes the include rules. May be {@code null} or blank to include every branch
+	 * @param excludes the exclude rules. May be {@code null} or blank to exclude none
+	 * @throws IllegalArgumentException if any rule is an invalid regular expression
+	 */
+	public BranchFilter(final String includes, final String excludes) {
+		this.includes = StringUtils.trimToEmpty(includes);
+		this.excludes = StringUtils.trimToEmpty(excludes);
+		this.includePatterns = compile(this.includes);
+		this.excludePatterns = compile(this.excludes);
+	}
+
+	/**
+	 * Tests whether the branch is indexed.
+	 *
+	 * @param branchName the short name of the branch, without {@code refs/heads/}. Must not be {@code null}
+	 * @return true if the branch is indexed
+	 */
+	public boolean matches(final String branchName) {
+		Validate.notNull(branchName, "branchName must not be null");
+
+		return (includePatterns.isEmpty() || matchesAny(includePatterns, branchName))
+				&& !matchesAny(excludePatterns, branchName);
+	}
+
+	/**
+	 * Tests whether the filter accepts every branch.
+	 *
+	 * @return true if there are no rules
+	 */
+	public boolean isAll() {
+		return includePatterns.isEmpty() && excludePatterns.isEmpty();
+	}
+
+	/**
+	 * Gets the branch name prefixes that a fetch can be limited to. Git ref specs have no exclusions and fail when
+	 * a named branch doesn't exist, so this is only possible when every rule is an include glob ending in its only
+	 * wildcard, such as {@code release/*}.
+	 *
+	 * @return the branch name prefixes, without their trailing {@code *}, or an empty list if all branches must be
+	 * fetched and filtered afterwards. Never {@code null}
+	 */
+	public List<String> getFetchPrefixes() {
+		if (includePatterns.isEmpty() || !excludePatterns.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final SortedSet<String> sortedPrefixes = new TreeSet<String>();
+		for (final String rule : StringUtils.split(includes, RULE_SEPARATORS)) {
+			if (isRegex(rule) || rule.indexOf('?') != -1 || rule.indexOf('*') != rule.length() - 1) {
+				return Collections.emptyList();
+			}
+			sortedPrefixes.add(rule.substring(0, rule.length() - 1));
+		}
+		// A branch must only be matched by one ref spec. Sorting places any prefix straight before those it covers
+		final List<String> prefixes = new ArrayList<String>();
+		for (final String prefix : sortedPrefixes) {
+			if (prefixes.isEmpty() || !prefix.startsWith(prefixes.get(prefixes.size() - 1))) {
+				prefixes.add(prefix);
+			}
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Gets the include rules as they were given.
+	 *
+	 * @return the include rules. Never {@code null}
+	 */
+	public String getIncludes() {
+		return includes;
+	}
+
+	/**
+	 * Gets the exclude rules as they were given.
+	 *
+	 * @return the exclude rules. Never {@code null}
+	 */
+	public String getExcludes() {
+		return excludes;
+	}
+
+	/**
+	 * Validates branch rules without creating a filter.
+	 *
+	 * @param rules the rules. May be {@code null}
+	 * @return true if every rule is valid
+	 */
+	public static boolean isValid(final String rules) {
+		try {
+			compile(StringUtils.trimToEmpty(rules));
+			return true;
+		} catch (final IllegalArgumentException iae) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (!(obj instanceof BranchFilter)) {
+			return false;
+		}
+		final BranchFilter other = (BranchFilter)obj;
+		return includes.equals(other.includes) && excludes.equals(other.excludes);
+	}
+
+	@Override
+	public int hashCode() {
+		return includes.hashCode() * 31 + excludes.hashCode();
+	}
+
+	/**
+	 * Gets a description of the rules that changes whenever the branches they accept might change.
+	 *
+	 * @return the description. Never {@code null}
+	 */
+	@Override
+	public String toString() {
+		return "+" + includes + " -" + excludes;
+	}
+
+	/**
+	 * Compiles each of the {@code rules} to a pattern.
+	 *
+	 * @param rules the rules. Must not be {@code null}
+	 * @return the patterns. Never {@code null}
+	 * @throws IllegalArgumentException if a rule is an invalid regular expression
+	 */
+	private static List<Pattern> compile(final String rules) {
+		assert rules != null : "rules must not be null";
+
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+		for (final String rule : StringUtils.split(rules, RULE_SEPARATORS)) {
+			try {
+				patterns.add(isRegex(rule) ? Pattern.compile(rule.substring(1, rule.length() - 1)) : globToPattern(rule));
+			} catch (final PatternSyntaxException pse) {
+				throw new IllegalArgumentException("Invalid branch rule: " + rule, pse);
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Tests whether the {@code rule} is a regular expression rather than a glob.
+	 *
+	 * @param rule the rule. Must not be {@code null}
+	 * @return true if it is enclosed in slashes
+	 */
+	private static boolean isRegex(final String rule) {
+		assert rule != null : "rule must not be null";
+
+		return rule.length() > 2 && rule.startsWith("/") && rule.endsWith("/");
+	}
+
+	/**
+	 * Converts a glob to the equivalent regular expression.
+	 *
+	 * @param glob the glob. Must not be {@code null}
+	 * @return the pattern. Never {@code null}
+	 */
+	private static Pattern globToPattern(final String glob) {
+		assert glob != null : "glob must not be null";
+
+		final StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart) {
+					regex.append(Pattern.quote(glob.substring(literalStart, i)));
+				}
+				regex.append(c == '*' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+		if (literalStart < glob.length()) {
+			regex.append(Pattern.quote(glob.substring(literalStart)));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Tests whether the {@code branchName} matches any of the {@code patterns} in full.
+	 *
+	 * @param patterns the patterns. Must not be {@code null}
+	 * @param branchName the branch name. Must not be {@code null}
+	 * @return true if any pattern matches
+	 */
+	private static boolean matchesAny(final List<Pattern> patterns, final String branchName) {
+		assert patterns != null : "patterns must not be null";
+		assert branchName != null : "branchName must not be null";
+
+		for (final Pattern pattern : patterns) {
+			if (pattern.matcher(branchName).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
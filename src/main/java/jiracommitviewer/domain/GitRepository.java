@@ -1,10 +1,16 @@
 package jiracommitviewer.domain;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.math.NumberUtils;
 
 /**
  * A type of {@link AbstractRepository} that represents a Git repository.
@@ -15,9 +21,48 @@ public final class GitRepository extends AbstractRepository {
 	
 	private static final String PROPERTY_URI = "uri";
 	private static final String PROPERTY_PRIVATE_KEY_PATH = "privateKeyPath";
+	private static final String PROPERTY_MIN_POLL_INTERVAL = "minPollInterval";
+	private static final String PROPERTY_MAX_POLL_INTERVAL = "maxPollInterval";
+	private static final String PROPERTY_DIRECT = "direct";
+	private static final String PROPERTY_CONNECT_TIMEOUT = "connectTimeout";
+	private static final String PROPERTY_READ_TIMEOUT = "readTimeout";
+	private static final String PROPERTY_FETCH_TIMEOUT = "fetchTimeout";
+	private static final String PROPERTY_BRANCH_INCLUDES = "branchIncludes";
+	private static final String PROPERTY_BRANCH_EXCLUDES = "branchExcludes";
+	private static final String PROPERTY_PATHS = "paths";
+	private static final String PROPERTY_RENAME_LIMIT = "renameLimit";
+	private static final String PROPERTY_MAX_COMMIT_FILES = "maxCommitFiles";
+	/** Separates the paths that the repository is scoped to. */
+	private static final String PATH_SEPARATORS = ", \t\r\n";
+	
+	/** The default shortest time between polls of the repository, in minutes. */
+	public static final int DEFAULT_MIN_POLL_INTERVAL = 1;
+	/** The default longest time between polls of the repository, in minutes. */
+	public static final int DEFAULT_MAX_POLL_INTERVAL = 60;
+	/** The default time to wait for a connection to the remote repository, in seconds. */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 30;
+	/** The default time to wait for the remote repository to send anything, in seconds. */
+	public static final int DEFAULT_READ_TIMEOUT = 120;
+	/** The default longest time that a single fetch from the remote repository may take, in minutes. */
+	public static final int DEFAULT_FETCH_TIMEOUT = 60;
+	/** The default most files that a commit may add or delete for them to be compared when detecting renames. */
+	public static final int DEFAULT_RENAME_LIMIT = 200;
+	/** The default most files listed for a single commit. */
+	public static final int DEFAULT_MAX_COMMIT_FILES = 1000;
 	
 	private String uri;
 	private File privateKeyPath;
+	/** Read by the polling threads while the repository may be being edited. */
+	private volatile int minPollInterval = DEFAULT_MIN_POLL_INTERVAL;
+	private volatile int maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+	private boolean direct;
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout = DEFAULT_READ_TIMEOUT;
+	private int fetchTimeout = DEFAULT_FETCH_TIMEOUT;
+	private BranchFilter branchFilter = BranchFilter.ALL;
+	private List<String> paths = Collections.emptyList();
+	private int renameLimit = DEFAULT_RENAME_LIMIT;
+	private int maxCommitFiles = DEFAULT_MAX_COMMIT_FILES;
 	
 	public GitRepository(final Object id) {
 		super(id);
@@ -63,6 +108,219 @@ public final class GitRepository extends AbstractRepository {
 		this.privateKeyPath = new File(privateKeyPath);
 	}
 	
+	/**
+	 * Gets whether the repository is indexed in place. A direct repository must be on the local file system; it is 
+	 * read directly rather than being cloned and fetched.
+	 * 
+	 * @return true if the repository is indexed in place
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+	
+	/**
+	 * Sets whether the repository is indexed in place rather than from a clone.
+	 * 
+	 * @param direct true to index in place
+	 */
+	public void setDirect(final boolean direct) {
+		this.direct = direct;
+	}
+	
+	/**
+	 * Gets the shortest time to wait between polls of the repository for changes. Polling happens at this rate while 
+	 * the repository is changing.
+	 * 
+	 * @return the minimum poll interval in minutes
+	 */
+	public int getMinPollInterval() {
+		return minPollInterval;
+	}
+	
+	/**
+	 * Sets the shortest time to wait between polls of the repository for changes.
+	 * 
+	 * @param minPollInterval the minimum poll interval in minutes. Must be at least 1
+	 */
+	public void setMinPollInterval(final int minPollInterval) {
+		Validate.isTrue(minPollInterval > 0, "minPollInterval must be at least 1");
+		
+		this.minPollInterval = minPollInterval;
+	}
+	
+	/**
+	 * Gets the longest time to wait between polls of the repository for changes. Polling backs off to this rate 
+	 * while the repository is idle.
+	 * 
+	 * @return the maximum poll interval in minutes
+	 */
+	public int getMaxPollInterval() {
+		return maxPollInterval;
+	}
+	
+	/**
+	 * Sets the longest time to wait between polls of the repository for changes.
+	 * 
+	 * @param maxPollInterval the maximum poll interval in minutes. Must be at least 1
+	 */
+	public void setMaxPollInterval(final int maxPollInterval) {
+		Validate.isTrue(maxPollInterval > 0, "maxPollInterval must be at least 1");
+		
+		this.maxPollInterval = maxPollInterval;
+	}
+	
+	/**
+	 * Gets the time to wait for a connection to the remote repository to be established.
+	 * 
+	 * @return the connect timeout in seconds
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+	
+	/**
+	 * Sets the time to wait for a connection to the remote repository to be established.
+	 * 
+	 * @param connectTimeout the connect timeout in seconds. Must be at least 1
+	 */
+	public void setConnectTimeout(final int connectTimeout) {
+		Validate.isTrue(connectTimeout > 0, "connectTimeout must be at least 1");
+		
+		this.connectTimeout = connectTimeout;
+	}
+	
+	/**
+	 * Gets the time to wait for the remote repository to send anything before giving up on it.
+	 * 
+	 * @return the read timeout in seconds
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	/**
+	 * Sets the time to wait for the remote repository to send anything before giving up on it.
+	 * 
+	 * @param readTimeout the read timeout in seconds. Must be at least 1
+	 */
+	public void setReadTimeout(final int readTimeout) {
+		Validate.isTrue(readTimeout > 0, "readTimeout must be at least 1");
+		
+		this.readTimeout = readTimeout;
+	}
+	
+	/**
+	 * Gets the longest time that a single fetch from the remote repository may take, even while data is still 
+	 * arriving. This doesn't apply to the initial clone, which may legitimately take much longer.
+	 * 
+	 * @return the fetch timeout in minutes
+	 */
+	public int getFetchTimeout() {
+		return fetchTimeout;
+	}
+	
+	/**
+	 * Sets the longest time that a single fetch from the remote repository may take.
+	 * 
+	 * @param fetchTimeout the fetch timeout in minutes. Must be at least 1
+	 */
+	public void setFetchTimeout(final int fetchTimeout) {
+		Validate.isTrue(fetchTimeout > 0, "fetchTimeout must be at least 1");
+		
+		this.fetchTimeout = fetchTimeout;
+	}
+	
+	/**
+	 * Gets the rules deciding which branches of the repository are indexed.
+	 * 
+	 * @return the branch filter. Never {@code null}
+	 */
+	public BranchFilter getBranchFilter() {
+		return branchFilter;
+	}
+	
+	/**
+	 * Sets the rules deciding which branches of the repository are indexed.
+	 * 
+	 * @param includes the branches to include. May be {@code null} or blank to include all branches
+	 * @param excludes the branches to exclude. May be {@code null} or blank to exclude none
+	 * @throws IllegalArgumentException if a rule is invalid
+	 * @see BranchFilter
+	 */
+	public void setBranchFilter(final String includes, final String excludes) {
+		this.branchFilter = new BranchFilter(includes, excludes);
+	}
+	
+	/**
+	 * Gets the paths within the repository that are indexed. Only commits changing files under one of these paths are
+	 * indexed and only the files under them are listed.
+	 * 
+	 * @return the paths, relative to the root of the repository and without leading or trailing slashes, or an empty 
+	 * list if the whole repository is indexed. Never {@code null}
+	 */
+	public List<String> getPaths() {
+		return paths;
+	}
+	
+	/**
+	 * Sets the paths within the repository that are indexed.
+	 * 
+	 * @param paths the paths separated by commas or whitespace. May be {@code null} or blank to index the whole 
+	 * repository
+	 */
+	public void setPaths(final String paths) {
+		final Set<String> normalisedPaths = new LinkedHashSet<String>();
+		for (final String path : StringUtils.split(StringUtils.defaultString(paths), PATH_SEPARATORS)) {
+			final String normalisedPath = StringUtils.strip(StringUtils.removeStart(path, "./"), "/");
+			if (!normalisedPath.isEmpty() && !".".equals(normalisedPath)) {
+				normalisedPaths.add(normalisedPath);
+			}
+		}
+		this.paths = Collections.unmodifiableList(new ArrayList<String>(normalisedPaths));
+	}
+	
+	/**
+	 * Gets the most files that a commit may add or delete for their contents to be compared when detecting renames.
+	 * Each added file is compared with each deleted one, so commits over the limit only have identical files 
+	 * detected as renamed.
+	 * 
+	 * @return the rename limit or 0 if renames are not detected
+	 */
+	public int getRenameLimit() {
+		return renameLimit;
+	}
+	
+	/**
+	 * Sets the most files that a commit may add or delete for their contents to be compared when detecting renames.
+	 * 
+	 * @param renameLimit the rename limit or 0 to not detect renames. Must not be negative
+	 */
+	public void setRenameLimit(final int renameLimit) {
+		Validate.isTrue(renameLimit >= 0, "renameLimit must not be negative");
+		
+		this.renameLimit = renameLimit;
+	}
+	
+	/**
+	 * Gets the most files listed for a single commit. Any others changed by the commit are only counted.
+	 * 
+	 * @return the maximum number of files per commit
+	 */
+	public int getMaxCommitFiles() {
+		return maxCommitFiles;
+	}
+	
+	/**
+	 * Sets the most files listed for a single commit.
+	 * 
+	 * @param maxCommitFiles the maximum number of files per commit. Must be at least 1
+	 */
+	public void setMaxCommitFiles(final int maxCommitFiles) {
+		Validate.isTrue(maxCommitFiles > 0, "maxCommitFiles must be at least 1");
+		
+		this.maxCommitFiles = maxCommitFiles;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -74,6 +332,20 @@ public final class GitRepository extends AbstractRepository {
 		this.uri = properties.getProperty(PROPERTY_URI);
 		this.privateKeyPath = "".equals(properties.getProperty(PROPERTY_PRIVATE_KEY_PATH)) ? null :
 			new File(properties.getProperty(PROPERTY_PRIVATE_KEY_PATH));
+		this.minPollInterval = NumberUtils.toInt(properties.getProperty(PROPERTY_MIN_POLL_INTERVAL), DEFAULT_MIN_POLL_INTERVAL);
+		this.maxPollInterval = Math.max(minPollInterval, 
+				NumberUtils.toInt(properties.getProperty(PROPERTY_MAX_POLL_INTERVAL), DEFAULT_MAX_POLL_INTERVAL));
+		this.direct = Boolean.valueOf(properties.getProperty(PROPERTY_DIRECT));
+		this.connectTimeout = Math.max(1, 
+				NumberUtils.toInt(properties.getProperty(PROPERTY_CONNECT_TIMEOUT), DEFAULT_CONNECT_TIMEOUT));
+		this.readTimeout = Math.max(1, NumberUtils.toInt(properties.getProperty(PROPERTY_READ_TIMEOUT), DEFAULT_READ_TIMEOUT));
+		this.fetchTimeout = Math.max(1, NumberUtils.toInt(properties.getProperty(PROPERTY_FETCH_TIMEOUT), DEFAULT_FETCH_TIMEOUT));
+		this.branchFilter = new BranchFilter(properties.getProperty(PROPERTY_BRANCH_INCLUDES), 
+				properties.getProperty(PROPERTY_BRANCH_EXCLUDES));
+		setPaths(properties.getProperty(PROPERTY_PATHS));
+		this.renameLimit = Math.max(0, NumberUtils.toInt(properties.getProperty(PROPERTY_RENAME_LIMIT), DEFAULT_RENAME_LIMIT));
+		this.maxCommitFiles = Math.max(1, 
+				NumberUtils.toInt(properties.getProperty(PROPERTY_MAX_COMMIT_FILES), DEFAULT_MAX_COMMIT_FILES));
 	}
 	
 	/**
@@ -84,5 +356,16 @@ public final class GitRepository extends AbstractRepository {
 		super.saveToProperties(properties);
 		properties.put(PROPERTY_URI, getUri());
 		properties.put(PROPERTY_PRIVATE_KEY_PATH, privateKeyPath != null ? privateKeyPath.getPath() : "");
+		properties.put(PROPERTY_MIN_POLL_INTERVAL, String.valueOf(minPollInterval));
+		properties.put(PROPERTY_MAX_POLL_INTERVAL, String.valueOf(maxPollInterval));
+		properties.put(PROPERTY_DIRECT, String.valueOf(direct));
+		properties.put(PROPERTY_CONNECT_TIMEOUT, String.valueOf(connectTimeout));
+		properties.put(PROPERTY_READ_TIMEOUT, String.valueOf(readTimeout));
+		properties.put(PROPERTY_FETCH_TIMEOUT, String.valueOf(fetchTimeout));
+		properties.put(PROPERTY_BRANCH_INCLUDES, branchFilter.getIncludes());
+		properties.put(PROPERTY_BRANCH_EXCLUDES, branchFilter.getExcludes());
+		properties.put(PROPERTY_PATHS, StringUtils.join(paths, ','));
+		properties.put(PROPERTY_RENAME_LIMIT, String.valueOf(renameLimit));
+		properties.put(PROPERTY_MAX_COMMIT_FILES, String.valueOf(maxCommitFiles));
 	}
 }
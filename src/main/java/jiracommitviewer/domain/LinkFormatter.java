@@ -1,6 +1,7 @@
 package jiracommitviewer.domain;
 
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -10,6 +11,9 @@ import org.apache.commons.lang3.Validate;
  * <p>
  * These links may be in various formats to accomodate linking to external web systems for revealing file
  * details on the commit. E.g. GitWeb, CGit etc.
+ * <p>
+ * Each format is compiled to a {@link LinkTemplate} when it is set, so links are rendered without parsing it again.
+ * Setting any format also changes the formatter's {@link #getVersion() version}.
  */
 public class LinkFormatter {
 	
@@ -20,12 +24,22 @@ public class LinkFormatter {
 	private static final String PROPERTY_DELETED_FORMAT = "deletedFormat";
 	private static final String PROPERTY_VIEW_FORMAT = "viewFormat";
 	
+	/** The last version given to any formatter, so that no two formatters share one. */
+	private static final AtomicLong lastVersion = new AtomicLong();
+	
 	private String changesetFormat;
 	private String fileAddedFormat;
 	private String fileModifiedFormat;
 	private String fileReplacedFormat;
 	private String fileDeletedFormat;
 	private String fileViewFormat;
+	private LinkTemplate changesetTemplate;
+	private LinkTemplate fileAddedTemplate;
+	private LinkTemplate fileModifiedTemplate;
+	private LinkTemplate fileReplacedTemplate;
+	private LinkTemplate fileDeletedTemplate;
+	private LinkTemplate fileViewTemplate;
+	private volatile long version = lastVersion.incrementAndGet();
 
 	/**
 	 * Gets the format for the changeset as a whole. This is a link for all files within the commit.
@@ -42,11 +56,9 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setChangesetFormat(final String changesetFormat) {
-		if (StringUtils.isBlank(changesetFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.changesetFormat = changesetFormat;
+		this.changesetFormat = StringUtils.isBlank(changesetFormat) ? null : changesetFormat;
+		this.changesetTemplate = compile(this.changesetFormat);
+		version = lastVersion.incrementAndGet();
 	}
 	
 	/**
@@ -64,11 +76,9 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setFileAddedFormat(final String fileAddedFormat) {
-		if (StringUtils.isBlank(fileAddedFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.fileAddedFormat = fileAddedFormat;
+		this.fileAddedFormat = StringUtils.isBlank(fileAddedFormat) ? null : fileAddedFormat;
+		this.fileAddedTemplate = compile(this.fileAddedFormat);
+		version = lastVersion.incrementAndGet();
 	}
 	
 	/**
@@ -86,11 +96,9 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setFileDeletedFormat(final String fileDeletedFormat) {
-		if (StringUtils.isBlank(fileDeletedFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.fileDeletedFormat = fileDeletedFormat;
+		this.fileDeletedFormat = StringUtils.isBlank(fileDeletedFormat) ? null : fileDeletedFormat;
+		this.fileDeletedTemplate = compile(this.fileDeletedFormat);
+		version = lastVersion.incrementAndGet();
 	}
 	
 	/**
@@ -108,11 +116,9 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setFileModifiedFormat(final String fileModifiedFormat) {
-		if (StringUtils.isBlank(fileModifiedFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.fileModifiedFormat = fileModifiedFormat;
+		this.fileModifiedFormat = StringUtils.isBlank(fileModifiedFormat) ? null : fileModifiedFormat;
+		this.fileModifiedTemplate = compile(this.fileModifiedFormat);
+		version = lastVersion.incrementAndGet();
 	}
 	
 	/**
@@ -130,11 +136,9 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setFileReplacedFormat(final String fileReplacedFormat) {
-		if (StringUtils.isBlank(fileReplacedFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.fileReplacedFormat = fileReplacedFormat;
+		this.fileReplacedFormat = StringUtils.isBlank(fileReplacedFormat) ? null : fileReplacedFormat;
+		this.fileReplacedTemplate = compile(this.fileReplacedFormat);
+		version = lastVersion.incrementAndGet();
 	}
 	
 	/**
@@ -152,11 +156,73 @@ public class LinkFormatter {
 	 * @param changesetFormat the format to set
 	 */
 	public void setFileViewFormat(final String fileViewFormat) {
-		if (StringUtils.isBlank(fileViewFormat)) {
-			this.changesetFormat = null;
-			return;
-		}
-		this.fileViewFormat = fileViewFormat;
+		this.fileViewFormat = StringUtils.isBlank(fileViewFormat) ? null : fileViewFormat;
+		this.fileViewTemplate = compile(this.fileViewFormat);
+		version = lastVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Gets the compiled {@link #getChangesetFormat() changeset format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getChangesetTemplate() {
+		return changesetTemplate;
+	}
+	
+	/**
+	 * Gets the compiled {@link #getFileAddedFormat() file added format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getFileAddedTemplate() {
+		return fileAddedTemplate;
+	}
+	
+	/**
+	 * Gets the compiled {@link #getFileDeletedFormat() file deleted format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getFileDeletedTemplate() {
+		return fileDeletedTemplate;
+	}
+	
+	/**
+	 * Gets the compiled {@link #getFileModifiedFormat() file modified format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getFileModifiedTemplate() {
+		return fileModifiedTemplate;
+	}
+	
+	/**
+	 * Gets the compiled {@link #getFileReplacedFormat() file replaced format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getFileReplacedTemplate() {
+		return fileReplacedTemplate;
+	}
+	
+	/**
+	 * Gets the compiled {@link #getFileViewFormat() file view format}.
+	 * 
+	 * @return the template. May be {@code null} if no format set
+	 */
+	public LinkTemplate getFileViewTemplate() {
+		return fileViewTemplate;
+	}
+	
+	/**
+	 * Gets the version of the formats. This changes whenever a format is set and differs from that of every other
+	 * formatter, so it can key anything rendered from them.
+	 * 
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
 	}
 	
 	/**
@@ -192,4 +258,14 @@ public class LinkFormatter {
 		properties.put(PROPERTY_REPLACED_FORMAT, fileReplacedFormat);
 		properties.put(PROPERTY_VIEW_FORMAT, fileViewFormat);
 	}
+	
+	/**
+	 * Compiles a format.
+	 * 
+	 * @param format the format. May be {@code null}
+	 * @return the template or {@code null} if {@code format} is {@code null}
+	 */
+	private static LinkTemplate compile(final String format) {
+		return format == null ? null : LinkTemplate.compile(format);
+	}
 }
@@ -0,0 +1,219 @@
+package jiracommitviewer.domain;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A link format of a {@link LinkFormatter} compiled into literal text and the placeholders between, so that links
+ * can be written out without searching the format for each placeholder every time. The placeholders are:
+ * <pre>
+ * ${id}
+ * ${parent}
+ * ${path}
+ * </pre>
+ * Values replacing placeholders are URL encoded and the whole link is HTML escaped.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class LinkTemplate {
+
+	private static final int PLACEHOLDER_ID = 0;
+	private static final int PLACEHOLDER_PARENT = 1;
+	private static final int PLACEHOLDER_PATH = 2;
+	private static final String[] PLACEHOLDERS = { "${id}", "${parent}", "${path}" };
+	private static final String PLACEHOLDER_START = "${";
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The HTML escaped text before each placeholder, followed by that after the last. */
+	private final String[] literals;
+	private final int[] placeholders;
+
+	private LinkTemplate(final String[] literals, final int[] placeholders) {
+		this.literals = literals;
+		this.placeholders = placeholders;
+	}
+
+	/**
+	 * Compiles a link format. Anything that is not a known placeholder is kept as literal text.
+	 *
+	 * @param format the link format. Must not be {@code null}
+	 * @return the compiled template. Never {@code null}
+	 */
+	public static LinkTemplate compile(final String format) {
+		Validate.notNull(format, "format must not be null");
+
+		final List<String> literals = new ArrayList<String>();
+		final List<Integer> placeholders = new ArrayList<Integer>();
+		int literalStart = 0;
+		int start = format.indexOf(PLACEHOLDER_START);
+		while (start != -1) {
+			final int placeholder = findPlaceholder(format, start);
+			if (placeholder == -1) {
+				start = format.indexOf(PLACEHOLDER_START, start + PLACEHOLDER_START.length());
+				continue;
+			}
+			literals.add(escapeHtml(format.substring(literalStart, start)));
+			placeholders.add(placeholder);
+			literalStart = start + PLACEHOLDERS[placeholder].length();
+			start = format.indexOf(PLACEHOLDER_START, literalStart);
+		}
+		literals.add(escapeHtml(format.substring(literalStart)));
+
+		final int[] placeholderArray = new int[placeholders.size()];
+		for (int i = 0; i < placeholderArray.length; i++) {
+			placeholderArray[i] = placeholders.get(i);
+		}
+		return new LinkTemplate(literals.toArray(new String[literals.size()]), placeholderArray);
+	}
+
+	/**
+	 * Writes an HTML anchor linking to this template's URL.
+	 *
+	 * @param out the builder to write to. Must not be {@code null}
+	 * @param id the identifier of the commit, used to replace ${id}. Ignored if {@code null}
+	 * @param parent the identifier of the parent commit, used to replace ${parent}. Ignored if {@code null}
+	 * @param path the path of the commit file, used to replace ${path}. Ignored if {@code null}
+	 * @param linkText the text of the link, which will be HTML escaped. Must not be {@code null}
+	 */
+	public void appendLink(final StringBuilder out, final String id, final String parent, final String path,
+			final String linkText) {
+		Validate.notNull(out, "out must not be null");
+		Validate.notNull(linkText, "linkText must not be null");
+
+		out.append("<a href=\"");
+		for (int i = 0; i < placeholders.length; i++) {
+			out.append(literals[i]);
+			final String value;
+			switch (placeholders[i]) {
+			case PLACEHOLDER_ID:
+				value = id;
+				break;
+			case PLACEHOLDER_PARENT:
+				value = parent;
+				break;
+			default:
+				value = path;
+			}
+			if (value == null) {
+				out.append(PLACEHOLDERS[placeholders[i]]);
+			} else {
+				appendUrlEncoded(out, value);
+			}
+		}
+		out.append(literals[placeholders.length]).append("\">");
+		appendHtml(out, linkText);
+		out.append("</a>");
+	}
+
+	/**
+	 * Writes {@code text} HTML escaped.
+	 *
+	 * @param out the builder to write to. Must not be {@code null}
+	 * @param text the text. Must not be {@code null}
+	 */
+	public static void appendHtml(final StringBuilder out, final String text) {
+		Validate.notNull(out, "out must not be null");
+		Validate.notNull(text, "text must not be null");
+
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				out.append("&amp;");
+				break;
+			case '<':
+				out.append("&lt;");
+				break;
+			case '>':
+				out.append("&gt;");
+				break;
+			case '"':
+				out.append("&quot;");
+				break;
+			case '\'':
+				out.append("&#39;");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Finds the placeholder starting at {@code start} within {@code format}.
+	 *
+	 * @param format the link format. Must not be {@code null}
+	 * @param start the index of a placeholder start
+	 * @return the placeholder or -1 if it isn't a known one
+	 */
+	private static int findPlaceholder(final String format, final int start) {
+		assert format != null : "format must not be null";
+
+		for (int i = 0; i < PLACEHOLDERS.length; i++) {
+			if (format.startsWith(PLACEHOLDERS[i], start)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets {@code text} HTML escaped.
+	 *
+	 * @param text the text. Must not be {@code null}
+	 * @return the escaped text. Never {@code null}
+	 */
+	private static String escapeHtml(final String text) {
+		assert text != null : "text must not be null";
+
+		final StringBuilder escaped = new StringBuilder(text.length());
+		appendHtml(escaped, text);
+		return escaped.toString();
+	}
+
+	/**
+	 * Writes {@code value} percent encoded as UTF-8, leaving unreserved characters and path separators as they are.
+	 * Nothing written needs HTML escaping.
+	 *
+	 * @param out the builder to write to. Must not be {@code null}
+	 * @param value the value. Must not be {@code null}
+	 */
+	private static void appendUrlEncoded(final StringBuilder out, final String value) {
+		assert out != null : "out must not be null";
+		assert value != null : "value must not be null";
+
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (isUnreserved(c)) {
+				out.append(c);
+				continue;
+			}
+			// Encode the whole run of reserved characters together so that surrogate pairs stay intact
+			int end = i + 1;
+			while (end < value.length() && !isUnreserved(value.charAt(end))) {
+				end++;
+			}
+			for (final byte b : value.substring(i, end).getBytes(UTF8)) {
+				out.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+			}
+			i = end - 1;
+		}
+	}
+
+	/**
+	 * Tests whether the character can appear in a URL path unencoded.
+	 *
+	 * @param c the character
+	 * @return true if it needn't be encoded
+	 */
+	private static boolean isUnreserved(final char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '-' || c == '.' || c == '_' || c == '~' || c == '/';
+	}
+}
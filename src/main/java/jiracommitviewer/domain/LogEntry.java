@@ -22,6 +22,8 @@ public class LogEntry<R extends AbstractRepository, K extends AbstractCommitKey<
 	private final Date date;
 	private final boolean isMerge;
 	private List<String> branches;
+	private List<R> repositories;
+	private int omittedFileCount;
 	
 	/**
 	 * Creates a new log entry.
@@ -102,6 +104,30 @@ public class LogEntry<R extends AbstractRepository, K extends AbstractCommitKey<
 		this.branches = branches;
 	}
 	
+	/**
+	 * Gets all repositories from which this commit is reachable, when it is known to be present in more than one.
+	 * 
+	 * @return the repositories, starting with {@link #getRepository()}. Never {@code null} or empty. The returned list
+	 * is unmodifiable
+	 */
+	public List<R> getRepositories() {
+		return repositories == null ? Collections.singletonList(getRepository()) : Collections.unmodifiableList(repositories);
+	}
+	
+	/**
+	 * Sets all repositories from which this commit is reachable.
+	 * 
+	 * @param repositories the repositories. May be {@code null} if only {@link #getRepository()} is known, otherwise it
+	 * must not contain any {@code null} elements
+	 */
+	public void setRepositories(final List<R> repositories) {
+		if (repositories != null) {
+			Validate.noNullElements(repositories, "repositories must not contain any null elements");
+		}
+		
+		this.repositories = repositories;
+	}
+	
 	/**
 	 * Gets the date and time when this log entry was made.
 	 * 
@@ -120,6 +146,27 @@ public class LogEntry<R extends AbstractRepository, K extends AbstractCommitKey<
 		return isMerge;
 	}
 	
+	/**
+	 * Gets the number of files changed by the commit that were left out of {@link #getCommitFiles()} because the 
+	 * commit changed too many files.
+	 * 
+	 * @return the number of files left out
+	 */
+	public int getOmittedFileCount() {
+		return omittedFileCount;
+	}
+	
+	/**
+	 * Sets the number of files changed by the commit that were left out of {@link #getCommitFiles()}.
+	 * 
+	 * @param omittedFileCount the number of files left out. Must not be negative
+	 */
+	public void setOmittedFileCount(final int omittedFileCount) {
+		Validate.isTrue(omittedFileCount >= 0, "omittedFileCount must not be negative");
+		
+		this.omittedFileCount = omittedFileCount;
+	}
+	
 	/**
 	 * Returns a sensible string representation of this log entry that's useful
 	 * for debugging.
@@ -0,0 +1,287 @@
+package jiracommitviewer.export;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jiracommitviewer.index.CommitLink;
+import jiracommitviewer.index.CommitLinkHandler;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.exception.IndexException;
+import jiracommitviewer.revisions.scheduling.DaemonThreadFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.atlassian.jira.config.util.JiraHome;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Exports every commit mentioning an issue of a set of projects to a file in JIRA's export directory, as a link
+ * between the commit and each issue that it mentions.
+ * <p>
+ * Exports run in the background, one at a time. They read only the index, in a single pass, and write each link out
+ * as soon as it is read, so that the memory used doesn't grow with the number of commits.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class CommitExporter implements DisposableBean {
+
+	/** The directory within JIRA's export directory that exports are written to. */
+	public static final String EXPORT_DIRECTORY = "gitcommitviewer";
+
+	private static final Logger logger = LoggerFactory.getLogger(CommitExporter.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC();
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Autowired
+	private GitCommitIndexer gitCommitIndexer;
+	@Autowired
+	private JiraHome jiraHome;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("export"));
+	/** The progress of the latest export. Guarded by this. */
+	private ExportProgress progress;
+
+	/**
+	 * Starts an export in the background.
+	 *
+	 * @param projectKeys the keys of the projects whose issues to export, or empty for all projects. Must not be
+	 * {@code null}
+	 * @param from the earliest date of the commits to export or {@code null} for no limit
+	 * @param to the date before which commits are exported or {@code null} for no limit
+	 * @param format the format to export in. Must not be {@code null}
+	 * @return the progress of the export. Never {@code null}
+	 * @throws IllegalStateException if an export is already running
+	 */
+	public synchronized ExportProgress start(final Collection<String> projectKeys, final Date from, final Date to,
+			final ExportFormat format) {
+		Validate.notNull(projectKeys, "projectKeys must not be null");
+		Validate.notNull(format, "format must not be null");
+		if (progress != null && progress.isRunning()) {
+			throw new IllegalStateException("An export is already running");
+		}
+
+		final File file = new File(new File(jiraHome.getExportDirectory(), EXPORT_DIRECTORY), "commits-"
+				+ new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "." + format.getExtension());
+		final ExportProgress exportProgress = new ExportProgress(file);
+		final Collection<String> exportedProjectKeys = new ArrayList<String>(projectKeys);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				export(exportedProjectKeys, from, to, format, exportProgress);
+			}
+		});
+		progress = exportProgress;
+		return exportProgress;
+	}
+
+	/**
+	 * Gets the progress of the latest export.
+	 *
+	 * @return the progress or {@code null} if nothing has been exported since JIRA started
+	 */
+	public synchronized ExportProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Runs an export. The links are written to a temporary file that is renamed once they are all written.
+	 *
+	 * @param projectKeys the keys of the projects whose issues to export, or empty for all projects. Must not be
+	 * {@code null}
+	 * @param from the earliest date of the commits to export or {@code null} for no limit
+	 * @param to the date before which commits are exported or {@code null} for no limit
+	 * @param format the format to export in. Must not be {@code null}
+	 * @param progress the progress of the export, which is updated as it runs. Must not be {@code null}
+	 */
+	private void export(final Collection<String> projectKeys, final Date from, final Date to, final ExportFormat format,
+			final ExportProgress progress) {
+		assert projectKeys != null : "projectKeys must not be null";
+		assert format != null : "format must not be null";
+		assert progress != null : "progress must not be null";
+
+		final File file = progress.getFile();
+		final File partFile = new File(file.getParentFile(), file.getName() + ".part");
+		try {
+			if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+				throw new IOException("Could not create directory: " + file.getParentFile());
+			}
+
+			final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partFile), UTF8), BUFFER_SIZE);
+			try {
+				final LinkWriter linkWriter = format == ExportFormat.CSV ? new CsvLinkWriter(out) : new JsonLinkWriter(out);
+				gitCommitIndexer.exportCommitLinks(projectKeys, from, to, new CommitLinkHandler() {
+					/** The links of a commit are handed over together. */
+					private String lastCommitHash;
+
+					@Override
+					public void handle(final CommitLink link) throws IOException {
+						linkWriter.write(link);
+						progress.linkWritten(!link.getCommitHash().equals(lastCommitHash));
+						lastCommitHash = link.getCommitHash();
+					}
+				});
+			} finally {
+				out.close();
+			}
+			if (!partFile.renameTo(file)) {
+				throw new IOException("Could not rename " + partFile + " to " + file);
+			}
+			progress.finished();
+			logger.info("Exported " + progress.getLinkCount() + " commit links to " + file);
+		} catch (final IndexException ie) {
+			logger.error("Could not export commit links to " + file, ie);
+			progress.failed(String.valueOf(ie.getMessage()));
+			partFile.delete();
+		} catch (final IOException ioe) {
+			logger.error("Could not export commit links to " + file, ioe);
+			progress.failed(String.valueOf(ioe.getMessage()));
+			partFile.delete();
+		} catch (final RuntimeException re) {
+			logger.error("Could not export commit links to " + file, re);
+			progress.failed(String.valueOf(re.getMessage()));
+			partFile.delete();
+		}
+	}
+
+	/**
+	 * Writes commit links in an export format.
+	 */
+	private interface LinkWriter {
+
+		/**
+		 * Writes a link.
+		 *
+		 * @param link the link. Must not be {@code null}
+		 * @throws IOException if the link could not be written
+		 */
+		void write(CommitLink link) throws IOException;
+	}
+
+	/**
+	 * Writes commit links as comma separated values, quoting values where needed.
+	 */
+	private static final class CsvLinkWriter implements LinkWriter {
+
+		private final Writer out;
+
+		/**
+		 * Creates a new writer and writes the header row.
+		 *
+		 * @param out the writer to write to. Must not be {@code null}
+		 * @throws IOException if the header could not be written
+		 */
+		CsvLinkWriter(final Writer out) throws IOException {
+			assert out != null : "out must not be null";
+
+			this.out = out;
+			out.write("issue,commit,date,author,repositories,message\r\n");
+		}
+
+		@Override
+		public void write(final CommitLink link) throws IOException {
+			writeValue(link.getIssueKey());
+			out.write(',');
+			writeValue(link.getCommitHash());
+			out.write(',');
+			writeValue(link.getDate() == null ? "" : DATE_FORMAT.print(link.getDate().getTime()));
+			out.write(',');
+			writeValue(StringUtils.defaultString(link.getAuthorName()));
+			out.write(',');
+			writeValue(StringUtils.join(link.getRepositories(), "; "));
+			out.write(',');
+			writeValue(link.getMessage());
+			out.write("\r\n");
+		}
+
+		/**
+		 * Writes a value, quoting it if it holds a separator, quote or line break.
+		 *
+		 * @param value the value. Must not be {@code null}
+		 * @throws IOException if the value could not be written
+		 */
+		private void writeValue(final String value) throws IOException {
+			assert value != null : "value must not be null";
+
+			if (StringUtils.containsNone(value, ",\"\r\n")) {
+				out.write(value);
+				return;
+			}
+			out.write('"');
+			out.write(StringUtils.replace(value, "\"", "\"\""));
+			out.write('"');
+		}
+	}
+
+	/**
+	 * Writes commit links as a JSON object on each line.
+	 */
+	private static final class JsonLinkWriter implements LinkWriter {
+
+		private final Writer out;
+		private final JsonWriter writer;
+
+		/**
+		 * Creates a new writer.
+		 *
+		 * @param out the writer to write to. Must not be {@code null}
+		 */
+		JsonLinkWriter(final Writer out) {
+			assert out != null : "out must not be null";
+
+			this.out = out;
+			this.writer = new JsonWriter(out);
+			// Each line is a separate top level value
+			writer.setLenient(true);
+		}
+
+		@Override
+		public void write(final CommitLink link) throws IOException {
+			writer.beginObject();
+			writer.name("issue").value(link.getIssueKey());
+			writer.name("commit").value(link.getCommitHash());
+			if (link.getDate() != null) {
+				writer.name("date").value(DATE_FORMAT.print(link.getDate().getTime()));
+			}
+			if (link.getAuthorName() != null) {
+				writer.name("author").value(link.getAuthorName());
+			}
+			writer.name("repositories").beginArray();
+			for (final String repository : link.getRepositories()) {
+				writer.value(repository);
+			}
+			writer.endArray();
+			writer.name("message").value(link.getMessage());
+			writer.endObject();
+			out.write('\n');
+		}
+	}
+}
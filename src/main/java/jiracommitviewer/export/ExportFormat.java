@@ -0,0 +1,29 @@
+package jiracommitviewer.export;
+
+/**
+ * The formats that commit links can be exported in.
+ *
+ * @author mark
+ */
+public enum ExportFormat {
+
+	/** Comma separated values with a header row. */
+	CSV("csv"),
+	/** A JSON object on each line. */
+	NDJSON("ndjson");
+
+	private final String extension;
+
+	private ExportFormat(final String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * Gets the extension of files in this format.
+	 *
+	 * @return the extension, without a dot. Never {@code null}
+	 */
+	public String getExtension() {
+		return extension;
+	}
+}
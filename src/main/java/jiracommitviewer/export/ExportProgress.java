@@ -0,0 +1,122 @@
+package jiracommitviewer.export;
+
+import java.io.File;
+
+/**
+ * The progress of an export of commit links, for display on the administration pages.
+ * <p>
+ * Updated only by the thread running the export. Thread safe.
+ *
+ * @author mark
+ */
+public class ExportProgress {
+
+	/**
+	 * The states of an export.
+	 */
+	public enum State {
+		RUNNING, FINISHED, FAILED
+	}
+
+	private final File file;
+	private final long startTime = System.currentTimeMillis();
+	private volatile State state = State.RUNNING;
+	private volatile long commitCount;
+	private volatile long linkCount;
+	private volatile long endTime;
+	private volatile String error;
+
+	/**
+	 * @param file the file being exported to. Must not be {@code null}
+	 */
+	ExportProgress(final File file) {
+		assert file != null : "file must not be null";
+
+		this.file = file;
+	}
+
+	/**
+	 * Records a commit link written.
+	 *
+	 * @param newCommit true if the link is the first of its commit
+	 */
+	void linkWritten(final boolean newCommit) {
+		if (newCommit) {
+			commitCount++;
+		}
+		linkCount++;
+	}
+
+	/**
+	 * Records that the export has finished.
+	 */
+	void finished() {
+		endTime = System.currentTimeMillis();
+		state = State.FINISHED;
+	}
+
+	/**
+	 * Records that the export has failed.
+	 *
+	 * @param error the reason for the failure. Must not be {@code null}
+	 */
+	void failed(final String error) {
+		assert error != null : "error must not be null";
+
+		this.error = error;
+		endTime = System.currentTimeMillis();
+		state = State.FAILED;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public boolean isRunning() {
+		return state == State.RUNNING;
+	}
+
+	/**
+	 * Gets the number of commits written so far.
+	 *
+	 * @return the number of commits
+	 */
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * Gets the number of commit links written so far. A commit has a link to each issue that it mentions.
+	 *
+	 * @return the number of links
+	 */
+	public long getLinkCount() {
+		return linkCount;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Gets when the export ended.
+	 *
+	 * @return the time in milliseconds or 0 if it is still running
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Gets the reason that the export failed.
+	 *
+	 * @return the reason or {@code null} if it hasn't failed
+	 */
+	public String getError() {
+		return error;
+	}
+}
@@ -37,6 +37,12 @@ public interface CommitIndexer<R extends AbstractRepository, K extends AbstractC
     public static final String FIELD_PROJECTKEY = "project";
     public static final String FIELD_REPOSITORY = "repository";
     public static final String FIELD_BRANCHMAP = "branchmap";
+    /** Holds the commit key on documents associating a commit with a repository and its branches. */
+    public static final String FIELD_MEMBER = "member";
+    /** Holds each path that a repository was indexed with on its branch map document. */
+    public static final String FIELD_PATH = "path";
+    /** Holds the index format version on the single document that records it. */
+    public static final String FIELD_FORMAT = "format";
 
     public static final Analyzer ANALYZER = new LimitTokenCountAnalyzer(new StandardAnalyzer(org.apache.lucene.util.Version.LUCENE_30), 10000);
 
@@ -52,12 +58,34 @@ public interface CommitIndexer<R extends AbstractRepository, K extends AbstractC
 	
 	/**
 	 * Indexes the clone the specified {@code repository}.
+	 * <p>
+	 * This is equivalent to calling {@link #fetch(AbstractRepository)} followed by {@link #updateIndex(AbstractRepository)}.
 	 * 
 	 * @param repository the repository to index. Must not be {@code null}
 	 * @throws RepositoryException if a problem occurs
 	 */
 	void index(R repository) throws IndexException, RepositoryException;
 	
+	/**
+	 * Brings the local copy of the specified {@code repository} up to date with its source, cloning it first if
+	 * necessary. The index itself is not touched.
+	 * 
+	 * @param repository the repository to fetch. Must not be {@code null}
+	 * @return true if new commits may have been received and the repository should be indexed
+	 * @throws RepositoryException if a problem occurs while cloning or fetching
+	 */
+	boolean fetch(R repository) throws RepositoryException;
+	
+	/**
+	 * Indexes whatever is currently held in the local copy of the specified {@code repository} without contacting 
+	 * its source.
+	 * 
+	 * @param repository the repository to index. It must have already been fetched. Must not be {@code null}
+	 * @throws IndexException if there is some problem in the indexing subsystem
+	 * @throws RepositoryException if a problem occurs while reading the repository
+	 */
+	void updateIndex(R repository) throws IndexException, RepositoryException;
+	
 	/**
      * Gets the path at which indexes are stored for all repositories
      * 
@@ -79,6 +107,24 @@ public interface CommitIndexer<R extends AbstractRepository, K extends AbstractC
 	 */
 	List<LogEntry<R, K>> getAllLogEntriesByIssue(Issue issue, int pageNumber, int pageSize, boolean ascending) throws IndexException;
 	
+	/**
+	 * Gets all log entries for the specified {@code issue}, optionally collapsing a commit that is reachable from
+	 * several repositories in to a single entry.
+	 * <p>
+	 * Only log entries for the specified repository type are returned.
+	 * 
+	 * @param issue the issue to get log entries for. Must not be {@code null}
+	 * @param pageNumber the page of results to get. The first page is 0
+	 * @param pageSize the number of results that are in a page
+	 * @param ascending true to return entries in ascending order, false for descending
+	 * @param collapse true to return one entry per commit, listing all of its {@link LogEntry#getRepositories() 
+	 * repositories}; false to return one entry per commit and repository
+	 * @return the log entries sorted by date. Never {@code null}
+	 * @throws IndexException if there is a problem reading the index
+	 */
+	List<LogEntry<R, K>> getAllLogEntriesByIssue(Issue issue, int pageNumber, int pageSize, boolean ascending, boolean collapse) 
+			throws IndexException;
+	
 	/**
 	 * Gets all log entries for the specified {@code project}.
 	 * <p>
@@ -116,4 +162,65 @@ public interface CommitIndexer<R extends AbstractRepository, K extends AbstractC
 	 */
 	List<LogEntry<R, K>> getAllLogEntriesByVersion(Version version, User user, int pageNumber, int pageSize, boolean ascending) 
 			throws IndexException;
+	
+	/**
+	 * Gets a page of the log entries for the specified {@code issue}, newest first and with one entry per commit.
+	 * <p>
+	 * Unlike {@link #getAllLogEntriesByIssue(Issue, int, int, boolean)}, pages are found from the cursor of the 
+	 * previous page rather than by their number, so that any page costs the same to read.
+	 * 
+	 * @param issue the issue to get log entries for. Must not be {@code null}
+	 * @param after the cursor of the page to get, or {@code null} for the first page
+	 * @param pageSize the most log entries in the page. Must be between 1 and {@link #MAX_COMMITS}
+	 * @param includeFiles true to include the changed files of each commit; false to leave them empty
+	 * @return the page. Never {@code null}
+	 * @throws IndexException if there is a problem reading the index
+	 */
+	LogEntryPage<R, K> getLogEntryPageByIssue(Issue issue, LogEntryCursor after, int pageSize, boolean includeFiles) 
+			throws IndexException;
+	
+	/**
+	 * Gets a page of the log entries for the specified {@code project} whose issues the requesting {@code user} has
+	 * permission to view, newest first and with one entry per commit.
+	 * 
+	 * @param projectKey the identifier for the project to get log entries for. Must not be {@code null}
+	 * @param user the requesting user. Must not be {@code null}
+	 * @param after the cursor of the page to get, or {@code null} for the first page
+	 * @param pageSize the most log entries in the page. Must be between 1 and {@link #MAX_COMMITS}
+	 * @param includeFiles true to include the changed files of each commit; false to leave them empty
+	 * @return the page. Never {@code null}
+	 * @throws IndexException if there is a problem reading the index
+	 */
+	LogEntryPage<R, K> getLogEntryPageByProject(String projectKey, User user, LogEntryCursor after, int pageSize, 
+			boolean includeFiles) throws IndexException;
+	
+	/**
+	 * Gets a page of the log entries for the specified {@code version} whose issues the requesting {@code user} has
+	 * permission to view, newest first and with one entry per commit.
+	 * 
+	 * @param version the version to get the log entries for. Must not be {@code null}
+	 * @param user the requesting user. Must not be {@code null}
+	 * @param after the cursor of the page to get, or {@code null} for the first page
+	 * @param pageSize the most log entries in the page. Must be between 1 and {@link #MAX_COMMITS}
+	 * @param includeFiles true to include the changed files of each commit; false to leave them empty
+	 * @return the page. Never {@code null}
+	 * @throws IndexException if there is a problem reading the index
+	 */
+	LogEntryPage<R, K> getLogEntryPageByVersion(Version version, User user, LogEntryCursor after, int pageSize, 
+			boolean includeFiles) throws IndexException;
+	
+	/**
+	 * Gets a page of the log entries reachable from the specified {@code repository} whose issues the requesting 
+	 * {@code user} has permission to view, newest first and with one entry per commit.
+	 * 
+	 * @param repository the repository to get the log entries for. Must not be {@code null}
+	 * @param user the requesting user. Must not be {@code null}
+	 * @param after the cursor of the page to get, or {@code null} for the first page
+	 * @param pageSize the most log entries in the page. Must be between 1 and {@link #MAX_COMMITS}
+	 * @param includeFiles true to include the changed files of each commit; false to leave them empty
+	 * @return the page. Never {@code null}
+	 * @throws IndexException if there is a problem reading the index
+	 */
+	LogEntryPage<R, K> getLogEntryPageByRepository(R repository, User user, LogEntryCursor after, int pageSize, 
+			boolean includeFiles) throws IndexException;
 }
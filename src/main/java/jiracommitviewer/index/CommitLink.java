@@ -0,0 +1,85 @@
+package jiracommitviewer.index;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A commit mentioning an issue, as read from the stored fields of the index.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class CommitLink {
+
+	private final String issueKey;
+	private final String commitHash;
+	private final Date date;
+	private final String authorName;
+	private final String message;
+	private final List<String> repositories;
+
+	/**
+	 * Creates a new link.
+	 *
+	 * @param issueKey the key of the issue. Must not be {@code null}
+	 * @param commitHash the hash of the commit. Must not be {@code null}
+	 * @param date the date of the commit or {@code null} if it isn't known
+	 * @param authorName the name of the commit's author or {@code null} if it isn't known
+	 * @param message the commit message. Must not be {@code null}
+	 * @param repositories the names of the repositories holding the commit. Must not be {@code null}
+	 */
+	CommitLink(final String issueKey, final String commitHash, final Date date, final String authorName,
+			final String message, final List<String> repositories) {
+		assert issueKey != null : "issueKey must not be null";
+		assert commitHash != null : "commitHash must not be null";
+		assert message != null : "message must not be null";
+		assert repositories != null : "repositories must not be null";
+
+		this.issueKey = issueKey;
+		this.commitHash = commitHash;
+		this.date = date;
+		this.authorName = authorName;
+		this.message = message;
+		this.repositories = repositories;
+	}
+
+	public String getIssueKey() {
+		return issueKey;
+	}
+
+	public String getCommitHash() {
+		return commitHash;
+	}
+
+	/**
+	 * Gets the date of the commit.
+	 *
+	 * @return the date or {@code null} if it isn't known
+	 */
+	public Date getDate() {
+		return date == null ? null : new Date(date.getTime());
+	}
+
+	/**
+	 * Gets the name of the commit's author.
+	 *
+	 * @return the name or {@code null} if it isn't known
+	 */
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the names of the repositories holding the commit.
+	 *
+	 * @return the names. Never {@code null}
+	 */
+	public List<String> getRepositories() {
+		return repositories;
+	}
+}
@@ -0,0 +1,19 @@
+package jiracommitviewer.index;
+
+import java.io.IOException;
+
+/**
+ * Receives the commit links read by an {@link GitCommitIndexer#exportCommitLinks export}, one at a time.
+ *
+ * @author mark
+ */
+public interface CommitLinkHandler {
+
+	/**
+	 * Handles a link.
+	 *
+	 * @param link the link. Must not be {@code null}
+	 * @throws IOException if the link could not be handled, which ends the export
+	 */
+	void handle(CommitLink link) throws IOException;
+}
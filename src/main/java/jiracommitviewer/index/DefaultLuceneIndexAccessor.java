@@ -50,6 +50,24 @@ class DefaultLuceneIndexAccessor implements LuceneIndexAccessor {
         }
     }
 
+    public long getIndexVersion(String path) throws IOException {
+        final Directory directory = getDirectory(path);
+        try {
+            return IndexReader.getCurrentVersion(directory);
+        } finally {
+            directory.close();
+        }
+    }
+
+    public long getIndexLastModified(String path) throws IOException {
+        final Directory directory = getDirectory(path);
+        try {
+            return IndexReader.lastModified(directory);
+        } finally {
+            directory.close();
+        }
+    }
+
     /**
      * Create a directory (robustly) or throw appropriate Exception
      *
@@ -0,0 +1,72 @@
+package jiracommitviewer.index;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about the removal of commits that are no longer reachable from any branch of their repository, for
+ * display on the administration pages.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class GarbageCollectionStats {
+
+	private final AtomicLong runCount = new AtomicLong();
+	private final AtomicLong checkedCount = new AtomicLong();
+	private final AtomicLong removedCount = new AtomicLong();
+	private final AtomicLong totalRunMillis = new AtomicLong();
+	private final AtomicLong lastRunMillis = new AtomicLong();
+	private final AtomicLong lastRunTime = new AtomicLong();
+
+	/**
+	 * Records a completed collection.
+	 *
+	 * @param checked the number of commits whose reachability was checked
+	 * @param removed the number of commits removed from the repository
+	 * @param runMillis the time the collection took in milliseconds
+	 */
+	void collected(final int checked, final int removed, final long runMillis) {
+		runCount.incrementAndGet();
+		checkedCount.addAndGet(checked);
+		removedCount.addAndGet(removed);
+		totalRunMillis.addAndGet(runMillis);
+		lastRunMillis.set(runMillis);
+		lastRunTime.set(System.currentTimeMillis());
+	}
+
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	public long getCheckedCount() {
+		return checkedCount.get();
+	}
+
+	public long getRemovedCount() {
+		return removedCount.get();
+	}
+
+	/**
+	 * Gets the mean time collections took.
+	 *
+	 * @return the average run time in milliseconds
+	 */
+	public long getAverageRunMillis() {
+		final long runs = runCount.get();
+		return runs == 0 ? 0 : totalRunMillis.get() / runs;
+	}
+
+	public long getLastRunMillis() {
+		return lastRunMillis.get();
+	}
+
+	/**
+	 * Gets when the most recent collection finished.
+	 *
+	 * @return the time in milliseconds or 0 if there hasn't been one
+	 */
+	public long getLastRunTime() {
+		return lastRunTime.get();
+	}
+}
@@ -2,15 +2,27 @@ package jiracommitviewer.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.AbstractRepository;
@@ -21,6 +33,7 @@ import jiracommitviewer.index.exception.IndexException;
 import jiracommitviewer.repository.exception.RepositoryException;
 import jiracommitviewer.repository.service.GitRepositoryService;
 import jiracommitviewer.repository.service.LogEntryEnumerator;
+import jiracommitviewer.revisions.scheduling.DaemonThreadFactory;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -28,20 +41,30 @@ import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.DateTools.Resolution;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
+import org.joda.time.DateTimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.atlassian.crowd.embedded.api.User;
@@ -61,7 +84,7 @@ import com.opensymphony.util.TextUtils;
  * 
  * @author mark
  */
-public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitKey> {
+public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitKey>, DisposableBean {
 
 	private final static Logger logger = LoggerFactory.getLogger(GitCommitIndexer.class);
 	
@@ -80,7 +103,42 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     @Autowired
     private IndexPathManager indexPathManager;
     
+    /** The version of the index layout. An index in any other format is rebuilt. */
+    private static final String INDEX_FORMAT = "2";
+    /** The longest time between checks of a repository for commits that are no longer reachable. */
+    private static final long GC_INTERVAL_MILLIS = DateTimeConstants.MILLIS_PER_DAY;
+    /** The number of unreachable commits removed from the index at a time. */
+    private static final int GC_BATCH_SIZE = 1000;
+    /** The number of repositories whose commits may be read at once for a page of results. */
+    private static final int READ_THREADS = 4;
+    /** The number of hits collected beyond a page, to fill the places of commits that can't be read. */
+    private static final int PAGE_SLACK = 20;
+    /** Loads only the commit key of a membership document. */
+    private static final FieldSelector MEMBER_FIELD_SELECTOR = new MapFieldSelector(new String[] { FIELD_MEMBER });
+    /** Loads the fields of a commit document that are exported. */
+    private static final FieldSelector EXPORT_FIELD_SELECTOR = new MapFieldSelector(new String[] { FIELD_COMMITKEY, 
+    		FIELD_DATE, FIELD_AUTHOR, FIELD_MESSAGE, FIELD_ISSUEKEY });
+    /** Loads only the issue keys of a commit document. */
+    private static final FieldSelector ISSUEKEY_FIELD_SELECTOR = new MapFieldSelector(new String[] { FIELD_ISSUEKEY });
+    
     private LuceneIndexAccessor indexAccessor;
+    /** Whether the format of the existing index has been checked since start up. */
+    private boolean formatChecked;
+    
+    /** The ref state of each repository's source as of its last successful fetch, keyed by repository identifier. */
+    private final ConcurrentMap<Object, String> fetchedRefStates = new ConcurrentHashMap<Object, String>();
+    /** The fetched ref state of each repository as of its last successful index update. */
+    private final ConcurrentMap<Object, String> indexedRefStates = new ConcurrentHashMap<Object, String>();
+    /** When each repository was last checked for unreachable commits, keyed by repository identifier. */
+    private final ConcurrentMap<Object, Long> collectedTimes = new ConcurrentHashMap<Object, Long>();
+    private final GarbageCollectionStats garbageCollectionStats = new GarbageCollectionStats();
+    /** Commits found to be missing from their repositories when reading results. */
+    private final MissingCommitCache missingCommits = new MissingCommitCache();
+    private volatile MissingCommitListener missingCommitListener;
+    /** The commits of each issue key, loaded from the index when first needed and kept up to date as it changes. */
+    private final IssueCommitTable issueCommits = new IssueCommitTable();
+    /** Reads the commits of a page of results that spans several repositories. */
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS, new DaemonThreadFactory("read"));
 
     public GitCommitIndexer() {
     	indexAccessor = new DefaultLuceneIndexAccessor();
@@ -97,10 +155,72 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     public void index(final GitRepository repository) throws IndexException, RepositoryException {
     	Validate.notNull(repository, "repository must not be null");
     	
-    	gitRepositoryService.cloneRepository(repository);
-    	gitRepositoryService.fetch(repository);
+    	fetch(repository);
+    	updateIndex(repository);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean fetch(final GitRepository repository) throws RepositoryException {
+    	Validate.notNull(repository, "repository must not be null");
+    	
+    	final boolean cloned = gitRepositoryService.isCloned(repository);
+    	
+    	// Compare what the source advertises against what we last fetched. If nothing has changed there is
+    	// no need to fetch
+    	final String refState = gitRepositoryService.getRefState(repository);
+    	if (cloned && refState != null && refState.equals(fetchedRefStates.get(repository.getId()))) {
+    		logger.debug("No ref changes for repository: " + repository.getId());
+    		return false;
+    	}
+    	
+    	// A new clone has already fetched everything, so it isn't fetched again
+    	final boolean changed = gitRepositoryService.cloneRepository(repository) || gitRepositoryService.fetch(repository) 
+    			|| !cloned;
+    	if (refState != null) {
+    		fetchedRefStates.put(repository.getId(), refState);
+    	} else {
+    		fetchedRefStates.remove(repository.getId());
+    	}
+    	return changed;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateIndex(final GitRepository repository) throws IndexException, RepositoryException {
+    	Validate.notNull(repository, "repository must not be null");
+    	
     	createIndexIfNeeded();
+    	removeMissingCommits(repository);
+    	
+    	// Skip walking and reading the index when the clone hasn't changed since it was last indexed
+    	final String refState = fetchedRefStates.get(repository.getId());
+    	if (refState != null && refState.equals(indexedRefStates.get(repository.getId()))) {
+    		return;
+    	}
+    	
     	updateIndex(repository, false);
+    	if (refState != null) {
+    		indexedRefStates.put(repository.getId(), refState);
+    	}
+    }
+    
+    /**
+     * Tests whether the index is up to date with the {@code repository}'s clone as last fetched, so that indexing it
+     * again would find nothing new. A repository that hasn't been indexed since start up is never current.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @return true if the index is current
+     */
+    public boolean isIndexCurrent(final GitRepository repository) {
+    	Validate.notNull(repository, "repository must not be null");
+    	
+    	final String refState = fetchedRefStates.get(repository.getId());
+    	return refState != null && refState.equals(indexedRefStates.get(repository.getId()));
     }
     
     /**
@@ -117,6 +237,15 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     @Override
     public List<LogEntry<GitRepository, GitCommitKey>> getAllLogEntriesByIssue(final Issue issue, final int pageNumber, 
     		final int pageSize, final boolean ascending) throws IndexException {
+    	return getAllLogEntriesByIssue(issue, pageNumber, pageSize, ascending, false);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<LogEntry<GitRepository, GitCommitKey>> getAllLogEntriesByIssue(final Issue issue, final int pageNumber, 
+    		final int pageSize, final boolean ascending, final boolean collapse) throws IndexException {
     	Validate.notNull(issue, "issue must not be null");
     	Validate.isTrue(pageNumber >= 0, "pageNumber must be >= 0");
     	Validate.isTrue(pageSize >= 0, "pageSize must be >= 0");
@@ -135,43 +264,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
 	        try {
 	            final TopDocs hits = searcher.search(createQueryByIssueKey(issue), MAX_COMMITS, 
 	            		new Sort(new SortField(FIELD_DATE, SortField.LONG, !ascending)));
-	            final List<LogEntry<GitRepository, GitCommitKey>> logEntries = 
-	            		new ArrayList<LogEntry<GitRepository, GitCommitKey>>(hits.totalHits);
-	
-	            for (int i = 0; i < Math.min(hits.totalHits, MAX_COMMITS); i++) {
-	            	// Skip results until we arrive at our page
-	            	if (i < pageNumber * pageSize) {
-	            		continue;
-	            	}
-	            	// Page now filled so break out
-	            	if (i >= pageNumber * pageSize + pageSize) {
-	            		break;
-	            	}
-	            	
-	                final Document doc = searcher.doc(hits.scoreDocs[i].doc);
-	                final String repositoryId = doc.get(FIELD_REPOSITORY);
-	                final AbstractRepository repository = repositoryManager.getRepository(
-	                		repositoryManager.parseRepositoryId(repositoryId));
-	                
-	                // Verify that the repository is of the correct type.
-	                if (repository instanceof GitRepository) {
-	                	final GitCommitKey commitKey = GitCommitKey.unmarshal(doc.get(FIELD_COMMITKEY));
-	                	try {
-	                		final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService
-	                				.getLogEntry((GitRepository)repository, commitKey);
-	                		if (logEntry.getBranches() == null) {
-	                			logEntry.setBranches(Arrays.asList(doc.getValues(FIELD_BRANCH)));
-	                		}
-	                		logEntries.add(logEntry);
-	                	} catch (final RepositoryException re) {
-	                		// Assume that this is because the commit could not be found due to a change of history. If that's
-	                		// the case then expect this to be cleared up by the main indexing activity.
-	                		logger.warn("Could not find log message for commit: " + commitKey.marshal(), re);
-	            			continue;
-	                	}
-	                }
-	            }
-	            return logEntries;
+	            return getLogEntries(searcher, hits, pageNumber, pageSize, collapse, true);
 	        } finally {
 	            searcher.close();
 	            reader.close();
@@ -206,43 +299,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
 	        try {
 	            final TopDocs hits = searcher.search(query, new ProjectRevisionFilter(issueManager, permissionManager, user, projectKey), 
 	            		MAX_COMMITS, new Sort(new SortField(FIELD_DATE, SortField.LONG, !ascending)));
-	            final List<LogEntry<GitRepository, GitCommitKey>> logEntries = new ArrayList<LogEntry<GitRepository, GitCommitKey>>();
-	            
-	            for (int i = 0, j = Math.min(hits.totalHits, MAX_COMMITS); i < j; ++i) {
-	            	// Skip results until we arrive at our page
-	            	if (i < pageNumber * pageSize) {
-	            		continue;
-	            	}
-	            	// Page now filled so break out
-	            	if (i >= pageNumber * pageSize + pageSize) {
-	            		break;
-	            	}
-	
-	                final Document doc = searcher.doc(hits.scoreDocs[i].doc);
-	
-	                final String repositoryId = doc.get(FIELD_REPOSITORY);
-	                final AbstractRepository repository = repositoryManager.getRepository(
-	                		repositoryManager.parseRepositoryId(repositoryId));
-	                
-	                // Verify that the repository is of the correct type.
-	                if (repository instanceof GitRepository) {
-	                	final GitCommitKey commitKey = GitCommitKey.unmarshal(doc.get(FIELD_COMMITKEY));
-	                	try {
-	                		final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService
-	                				.getLogEntry((GitRepository)repository, commitKey);
-	                		if (logEntry.getBranches() == null) {
-	                			logEntry.setBranches(Arrays.asList(doc.getValues(FIELD_BRANCH)));
-	                		}
-	                		logEntries.add(logEntry);
-	                	} catch (final RepositoryException re) {
-	                		// Assume that this is because the commit could not be found due to a change of history. If that's
-	                		// the case then expect this to be cleared up by the main indexing activity.
-	                		logger.warn("Could not find log message for commit: " + commitKey.marshal(), re);
-	            			continue;
-	                	}
-	                }
-	            }
-	            return logEntries;
+	            return getLogEntries(searcher, hits, pageNumber, pageSize, false, true);
 	        } finally {
 	            searcher.close();
 	            reader.close();
@@ -255,8 +312,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("deprecation")
-	@Override
+    @Override
     public List<LogEntry<GitRepository, GitCommitKey>> getAllLogEntriesByVersion(final Version version, final User user, 
     		final int pageNumber, final int pageSize, final boolean ascending) throws IndexException {
     	Validate.notNull(version, "version must not be null");
@@ -267,30 +323,14 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     	// Create indexes if necessary to prevent getting an error
         createIndexIfNeeded();
 
-        // Find all isuses affected by and fixed by any of the versions:
-        final Collection<Issue> issues = new HashSet<Issue>();
-
-        issues.addAll(versionManager.getIssuesWithFixVersion(version));
-        issues.addAll(versionManager.getIssuesWithAffectsVersion(version));
+        final Set<String> permittedIssueKeys = getPermittedIssueKeys(version, user);
 
         // Construct a query with all the issue keys. Make sure to increase the maximum number of clauses if needed.
         final int maxClauses = BooleanQuery.getMaxClauseCount();
-        if (issues.size() > maxClauses) {
-            BooleanQuery.setMaxClauseCount(issues.size());
-        }
-
-        final BooleanQuery query = new BooleanQuery();
-        final Set<String> permittedIssueKeys = new HashSet<String>();
-
-        for (final Issue issue : issues) {
-            final Issue theIssue = issueManager.getIssueObject(issue.getKey());
-
-            if (permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, theIssue, user)) {
-                final TermQuery termQuery = new TermQuery(new Term(FIELD_ISSUEKEY, issue.getKey()));
-                query.add(termQuery, BooleanClause.Occur.SHOULD);
-                permittedIssueKeys.add(issue.getKey());
-            }
+        if (permittedIssueKeys.size() > maxClauses) {
+            BooleanQuery.setMaxClauseCount(permittedIssueKeys.size());
         }
+        final Query query = createQueryByIssueKeys(permittedIssueKeys);
 
         try {
 	        final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
@@ -300,43 +340,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
 	            // Run the query and sort by date in descending order
 	            final TopDocs hits = searcher.search(query, new PermittedIssuesRevisionFilter(issueManager, permissionManager, user, 
 	            		permittedIssueKeys), MAX_COMMITS, new Sort(new SortField(FIELD_DATE, SortField.LONG, !ascending)));
-	            final List<LogEntry<GitRepository, GitCommitKey>> logEntries = new ArrayList<LogEntry<GitRepository, GitCommitKey>>();
-	
-	            for (int i = 0, j = Math.min(hits.totalHits, MAX_COMMITS); i < j; ++i) {
-	            	// Skip results until we arrive at our page
-	            	if (i < pageNumber * pageSize) {
-	            		continue;
-	            	}
-	            	// Page now filled so break out
-	            	if (i >= pageNumber * pageSize + pageSize) {
-	            		break;
-	            	}
-	
-	                final Document doc = searcher.doc(hits.scoreDocs[i].doc);
-	
-	                final String repositoryId = doc.get(FIELD_REPOSITORY);
-	                final AbstractRepository repository = repositoryManager.getRepository(
-	                		repositoryManager.parseRepositoryId(repositoryId));
-	                
-	                // Verify that the repository is of the correct type.
-	                if (repository instanceof GitRepository) {
-	                	final GitCommitKey commitKey = GitCommitKey.unmarshal(doc.get(FIELD_COMMITKEY));
-	                	try {
-	                		final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService
-	                				.getLogEntry((GitRepository)repository, commitKey);
-	                		if (logEntry.getBranches() == null) {
-	                			logEntry.setBranches(Arrays.asList(doc.getValues(FIELD_BRANCH)));
-	                		}
-	                		logEntries.add(logEntry);
-	                	} catch (final RepositoryException re) {
-	                		// Assume that this is because the commit could not be found due to a change of history. If that's
-	                		// the case then expect this to be cleared up by the main indexing activity.
-	                		logger.warn("Could not find log message for commit: " + commitKey.marshal(), re);
-	            			continue;
-	                	}
-	                }
-	            }
-	            return logEntries;
+	            return getLogEntries(searcher, hits, pageNumber, pageSize, false, true);
 	        } finally {
 	            searcher.close();
 	            reader.close();
@@ -347,6 +351,146 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LogEntryPage<GitRepository, GitCommitKey> getLogEntryPageByIssue(final Issue issue, final LogEntryCursor after, 
+    		final int pageSize, final boolean includeFiles) throws IndexException {
+    	Validate.notNull(issue, "issue must not be null");
+    	
+    	return getLogEntryPage(createQueryByIssueKey(issue), null, after, pageSize, includeFiles);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LogEntryPage<GitRepository, GitCommitKey> getLogEntryPageByProject(final String projectKey, final User user, 
+    		final LogEntryCursor after, final int pageSize, final boolean includeFiles) throws IndexException {
+    	Validate.notNull(projectKey, "projectKey must not be null");
+    	Validate.notNull(user, "user must not be null");
+    	
+    	return getLogEntryPage(new TermQuery(new Term(FIELD_PROJECTKEY, projectKey)), 
+    			new ProjectRevisionFilter(issueManager, permissionManager, user, projectKey), after, pageSize, includeFiles);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LogEntryPage<GitRepository, GitCommitKey> getLogEntryPageByVersion(final Version version, final User user, 
+    		final LogEntryCursor after, final int pageSize, final boolean includeFiles) throws IndexException {
+    	Validate.notNull(version, "version must not be null");
+    	Validate.notNull(user, "user must not be null");
+    	
+    	final Set<String> permittedIssueKeys = getPermittedIssueKeys(version, user);
+    	if (permittedIssueKeys.isEmpty()) {
+    		return new LogEntryPage<GitRepository, GitCommitKey>(new ArrayList<LogEntry<GitRepository, GitCommitKey>>(), null);
+    	}
+    	
+    	final int maxClauses = BooleanQuery.getMaxClauseCount();
+    	if (permittedIssueKeys.size() > maxClauses) {
+    		BooleanQuery.setMaxClauseCount(permittedIssueKeys.size());
+    	}
+    	try {
+    		return getLogEntryPage(createQueryByIssueKeys(permittedIssueKeys), null, after, pageSize, includeFiles);
+    	} finally {
+    		BooleanQuery.setMaxClauseCount(maxClauses);
+    	}
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LogEntryPage<GitRepository, GitCommitKey> getLogEntryPageByRepository(final GitRepository repository, 
+    		final User user, final LogEntryCursor after, final int pageSize, final boolean includeFiles) throws IndexException {
+    	Validate.notNull(repository, "repository must not be null");
+    	Validate.notNull(user, "user must not be null");
+    	
+    	return getLogEntryPage(new MatchAllDocsQuery(), new RepositoryRevisionFilter(issueManager, permissionManager, user, 
+    			String.valueOf(repository.getId())), after, pageSize, includeFiles);
+    }
+
+    /**
+     * Reads every commit mentioning an issue of the given projects within a range of dates, handing one link to the
+     * {@code handler} for each issue that the commit mentions in those projects. This is for exports of all commits
+     * and so is not limited to {@link #MAX_COMMITS}.
+     * <p>
+     * The index is read in a single pass and only its stored fields are used, so repositories are never read. The 
+     * commits are handed over as they are found, in no particular order, without gathering any of them first.
+     * 
+     * @param projectKeys the keys of the projects whose issues to export, or empty for all projects. Must not be 
+     * {@code null}
+     * @param from the earliest date of the commits to export or {@code null} for no limit
+     * @param to the date before which commits are exported or {@code null} for no limit
+     * @param handler receives the links. Must not be {@code null}
+     * @return the number of commits read
+     * @throws IndexException if the index cannot be read or the handler fails
+     */
+    public int exportCommitLinks(final Collection<String> projectKeys, final Date from, final Date to, 
+    		final CommitLinkHandler handler) throws IndexException {
+    	Validate.notNull(projectKeys, "projectKeys must not be null");
+    	Validate.notNull(handler, "handler must not be null");
+    	
+    	// Create indexes if necessary to prevent getting an error
+    	createIndexIfNeeded();
+    	
+    	// Only commit documents have a date, so this always restricts the search to them
+    	final BooleanQuery query = new BooleanQuery();
+    	query.add(new TermRangeQuery(FIELD_DATE, from == null ? null : DateTools.dateToString(from, Resolution.SECOND), 
+    			to == null ? null : DateTools.dateToString(to, Resolution.SECOND), true, false), BooleanClause.Occur.MUST);
+    	if (!projectKeys.isEmpty()) {
+    		final BooleanQuery projectQuery = new BooleanQuery();
+    		for (final String projectKey : projectKeys) {
+    			projectQuery.add(new TermQuery(new Term(FIELD_PROJECTKEY, projectKey)), BooleanClause.Occur.SHOULD);
+    		}
+    		query.add(projectQuery, BooleanClause.Occur.MUST);
+    	}
+    	
+    	try {
+	        final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+	        final IndexSearcher searcher = new IndexSearcher(reader);
+	        final Map<String, AbstractRepository> repositories = new HashMap<String, AbstractRepository>();
+	        final int[] commitCount = new int[1];
+	        
+	        try {
+	        	searcher.search(query, new Collector() {
+	        		private int docBase;
+	        		
+	        		@Override
+	        		public void setScorer(final Scorer scorer) {
+	        		}
+	        		
+	        		@Override
+	        		public void setNextReader(final IndexReader segmentReader, final int docBase) {
+	        			this.docBase = docBase;
+	        		}
+	        		
+	        		@Override
+	        		public boolean acceptsDocsOutOfOrder() {
+	        			return true;
+	        		}
+	        		
+	        		@Override
+	        		public void collect(final int doc) throws IOException {
+	        			// Members may be in other segments, so everything is read through the top level reader
+	        			exportCommitLinks(reader, reader.document(docBase + doc, EXPORT_FIELD_SELECTOR), projectKeys, 
+	        					repositories, handler);
+	        			commitCount[0]++;
+	        		}
+	        	});
+	        	return commitCount[0];
+	        } finally {
+	            searcher.close();
+	            reader.close();
+	        }
+        } catch (final IOException ioe) {
+        	throw new IndexException("Index IO access error", ioe);
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -354,38 +498,88 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     public void removeEntries(final GitRepository repository) throws IndexException {
         logger.debug("Deleteing log entries for: " + repository.getId());
         
+        fetchedRefStates.remove(repository.getId());
+        indexedRefStates.remove(repository.getId());
+        missingCommits.clear(repository.getId());
+        collectedTimes.remove(repository.getId());
+        
         // Create indexes if necessary to prevent getting an error
         createIndexIfNeeded();
 
         try {
+        	final Set<String> memberCommitKeys;
+        	final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+        	try {
+        		memberCommitKeys = getMemberCommitKeys(repository, reader);
+        	} finally {
+        		reader.close();
+        	}
+        	
         	final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
         	try {
 	            writer.deleteDocuments(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId())));
 	        } finally {
 	        	writer.close();
 	        }
+        	
+        	// Commits that were only in this repository are no longer needed
+        	removeOrphanedCommits(memberCommitKeys);
         } catch (final IOException ioe) {
             throw new IndexException("Index IO access error", ioe);
         }
     }
     
     /**
-     * Looks for the revision index directory and creates it if it does not already exists.
+     * Looks for the revision index directory and creates it if it does not already exists. An index written in an
+     * older format is recreated empty, so that all repositories are indexed afresh.
      *
      * @return {@code true} if the index directory was created; {@code false} if the index already exists
      * @throws IndexException if the index cannot be created
      */
-    private boolean createIndexIfNeeded() throws IndexException {
+    private synchronized boolean createIndexIfNeeded() throws IndexException {
         boolean indexExists = getIndexPath().exists();
-        if (!indexExists) {
-            try {
-                indexAccessor.getIndexWriter(getIndexPath().getPath(), true, ANALYZER).close();
-                return true;
-            } catch (final IOException ioe) {
-                throw new IndexException("Cannot create the repository index", ioe);
-            }
+        if (indexExists && (formatChecked || isCurrentFormat())) {
+        	formatChecked = true;
+        	return false;
+        }
+        if (indexExists) {
+        	logger.info("Index is in an older format and will be rebuilt: " + getIndexPath());
         }
-        return false;
+        try {
+        	final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), true, ANALYZER);
+        	try {
+        		final Document doc = new Document();
+        		doc.add(new Field(FIELD_FORMAT, INDEX_FORMAT, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        		writer.addDocument(doc);
+        	} finally {
+        		writer.close();
+        	}
+        } catch (final IOException ioe) {
+        	throw new IndexException("Cannot create the repository index", ioe);
+        }
+        indexedRefStates.clear();
+        issueCommits.clear();
+        formatChecked = true;
+        return true;
+    }
+    
+    /**
+     * Tests whether the existing index was written in the current {@link #INDEX_FORMAT format}.
+     * 
+     * @return true if it is in the current format
+     * @throws IndexException if the index cannot be read
+     */
+    private boolean isCurrentFormat() throws IndexException {
+    	try {
+    		final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    		try {
+    			return hasDocument(reader, new Term(FIELD_FORMAT, INDEX_FORMAT));
+    		} finally {
+    			reader.close();
+    		}
+    	} catch (final IOException ioe) {
+    		throw new IndexException("Cannot read the repository index", ioe);
+    	}
     }
     
     /**
@@ -411,7 +605,15 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
             // - Resetting a branch to an older commit (we must index from both old and new nodes)
             final Map<String, GitCommitKey> repositoryBranches = gitRepositoryService.getBranchHeads(repository);
             final Map<String, GitCommitKey> indexedBranches = getBranchHeadsIndexed(repository);
+            // Commits indexed under other paths may be in or out of scope, so start again when the paths change
+            if (!fullIndex && !indexedBranches.isEmpty() && !repository.getPaths().equals(getPathsIndexed(repository))) {
+            	logger.debug("Paths of repository " + repository.getId() + " changed; performing full index");
+            	updateIndex(repository, true);
+            	return;
+            }
             final Map<GitCommitKey, List<String>> commitKeys = new HashMap<GitCommitKey, List<String>>();
+            // Previously indexed heads of branches that have since moved
+            final List<GitCommitKey> movedHeads = new ArrayList<GitCommitKey>();
             if (fullIndex) {
             	for (final Map.Entry<String, GitCommitKey> branchHead : repositoryBranches.entrySet()) {
             		commitKeys.put(branchHead.getValue(), Arrays.asList(branchHead.getKey()));
@@ -427,50 +629,49 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
 	            	if (!indexedCommitKey.getCommitHash().equals(branchHead.getValue().getCommitHash())) {
 	            		commitKeys.put(indexedCommitKey, Arrays.asList(branchHead.getKey()));
 	            		commitKeys.put(branchHead.getValue(), Arrays.asList(branchHead.getKey()));
+	            		movedHeads.add(indexedCommitKey);
 	            	}
 	            }
-	            // Detect branches removed. We'll want to remove the branch from all documents where it is
-	            // kept and if those documents are empty of branches, the document should be removed entirely.
-	            // It is therefore easier to just reindex fully from here.
+	            // Detect branches removed, whether deleted or no longer included by the repository's branch rules
 	            if (indexedBranches.size() > 0) {
-	            	logger.debug("One or more branch deletions detected; performing full index");
-            		updateIndex(repository, true);
-            		return;
-            	}
+	            	logger.debug("Branches removed from repository " + repository.getId() + ": " + indexedBranches.keySet());
+	            	removeBranches(repository, indexedBranches.keySet());
+	            }
             }
             
-            // Get the filtered entries
+            // Get the filtered entries. The changed files aren't indexed so don't compute them
             final LogEntryEnumerator<GitRepository, GitCommitKey> logEntryEnumerator = 
-            		gitRepositoryService.getLogEntries(repository, commitKeys);
+            		gitRepositoryService.getLogEntries(repository, commitKeys, false);
 
             // 0 - Success
             // 1 - Failure
             int status = 1;
+            // Commits that this repository held before a full index. Those it no longer holds may now be orphaned
+            Set<String> previousCommitKeys = Collections.emptySet();
+            // Issues mentioned by commits added to the index, whose summaries will need refreshing
+            final Set<String> addedIssueKeys = new HashSet<String>();
             final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
             try {
             	writer.prepareCommit();
                 
-                // Delete all documents to start with when full indexing
-                if (fullIndex) {
-                	writer.deleteDocuments(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId())));
-                }
-                
                 final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
                 try {
+                	// Delete all memberships to start with when full indexing. Commit content is kept as it is
+                	// likely to be reused
+                	if (fullIndex) {
+                		previousCommitKeys = getMemberCommitKeys(repository, reader);
+                		writer.deleteDocuments(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId())));
+                	}
+                	
                 	while (logEntryEnumerator.hasNext()) {
                 		final LogEntry<GitRepository, GitCommitKey> logEntry = logEntryEnumerator.next();
                 		
                 		if (TextUtils.stringSet(logEntry.getMessage()) && isKeyInString(logEntry)) {
-                			if (fullIndex || getDocument(repository, logEntry, reader, true) == null) {
-                				final Document previousDocument = getDocument(repository, logEntry, reader, false);
+                			if (fullIndex || getMemberDocument(repository, logEntry, reader, true) == null) {
+                				final Document previousDocument = getMemberDocument(repository, logEntry, reader, false);
                 				
-                				// Delete any previous document (existing document, but with different branch sets)
-                				final TermQuery repoQuery = new TermQuery(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId())));
-                	            final TermQuery revQuery = new TermQuery(new Term(FIELD_COMMITKEY, logEntry.getCommitKey().marshal()));
-                	            final BooleanQuery repoAndRevQuery = new BooleanQuery();
-                	            repoAndRevQuery.add(repoQuery, BooleanClause.Occur.MUST);
-                	            repoAndRevQuery.add(revQuery, BooleanClause.Occur.MUST);
-                				writer.deleteDocuments(repoAndRevQuery);
+                				// Delete any previous membership (existing membership, but with different branch sets)
+                				writer.deleteDocuments(createMemberQuery(repository, logEntry.getCommitKey()));
 
                 				// We may not be scanning all branches, so we must check that on previous document,
                 				// if a branch existed on it before that doesn't appear on it now and the branch
@@ -492,11 +693,14 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
                 					}
                 				}
                 				
-                				// Create the new document and add it to the index
-                				final Document doc = createDocument(repository, logEntry);
-                				logger.debug("Indexing repository: " + repository.getId() + ", commit: " + 
-                						logEntry.getCommitKey().marshal());
-                				writer.addDocument(doc);
+                				// Add the commit itself only if no other repository has already added it
+                				final String commitKey = logEntry.getCommitKey().marshal();
+                				if (!hasDocument(reader, new Term(FIELD_COMMITKEY, commitKey))) {
+                					logger.debug("Indexing repository: " + repository.getId() + ", commit: " + commitKey);
+                					writer.addDocument(createDocument(logEntry));
+                					addedIssueKeys.addAll(getIssueKeysFromString(logEntry));
+                				}
+                				writer.addDocument(createMemberDocument(repository, logEntry));
                 			}
                 		}
                 	}
@@ -517,6 +721,15 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
             		writer.close();
             	}
             }
+            refreshIssueCommits(addedIssueKeys);
+            removeOrphanedCommits(previousCommitKeys);
+            
+            // A full index only keeps reachable commits
+            if (fullIndex) {
+            	collectedTimes.put(repository.getId(), System.currentTimeMillis());
+            } else {
+            	collectGarbageIfNeeded(repository, movedHeads);
+            }
         } catch (final IOException e) {
             logger.warn("Unable to index repository '" + repository.getDisplayName() + "'", e);
         }
@@ -524,8 +737,209 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     }
     
     /**
-     * Works out whether a given commit for the specified repository is already in the index or not and returns its document
-     * if it is.
+     * Removes unreachable commits from the {@code repository} if any of its branches were rewritten, such as by a 
+     * rebase or force push, or if it hasn't been checked for {@link #GC_INTERVAL_MILLIS}. A branch was rewritten if 
+     * its previous head can no longer be reached, which is cheap to find out when it can, as only the new commits need
+     * be walked.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @param movedHeads the previously indexed heads of branches that have since moved. Must not be {@code null}
+     * @throws IOException if the index cannot be read or updated
+     * @throws RepositoryException if the repository cannot be walked
+     */
+    private void collectGarbageIfNeeded(final GitRepository repository, final List<GitCommitKey> movedHeads) 
+    		throws IOException, RepositoryException {
+    	assert repository != null : "repository must not be null";
+    	assert movedHeads != null : "movedHeads must not be null";
+    	
+    	final long now = System.currentTimeMillis();
+    	// The first check is a full interval after the repository is first indexed after start up
+    	final Long collectedTime = collectedTimes.putIfAbsent(repository.getId(), now);
+    	if (collectedTime == null || now - collectedTime < GC_INTERVAL_MILLIS) {
+    		if (movedHeads.isEmpty() || gitRepositoryService.getUnreachableCommits(repository, movedHeads).isEmpty()) {
+    			return;
+    		}
+    		logger.debug("Branches of repository " + repository.getId() + " were rewritten");
+    	}
+    	collectGarbage(repository);
+    }
+    
+    /**
+     * Removes the commits that can no longer be reached from any branch of the {@code repository}, along with their 
+     * content if no other repository holds them. Every commit that the repository holds in the index is checked, in a 
+     * single walk of its history, and those unreachable are removed in batches.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @throws IOException if the index cannot be read or updated
+     * @throws RepositoryException if the repository cannot be walked
+     */
+    private void collectGarbage(final GitRepository repository) throws IOException, RepositoryException {
+    	assert repository != null : "repository must not be null";
+    	
+    	final long startedAt = System.currentTimeMillis();
+    	final Set<String> memberCommitKeys;
+    	final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    	try {
+    		memberCommitKeys = getMemberCommitKeys(repository, reader);
+    	} finally {
+    		reader.close();
+    	}
+    	final List<GitCommitKey> commitKeys = new ArrayList<GitCommitKey>(memberCommitKeys.size());
+    	for (final String commitKey : memberCommitKeys) {
+    		commitKeys.add(GitCommitKey.unmarshal(commitKey));
+    	}
+    	final List<GitCommitKey> unreachable = gitRepositoryService.getUnreachableCommits(repository, commitKeys);
+    	
+    	for (int start = 0; start < unreachable.size(); start += GC_BATCH_SIZE) {
+    		final List<String> removedCommitKeys = new ArrayList<String>();
+    		final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
+    		try {
+    			for (final GitCommitKey commitKey : unreachable.subList(start, Math.min(start + GC_BATCH_SIZE, unreachable.size()))) {
+    				writer.deleteDocuments(createMemberQuery(repository, commitKey));
+    				removedCommitKeys.add(commitKey.marshal());
+    			}
+    		} finally {
+    			writer.close();
+    		}
+    		removeOrphanedCommits(removedCommitKeys);
+    		missingCommits.removeAll(repository.getId(), removedCommitKeys);
+    	}
+    	
+    	final long runMillis = System.currentTimeMillis() - startedAt;
+    	collectedTimes.put(repository.getId(), System.currentTimeMillis());
+    	garbageCollectionStats.collected(commitKeys.size(), unreachable.size(), runMillis);
+    	logger.info("Removed " + unreachable.size() + " of " + commitKeys.size() + " commits no longer reachable in repository " 
+    			+ repository.getId() + " in " + runMillis + " ms");
+    }
+    
+    /**
+     * Removes the memberships of commits that reads of search results found to be missing from the {@code repository},
+     * such as after its history was rewritten, along with their content if no other repository holds them. Each
+     * commit is looked up once more first, in case the repository was only briefly unreadable.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @throws IndexException if the index cannot be updated
+     * @throws RepositoryException if the repository cannot be read
+     */
+    private void removeMissingCommits(final GitRepository repository) throws IndexException, RepositoryException {
+    	assert repository != null : "repository must not be null";
+    	
+    	final Set<String> pendingCommitKeys = missingCommits.getPending(repository.getId());
+    	if (pendingCommitKeys.isEmpty()) {
+    		return;
+    	}
+    	final List<GitCommitKey> commitKeys = new ArrayList<GitCommitKey>(pendingCommitKeys.size());
+    	for (final String commitKey : pendingCommitKeys) {
+    		commitKeys.add(GitCommitKey.unmarshal(commitKey));
+    	}
+    	final List<LogEntry<GitRepository, GitCommitKey>> logEntries = 
+    			gitRepositoryService.getLogEntriesByKey(repository, commitKeys, false);
+    	
+    	final List<String> removedCommitKeys = new ArrayList<String>();
+    	try {
+    		final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
+    		try {
+    			for (int i = 0; i < commitKeys.size(); i++) {
+    				if (logEntries.get(i) == null) {
+    					writer.deleteDocuments(createMemberQuery(repository, commitKeys.get(i)));
+    					removedCommitKeys.add(commitKeys.get(i).marshal());
+    				}
+    			}
+    		} finally {
+    			writer.close();
+    		}
+    		logger.info("Removed " + removedCommitKeys.size() + " commits no longer in repository " + repository.getId() 
+    				+ " from the index");
+    		removeOrphanedCommits(removedCommitKeys);
+    	} catch (final IOException ioe) {
+    		throw new IndexException("Index IO access error", ioe);
+    	}
+    	missingCommits.removeAll(repository.getId(), pendingCommitKeys);
+    }
+    
+    /**
+     * Removes the {@code removedBranches} from the commits that the {@code repository} holds in the index. A commit 
+     * left on no recorded branch may still be reachable from another, such as when its branch was merged before being
+     * deleted, so the repository is asked which branches still contain it. Those that no branch contains are removed 
+     * from the repository, along with their content if no other repository holds them.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @param removedBranches the names of the branches that have been removed. Must not be {@code null}
+     * @throws IOException if the index cannot be read or updated
+     * @throws RepositoryException if the repository cannot be walked
+     */
+    private void removeBranches(final GitRepository repository, final Set<String> removedBranches) 
+    		throws IOException, RepositoryException {
+    	assert repository != null : "repository must not be null";
+    	assert removedBranches != null : "removedBranches must not be null";
+    	
+    	// The branches remaining on each affected commit, keyed by marshalled commit key
+    	final Map<String, List<String>> remainingBranches = new HashMap<String, List<String>>();
+    	final String repositoryId = String.valueOf(repository.getId());
+    	final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    	try {
+    		for (final String removedBranch : removedBranches) {
+    			final TermDocs termDocs = reader.termDocs(new Term(FIELD_BRANCH, removedBranch));
+    			try {
+    				while (termDocs.next()) {
+    					final Document doc = reader.document(termDocs.doc());
+    					final String commitKey = doc.get(FIELD_MEMBER);
+    					if (commitKey == null || !repositoryId.equals(doc.get(FIELD_REPOSITORY)) 
+    							|| remainingBranches.containsKey(commitKey)) {
+    						continue;
+    					}
+    					final List<String> branches = new ArrayList<String>();
+    					for (final Fieldable fieldable : doc.getFieldables(FIELD_BRANCH)) {
+    						if (!removedBranches.contains(fieldable.stringValue())) {
+    							branches.add(fieldable.stringValue());
+    						}
+    					}
+    					remainingBranches.put(commitKey, branches);
+    				}
+    			} finally {
+    				termDocs.close();
+    			}
+    		}
+    	} finally {
+    		reader.close();
+    	}
+    	if (remainingBranches.isEmpty()) {
+    		return;
+    	}
+    	
+    	final List<GitCommitKey> unrecordedCommitKeys = new ArrayList<GitCommitKey>();
+    	for (final Map.Entry<String, List<String>> remaining : remainingBranches.entrySet()) {
+    		if (remaining.getValue().isEmpty()) {
+    			unrecordedCommitKeys.add(GitCommitKey.unmarshal(remaining.getKey()));
+    		}
+    	}
+    	for (final Map.Entry<GitCommitKey, List<String>> containing 
+    			: gitRepositoryService.getBranchesContaining(repository, unrecordedCommitKeys).entrySet()) {
+    		remainingBranches.put(containing.getKey().marshal(), containing.getValue());
+    	}
+    	
+    	final List<String> removedCommitKeys = new ArrayList<String>();
+    	final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
+    	try {
+    		for (final Map.Entry<String, List<String>> remaining : remainingBranches.entrySet()) {
+    			writer.deleteDocuments(createMemberQuery(repository, GitCommitKey.unmarshal(remaining.getKey())));
+    			if (remaining.getValue().isEmpty()) {
+    				removedCommitKeys.add(remaining.getKey());
+    			} else {
+    				writer.addDocument(createMemberDocument(repository, remaining.getKey(), remaining.getValue()));
+    			}
+    		}
+    	} finally {
+    		writer.close();
+    	}
+    	logger.debug("Removed branches from " + remainingBranches.size() + " commits of repository " + repository.getId() 
+    			+ ", of which " + removedCommitKeys.size() + " are no longer on any branch");
+    	removeOrphanedCommits(removedCommitKeys);
+    }
+    
+    /**
+     * Works out whether a given commit is already associated with the specified repository in the index and returns 
+     * the membership document if it is.
      * <p>
      * This searches by the repository and commit key matching the specified {@code logEntry}.
      * 
@@ -536,7 +950,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
      * @return the document if found, or {@code null} if not
      * @throws IndexException if a problem occurs reading the index
      */
-    private Document getDocument(final GitRepository gitRepository, final LogEntry<GitRepository, GitCommitKey> logEntry, 
+    private Document getMemberDocument(final GitRepository gitRepository, final LogEntry<GitRepository, GitCommitKey> logEntry, 
     		final IndexReader reader, final boolean withBranches) throws IndexException {
     	assert gitRepository != null : "gitRepository must not be null";
     	assert logEntry != null : "logEntry must not be null";
@@ -545,14 +959,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         final IndexSearcher searcher = new IndexSearcher(reader);
         try {
 	        try {
-	            final TermQuery repoQuery = new TermQuery(new Term(FIELD_REPOSITORY, String.valueOf(gitRepository.getId())));
-	            final TermQuery revQuery = new TermQuery(new Term(FIELD_COMMITKEY, logEntry.getCommitKey().marshal()));
-	            final BooleanQuery repoAndRevQuery = new BooleanQuery();
-	
-	            repoAndRevQuery.add(repoQuery, BooleanClause.Occur.MUST);
-	            repoAndRevQuery.add(revQuery, BooleanClause.Occur.MUST);
-	
-	            final TopDocs hits = searcher.search(repoAndRevQuery, MAX_COMMITS);
+	            final TopDocs hits = searcher.search(createMemberQuery(gitRepository, logEntry.getCommitKey()), MAX_COMMITS);
 	
 	            if (hits.totalHits == 1) {
 	                final Document foundDocument = searcher.doc(hits.scoreDocs[0].doc);
@@ -580,7 +987,465 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         	throw new IndexException("Error accessing index", ioe);
         }
     }
-
+    
+    /**
+     * Creates the query matching the document that associates the commit identified by {@code commitKey} with the
+     * {@code repository}.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @param commitKey the commit. Must not be {@code null}
+     * @return the query. Never {@code null}
+     */
+    private Query createMemberQuery(final GitRepository repository, final GitCommitKey commitKey) {
+    	assert repository != null : "repository must not be null";
+    	assert commitKey != null : "commitKey must not be null";
+    	
+    	final BooleanQuery query = new BooleanQuery();
+    	query.add(new TermQuery(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId()))), BooleanClause.Occur.MUST);
+    	query.add(new TermQuery(new Term(FIELD_MEMBER, commitKey.marshal())), BooleanClause.Occur.MUST);
+    	return query;
+    }
+    
+    /**
+     * Tests whether any document that hasn't been deleted contains the {@code term}.
+     * 
+     * @param reader the index reader. Must not be {@code null}
+     * @param term the term to look for. Must not be {@code null}
+     * @return true if there is such a document
+     * @throws IOException if the index cannot be read
+     */
+    private boolean hasDocument(final IndexReader reader, final Term term) throws IOException {
+    	assert reader != null : "reader must not be null";
+    	assert term != null : "term must not be null";
+    	
+    	final TermDocs termDocs = reader.termDocs(term);
+    	try {
+    		return termDocs.next();
+    	} finally {
+    		termDocs.close();
+    	}
+    }
+    
+    /**
+     * Gets the keys of all commits that are associated with the {@code repository} in the index.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @param reader the index reader. Must not be {@code null}
+     * @return the marshalled commit keys. Never {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    private Set<String> getMemberCommitKeys(final GitRepository repository, final IndexReader reader) throws IOException {
+    	assert repository != null : "repository must not be null";
+    	assert reader != null : "reader must not be null";
+    	
+    	final Set<String> commitKeys = new HashSet<String>();
+    	final TermDocs termDocs = reader.termDocs(new Term(FIELD_REPOSITORY, String.valueOf(repository.getId())));
+    	try {
+    		while (termDocs.next()) {
+    			final String commitKey = reader.document(termDocs.doc(), MEMBER_FIELD_SELECTOR).get(FIELD_MEMBER);
+    			if (commitKey != null) {
+    				commitKeys.add(commitKey);
+    			}
+    		}
+    	} finally {
+    		termDocs.close();
+    	}
+    	return commitKeys;
+    }
+    
+    /**
+     * Removes the documents for those of the {@code commitKeys} that are no longer associated with any repository.
+     * 
+     * @param commitKeys the marshalled keys of commits that may have been orphaned. Must not be {@code null}
+     * @throws IOException if the index cannot be updated
+     */
+    private void removeOrphanedCommits(final Collection<String> commitKeys) throws IOException {
+    	assert commitKeys != null : "commitKeys must not be null";
+    	
+    	if (commitKeys.isEmpty()) {
+    		return;
+    	}
+    	final List<Term> orphans = new ArrayList<Term>();
+    	// Issues mentioned by the orphans, whose summaries will need refreshing
+    	final Set<String> orphanIssueKeys = new HashSet<String>();
+    	final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    	try {
+    		for (final String commitKey : commitKeys) {
+    			final Term term = new Term(FIELD_COMMITKEY, commitKey);
+    			if (!hasDocument(reader, new Term(FIELD_MEMBER, commitKey))) {
+    				orphans.add(term);
+    				// Gathered even while the summaries aren't loaded, as they may be loading from an older reader
+    				addIssueKeys(reader, term, orphanIssueKeys);
+    			}
+    		}
+    	} finally {
+    		reader.close();
+    	}
+    	if (orphans.isEmpty()) {
+    		return;
+    	}
+    	
+    	logger.debug("Removing " + orphans.size() + " commits no longer in any repository");
+    	final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath().getPath(), false, ANALYZER);
+    	try {
+    		writer.deleteDocuments(orphans.toArray(new Term[orphans.size()]));
+    	} finally {
+    		writer.close();
+    	}
+    	refreshIssueCommits(orphanIssueKeys);
+    }
+    
+    /**
+     * Adds the issue keys of the commit documents that contain the {@code term} to {@code issueKeys}.
+     * 
+     * @param reader the index reader. Must not be {@code null}
+     * @param term the term identifying the commits. Must not be {@code null}
+     * @param issueKeys the issue keys to add to. Must not be {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    private void addIssueKeys(final IndexReader reader, final Term term, final Set<String> issueKeys) throws IOException {
+    	assert reader != null : "reader must not be null";
+    	assert term != null : "term must not be null";
+    	assert issueKeys != null : "issueKeys must not be null";
+    	
+    	final TermDocs termDocs = reader.termDocs(term);
+    	try {
+    		while (termDocs.next()) {
+    			final String[] docIssueKeys = reader.document(termDocs.doc(), ISSUEKEY_FIELD_SELECTOR).getValues(FIELD_ISSUEKEY);
+    			if (docIssueKeys != null) {
+    				issueKeys.addAll(Arrays.asList(docIssueKeys));
+    			}
+    		}
+    	} finally {
+    		termDocs.close();
+    	}
+    }
+    
+    /**
+     * Reads the commit summaries of the {@code issueKeys} from the index again, after commits mentioning them were
+     * added or removed. Nothing is read if the summaries haven't been loaded yet.
+     * <p>
+     * Whether they are loaded is only tested under the lock. A load in progress may have opened its reader before the
+     * change, so the refresh must wait for it rather than be skipped.
+     * 
+     * @param issueKeys the issue keys. Must not be {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    private void refreshIssueCommits(final Collection<String> issueKeys) throws IOException {
+    	assert issueKeys != null : "issueKeys must not be null";
+    	
+    	if (issueKeys.isEmpty()) {
+    		return;
+    	}
+    	// The reader is opened under the lock so that a later change can't be overwritten by an earlier one
+    	synchronized (issueCommits) {
+    		if (!issueCommits.isLoaded()) {
+    			return;
+    		}
+    		final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    		try {
+    			issueCommits.refresh(reader, issueKeys);
+    		} finally {
+    			reader.close();
+    		}
+    	}
+    }
+    
+    /**
+     * Reads log entries for a page of search {@code hits}. Each hit is a commit, which is listed once for each 
+     * repository containing it, or only once in total when collapsing. Commits that can no longer be read from any of
+     * their repositories are skipped.
+     * <p>
+     * The rows of the page are gathered from the index first and their commits are then read together, in a single
+     * batch for each repository. If some can't be read, more rows are gathered to fill their places.
+     * 
+     * @param searcher the searcher that produced {@code hits}. Must not be {@code null}
+     * @param hits the commit documents found. Must not be {@code null}
+     * @param pageNumber the page of results to get. The first page is 0
+     * @param pageSize the number of results that are in a page
+     * @param collapse true to return one entry per commit listing all of its repositories
+     * @param includeFiles true to include the changed files in each log entry; false to leave them empty
+     * @return the log entries in the order of {@code hits}. Never {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    private List<LogEntry<GitRepository, GitCommitKey>> getLogEntries(final IndexSearcher searcher, final TopDocs hits, 
+    		final int pageNumber, final int pageSize, final boolean collapse, final boolean includeFiles) throws IOException {
+    	assert searcher != null : "searcher must not be null";
+    	assert hits != null : "hits must not be null";
+    	
+    	final List<LogEntry<GitRepository, GitCommitKey>> logEntries = new ArrayList<LogEntry<GitRepository, GitCommitKey>>();
+    	final Map<String, AbstractRepository> repositories = new HashMap<String, AbstractRepository>();
+    	final int firstRow = pageNumber * pageSize;
+    	final int totalHits = Math.min(hits.scoreDocs.length, MAX_COMMITS);
+    	int row = 0;
+    	int i = 0;
+    	while (i < totalHits && logEntries.size() < pageSize) {
+    		final List<PageRow> rows = new ArrayList<PageRow>();
+    		for (; i < totalHits && logEntries.size() + rows.size() < pageSize; ++i) {
+    			final Document doc = searcher.doc(hits.scoreDocs[i].doc);
+    			final GitCommitKey commitKey = GitCommitKey.unmarshal(doc.get(FIELD_COMMITKEY));
+    			final Map<GitRepository, List<String>> members = getMembers(searcher.getIndexReader(), commitKey, repositories);
+    			if (members.isEmpty()) {
+    				continue;
+    			}
+    			
+    			if (collapse) {
+    				// Skip results until we arrive at our page
+    				if (row++ < firstRow) {
+    					continue;
+    				}
+    				final Set<String> branches = new LinkedHashSet<String>();
+    				for (final List<String> memberBranches : members.values()) {
+    					branches.addAll(memberBranches);
+    				}
+    				rows.add(new PageRow(commitKey, new ArrayList<GitRepository>(members.keySet()), 
+    						new ArrayList<String>(branches)));
+    			} else {
+    				// Every repository of the commit is gathered, even past the end of the page, so that none are lost 
+    				// if more rows have to be gathered. Those not needed are dropped at the end
+    				for (final Map.Entry<GitRepository, List<String>> member : members.entrySet()) {
+    					// Skip results until we arrive at our page
+    					if (row++ < firstRow) {
+    						continue;
+    					}
+    					rows.add(new PageRow(commitKey, Collections.singletonList(member.getKey()), member.getValue()));
+    				}
+    			}
+    		}
+    		readLogEntries(rows, includeFiles);
+    		for (final PageRow pageRow : rows) {
+    			if (pageRow.logEntry != null) {
+    				logEntries.add(pageRow.logEntry);
+    			} else {
+    				logger.debug("Could not find log message for commit: " + pageRow.commitKey.marshal());
+    			}
+    		}
+    	}
+    	return logEntries.size() > pageSize ? new ArrayList<LogEntry<GitRepository, GitCommitKey>>(
+    			logEntries.subList(0, pageSize)) : logEntries;
+    }
+    
+    /**
+     * Gets the repositories associated with a commit, along with the branches it is on in each.
+     * 
+     * @param reader the index reader. Must not be {@code null}
+     * @param commitKey the commit. Must not be {@code null}
+     * @param repositories the repositories already looked up, keyed by their indexed identifier. Repositories looked
+     * up by this call are added to it. Must not be {@code null}
+     * @return the branches keyed by repository. Repositories that are no longer configured are excluded. Never {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    private Map<GitRepository, List<String>> getMembers(final IndexReader reader, final GitCommitKey commitKey, 
+    		final Map<String, AbstractRepository> repositories) throws IOException {
+    	assert reader != null : "reader must not be null";
+    	assert commitKey != null : "commitKey must not be null";
+    	assert repositories != null : "repositories must not be null";
+    	
+    	final Map<GitRepository, List<String>> members = new LinkedHashMap<GitRepository, List<String>>();
+    	final TermDocs termDocs = reader.termDocs(new Term(FIELD_MEMBER, commitKey.marshal()));
+    	try {
+    		while (termDocs.next()) {
+    			final Document doc = reader.document(termDocs.doc());
+    			final String repositoryId = doc.get(FIELD_REPOSITORY);
+    			if (!repositories.containsKey(repositoryId)) {
+    				repositories.put(repositoryId, repositoryManager.getRepository(
+    						repositoryManager.parseRepositoryId(repositoryId)));
+    			}
+    			final AbstractRepository repository = repositories.get(repositoryId);
+    			
+    			// Verify that the repository is of the correct type.
+    			if (repository instanceof GitRepository) {
+    				members.put((GitRepository)repository, Arrays.asList(doc.getValues(FIELD_BRANCH)));
+    			}
+    		}
+    	} finally {
+    		termDocs.close();
+    	}
+    	return members;
+    }
+    
+    /**
+     * Hands the links of an exported commit to a handler.
+     * 
+     * @param reader the index reader. Must not be {@code null}
+     * @param doc the commit's document. Must not be {@code null}
+     * @param projectKeys the keys of the projects whose issues are exported, or empty for all projects. Must not be 
+     * {@code null}
+     * @param repositories the repositories already looked up, keyed by their indexed identifier. Must not be 
+     * {@code null}
+     * @param handler receives the links. Must not be {@code null}
+     * @throws IOException if the index cannot be read or the handler fails
+     */
+    private void exportCommitLinks(final IndexReader reader, final Document doc, final Collection<String> projectKeys, 
+    		final Map<String, AbstractRepository> repositories, final CommitLinkHandler handler) throws IOException {
+    	assert reader != null : "reader must not be null";
+    	assert doc != null : "doc must not be null";
+    	assert projectKeys != null : "projectKeys must not be null";
+    	assert repositories != null : "repositories must not be null";
+    	assert handler != null : "handler must not be null";
+    	
+    	final GitCommitKey commitKey = GitCommitKey.unmarshal(doc.get(FIELD_COMMITKEY));
+    	final List<String> repositoryNames = new ArrayList<String>();
+    	for (final GitRepository repository : getMembers(reader, commitKey, repositories).keySet()) {
+    		repositoryNames.add(repository.getDisplayName());
+    	}
+    	Date date = null;
+    	try {
+    		date = DateTools.stringToDate(doc.get(FIELD_DATE));
+    	} catch (final ParseException pe) {
+    		logger.debug("Invalid date indexed for commit: " + commitKey.marshal(), pe);
+    	}
+    	
+    	for (final String issueKey : doc.getValues(FIELD_ISSUEKEY)) {
+    		if (projectKeys.isEmpty() || projectKeys.contains(getProjectKeyFromIssueKey(issueKey))) {
+    			handler.handle(new CommitLink(issueKey, commitKey.getCommitHash(), date, doc.get(FIELD_AUTHOR), 
+    					StringUtils.defaultString(doc.get(FIELD_MESSAGE)), repositoryNames));
+    		}
+    	}
+    }
+    
+    /**
+     * Reads the log entries of the {@code rows} of a page. Each row is read from the first of its repositories that 
+     * can supply it. The commits of each repository are read in a single batch, and if the rows span several 
+     * repositories then the batches are read in parallel.
+     * <p>
+     * Commits already known to be missing from a repository are not looked for there again. Those newly found to be
+     * missing are remembered and their repositories are handed to the {@link MissingCommitListener} to remove them
+     * from the index.
+     * 
+     * @param rows the rows to read. The log entry of each row that can be read is set. Must not be {@code null}
+     * @param includeFiles true to include the changed files in each log entry; false to leave them empty
+     */
+    private void readLogEntries(final List<PageRow> rows, final boolean includeFiles) {
+    	assert rows != null : "rows must not be null";
+    	
+    	final Set<GitRepository> missingRepositories = new LinkedHashSet<GitRepository>();
+    	List<PageRow> unread = rows;
+    	while (!unread.isEmpty()) {
+    		final Map<GitRepository, List<PageRow>> batches = new LinkedHashMap<GitRepository, List<PageRow>>();
+    		for (final PageRow row : unread) {
+    			while (row.attempt < row.repositories.size() 
+    					&& missingCommits.contains(row.repositories.get(row.attempt).getId(), row.commitKey.marshal())) {
+    				row.attempt++;
+    			}
+    			if (row.attempt == row.repositories.size()) {
+    				continue;
+    			}
+    			final GitRepository repository = row.repositories.get(row.attempt);
+    			List<PageRow> batch = batches.get(repository);
+    			if (batch == null) {
+    				batch = new ArrayList<PageRow>();
+    				batches.put(repository, batch);
+    			}
+    			batch.add(row);
+    		}
+    		
+    		final Map<GitRepository, Future<List<LogEntry<GitRepository, GitCommitKey>>>> futures = 
+    				new LinkedHashMap<GitRepository, Future<List<LogEntry<GitRepository, GitCommitKey>>>>();
+    		for (final Map.Entry<GitRepository, List<PageRow>> batch : batches.entrySet()) {
+    			final Callable<List<LogEntry<GitRepository, GitCommitKey>>> task = createReadTask(batch.getKey(), batch.getValue(), 
+    					includeFiles);
+    			if (batches.size() == 1) {
+    				// Not worth handing over to another thread
+    				final FutureTask<List<LogEntry<GitRepository, GitCommitKey>>> futureTask = 
+    						new FutureTask<List<LogEntry<GitRepository, GitCommitKey>>>(task);
+    				futureTask.run();
+    				futures.put(batch.getKey(), futureTask);
+    			} else {
+    				futures.put(batch.getKey(), readExecutor.submit(task));
+    			}
+    		}
+    		
+    		final List<PageRow> retries = new ArrayList<PageRow>();
+    		for (final Map.Entry<GitRepository, List<PageRow>> batch : batches.entrySet()) {
+    			final List<LogEntry<GitRepository, GitCommitKey>> batchEntries = getBatchResult(futures.get(batch.getKey()));
+    			for (int i = 0; i < batch.getValue().size(); i++) {
+    				final PageRow row = batch.getValue().get(i);
+    				final LogEntry<GitRepository, GitCommitKey> logEntry = batchEntries != null ? batchEntries.get(i) : null;
+    				if (logEntry != null) {
+    					row.setLogEntry(logEntry);
+    					continue;
+    				}
+    				// The whole repository failing to be read doesn't mean the commit is missing
+    				if (batchEntries != null && missingCommits.add(batch.getKey().getId(), row.commitKey.marshal())) {
+    					missingRepositories.add(batch.getKey());
+    				}
+    				if (++row.attempt < row.repositories.size()) {
+    					retries.add(row);
+    				}
+    			}
+    		}
+    		unread = retries;
+    	}
+    	
+    	for (final GitRepository repository : missingRepositories) {
+    		logger.info("Commits in the index are missing from repository " + repository.getId() 
+    				+ "; queuing their removal from the index");
+    		final MissingCommitListener listener = missingCommitListener;
+    		if (listener != null) {
+    			listener.commitsMissing(repository);
+    		}
+    	}
+    }
+    
+    /**
+     * Creates a task that reads a batch of log entries from a single {@code repository}.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @param rows the rows whose commits to read. Must not be {@code null}
+     * @param includeFiles true to include the changed files in each log entry; false to leave them empty
+     * @return the task, whose result is the log entries in the order of {@code rows}, with {@code null} for those 
+     * that could not be read, or is {@code null} if the repository could not be read at all. Never {@code null}
+     */
+    private Callable<List<LogEntry<GitRepository, GitCommitKey>>> createReadTask(final GitRepository repository, 
+    		final List<PageRow> rows, final boolean includeFiles) {
+    	assert repository != null : "repository must not be null";
+    	assert rows != null : "rows must not be null";
+    	
+    	final List<GitCommitKey> commitKeys = new ArrayList<GitCommitKey>(rows.size());
+    	for (final PageRow row : rows) {
+    		commitKeys.add(row.commitKey);
+    	}
+    	return new Callable<List<LogEntry<GitRepository, GitCommitKey>>>() {
+    		@Override
+    		public List<LogEntry<GitRepository, GitCommitKey>> call() {
+    			try {
+    				return gitRepositoryService.getLogEntriesByKey(repository, commitKeys, includeFiles);
+    			} catch (final RepositoryException re) {
+    				logger.warn("Could not read log messages from repository: " + repository.getId(), re);
+    				return null;
+    			}
+    		}
+    	};
+    }
+    
+    /**
+     * Waits for a batch of log entries to be read.
+     * 
+     * @param future the batch being read. Must not be {@code null}
+     * @return the log entries or {@code null} if none could be read
+     */
+    private List<LogEntry<GitRepository, GitCommitKey>> getBatchResult(
+    		final Future<List<LogEntry<GitRepository, GitCommitKey>>> future) {
+    	assert future != null : "future must not be null";
+    	
+    	try {
+    		return future.get();
+    	} catch (final InterruptedException ie) {
+    		Thread.currentThread().interrupt();
+    		future.cancel(true);
+    		return null;
+    	} catch (final ExecutionException ee) {
+    		if (ee.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException)ee.getCause();
+    		}
+    		if (ee.getCause() instanceof Error) {
+    			throw (Error)ee.getCause();
+    		}
+    		throw new RuntimeException(ee.getCause());
+    	}
+    }
+    
     /**
      * Creates the index query that finds all log entries for the specified {@code issue}.
      * 
@@ -605,16 +1470,133 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         return query;
     }
     
+    /**
+     * Creates the index query that finds all log entries mentioning any of the specified issues.
+     * <p>
+     * The caller must make sure that the {@link BooleanQuery#getMaxClauseCount() maximum number of clauses} allows
+     * for all of the keys.
+     * 
+     * @param issueKeys the keys of the issues. Must not be {@code null}
+     * @return the query. Never {@code null}
+     */
+    private Query createQueryByIssueKeys(final Collection<String> issueKeys) {
+    	assert issueKeys != null : "issueKeys must not be null";
+    	
+    	final BooleanQuery query = new BooleanQuery();
+    	for (final String issueKey : issueKeys) {
+    		query.add(new TermQuery(new Term(FIELD_ISSUEKEY, issueKey)), BooleanClause.Occur.SHOULD);
+    	}
+    	return query;
+    }
+    
+    /**
+     * Gets the keys of the issues affected by or fixed in a version for which the {@code user} may view version 
+     * control.
+     * 
+     * @param version the version. Must not be {@code null}
+     * @param user the user. Must not be {@code null}
+     * @return the issue keys. Never {@code null}
+     */
+    @SuppressWarnings("deprecation")
+    private Set<String> getPermittedIssueKeys(final Version version, final User user) {
+    	assert version != null : "version must not be null";
+    	assert user != null : "user must not be null";
+    	
+        // Find all isuses affected by and fixed by any of the versions:
+        final Collection<Issue> issues = new HashSet<Issue>();
+
+        issues.addAll(versionManager.getIssuesWithFixVersion(version));
+        issues.addAll(versionManager.getIssuesWithAffectsVersion(version));
+
+        final Set<String> permittedIssueKeys = new HashSet<String>();
+        for (final Issue issue : issues) {
+            final Issue theIssue = issueManager.getIssueObject(issue.getKey());
+
+            if (permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, theIssue, user)) {
+                permittedIssueKeys.add(issue.getKey());
+            }
+        }
+        return permittedIssueKeys;
+    }
+    
+    /**
+     * Gets the page of log entries found by a query that follows a cursor. The entries are ordered newest first, 
+     * with commits of the same date ordered by key so that every commit has a fixed position to resume from.
+     * <p>
+     * Rather than skipping the hits of earlier pages, the query is narrowed to the commits after the cursor, so 
+     * only a page's worth of hits are ever collected.
+     * 
+     * @param query the query finding the commits. Must not be {@code null}
+     * @param filter filters the commits found or {@code null} to keep all of them
+     * @param after the cursor of the page or {@code null} for the first page
+     * @param pageSize the most log entries in the page
+     * @param includeFiles true to include the changed files of each commit
+     * @return the page. Never {@code null}
+     * @throws IndexException if the index cannot be read
+     */
+    private LogEntryPage<GitRepository, GitCommitKey> getLogEntryPage(final Query query, final Filter filter, 
+    		final LogEntryCursor after, final int pageSize, final boolean includeFiles) throws IndexException {
+    	assert query != null : "query must not be null";
+    	Validate.isTrue(pageSize > 0 && pageSize <= MAX_COMMITS, "pageSize must be between 1 and " + MAX_COMMITS);
+    	
+    	// Create indexes if necessary to prevent getting an error
+    	createIndexIfNeeded();
+    	
+    	final BooleanQuery pageQuery = new BooleanQuery();
+    	pageQuery.add(query, BooleanClause.Occur.MUST);
+    	if (after != null) {
+    		final BooleanQuery sameDate = new BooleanQuery();
+    		sameDate.add(new TermQuery(new Term(FIELD_DATE, after.getDate())), BooleanClause.Occur.MUST);
+    		sameDate.add(new TermRangeQuery(FIELD_COMMITKEY, after.getCommitKey(), null, false, true), BooleanClause.Occur.MUST);
+    		
+    		final BooleanQuery afterQuery = new BooleanQuery();
+    		afterQuery.add(new TermRangeQuery(FIELD_DATE, null, after.getDate(), true, false), BooleanClause.Occur.SHOULD);
+    		afterQuery.add(sameDate, BooleanClause.Occur.SHOULD);
+    		pageQuery.add(afterQuery, BooleanClause.Occur.MUST);
+    	}
+    	
+    	try {
+	        final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+	        final IndexSearcher searcher = new IndexSearcher(reader);
+	
+	        try {
+	        	// Collect a few hits beyond the page in case some of its commits can no longer be read
+	            final TopDocs hits = searcher.search(pageQuery, filter, Math.min(pageSize + PAGE_SLACK, MAX_COMMITS), 
+	            		new Sort(new SortField(FIELD_DATE, SortField.LONG, true), new SortField(FIELD_COMMITKEY, SortField.STRING)));
+	            final List<LogEntry<GitRepository, GitCommitKey>> logEntries = getLogEntries(searcher, hits, 0, pageSize, 
+	            		true, includeFiles);
+	            
+	            LogEntryCursor next = null;
+	            if (logEntries.size() == pageSize && hits.totalHits > pageSize) {
+	            	final LogEntry<GitRepository, GitCommitKey> last = logEntries.get(logEntries.size() - 1);
+	            	next = LogEntryCursor.at(last.getDate(), last.getCommitKey().marshal());
+	            } else if (hits.scoreDocs.length < hits.totalHits) {
+	            	// Too many commits could not be read to fill the page, so carry on after the last one looked at
+	            	final Document doc = searcher.doc(hits.scoreDocs[hits.scoreDocs.length - 1].doc);
+	            	next = new LogEntryCursor(doc.get(FIELD_DATE), doc.get(FIELD_COMMITKEY));
+	            }
+	            return new LogEntryPage<GitRepository, GitCommitKey>(logEntries, next);
+	        } finally {
+	            searcher.close();
+	            reader.close();
+	        }
+        } catch (final IOException ioe) {
+        	throw new IndexException("Index IO access error", ioe);
+        }
+    }
+    
     /**
      * Creates a new Lucene document for the supplied log entry. This method is used when indexing
      * commits, not during retrieval.
+     * <p>
+     * The document holds the content of the commit only, so that a commit found in several repositories is indexed
+     * once. Its repositories and branches are held by {@link #createMemberDocument(GitRepository, LogEntry) 
+     * membership} documents.
      *
-     * @param gitRepository the repository to which {@code logEntry} belongs. Must not be {@code null}
      * @param logEntry the log entry that is about to be indexed. Must not be {@code null}
      * @return a Lucene document object that is ready to be added to an index. Never {@code null}
      */
-    private Document createDocument(final GitRepository gitRepository, final LogEntry<GitRepository, GitCommitKey> logEntry) {
-    	assert gitRepository != null : "gitRepository must not be null";
+    private Document createDocument(final LogEntry<GitRepository, GitCommitKey> logEntry) {
     	assert logEntry != null : "logEntry must not be null";
     	
         final Document doc = new Document();
@@ -625,11 +1607,7 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
             doc.add(new Field(FIELD_AUTHOR, logEntry.getAuthorName(), Field.Store.YES, Field.Index.NOT_ANALYZED));
         }
 
-        doc.add(new Field(FIELD_REPOSITORY, String.valueOf(gitRepository.getId()), Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(FIELD_COMMITKEY, logEntry.getCommitKey().marshal(), Field.Store.YES, Field.Index.NOT_ANALYZED));
-        for (final String branch : logEntry.getBranches()) {
-        	doc.add(new Field(FIELD_BRANCH, branch, Field.Store.YES, Field.Index.NOT_ANALYZED));
-        }
 
         if (logEntry.getDate() != null) {
             doc.add(new Field(FIELD_DATE, DateTools.dateToString(logEntry.getDate(), Resolution.SECOND), Field.Store.YES, Field.Index.NOT_ANALYZED));
@@ -653,6 +1631,44 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         return doc;
     }
     
+    /**
+     * Creates a new Lucene document associating the commit of the supplied log entry with the repository and branches
+     * it was found on.
+     * 
+     * @param gitRepository the repository to which {@code logEntry} belongs. Must not be {@code null}
+     * @param logEntry the log entry that is about to be indexed. Must not be {@code null}
+     * @return a Lucene document object that is ready to be added to an index. Never {@code null}
+     */
+    private Document createMemberDocument(final GitRepository gitRepository, final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    	assert gitRepository != null : "gitRepository must not be null";
+    	assert logEntry != null : "logEntry must not be null";
+    	
+    	return createMemberDocument(gitRepository, logEntry.getCommitKey().marshal(), logEntry.getBranches());
+    }
+    
+    /**
+     * Creates a document associating the commit identified by {@code commitKey} with a repository.
+     * 
+     * @param gitRepository the repository. Must not be {@code null}
+     * @param commitKey the marshalled commit key. Must not be {@code null}
+     * @param branches the branches of the repository that the commit is on. Must not be {@code null}
+     * @return the document. Never {@code null}
+     */
+    private Document createMemberDocument(final GitRepository gitRepository, final String commitKey, 
+    		final Collection<String> branches) {
+    	assert gitRepository != null : "gitRepository must not be null";
+    	assert commitKey != null : "commitKey must not be null";
+    	assert branches != null : "branches must not be null";
+    	
+    	final Document doc = new Document();
+    	doc.add(new Field(FIELD_REPOSITORY, String.valueOf(gitRepository.getId()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(new Field(FIELD_MEMBER, commitKey, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        for (final String branch : branches) {
+        	doc.add(new Field(FIELD_BRANCH, branch, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        }
+        return doc;
+    }
+    
     /**
      * Gets a map of branches that have been indexed for this {@code repository}.
      * 
@@ -676,7 +1692,25 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     }
     
     /**
-     * Updates the map of indexed {@code branches} for the specified {@code repository}.
+     * Gets the paths that the {@code repository} was last indexed with.
+     * 
+     * @param repository the repository. Must not be {@code null}
+     * @return the paths or an empty list if the whole repository was indexed or it hasn't been indexed. Never {@code null}
+     * @throws IndexException if the index cannot be read
+     */
+    private List<String> getPathsIndexed(final GitRepository repository) throws IndexException {
+    	assert repository != null : "repository must not be null";
+    	
+    	final Document doc = getBranchesIndexedDocument(repository);
+    	if (doc == null) {
+    		return Collections.emptyList();
+    	}
+    	return Arrays.asList(doc.getValues(FIELD_PATH));
+    }
+    
+    /**
+     * Updates the map of indexed {@code branches} for the specified {@code repository}, along with the paths it was
+     * indexed with.
      * 
      * @param repository the repository whose branches to update. Must not be {@code null}
      * @param branches the map of branches to write to the index. Must not be {@code null}
@@ -697,11 +1731,15 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
     		doc.add(new Field(FIELD_BRANCHMAP, String.valueOf(Boolean.TRUE), Field.Store.YES, Field.Index.NOT_ANALYZED));
     	} else {
     		doc.removeFields(FIELD_BRANCH);
+    		doc.removeFields(FIELD_PATH);
     	}
     	for (final Map.Entry<String, GitCommitKey> branch : branches.entrySet()) {
 			doc.add(new Field(FIELD_BRANCH, branch.getValue().marshal() + "-" + branch.getKey(), Field.Store.YES, 
 				Field.Index.NOT_ANALYZED));
 		}
+    	for (final String path : repository.getPaths()) {
+    		doc.add(new Field(FIELD_PATH, path, Field.Store.YES, Field.Index.NO));
+    	}
     	
     	// Write the document, replacing any that existed before
     	try {
@@ -792,4 +1830,131 @@ public class GitCommitIndexer implements CommitIndexer<GitRepository, GitCommitK
         final String logMessageUpperCase = StringUtils.upperCase(logEntry.getMessage());
         return JiraKeyUtils.isKeyInString(logMessageUpperCase);
     }
+    
+    /**
+     * Gets the generation of the index as last committed. This reads only the index's commit point, so it is far
+     * cheaper than any search.
+     * 
+     * @return the generation. Never {@code null}
+     * @throws IndexException if the index cannot be read
+     */
+    public IndexGeneration getIndexGeneration() throws IndexException {
+    	// Create indexes if necessary to prevent getting an error
+    	createIndexIfNeeded();
+    	
+    	final String path = getIndexPath().getPath();
+    	try {
+    		return new IndexGeneration(indexAccessor.getIndexVersion(path), indexAccessor.getIndexLastModified(path));
+    	} catch (final IOException ioe) {
+    		throw new IndexException("Index IO access error", ioe);
+    	}
+    }
+    
+    /**
+     * Gets the number of commits that mention the {@code issue}, under its current key or any it had before, and the
+     * date of the latest. The summaries of all issues are loaded from the index when first needed and are then kept
+     * up to date as commits are indexed and removed, so this doesn't search the index.
+     * <p>
+     * Commits are counted whether or not they can still be read from their repositories, and a commit mentioning
+     * more than one of the issue's keys is counted for each.
+     * 
+     * @param issue the issue. Must not be {@code null}
+     * @return the summary. Never {@code null}
+     * @throws IndexException if the index cannot be read
+     */
+    public IssueCommitSummary getIssueCommitSummary(final Issue issue) throws IndexException {
+    	Validate.notNull(issue, "issue must not be null");
+    	
+    	// Create indexes if necessary to prevent getting an error
+    	createIndexIfNeeded();
+    	
+    	if (!issueCommits.isLoaded()) {
+    		synchronized (issueCommits) {
+    			try {
+    				final IndexReader reader = indexAccessor.getIndexReader(getIndexPath().getPath());
+    				try {
+    					issueCommits.load(reader);
+    				} finally {
+    					reader.close();
+    				}
+    			} catch (final IOException ioe) {
+    				throw new IndexException("Index IO access error", ioe);
+    			}
+    		}
+    	}
+    	
+    	IssueCommitSummary summary = issueCommits.get(issue.getKey());
+    	for (final String previousIssueKey : changeHistoryManager.getPreviousIssueKeys(issue.getId())) {
+    		summary = summary.add(issueCommits.get(previousIssueKey));
+    	}
+    	return summary;
+    }
+    
+    /**
+     * Gets statistics about the removal of commits that are no longer reachable.
+     * 
+     * @return the statistics. Never {@code null}
+     */
+    public GarbageCollectionStats getGarbageCollectionStats() {
+    	return garbageCollectionStats;
+    }
+    
+    /**
+     * Sets the listener told when commits in the index are found to be missing from their repository. Without one,
+     * such commits are only removed from the index when their repository is next updated.
+     * 
+     * @param missingCommitListener the listener or {@code null} for none
+     */
+    public void setMissingCommitListener(final MissingCommitListener missingCommitListener) {
+    	this.missingCommitListener = missingCommitListener;
+    }
+    
+    @Override
+    public void destroy() {
+    	readExecutor.shutdownNow();
+    }
+    
+    /**
+     * A row of a page of results: a commit to read from the first of its repositories that can supply it.
+     */
+    private static final class PageRow {
+    	
+    	private final GitCommitKey commitKey;
+    	/** The repositories the commit may be read from, in order of preference. */
+    	private final List<GitRepository> repositories;
+    	private final List<String> branches;
+    	/** The index of the repository to read from next. */
+    	private int attempt;
+    	private LogEntry<GitRepository, GitCommitKey> logEntry;
+    	
+    	private PageRow(final GitCommitKey commitKey, final List<GitRepository> repositories, final List<String> branches) {
+    		this.commitKey = commitKey;
+    		this.repositories = repositories;
+    		this.branches = branches;
+    	}
+    	
+    	/**
+    	 * Sets the log entry read from the current repository, which is placed ahead of the row's other repositories.
+    	 * 
+    	 * @param logEntry the log entry. Must not be {@code null}
+    	 */
+    	private void setLogEntry(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    		assert logEntry != null : "logEntry must not be null";
+    		
+    		if (logEntry.getBranches() == null) {
+    			logEntry.setBranches(branches);
+    		}
+    		if (repositories.size() > 1) {
+    			final List<GitRepository> orderedRepositories = new ArrayList<GitRepository>(repositories.size());
+    			orderedRepositories.add(repositories.get(attempt));
+    			for (final GitRepository repository : repositories) {
+    				if (repository != repositories.get(attempt)) {
+    					orderedRepositories.add(repository);
+    				}
+    			}
+    			logEntry.setRepositories(orderedRepositories);
+    		}
+    		this.logEntry = logEntry;
+    	}
+    }
 }
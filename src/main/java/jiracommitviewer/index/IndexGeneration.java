@@ -0,0 +1,44 @@
+package jiracommitviewer.index;
+
+/**
+ * Identifies the state of the index as last committed, so that anything derived from it can be known to be
+ * unchanged without searching the index again.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class IndexGeneration {
+
+	private final long version;
+	private final long lastModified;
+
+	/**
+	 * Creates a new generation.
+	 *
+	 * @param version the version of the index, which changes with every commit
+	 * @param lastModified the time of the last commit in milliseconds
+	 */
+	public IndexGeneration(final long version, final long lastModified) {
+		this.version = version;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Gets the version of the index, which changes with every commit.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the time of the last commit.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+}
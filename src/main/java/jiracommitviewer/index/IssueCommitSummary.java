@@ -0,0 +1,63 @@
+package jiracommitviewer.index;
+
+import java.util.Date;
+
+/**
+ * The number of indexed commits that mention an issue and the date of the latest of them, so that whether an issue
+ * has any commits can be known without searching the index.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class IssueCommitSummary {
+
+	/** The summary of an issue that no commit mentions. */
+	public static final IssueCommitSummary NONE = new IssueCommitSummary(0, null);
+
+	private final int commitCount;
+	private final Date latestDate;
+
+	/**
+	 * Creates a new summary.
+	 *
+	 * @param commitCount the number of commits
+	 * @param latestDate the date of the latest commit or {@code null} if none is dated
+	 */
+	public IssueCommitSummary(final int commitCount, final Date latestDate) {
+		this.commitCount = commitCount;
+		this.latestDate = latestDate != null ? new Date(latestDate.getTime()) : null;
+	}
+
+	/**
+	 * Gets the number of commits that mention the issue. A commit held by several repositories is counted once.
+	 *
+	 * @return the number of commits
+	 */
+	public int getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * Gets the date of the latest commit that mentions the issue.
+	 *
+	 * @return the date or {@code null} if there are no dated commits
+	 */
+	public Date getLatestDate() {
+		return latestDate != null ? new Date(latestDate.getTime()) : null;
+	}
+
+	/**
+	 * Combines this summary with that of another key of the same issue, such as one it had before it was moved.
+	 *
+	 * @param other the other summary. Must not be {@code null}
+	 * @return the combined summary. Never {@code null}
+	 */
+	IssueCommitSummary add(final IssueCommitSummary other) {
+		assert other != null : "other must not be null";
+
+		final Date date = latestDate == null || (other.latestDate != null && other.latestDate.after(latestDate))
+				? other.latestDate : latestDate;
+		return new IssueCommitSummary(commitCount + other.commitCount, date);
+	}
+}
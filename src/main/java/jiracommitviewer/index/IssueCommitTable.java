@@ -0,0 +1,166 @@
+package jiracommitviewer.index;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+
+/**
+ * Holds the {@link IssueCommitSummary summary} of the commits of every issue key in the index, so that they can be
+ * looked up without searching.
+ * <p>
+ * The table is loaded from the index in one pass over its issue key terms and is then kept up to date by refreshing
+ * only the issue keys of commits that are added or removed. Both read the index as given, so a caller must hold the
+ * table's lock from opening the reader until the table is updated, for the table to reflect the latest commit.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+final class IssueCommitTable {
+
+	/** Loads only the date of a commit document. */
+	private static final FieldSelector DATE_FIELD_SELECTOR = new MapFieldSelector(new String[] { CommitIndexer.FIELD_DATE });
+
+	private final ConcurrentMap<String, IssueCommitSummary> summaries = new ConcurrentHashMap<String, IssueCommitSummary>();
+	private volatile boolean loaded;
+
+	/**
+	 * Tests whether the table has been loaded since it was created or last cleared.
+	 *
+	 * @return true if it is loaded
+	 */
+	boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Gets the summary of the commits mentioning an issue key.
+	 *
+	 * @param issueKey the issue key. Must not be {@code null}
+	 * @return the summary, which is {@link IssueCommitSummary#NONE} if no commits mention it. Never {@code null}
+	 */
+	IssueCommitSummary get(final String issueKey) {
+		Validate.notNull(issueKey, "issueKey must not be null");
+
+		final IssueCommitSummary summary = summaries.get(issueKey);
+		return summary != null ? summary : IssueCommitSummary.NONE;
+	}
+
+	/**
+	 * Loads the summary of every issue key in the index, unless the table is already loaded.
+	 *
+	 * @param reader the index reader. Must not be {@code null}
+	 * @throws IOException if the index cannot be read
+	 */
+	synchronized void load(final IndexReader reader) throws IOException {
+		Validate.notNull(reader, "reader must not be null");
+
+		if (loaded) {
+			return;
+		}
+		final TermEnum terms = reader.terms(new Term(CommitIndexer.FIELD_ISSUEKEY, ""));
+		try {
+			do {
+				final Term term = terms.term();
+				if (term == null || !CommitIndexer.FIELD_ISSUEKEY.equals(term.field())) {
+					break;
+				}
+				refresh(reader, term);
+			} while (terms.next());
+		} finally {
+			terms.close();
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Reads the summaries of the {@code issueKeys} from the index again, such as after commits mentioning them were
+	 * added or removed. Nothing is read if the table isn't loaded, as loading will read them anyway.
+	 *
+	 * @param reader the index reader. Must not be {@code null}
+	 * @param issueKeys the issue keys. Must not be {@code null}
+	 * @throws IOException if the index cannot be read
+	 */
+	synchronized void refresh(final IndexReader reader, final Collection<String> issueKeys) throws IOException {
+		Validate.notNull(reader, "reader must not be null");
+		Validate.notNull(issueKeys, "issueKeys must not be null");
+
+		if (!loaded) {
+			return;
+		}
+		for (final String issueKey : issueKeys) {
+			refresh(reader, new Term(CommitIndexer.FIELD_ISSUEKEY, issueKey));
+		}
+	}
+
+	/**
+	 * Empties the table, such as when the index is recreated, so that it is loaded again when next needed.
+	 */
+	synchronized void clear() {
+		summaries.clear();
+		loaded = false;
+	}
+
+	/**
+	 * Reads the summary of the issue key {@code term} from the index, counting the commit documents that contain it.
+	 *
+	 * @param reader the index reader. Must not be {@code null}
+	 * @param term the issue key term. Must not be {@code null}
+	 * @throws IOException if the index cannot be read
+	 */
+	private void refresh(final IndexReader reader, final Term term) throws IOException {
+		assert reader != null : "reader must not be null";
+		assert term != null : "term must not be null";
+
+		int commitCount = 0;
+		// Indexed dates sort as they compare, so only the latest need be parsed
+		String latestDate = null;
+		final TermDocs termDocs = reader.termDocs(term);
+		try {
+			while (termDocs.next()) {
+				commitCount++;
+				final String date = reader.document(termDocs.doc(), DATE_FIELD_SELECTOR).get(CommitIndexer.FIELD_DATE);
+				if (date != null && (latestDate == null || date.compareTo(latestDate) > 0)) {
+					latestDate = date;
+				}
+			}
+		} finally {
+			termDocs.close();
+		}
+
+		if (commitCount == 0) {
+			summaries.remove(term.text());
+		} else {
+			summaries.put(term.text(), new IssueCommitSummary(commitCount, parseDate(latestDate)));
+		}
+	}
+
+	/**
+	 * Parses an indexed date.
+	 *
+	 * @param date the date as written by {@link DateTools} or {@code null}
+	 * @return the date or {@code null} if there is none or it is malformed
+	 */
+	private static Date parseDate(final String date) {
+		if (date == null) {
+			return null;
+		}
+		try {
+			return DateTools.stringToDate(date);
+		} catch (final ParseException pe) {
+			return null;
+		}
+	}
+}
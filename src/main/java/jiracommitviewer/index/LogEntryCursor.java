@@ -0,0 +1,104 @@
+package jiracommitviewer.index;
+
+import java.util.Date;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.DateTools.Resolution;
+
+/**
+ * Marks the position of a commit in a listing of log entries ordered newest first, so that the next page can be
+ * found by searching for the commits that follow it rather than by skipping over all those before.
+ * <p>
+ * A cursor is the indexed date of the commit and its marshalled key. It is passed to clients as an opaque token in
+ * the form given by {@link #toString()}.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class LogEntryCursor {
+
+	private static final char SEPARATOR = '.';
+
+	private final String date;
+	private final String commitKey;
+
+	/**
+	 * Creates a new cursor.
+	 *
+	 * @param date the indexed date of the commit, as written by {@link DateTools}. Must not be {@code null}
+	 * @param commitKey the marshalled key of the commit. Must not be {@code null}
+	 */
+	public LogEntryCursor(final String date, final String commitKey) {
+		Validate.notNull(date, "date must not be null");
+		Validate.notNull(commitKey, "commitKey must not be null");
+
+		this.date = date;
+		this.commitKey = commitKey;
+	}
+
+	/**
+	 * Creates a cursor positioned at a commit.
+	 *
+	 * @param date the date of the commit. Must not be {@code null}
+	 * @param commitKey the marshalled key of the commit. Must not be {@code null}
+	 * @return the cursor. Never {@code null}
+	 */
+	public static LogEntryCursor at(final Date date, final String commitKey) {
+		Validate.notNull(date, "date must not be null");
+
+		return new LogEntryCursor(DateTools.dateToString(date, Resolution.SECOND), commitKey);
+	}
+
+	/**
+	 * Parses a cursor from its token.
+	 *
+	 * @param token the token, as given by {@link #toString()}. Must not be {@code null}
+	 * @return the cursor. Never {@code null}
+	 * @throws IllegalArgumentException if the token is malformed
+	 */
+	public static LogEntryCursor parse(final String token) {
+		Validate.notNull(token, "token must not be null");
+
+		final int separator = token.indexOf(SEPARATOR);
+		if (separator < 1 || separator == token.length() - 1) {
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		}
+		final String date = token.substring(0, separator);
+		for (int i = 0; i < date.length(); i++) {
+			if (!Character.isDigit(date.charAt(i))) {
+				throw new IllegalArgumentException("Invalid cursor: " + token);
+			}
+		}
+		return new LogEntryCursor(date, token.substring(separator + 1));
+	}
+
+	/**
+	 * Gets the indexed date of the commit.
+	 *
+	 * @return the date. Never {@code null}
+	 */
+	public String getDate() {
+		return date;
+	}
+
+	/**
+	 * Gets the marshalled key of the commit.
+	 *
+	 * @return the key. Never {@code null}
+	 */
+	public String getCommitKey() {
+		return commitKey;
+	}
+
+	/**
+	 * Gets the token that {@link #parse(String)} reads back.
+	 *
+	 * @return the token. Never {@code null}
+	 */
+	@Override
+	public String toString() {
+		return date + SEPARATOR + commitKey;
+	}
+}
@@ -0,0 +1,51 @@
+package jiracommitviewer.index;
+
+import java.util.List;
+
+import jiracommitviewer.domain.AbstractCommitKey;
+import jiracommitviewer.domain.AbstractRepository;
+import jiracommitviewer.domain.LogEntry;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A page of log entries read from the index, along with the cursor from which the following page can be read.
+ *
+ * @author mark
+ */
+public final class LogEntryPage<R extends AbstractRepository, K extends AbstractCommitKey<K>> {
+
+	private final List<LogEntry<R, K>> logEntries;
+	private final LogEntryCursor next;
+
+	/**
+	 * Creates a new page.
+	 *
+	 * @param logEntries the log entries of the page. Must not be {@code null}
+	 * @param next the cursor of the following page or {@code null} if this is the last
+	 */
+	public LogEntryPage(final List<LogEntry<R, K>> logEntries, final LogEntryCursor next) {
+		Validate.notNull(logEntries, "logEntries must not be null");
+
+		this.logEntries = logEntries;
+		this.next = next;
+	}
+
+	/**
+	 * Gets the log entries of this page, newest first.
+	 *
+	 * @return the log entries. Never {@code null}
+	 */
+	public List<LogEntry<R, K>> getLogEntries() {
+		return logEntries;
+	}
+
+	/**
+	 * Gets the cursor from which the following page is read.
+	 *
+	 * @return the cursor or {@code null} if there are no more log entries
+	 */
+	public LogEntryCursor getNext() {
+		return next;
+	}
+}
@@ -33,4 +33,22 @@ interface LuceneIndexAccessor {
      * @return the IndexWriter.
      */
     IndexWriter getIndexWriter(String path, boolean create, Analyzer analyzer)  throws IOException;
+
+    /**
+     * Gets the version of the index at the given path, which changes each time a change to the index is committed.
+     *
+     * @param path the path.
+     * @return the version.
+     * @throws IOException if there's some problem reading the index.
+     */
+    long getIndexVersion(String path) throws IOException;
+
+    /**
+     * Gets the time that the index at the given path was last committed.
+     *
+     * @param path the path.
+     * @return the time in milliseconds.
+     * @throws IOException if there's some problem reading the index.
+     */
+    long getIndexLastModified(String path) throws IOException;
 }
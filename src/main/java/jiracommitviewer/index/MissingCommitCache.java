@@ -0,0 +1,144 @@
+package jiracommitviewer.index;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Remembers commits that are in the index for a repository but that the repository was found not to have, such as
+ * after a branch was force pushed. Reads of search results skip these commits without going to the repository, and
+ * each is held as pending until its stale documents have been removed from the index.
+ * <p>
+ * At most {@link #MAX_COMMITS} commits are remembered as missing. Beyond that, further misses are still queued for
+ * removal but are not skipped by reads until some have been removed.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+final class MissingCommitCache {
+
+	/** The most commits remembered as missing across all repositories. */
+	static final int MAX_COMMITS = 10000;
+
+	/** The missing commits of each repository, keyed by repository identifier. Guarded by this. */
+	private final Map<Object, Set<String>> missingCommits = new HashMap<Object, Set<String>>();
+	/** The missing commits of each repository whose documents are yet to be removed. Guarded by this. */
+	private final Map<Object, Set<String>> pendingCommits = new HashMap<Object, Set<String>>();
+	/** Guarded by this. */
+	private int size;
+
+	/**
+	 * Tests whether the commit is known to be missing from the repository.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @param commitKey the marshalled commit key. Must not be {@code null}
+	 * @return true if the commit is missing
+	 */
+	synchronized boolean contains(final Object repositoryId, final String commitKey) {
+		Validate.notNull(repositoryId, "repositoryId must not be null");
+		Validate.notNull(commitKey, "commitKey must not be null");
+
+		final Set<String> commitKeys = missingCommits.get(repositoryId);
+		return commitKeys != null && commitKeys.contains(commitKey);
+	}
+
+	/**
+	 * Records that the commit is missing from the repository and queues its documents for removal.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @param commitKey the marshalled commit key. Must not be {@code null}
+	 * @return true if the commit wasn't already queued for removal
+	 */
+	synchronized boolean add(final Object repositoryId, final String commitKey) {
+		Validate.notNull(repositoryId, "repositoryId must not be null");
+		Validate.notNull(commitKey, "commitKey must not be null");
+
+		if (size < MAX_COMMITS && getOrCreate(missingCommits, repositoryId).add(commitKey)) {
+			size++;
+		}
+		return getOrCreate(pendingCommits, repositoryId).add(commitKey);
+	}
+
+	/**
+	 * Gets the missing commits of the repository whose documents are yet to be removed.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @return a copy of the marshalled commit keys. Never {@code null}
+	 */
+	synchronized Set<String> getPending(final Object repositoryId) {
+		Validate.notNull(repositoryId, "repositoryId must not be null");
+
+		final Set<String> commitKeys = pendingCommits.get(repositoryId);
+		return commitKeys != null ? new HashSet<String>(commitKeys) : Collections.<String>emptySet();
+	}
+
+	/**
+	 * Forgets the commits of the repository, such as once their documents have been removed.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @param commitKeys the marshalled commit keys. Must not be {@code null}
+	 */
+	synchronized void removeAll(final Object repositoryId, final Collection<String> commitKeys) {
+		Validate.notNull(repositoryId, "repositoryId must not be null");
+		Validate.notNull(commitKeys, "commitKeys must not be null");
+
+		final Set<String> missing = missingCommits.get(repositoryId);
+		if (missing != null) {
+			for (final String commitKey : commitKeys) {
+				if (missing.remove(commitKey)) {
+					size--;
+				}
+			}
+			if (missing.isEmpty()) {
+				missingCommits.remove(repositoryId);
+			}
+		}
+		final Set<String> pending = pendingCommits.get(repositoryId);
+		if (pending != null) {
+			pending.removeAll(commitKeys);
+			if (pending.isEmpty()) {
+				pendingCommits.remove(repositoryId);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all commits of the repository.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 */
+	synchronized void clear(final Object repositoryId) {
+		Validate.notNull(repositoryId, "repositoryId must not be null");
+
+		final Set<String> missing = missingCommits.remove(repositoryId);
+		if (missing != null) {
+			size -= missing.size();
+		}
+		pendingCommits.remove(repositoryId);
+	}
+
+	/**
+	 * Gets the set of commits of the repository in {@code sets}, creating it if there is none.
+	 *
+	 * @param sets the sets of commits keyed by repository identifier. Must not be {@code null}
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @return the set of commits. Never {@code null}
+	 */
+	private static Set<String> getOrCreate(final Map<Object, Set<String>> sets, final Object repositoryId) {
+		assert sets != null : "sets must not be null";
+		assert repositoryId != null : "repositoryId must not be null";
+
+		Set<String> commitKeys = sets.get(repositoryId);
+		if (commitKeys == null) {
+			commitKeys = new HashSet<String>();
+			sets.put(repositoryId, commitKeys);
+		}
+		return commitKeys;
+	}
+}
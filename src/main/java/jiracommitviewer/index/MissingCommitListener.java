@@ -0,0 +1,20 @@
+package jiracommitviewer.index;
+
+import jiracommitviewer.domain.GitRepository;
+
+/**
+ * Told when commits in the index are found to be missing from their repository, so that their stale documents can
+ * be removed by {@link GitCommitIndexer#updateIndex(GitRepository) updating the repository's index}.
+ *
+ * @author mark
+ */
+public interface MissingCommitListener {
+
+	/**
+	 * Called when commits of the {@code repository} have been found to be missing. This is called on the thread
+	 * reading the commits, so it should return quickly.
+	 *
+	 * @param repository the repository. Never {@code null}
+	 */
+	void commitsMissing(GitRepository repository);
+}
@@ -0,0 +1,86 @@
+package jiracommitviewer.index;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.util.DocIdBitSet;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Filters commits to those reachable from a repository that mention an issue the user may view version control for.
+ * The commits are found through the repository's membership documents.
+ */
+@SuppressWarnings("serial")
+public class RepositoryRevisionFilter extends AbstractRevisionFilter {
+
+    private final String repositoryId;
+
+    public RepositoryRevisionFilter(final IssueManager issueManager, final PermissionManager permissionManager, final User user,
+    		final String repositoryId) {
+        super(issueManager, permissionManager, user);
+        this.repositoryId = repositoryId;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(final IndexReader indexReader) throws IOException {
+        final BitSet bitSet = new BitSet(indexReader.maxDoc());
+        // Many commits mention the same issues, so each is only checked once
+        final Map<String, Boolean> permitted = new HashMap<String, Boolean>();
+
+        final TermDocs memberDocs = indexReader.termDocs(new Term(CommitIndexer.FIELD_REPOSITORY, repositoryId));
+        final TermDocs commitDocs = indexReader.termDocs();
+        try {
+            while (memberDocs.next()) {
+                final String commitKey = indexReader.document(memberDocs.doc()).get(CommitIndexer.FIELD_MEMBER);
+                if (commitKey == null) {
+                    continue;
+                }
+                commitDocs.seek(new Term(CommitIndexer.FIELD_COMMITKEY, commitKey));
+                while (commitDocs.next()) {
+                    final int docId = commitDocs.doc();
+                    if (!bitSet.get(docId) && isPermitted(indexReader.document(docId, issueKeysFieldSelector), permitted)) {
+                        bitSet.set(docId);
+                    }
+                }
+            }
+        } finally {
+            commitDocs.close();
+            memberDocs.close();
+        }
+
+        return new DocIdBitSet(bitSet);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isPermitted(final Document doc, final Map<String, Boolean> permitted) {
+        final String[] issueKeys = doc.getValues(CommitIndexer.FIELD_ISSUEKEY);
+        if (issueKeys == null) {
+            return false;
+        }
+        for (final String issueKey : issueKeys) {
+            Boolean allow = permitted.get(issueKey);
+            if (allow == null) {
+                final Issue anIssue = issueManager.getIssueObject(StringUtils.upperCase(issueKey));
+                allow = anIssue != null && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, anIssue, user);
+                permitted.put(issueKey, allow);
+            }
+            if (allow) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,211 @@
+package jiracommitviewer.issuetabpanels;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the HTML rendered for commits in the issue tab, so that the same commit isn't rendered again each time an
+ * issue is viewed. Fragments are held compressed and the least recently used are evicted once they take up more
+ * than {@link #MAX_BYTES}.
+ * <p>
+ * Commits never change, so a fragment's key need only cover whatever else goes into rendering it, such as the
+ * locale and the link formats of its repository.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class CommitFragmentCache {
+
+	/** The most compressed bytes held across all fragments. */
+	public static final int MAX_BYTES = 8 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Logger logger = LoggerFactory.getLogger(CommitFragmentCache.class);
+
+	/** The most compressed bytes held by this cache. */
+	private final int maxBytes;
+	/** In least recently used order. Guarded by this. */
+	private final Map<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true);
+	/** Guarded by this. */
+	private int size;
+
+	public CommitFragmentCache() {
+		this(MAX_BYTES);
+	}
+
+	/**
+	 * Creates a new cache that holds at most {@code maxBytes} compressed bytes.
+	 *
+	 * @param maxBytes the most compressed bytes to hold. Must be positive
+	 */
+	CommitFragmentCache(final int maxBytes) {
+		Validate.isTrue(maxBytes > 0, "maxBytes must be positive");
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a fragment.
+	 *
+	 * @param key the key of the fragment. Must not be {@code null}
+	 * @return the HTML or {@code null} if it isn't cached
+	 */
+	public String get(final String key) {
+		Validate.notNull(key, "key must not be null");
+
+		final Fragment fragment;
+		synchronized (this) {
+			fragment = fragments.get(key);
+		}
+		if (fragment == null) {
+			return null;
+		}
+		try {
+			return fragment.getHtml();
+		} catch (final DataFormatException dfe) {
+			logger.warn("Discarding corrupt fragment: " + key, dfe);
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Caches a fragment, replacing any with the same key.
+	 *
+	 * @param key the key of the fragment. Must not be {@code null}
+	 * @param html the HTML. Must not be {@code null}
+	 */
+	public void put(final String key, final String html) {
+		Validate.notNull(key, "key must not be null");
+		Validate.notNull(html, "html must not be null");
+
+		final Fragment fragment = new Fragment(html);
+		if (fragment.getSize() > maxBytes) {
+			return;
+		}
+		synchronized (this) {
+			final Fragment replaced = fragments.put(key, fragment);
+			if (replaced != null) {
+				size -= replaced.getSize();
+			}
+			size += fragment.getSize();
+			final Iterator<Fragment> eldest = fragments.values().iterator();
+			while (size > maxBytes) {
+				size -= eldest.next().getSize();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of compressed bytes held across all fragments.
+	 *
+	 * @return the size in bytes
+	 */
+	synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Removes all fragments.
+	 */
+	public synchronized void clear() {
+		fragments.clear();
+		size = 0;
+	}
+
+	/**
+	 * Removes a fragment.
+	 *
+	 * @param key the key of the fragment. Must not be {@code null}
+	 */
+	private synchronized void remove(final String key) {
+		assert key != null : "key must not be null";
+
+		final Fragment removed = fragments.remove(key);
+		if (removed != null) {
+			size -= removed.getSize();
+		}
+	}
+
+	/**
+	 * The compressed HTML of a fragment.
+	 * <p>
+	 * Immutable and thread safe.
+	 */
+	private static final class Fragment {
+
+		private final byte[] compressed;
+		private final int length;
+
+		/**
+		 * Creates a new fragment by compressing its HTML.
+		 *
+		 * @param html the HTML. Must not be {@code null}
+		 */
+		Fragment(final String html) {
+			assert html != null : "html must not be null";
+
+			final byte[] bytes = html.getBytes(UTF8);
+			final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+				final byte[] buffer = new byte[4096];
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				this.compressed = out.toByteArray();
+				this.length = bytes.length;
+			} finally {
+				deflater.end();
+			}
+		}
+
+		/**
+		 * Gets the HTML by decompressing it.
+		 *
+		 * @return the HTML. Never {@code null}
+		 * @throws DataFormatException if the compressed data is corrupt
+		 */
+		String getHtml() throws DataFormatException {
+			final byte[] bytes = new byte[length];
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compressed);
+				int read = 0;
+				while (read < length && !inflater.finished()) {
+					final int inflated = inflater.inflate(bytes, read, length - read);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new DataFormatException("Truncated fragment");
+					}
+					read += inflated;
+				}
+			} finally {
+				inflater.end();
+			}
+			return new String(bytes, UTF8);
+		}
+
+		/**
+		 * Gets the number of compressed bytes held.
+		 *
+		 * @return the size in bytes
+		 */
+		int getSize() {
+			return compressed.length;
+		}
+	}
+}
@@ -6,7 +6,9 @@
  */
 package jiracommitviewer.issuetabpanels;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +16,7 @@ import java.util.Set;
 
 import jiracommitviewer.domain.AddedCommitFile;
 import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.CopiedCommitFile;
 import jiracommitviewer.domain.DeletedCommitFile;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
@@ -36,15 +39,53 @@ import com.atlassian.jira.util.JiraKeyUtils;
  */
 public class GitCommitAction extends AbstractIssueAction {
 
-    private final LogEntry<GitRepository, GitCommitKey> logEntry;
+    /** The most branches shown for a commit before the rest are counted. Must match the commit fragment view. */
+    private static final int MAX_BRANCHES_SHOWN = 6;
+
+    /** The log entry as given, with its message not yet rewritten. */
+    private final LogEntry<GitRepository, GitCommitKey> sourceLogEntry;
     protected final IssueTabPanelModuleDescriptor descriptor;
+    private final CommitFragmentCache fragmentCache;
+    private final int inlineFileLimit;
+    private LogEntry<GitRepository, GitCommitKey> logEntry;
+    private GitLinkRenderer linkRenderer;
 
     public GitCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry, final IssueTabPanelModuleDescriptor descriptor) {
+        this(logEntry, descriptor, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new action whose commit is rendered through the {@code fragmentCache}.
+     * 
+     * @param logEntry the log entry of the commit. Must not be {@code null}
+     * @param descriptor the descriptor of the tab panel
+     * @param fragmentCache the cache of rendered commits. May be {@code null} to render the commit every time
+     * @param inlineFileLimit the most files listed straight away. The files of commits with more are loaded when
+     * their file list is expanded
+     */
+    public GitCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry, final IssueTabPanelModuleDescriptor descriptor,
+    		final CommitFragmentCache fragmentCache, final int inlineFileLimit) {
         super(descriptor);
+        Validate.notNull(logEntry, "logEntry must not be null");
+        
         this.descriptor = descriptor;
-        this.logEntry = new LogEntry<GitRepository, GitCommitKey>(logEntry.getRepository(), logEntry.getBranches(), logEntry.getCommitKey(), 
-        		logEntry.getParentCommitKey(), logEntry.getAuthorName(), logEntry.getDate(), rewriteLogMessage(logEntry.getMessage()), 
-        		logEntry.getCommitFiles(), logEntry.isMerge());
+        this.sourceLogEntry = logEntry;
+        this.fragmentCache = fragmentCache;
+        this.inlineFileLimit = inlineFileLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The commit itself is taken from the fragment cache where it can be, so that only the parts of the view that
+     * depend on the request are rendered every time.
+     */
+    @Override
+    public String getHtml() {
+    	final Map<String, Object> params = new HashMap<String, Object>();
+    	populateVelocityParams(params);
+    	params.put("commitHtml", getCommitHtml(params));
+    	return descriptor.getHtml("view", params);
     }
 
     /**
@@ -58,12 +99,16 @@ public class GitCommitAction extends AbstractIssueAction {
     }
 
     /**
-     * Gets the renderer responsible for formatting links to be displayed in the view.
+     * Gets the renderer responsible for formatting links to be displayed in the view. The same renderer is
+     * returned for every link of this action.
      * 
      * @return the link renderer. Never {@code null}
      */
     public GitLinkRenderer getLinkRenderer() {
-        return new GitLinkRenderer(logEntry.getRepository().getLinkFormatter());
+    	if (linkRenderer == null) {
+    		linkRenderer = new GitLinkRenderer(sourceLogEntry.getRepository().getLinkFormatter());
+    	}
+        return linkRenderer;
     }
 
     /**
@@ -72,7 +117,21 @@ public class GitCommitAction extends AbstractIssueAction {
      * @return the repository's display name. Never {@code null}
      */
     public String getRepositoryDisplayName() {
-        return logEntry.getRepository().getDisplayName();
+        return sourceLogEntry.getRepository().getDisplayName();
+    }
+
+    /**
+     * Gets the display names of all repositories containing the commit. There is more than one when duplicate commits
+     * are collapsed.
+     * 
+     * @return the display names. Never {@code null}
+     */
+    public List<String> getRepositoryDisplayNames() {
+    	final List<String> displayNames = new ArrayList<String>();
+    	for (final GitRepository repository : sourceLogEntry.getRepositories()) {
+    		displayNames.add(repository.getDisplayName());
+    	}
+        return displayNames;
     }
 
     /**
@@ -81,21 +140,38 @@ public class GitCommitAction extends AbstractIssueAction {
      * @return the date. Never {@code null}
      */
     public Date getTimePerformed() {
-        if (logEntry.getDate() == null) {
+        if (sourceLogEntry.getDate() == null) {
             throw new UnsupportedOperationException("no revision date for this log entry");
         }
-        return logEntry.getDate();
+        return sourceLogEntry.getDate();
     }
 
     /**
-     * Gets the log entry for this commit.
+     * Gets the log entry for this commit, with issue keys in its message rewritten for display.
      * 
      * @return the log entry. Never {@code null}
      */
     public LogEntry<GitRepository, GitCommitKey> getLogEntry() {
+    	if (logEntry == null) {
+    		logEntry = new LogEntry<GitRepository, GitCommitKey>(sourceLogEntry.getRepository(), sourceLogEntry.getBranches(), 
+    				sourceLogEntry.getCommitKey(), sourceLogEntry.getParentCommitKey(), sourceLogEntry.getAuthorName(), 
+    				sourceLogEntry.getDate(), rewriteLogMessage(sourceLogEntry.getMessage()), sourceLogEntry.getCommitFiles(), 
+    				sourceLogEntry.isMerge());
+    		logEntry.setRepositories(sourceLogEntry.getRepositories());
+    	}
         return logEntry;
     }
 
+    /**
+     * Gets whether the commit's files are left to be loaded when its file list is expanded, because there are too
+     * many to list straight away.
+     * 
+     * @return true if the files are not listed
+     */
+    public boolean isFileListDeferred() {
+    	return sourceLogEntry.getCommitFiles().size() > inlineFileLimit;
+    }
+
     /**
      * Gets whether the specified {@code commitFile} is of type add.
      * 
@@ -132,6 +208,18 @@ public class GitCommitAction extends AbstractIssueAction {
         return commitFile instanceof RenamedCommitFile;
     }
 
+    /**
+     * Gets whether the specified {@code commitFile} is of type copy.
+     * 
+     * @param commitFile the commit file to test. Must not be {@code null}
+     * @return true if and only if the commit file is of type copy
+     */
+    public boolean isCopied(final CommitFile commitFile) {
+    	Validate.notNull(commitFile, "commitFile must not be null");
+    	
+        return commitFile instanceof CopiedCommitFile;
+    }
+
     /**
      * Gets whether the specified {@code commitFile} is of type delete.
      * 
@@ -144,6 +232,51 @@ public class GitCommitAction extends AbstractIssueAction {
         return commitFile instanceof DeletedCommitFile;
     }
 
+    /**
+     * Gets the HTML of the commit itself, rendering it only if it isn't cached.
+     * 
+     * @param params the parameters for rendering the view. Must not be {@code null}
+     * @return the HTML. Never {@code null}
+     */
+    private String getCommitHtml(final Map<String, Object> params) {
+    	assert params != null : "params must not be null";
+    	
+    	if (fragmentCache == null) {
+    		return descriptor.getHtml("commit", params);
+    	}
+    	final String key = getFragmentKey();
+    	String html = fragmentCache.get(key);
+    	if (html == null) {
+    		html = descriptor.getHtml("commit", params);
+    		fragmentCache.put(key, html);
+    	}
+    	return html;
+    }
+
+    /**
+     * Gets the key of the commit's HTML in the fragment cache. Besides the commit, this covers everything else
+     * shown: the locale, the link formats of the repository, the names of the repositories and branches and
+     * whether the files are listed.
+     * 
+     * @return the key. Never {@code null}
+     */
+    private String getFragmentKey() {
+    	final GitRepository repository = sourceLogEntry.getRepository();
+    	final StringBuilder key = new StringBuilder(sourceLogEntry.getCommitKey().marshal());
+    	key.append('\n').append(descriptor.getI18nBean().getLocale());
+    	key.append('\n').append(repository.getId()).append('\n').append(repository.getLinkFormatter().getVersion());
+    	for (final GitRepository containingRepository : sourceLogEntry.getRepositories()) {
+    		key.append('\n').append(containingRepository.getDisplayName());
+    	}
+    	key.append('\n').append(isFileListDeferred());
+    	final List<String> branches = sourceLogEntry.getBranches();
+    	key.append('\n').append(branches.size());
+    	for (final String branch : branches.subList(0, Math.min(branches.size(), MAX_BRANCHES_SHOWN))) {
+    		key.append('\n').append(branch);
+    	}
+    	return key.toString();
+    }
+
     /**
      * Converts all lower case JIRA issue keys to upper case so that they can be
      * correctly rendered in the Velocity macro, makelinkedhtml.
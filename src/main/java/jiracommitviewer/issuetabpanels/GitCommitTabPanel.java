@@ -12,11 +12,13 @@ import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
+import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.index.GitCommitIndexer;
 import jiracommitviewer.index.exception.IndexException;
+import jiracommitviewer.repository.service.LogEntryCache;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -58,6 +60,12 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
     private VelocityRequestContextFactory velocityRequestContextFactory;
     @Autowired
     private GitCommitIndexer gitCommitIndexer;
+    @Autowired
+    private RepositoryManager repositoryManager;
+    @Autowired
+    private CommitFragmentCache commitFragmentCache;
+    @Autowired
+    private LogEntryCache logEntryCache;
 
     /**
      * Gets a list of actions for the tab panel with each action being a commit against this issue.
@@ -73,15 +81,17 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
             final int pageSize = getPageSizeRequestParameter();
 
             final List<LogEntry<GitRepository, GitCommitKey>> logEntries = 
-            		gitCommitIndexer.getAllLogEntriesByIssue(issue, getPageRequestParameter(), pageSize, true);
+            		gitCommitIndexer.getAllLogEntriesByIssue(issue, getPageRequestParameter(), pageSize, true, 
+            				repositoryManager.isCollapseDuplicateCommits());
 
             if (logEntries.isEmpty()) {
                 final GenericMessageAction action = new GenericMessageAction(getText("git.no.log.entries.message"));
                 return EasyList.build(action);
             } else {
+                final int inlineFileLimit = repositoryManager.getInlineFileLimit();
                 List<GitCommitAction> actions = new ArrayList<GitCommitAction>();
                 for (final LogEntry<GitRepository, GitCommitKey> logEntry : logEntries) {
-                	actions.add(createGitRevisionAction(logEntry));
+                	actions.add(createGitRevisionAction(logEntry, inlineFileLimit));
                 }
 
                 /*
@@ -95,13 +105,13 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
                     actions = actions.subList(0, actions.size());
 
                     final int lastActionIndex = actions.size() - 1;
-                    GitCommitAction lastAction = actions.get(lastActionIndex);
 
                     /**
                      * The last action should have specialized class name so that we can use it to tell us when
                      * to render the more button.
                      */
-                    actions.set(lastActionIndex, createLastGitRevisionActionInPage(lastAction.getLogEntry()));
+                    actions.set(lastActionIndex, createLastGitRevisionActionInPage(logEntries.get(lastActionIndex), 
+                    		inlineFileLimit));
                 }
 
                 return actions;
@@ -149,24 +159,46 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
      * Creates an action for the specified {@code logEntry.
      * 
      * @param logEntry the log entry to create the action for. Must not be {@code null}
+     * @param inlineFileLimit the most files listed straight away
      * @return the action. Never {@code null}
      */
-    private GitCommitAction createGitRevisionAction(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    private GitCommitAction createGitRevisionAction(final LogEntry<GitRepository, GitCommitKey> logEntry, 
+    		final int inlineFileLimit) {
     	assert logEntry != null : "logEntry must not be null";
     	
-        return new GitCommitAction(logEntry, descriptor);
+        return cacheIfDeferred(new GitCommitAction(logEntry, descriptor, commitFragmentCache, inlineFileLimit), logEntry);
     }
 
     /**
      * Creates the special action for showing the last commit on the panel.
      * 
      * @param logEntry the log entry of the last commit to show. Must not be {@code null}
+     * @param inlineFileLimit the most files listed straight away
      * @return the last action. Never {@code null}
      */
-    private GitCommitAction createLastGitRevisionActionInPage(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    private GitCommitAction createLastGitRevisionActionInPage(final LogEntry<GitRepository, GitCommitKey> logEntry, 
+    		final int inlineFileLimit) {
     	assert logEntry != null : "logEntry must not be null";
     	
-        return new LastGitCommitActionInPage(logEntry, descriptor);
+        return cacheIfDeferred(new LastGitCommitActionInPage(logEntry, descriptor, commitFragmentCache, inlineFileLimit), 
+        		logEntry);
+    }
+
+    /**
+     * Holds the log entry of an action whose files will be loaded when expanded, so they needn't be read again.
+     * 
+     * @param action the action. Must not be {@code null}
+     * @param logEntry the log entry of the action. Must not be {@code null}
+     * @return the action. Never {@code null}
+     */
+    private GitCommitAction cacheIfDeferred(final GitCommitAction action, final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    	assert action != null : "action must not be null";
+    	assert logEntry != null : "logEntry must not be null";
+    	
+    	if (action.isFileListDeferred()) {
+    		logEntryCache.put(logEntry);
+    	}
+    	return action;
     }
 
     /**
@@ -182,14 +214,24 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
     }
 
     /**
-     * Gets whether to show the panel at all. The panel will be display if the user has permissions to view version control.
+     * Gets whether to show the panel at all. The panel will be displayed if the user has permissions to view version 
+     * control and any commits mention the issue, which is looked up without searching the index.
      */
 	@Override
     public boolean showPanel(final Issue issue, final User remoteUser) {
     	Validate.notNull(issue, "issue must not be null");
     	Validate.notNull(remoteUser, "remoteUser must not be null");
     	
-        return permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, remoteUser);
+        if (!permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, remoteUser)) {
+        	return false;
+        }
+        try {
+        	return gitCommitIndexer.getIssueCommitSummary(issue).getCommitCount() > 0;
+        } catch (final IndexException ie) {
+        	// Show the panel regardless, so that the problem is seen
+        	logger.error("There's a problem with the Git index.", ie);
+        	return true;
+        }
     }
 
     /**
@@ -198,8 +240,9 @@ public class GitCommitTabPanel extends AbstractIssueTabPanel {
      */
     private class LastGitCommitActionInPage extends GitCommitAction {
         public LastGitCommitActionInPage(final LogEntry<GitRepository, GitCommitKey> logEntry, 
-        		final IssueTabPanelModuleDescriptor descriptor) {
-            super(logEntry, descriptor);
+        		final IssueTabPanelModuleDescriptor descriptor, final CommitFragmentCache fragmentCache, 
+        		final int inlineFileLimit) {
+            super(logEntry, descriptor, fragmentCache, inlineFileLimit);
         }
     }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import jiracommitviewer.domain.DeletedCommitFile;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LinkFormatter;
+import jiracommitviewer.domain.LinkTemplate;
 import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.domain.ModifiedCommitFile;
 import jiracommitviewer.domain.RenamedCommitFile;
@@ -14,13 +15,19 @@ import jiracommitviewer.domain.RenamedCommitFile;
 import org.apache.commons.lang3.Validate;
 
 /**
- * The default link renderer for Git
+ * The default link renderer for Git.
+ * <p>
+ * Links are rendered from the formatter's compiled templates into a buffer that is reused between calls, so a
+ * renderer should be kept for all the links of a view. Not thread safe.
  */
 public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey> {
 	
-	private LinkFormatter linkFormatter;
+	private final LinkFormatter linkFormatter;
+	private final StringBuilder buffer = new StringBuilder(256);
     
     public GitLinkRenderer(final LinkFormatter linkFormatter) {
+    	Validate.notNull(linkFormatter, "linkFormatter must not be null");
+    	
     	this.linkFormatter = linkFormatter;
     }
 
@@ -31,7 +38,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 	public String getChangesetLink(final LogEntry<GitRepository, GitCommitKey> logEntry) {
 		Validate.notNull(logEntry, "logEntry must not be null");
 		
-		return replacePlaceholders(linkFormatter.getChangesetFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getChangesetTemplate(), logEntry.getCommitKey().getCommitHash(), 
 			logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), null, 
 			logEntry.getCommitKey().getCommitHash().substring(0, 5) + "...");
 	}
@@ -44,7 +51,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 		Validate.notNull(logEntry, "logEntry must not be null");
 		Validate.notNull(commitFile, "commitFile must not be null");
 		
-		return replacePlaceholders(linkFormatter.getFileAddedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileAddedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getPath(),
 				commitFile.getPath());
 	}
@@ -57,7 +64,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 		Validate.notNull(logEntry, "logEntry must not be null");
 		Validate.notNull(commitFile, "commitFile must not be null");
 		
-		return replacePlaceholders(linkFormatter.getFileModifiedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileModifiedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getPath(),
 				commitFile.getPath());
 	}
@@ -70,7 +77,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 		Validate.notNull(logEntry, "logEntry must not be null");
 		Validate.notNull(commitFile, "commitFile must not be null");
 		
-		return replacePlaceholders(linkFormatter.getFileReplacedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileReplacedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getFromPath(),
 				commitFile.getFromPath());
 	}
@@ -83,7 +90,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 		Validate.notNull(logEntry, "logEntry must not be null");
 		Validate.notNull(commitFile, "commitFile must not be null");
 		
-		return replacePlaceholders(linkFormatter.getFileAddedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileAddedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getToPath(),
 				commitFile.getToPath());
 	}
@@ -93,7 +100,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 	 */
 	@Override
 	public String getFileDeletedLink(final LogEntry<GitRepository, GitCommitKey> logEntry, final DeletedCommitFile commitFile) {
-		return replacePlaceholders(linkFormatter.getFileDeletedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileDeletedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getPath(),
 				commitFile.getPath());
 	}
@@ -103,7 +110,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 	 */
 	@Override
 	public String getFileCopiedLink(final LogEntry<GitRepository, GitCommitKey> logEntry, final CopiedCommitFile commitFile) {
-		return replacePlaceholders(linkFormatter.getFileAddedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileAddedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getFromPath(),
 				commitFile.getFromPath());
 	}
@@ -113,7 +120,7 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 	 */
 	@Override
 	public String getFileReplacedLink(final LogEntry<GitRepository, GitCommitKey> logEntry, final CopiedCommitFile commitFile) {
-		return replacePlaceholders(linkFormatter.getFileReplacedFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileReplacedTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getToPath(),
 				commitFile.getToPath());
 	}
@@ -123,43 +130,31 @@ public class GitLinkRenderer implements LinkRenderer<GitRepository, GitCommitKey
 	 */
 	@Override
 	public String getFileViewLink(final LogEntry<GitRepository, GitCommitKey> logEntry, final AbstractPathCommitFile commitFile) {
-		return replacePlaceholders(linkFormatter.getFileViewFormat(), logEntry.getCommitKey().getCommitHash(), 
+		return renderLink(linkFormatter.getFileViewTemplate(), logEntry.getCommitKey().getCommitHash(), 
 				logEntry.getParentCommitKey() == null ? null : logEntry.getParentCommitKey().getCommitHash(), commitFile.getPath(),
 				commitFile.getPath());
 	}
 
 	/**
-	 * Replaces placeholders found within the string form of {@code url} with the arguments provided.
-	 * Equivalent placeholders replaced are:
-	 * <pre>
-	 * ${id}
-	 * ${parent}
-	 * ${path}
-	 * </pre>
+	 * Renders a link from a compiled link format.
 	 * 
-	 * @param url the url whose placeholders to replace. Must not be {@code null}
+	 * @param template the template of the link. May be {@code null} to render just the link text
 	 * @param id the identifier for the commit, used to replace ${id}. Ignored if {@code null}
 	 * @param parent the parent identifier of the parent commit used to replace ${parent}. Ignored if {@code null}
 	 * @param path the path of the particular commit file, used to replace ${path}. Ignored if {@code null}
-	 * @parma linkText the text of the link. Must not be {@code null}
-	 * @return the complete HTML anchor tag. Never {@code null}
+	 * @param linkText the text of the link. Must not be {@code null}
+	 * @return the complete HTML anchor tag, or the escaped link text if there is no template. Never {@code null}
 	 */
-	private String replacePlaceholders(final String url, String id, final String parent, final String path,
+	private String renderLink(final LinkTemplate template, final String id, final String parent, final String path,
 			final String linkText) {
-		assert url != null : "url must not be null";
 		assert linkText != null : "linkText must not be null";
 		
-		String sUrl = url;
-		if (id != null) {
-			sUrl = sUrl.replace("${id}", id);
+		buffer.setLength(0);
+		if (template == null) {
+			LinkTemplate.appendHtml(buffer, linkText);
+		} else {
+			template.appendLink(buffer, id, parent, path, linkText);
 		}
-		if (parent != null) {
-			sUrl = sUrl.replace("${parent}", parent);
-		}
-		if (path != null) {
-			sUrl = sUrl.replace("${path}", path);
-		}
-		
-		return "<a href=\"" + sUrl + "\">" + linkText + "</a>";
+		return buffer.toString();
 	}
 }
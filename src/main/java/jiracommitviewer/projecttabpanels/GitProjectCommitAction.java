@@ -22,8 +22,9 @@ public class GitProjectCommitAction extends GitCommitAction {
 	
     protected final ProjectTabPanelModuleDescriptor projectDescriptor;
 
-    public GitProjectCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry, final ProjectTabPanelModuleDescriptor descriptor) {
-        super(logEntry, null);
+    public GitProjectCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry, final ProjectTabPanelModuleDescriptor descriptor,
+    		final int inlineFileLimit) {
+        super(logEntry, null, null, inlineFileLimit);
         this.projectDescriptor = descriptor;
     }
 
@@ -7,11 +7,13 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
+import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.index.GitCommitIndexer;
 import jiracommitviewer.index.exception.IndexException;
+import jiracommitviewer.repository.service.LogEntryCache;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -57,6 +59,10 @@ public class GitProjectTabPanel extends AbstractProjectTabPanel implements Proje
     private WebResourceManager webResourceManager;
     @Autowired
     private GitCommitIndexer gitCommitIndexer;
+    @Autowired
+    private RepositoryManager repositoryManager;
+    @Autowired
+    private LogEntryCache logEntryCache;
 
     /**
      * Instantiates a new instance.
@@ -151,8 +157,9 @@ public class GitProjectTabPanel extends AbstractProjectTabPanel implements Proje
             }
 
             if (logEntries.size() > 0) {
+            	final int inlineFileLimit = repositoryManager.getInlineFileLimit();
                 for (final LogEntry<GitRepository, GitCommitKey> logEntry : logEntries) {
-                	actions.add(createProjectCommitAction(logEntry));
+                	actions.add(createProjectCommitAction(logEntry, inlineFileLimit));
                 }
             }
         } catch (final IndexException ie) {
@@ -165,12 +172,19 @@ public class GitProjectTabPanel extends AbstractProjectTabPanel implements Proje
      * Creates the action for showing the commit on the panel.
      * 
      * @param logEntry the log entry to show. Must not be {@code null}
+     * @param inlineFileLimit the most files listed straight away
      * @return the action. Never {@code null}
      */
-    private GitProjectCommitAction createProjectCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+    private GitProjectCommitAction createProjectCommitAction(final LogEntry<GitRepository, GitCommitKey> logEntry, 
+    		final int inlineFileLimit) {
     	assert logEntry != null : "logEntry must not be null";
     	
-        return new GitProjectCommitAction(logEntry, descriptor);
+        final GitProjectCommitAction action = new GitProjectCommitAction(logEntry, descriptor, inlineFileLimit);
+        if (action.isFileListDeferred()) {
+        	// Hold the files for when they are expanded, so they needn't be read again
+        	logEntryCache.put(logEntry);
+        }
+        return action;
     }
 
     /**
@@ -0,0 +1,432 @@
+package jiracommitviewer.repository.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jiracommitviewer.domain.AddedCommitFile;
+import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.CopiedCommitFile;
+import jiracommitviewer.domain.DeletedCommitFile;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.ModifiedCommitFile;
+import jiracommitviewer.domain.RenamedCommitFile;
+
+import org.apache.commons.lang3.Validate;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Lists the files changed by commits of a single repository.
+ * <p>
+ * The engine keeps its object reader, tree parsers and rename detector from one commit to the next, rather than
+ * creating them for every commit. Adjacent commits in a walk share most of their trees and packs, so the reader's
+ * inflater and cached pack data are reused. Subtrees that are identical in a commit and its parent are skipped by
+ * their object identifiers without being read. When rename detection is off, or a commit only adds or only deletes
+ * files, changes are listed by name and status alone and no file content is loaded.
+ * <p>
+ * At most the repository's {@link GitRepository#getMaxCommitFiles() maximum number of files} are listed for a
+ * commit, while the rest are only counted. Renames are detected among the files listed, up to the repository's
+ * {@link GitRepository#getRenameLimit() rename limit}. Content similarity is not scored for large or binary files.
+ * <p>
+ * Not thread safe. Each walk should own its own engine and {@link #release() release} it once done.
+ *
+ * @author mark
+ */
+final class CommitDiffEngine {
+
+	/** Files larger than this, in bytes, are not compared by content when detecting renames. */
+	private static final int MAX_RENAME_BLOB_SIZE = 512 * 1024;
+
+	private final Repository fileRepository;
+	private final TreeFilter pathFilter;
+	private final int maxFiles;
+	private final int renameLimit;
+	private ObjectReader reader;
+	private RevWalk revWalk;
+	private TreeWalk treeWalk;
+	private CanonicalTreeParser oldTreeParser;
+	private CanonicalTreeParser newTreeParser;
+	private RenameDetector renameDetector;
+
+	/**
+	 * Creates a new engine.
+	 *
+	 * @param fileRepository the repository holding the commits. Must not be {@code null}
+	 * @param repository the repository giving the paths and limits. Must not be {@code null}
+	 */
+	CommitDiffEngine(final Repository fileRepository, final GitRepository repository) {
+		Validate.notNull(fileRepository, "fileRepository must not be null");
+		Validate.notNull(repository, "repository must not be null");
+
+		this.fileRepository = fileRepository;
+		this.pathFilter = createPathFilter(repository);
+		this.maxFiles = repository.getMaxCommitFiles();
+		this.renameLimit = repository.getRenameLimit();
+	}
+
+	/**
+	 * Creates a filter matching the files under the paths of the {@code repository}.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the filter, which is {@link TreeFilter#ALL} if the whole repository is indexed. Never {@code null}
+	 */
+	static TreeFilter createPathFilter(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		return repository.getPaths().isEmpty() ? TreeFilter.ALL : PathFilterGroup.createFromStrings(repository.getPaths());
+	}
+
+	/**
+	 * Gets the filter matching the files under the repository's paths.
+	 *
+	 * @return the path filter. Never {@code null}
+	 */
+	TreeFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	/**
+	 * Parses a commit through the engine's reader, so that commits looked up one after another share the reader and
+	 * its cached pack data.
+	 *
+	 * @param id the identifier of the commit. Must not be {@code null}
+	 * @return the commit with its headers parsed. Never {@code null}
+	 * @throws MissingObjectException if there is no such object in the repository
+	 * @throws IncorrectObjectTypeException if the object is not a commit
+	 * @throws IOException if the commit cannot be read
+	 */
+	RevCommit parseCommit(final AnyObjectId id) throws IOException {
+		Validate.notNull(id, "id must not be null");
+
+		open();
+		return revWalk.parseCommit(id);
+	}
+
+	/**
+	 * Tests whether the {@code commit} changes any file under the repository's paths. A commit without parents
+	 * changes every file in its tree, while any other commit is compared against its first parent, in the same way
+	 * that its changed files are listed.
+	 *
+	 * @param commit the commit. Must not be {@code null}
+	 * @return true if the commit changes any of the paths, which is always the case if the whole repository is
+	 * indexed
+	 * @throws IOException if the trees cannot be read
+	 */
+	boolean changesPaths(final RevCommit commit) throws IOException {
+		Validate.notNull(commit, "commit must not be null");
+
+		if (pathFilter == TreeFilter.ALL) {
+			return true;
+		}
+		if (commit.getParentCount() == 0) {
+			resetTreeWalk(pathFilter, null, commit);
+		} else {
+			resetTreeWalk(AndTreeFilter.create(TreeFilter.ANY_DIFF, pathFilter), parseParent(commit), commit);
+		}
+		return treeWalk.next();
+	}
+
+	/**
+	 * Gets the files changed by the {@code commit} against its first parent, or all files in its tree if it has no
+	 * parents.
+	 *
+	 * @param commit the commit. Must not be {@code null}
+	 * @return the files listed and the number left out. Never {@code null}
+	 * @throws IOException if the commit's trees or files cannot be read
+	 */
+	CommitFiles getCommitFiles(final RevCommit commit) throws IOException {
+		Validate.notNull(commit, "commit must not be null");
+
+		final List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+
+		// Initial commit. Any files on the commit's tree must be new
+		if (commit.getParentCount() == 0) {
+			final LimitingTreeFilter filter = new LimitingTreeFilter(pathFilter, maxFiles);
+			resetTreeWalk(filter, null, commit);
+			while (treeWalk.next()) {
+				commitFiles.add(new AddedCommitFile(treeWalk.getPathString()));
+			}
+			return new CommitFiles(commitFiles, filter.getOmittedCount());
+		}
+
+		// Nothing changed, such as a merge that took one side as it was
+		final RevCommit parent = parseParent(commit);
+		if (parent.getTree().equals(commit.getTree())) {
+			return CommitFiles.NONE;
+		}
+
+		// Diff this commit against the first parent. Identical subtrees are ruled out first so they are never entered
+		final LimitingTreeFilter filter = new LimitingTreeFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, pathFilter),
+				maxFiles);
+		resetTreeWalk(filter, parent, commit);
+		List<DiffEntry> diffs = DiffEntry.scan(treeWalk);
+		if (renameLimit > 0) {
+			diffs = detectRenames(diffs);
+		}
+		for (final DiffEntry diff : diffs) {
+			switch (diff.getChangeType()) {
+			case ADD:
+				commitFiles.add(new AddedCommitFile(diff.getNewPath()));
+				break;
+			case MODIFY:
+				commitFiles.add(new ModifiedCommitFile(diff.getOldPath()));
+				break;
+			case RENAME:
+				commitFiles.add(new RenamedCommitFile(diff.getOldPath(), diff.getNewPath()));
+				break;
+			case DELETE:
+				commitFiles.add(new DeletedCommitFile(diff.getOldPath()));
+				break;
+			case COPY:
+				commitFiles.add(new CopiedCommitFile(diff.getOldPath(), diff.getNewPath()));
+				break;
+			}
+		}
+		return new CommitFiles(commitFiles, filter.getOmittedCount());
+	}
+
+	/**
+	 * Releases the reader and the memory it holds. The engine may still be used afterwards, in which case a new
+	 * reader is created.
+	 */
+	void release() {
+		if (reader != null) {
+			revWalk.release();
+			treeWalk.release();
+			reader.release();
+		}
+		reader = null;
+		revWalk = null;
+		treeWalk = null;
+		oldTreeParser = null;
+		newTreeParser = null;
+		renameDetector = null;
+	}
+
+	/**
+	 * Creates the reader and the objects sharing it if they have been released.
+	 */
+	private void open() {
+		if (reader == null) {
+			reader = fileRepository.newObjectReader();
+			revWalk = new RevWalk(reader);
+			treeWalk = new TreeWalk(reader);
+			treeWalk.setRecursive(true);
+			oldTreeParser = new CanonicalTreeParser();
+			newTreeParser = new CanonicalTreeParser();
+		}
+	}
+
+	/**
+	 * Gets the first parent of the {@code commit}, making sure that it has been parsed.
+	 *
+	 * @param commit the commit. Must not be {@code null}
+	 * @return the parent. Never {@code null}
+	 * @throws IOException if the parent cannot be read
+	 */
+	RevCommit parseParent(final RevCommit commit) throws IOException {
+		Validate.notNull(commit, "commit must not be null");
+
+		open();
+		final RevCommit parent = commit.getParent(0);
+		// Does nothing if the walk producing the commit has already parsed it
+		revWalk.parseHeaders(parent);
+		return parent;
+	}
+
+	/**
+	 * Resets the tree walk to walk the trees of the {@code parent} and {@code commit}.
+	 *
+	 * @param filter the filter to walk with. Must not be {@code null}
+	 * @param parent the parent to compare against or {@code null} to only walk the {@code commit}
+	 * @param commit the commit. Must not be {@code null}
+	 * @throws IOException if a tree cannot be read
+	 */
+	private void resetTreeWalk(final TreeFilter filter, final RevCommit parent, final RevCommit commit) throws IOException {
+		assert filter != null : "filter must not be null";
+		assert commit != null : "commit must not be null";
+
+		open();
+		treeWalk.reset();
+		treeWalk.setFilter(filter);
+		if (parent != null) {
+			oldTreeParser.reset(reader, parent.getTree());
+			treeWalk.addTree(oldTreeParser);
+		}
+		newTreeParser.reset(reader, commit.getTree());
+		treeWalk.addTree(newTreeParser);
+	}
+
+	/**
+	 * Pairs up the added and deleted files among the {@code diffs} that are renames or copies of each other.
+	 * <p>
+	 * Identical files are always paired. Files are only compared by content when there are no more than the rename
+	 * limit of them added or deleted, as each added file is scored against each deleted one. Files larger than
+	 * {@link #MAX_RENAME_BLOB_SIZE} and binary files are left out of this, as scoring them is costly and of little use.
+	 *
+	 * @param diffs the changes of a commit. Must not be {@code null}
+	 * @return the changes with renames and copies paired up. Never {@code null}
+	 * @throws IOException if files cannot be read
+	 */
+	private List<DiffEntry> detectRenames(final List<DiffEntry> diffs) throws IOException {
+		assert diffs != null : "diffs must not be null";
+
+		int added = 0;
+		int deleted = 0;
+		for (final DiffEntry diff : diffs) {
+			if (diff.getChangeType() == DiffEntry.ChangeType.ADD) {
+				added++;
+			} else if (diff.getChangeType() == DiffEntry.ChangeType.DELETE) {
+				deleted++;
+			}
+		}
+		// Nothing can have been renamed, so there is no need to read any file
+		if (added == 0 || deleted == 0) {
+			return diffs;
+		}
+
+		if (renameDetector == null) {
+			renameDetector = new RenameDetector(fileRepository);
+			renameDetector.setRenameLimit(renameLimit);
+		} else {
+			renameDetector.reset();
+		}
+		final List<DiffEntry> unscored = new ArrayList<DiffEntry>();
+		// Over the limit, the detector only pairs identical files, which is cheap for files of any size
+		if (Math.max(added, deleted) <= renameLimit) {
+			for (final DiffEntry diff : diffs) {
+				if (diff.getChangeType() == DiffEntry.ChangeType.ADD && !isSimilarityScored(diff.getNewId())
+						|| diff.getChangeType() == DiffEntry.ChangeType.DELETE && !isSimilarityScored(diff.getOldId())) {
+					unscored.add(diff);
+				} else {
+					renameDetector.add(diff);
+				}
+			}
+		} else {
+			renameDetector.addAll(diffs);
+		}
+		final List<DiffEntry> detected = new ArrayList<DiffEntry>(renameDetector.compute(reader, NullProgressMonitor.INSTANCE));
+		detected.addAll(unscored);
+		return detected;
+	}
+
+	/**
+	 * Tests whether a file is small enough and textual, so that its content is worth comparing when detecting
+	 * renames.
+	 *
+	 * @param id the identifier of the file's blob. Must not be {@code null}
+	 * @return true if the file's content should be compared
+	 * @throws IOException if the file cannot be read
+	 */
+	private boolean isSimilarityScored(final AbbreviatedObjectId id) throws IOException {
+		assert id != null : "id must not be null";
+
+		if (!id.isComplete()) {
+			return false;
+		}
+		final ObjectLoader loader = reader.open(id.toObjectId(), Constants.OBJ_BLOB);
+		if (loader.isLarge() || loader.getSize() > MAX_RENAME_BLOB_SIZE) {
+			return false;
+		}
+		return !RawText.isBinary(loader.getCachedBytes());
+	}
+
+	/**
+	 * The files listed for a commit, along with the number left out of the list.
+	 */
+	static final class CommitFiles {
+		/** No files, for when they aren't wanted. */
+		static final CommitFiles NONE = new CommitFiles(Collections.<CommitFile>emptyList(), 0);
+
+		private final List<CommitFile> files;
+		private final int omittedCount;
+
+		private CommitFiles(final List<CommitFile> files, final int omittedCount) {
+			this.files = files;
+			this.omittedCount = omittedCount;
+		}
+
+		/**
+		 * Gets the files listed.
+		 *
+		 * @return the files. Never {@code null}
+		 */
+		List<CommitFile> getFiles() {
+			return files;
+		}
+
+		/**
+		 * Gets the number of files changed that were left out of the list.
+		 *
+		 * @return the number of files left out
+		 */
+		int getOmittedCount() {
+			return omittedCount;
+		}
+	}
+
+	/**
+	 * A filter that matches the files that another filter matches up to a maximum number, after which it only counts
+	 * them. Subtrees are passed on to the other filter so that the whole tree is still examined for the count.
+	 */
+	private static final class LimitingTreeFilter extends TreeFilter {
+
+		private final TreeFilter filter;
+		private final int maxFiles;
+		private int matchedCount;
+
+		private LimitingTreeFilter(final TreeFilter filter, final int maxFiles) {
+			this.filter = filter;
+			this.maxFiles = maxFiles;
+		}
+
+		@Override
+		public boolean include(final TreeWalk walker) throws IOException {
+			if (!filter.include(walker)) {
+				return false;
+			}
+			if (walker.isSubtree()) {
+				return true;
+			}
+			return ++matchedCount <= maxFiles;
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return filter.shouldBeRecursive();
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return new LimitingTreeFilter(filter.clone(), maxFiles);
+		}
+
+		/**
+		 * Gets the number of files that matched beyond the maximum.
+		 *
+		 * @return the number of files left out
+		 */
+		private int getOmittedCount() {
+			return Math.max(0, matchedCount - maxFiles);
+		}
+	}
+}
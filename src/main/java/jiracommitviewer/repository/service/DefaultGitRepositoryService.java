@@ -5,23 +5,26 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import jiracommitviewer.domain.AbstractPathCommitFile;
 import jiracommitviewer.domain.AddedCommitFile;
+import jiracommitviewer.domain.BranchFilter;
 import jiracommitviewer.domain.Commit;
 import jiracommitviewer.domain.CommitFile;
-import jiracommitviewer.domain.CopiedCommitFile;
 import jiracommitviewer.domain.DeletedCommitFile;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.domain.ModifiedCommitFile;
-import jiracommitviewer.domain.RenamedCommitFile;
 import jiracommitviewer.repository.exception.RepositoryException;
 
 import org.apache.commons.io.FileUtils;
@@ -43,35 +46,31 @@ import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.api.errors.UnmergedPathsException;
 import org.eclipse.jgit.api.errors.WrongRepositoryStateException;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
-import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.Connection;
+import org.eclipse.jgit.transport.FetchConnection;
 import org.eclipse.jgit.transport.FetchResult;
-import org.eclipse.jgit.transport.JschConfigSessionFactory;
-import org.eclipse.jgit.transport.OpenSshConfig.Host;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.SshSessionFactory;
 import org.eclipse.jgit.transport.SshTransport;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.URIish;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.joda.time.DateTimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Repository service for working with Git repositories.
@@ -80,13 +79,41 @@ import com.jcraft.jsch.Session;
  * 
  * @author mark
  */
-public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRepository, GitCommitKey> implements GitRepositoryService {
+public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRepository, GitCommitKey> implements GitRepositoryService,
+		DisposableBean {
 	
 	private final static Logger logger = LoggerFactory.getLogger(DefaultGitRepositoryService.class);
 	
-	/** Branch tracking structure for commit walking. We can use/update this so that we know which branch a particular
-	 * commit is on while walking. */
-	private Map<ObjectId, List<String>> branchTracker;
+	/** Files modified more recently than this cannot be trusted to show a later change by their timestamp alone, as
+	 * file systems may only record modification times to the second. */
+	private static final long RACY_MODIFICATION_MILLIS = 2500;
+	/** The file within an object directory listing other object directories to borrow objects from. */
+	private static final String ALTERNATES = "info" + File.separator + "alternates";
+	/** The file within a Git directory holding packed refs. */
+	private static final String PACKED_REFS = "packed-refs";
+	
+	/** Locks guarding the clone of each repository, keyed by repository identifier. Clones of different repositories
+	 * may be cloned and fetched concurrently. */
+	private final ConcurrentMap<Object, Object> repositoryLocks = new ConcurrentHashMap<Object, Object>();
+	/** Guards the linking of clones' object stores through alternates. Always acquired after any repository lock. */
+	private final Object sharedObjectsLock = new Object();
+	/** Progress of the fetches currently running, keyed by repository identifier. */
+	private final ConcurrentMap<Object, FetchProgressMonitor> fetchesInProgress = 
+			new ConcurrentHashMap<Object, FetchProgressMonitor>();
+	/** SSH session factories, keyed by host, private key and connect timeout. */
+	private final ConcurrentMap<String, PooledSshSessionFactory> sshSessionFactories = 
+			new ConcurrentHashMap<String, PooledSshSessionFactory>();
+
+	/**
+	 * Closes the SSH connections kept open between fetches.
+	 */
+	@Override
+	public void destroy() {
+		for (final PooledSshSessionFactory sshSessionFactory : sshSessionFactories.values()) {
+			sshSessionFactory.close();
+		}
+		sshSessionFactories.clear();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -98,17 +125,21 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 		logger.debug("Activating repository: " + repository.getId());
 		
 		try {
-			// Initialise a new repository at the set location. If it already exists, then this does
-			// nothing.
-			final Git git = Git.init()
-				.setBare(true)
-				.setDirectory(getRepositoryPath(repository.getId()))
-				.call();
-			
 			// Check the source repository
 			final URIish sourceUri = new URIish(repository.getUri());
+			if (repository.isDirect() && sourceUri.isRemote()) {
+				repository.setActive(false);
+				throw new RepositoryException("Only repositories on the local file system can be indexed in place");
+			}
+			
 			// See if we can open a transport to it
 			if (sourceUri.isRemote()) {
+				// Initialise a new repository at the set location. If it already exists, then this does
+				// nothing.
+				final Git git = Git.init()
+					.setBare(true)
+					.setDirectory(getRepositoryPath(repository.getId()))
+					.call();
 				final Transport transport = Transport.open(git.getRepository(), sourceUri);
 				configureTransport(transport, repository);
 				final Connection conn = transport.openFetch();
@@ -141,10 +172,8 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	public void remove(final GitRepository repository) throws RepositoryException {
 		Validate.notNull(repository, "repository must not be null");
 		
-		try {
-			FileUtils.deleteDirectory(getRepositoryPath(repository.getId()));
-		} catch (final IOException ioe) {
-			throw new RepositoryException("Cannot delete repository clone: " + ioe.getMessage(), ioe);
+		synchronized (getRepositoryLock(repository.getId())) {
+			deleteClone(repository.getId());
 		}
 	}
 
@@ -152,36 +181,26 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void cloneRepository(final GitRepository repository) throws RepositoryException {
+	public boolean cloneRepository(final GitRepository repository) throws RepositoryException {
 		Validate.notNull(repository, "repository must not be null");
 		
-		if (!isCloned(repository)) {
-			try {
-				FileUtils.deleteDirectory(getRepositoryPath(repository.getId()));
-			} catch (final IOException ioe) {
-				throw new RepositoryException("Cannot delete repository while preparing for new clone", ioe);
-			}
-
-			try {
-				Git.cloneRepository()
-				.setBare(true)
-				.setCloneAllBranches(true)
-				.setURI(repository.getUri())
-				.setDirectory(getRepositoryPath(repository.getId()))
-				.setTransportConfigCallback(new TransportConfigCallback() {
-					@Override
-					public void configure(final Transport transport) {
-						configureTransport(transport, repository);
-					}
-				})
-				.call();
-			} catch (final InvalidRemoteException e) {
-				throw new RepositoryException("Invalid remote", e);
-			} catch (final TransportException e) {
-				throw new RepositoryException("Transport error", e);
-			} catch (final GitAPIException e) {
-				throw new RuntimeException(e);
+		// Repositories indexed in place are never cloned
+		if (repository.isDirect()) {
+			return false;
+		}
+		
+		synchronized (getRepositoryLock(repository.getId())) {
+			if (isCloned(repository)) {
+				return false;
 			}
+			
+			deleteClone(repository.getId());
+			initClone(repository);
+			
+			// The clone is kept if the fetch fails part way, so that a later fetch retries it without being set up again
+			logger.info("Cloning repository " + repository.getId() + " from: " + repository.getUri());
+			fetch(repository);
+			return true;
 		}
 	}
 	
@@ -191,6 +210,12 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	@Override
     public boolean isCloned(final GitRepository repository) throws RepositoryException {
 		try {
+			// Resolved rather than opened, as opening goes through the repository cache and would hold a handle
+			if (repository.isDirect()) {
+				return RepositoryCache.FileKey.resolve(new File(new URIish(repository.getUri()).getPath()), FS.DETECTED)
+						!= null;
+			}
+			
 			final FileRepository fileRepository = getFileRepository(repository);
 			for (final RemoteConfig remoteConfig : RemoteConfig.getAllRemoteConfigs(fileRepository.getConfig())) {
 				for (final URIish uri : remoteConfig.getURIs()) {
@@ -210,30 +235,74 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized void fetch(final GitRepository repository) throws RepositoryException {
+	public boolean fetch(final GitRepository repository) throws RepositoryException {
 		Validate.notNull(repository, "repository must not be null");
 		
+		// There is nothing to fetch for repositories indexed in place but the source may have changed
+		if (repository.isDirect()) {
+			return true;
+		}
+		
 		logger.debug("Fetching from remote repository: " + repository.getUri());
 		
+		synchronized (getRepositoryLock(repository.getId())) {
+			final FileRepository fileRepository = getFileRepository(repository);
+			// The initial clone may take far longer than a normal fetch, so it is only bound by the read timeout
+			final boolean initialClone = !hasBranches(fileRepository);
+			final FetchProgressMonitor progressMonitor = new FetchProgressMonitor(fileRepository.getObjectsDirectory(), 
+					initialClone, initialClone ? 0 : (long)repository.getFetchTimeout() * DateTimeConstants.MILLIS_PER_MINUTE);
+			fetchesInProgress.put(repository.getId(), progressMonitor);
+			try {
+				final FetchResult result = Git.wrap(fileRepository)
+					.fetch()
+					.setRefSpecs(getFetchRefSpecs(repository.getBranchFilter()))
+					.setRemoveDeletedRefs(true)
+					.setProgressMonitor(progressMonitor)
+					.setTransportConfigCallback(new TransportConfigCallback() {
+						@Override
+						public void configure(final Transport transport) {
+							configureTransport(transport, repository);
+						}
+					})
+					.call();
+				logger.debug(result.getMessages());
+				final boolean removed = removeFilteredBranches(fileRepository, repository.getBranchFilter());
+				return !result.getTrackingRefUpdates().isEmpty() || removed;
+			} catch (final InvalidRemoteException e) {
+				throw new RuntimeException(e);
+			} catch (final TransportException e) {
+				if (progressMonitor.isTimedOut()) {
+					throw new RepositoryException("Fetch for repository " + repository.getId() + " timed out after " 
+							+ repository.getFetchTimeout() + " minutes", e);
+				}
+				throw new RepositoryException("Transport error whilst fetching for repository: " + repository.getId(), e);
+			} catch (final GitAPIException e) {
+				throw new RuntimeException(e);
+			} finally {
+				fetchesInProgress.remove(repository.getId());
+				fileRepository.close();
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isCloneComplete(final GitRepository repository) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		
+		if (!isCloned(repository)) {
+			return false;
+		}
+		if (repository.isDirect()) {
+			return true;
+		}
 		final FileRepository fileRepository = getFileRepository(repository);
 		try {
-			final FetchResult result = Git.wrap(fileRepository)
-				.fetch()
-				.setRemoveDeletedRefs(true)
-				.setTransportConfigCallback(new TransportConfigCallback() {
-					@Override
-					public void configure(final Transport transport) {
-						configureTransport(transport, repository);
-					}
-				})
-				.call();
-			logger.debug(result.getMessages());
-		} catch (final InvalidRemoteException e) {
-			throw new RuntimeException(e);
-		} catch (final TransportException e) {
-			throw new RepositoryException("Transport error whilst fetching for repository: " + repository.getId(), e);
-		} catch (final GitAPIException e) {
-			throw new RuntimeException(e);
+			return hasBranches(fileRepository);
+		} finally {
+			fileRepository.close();
 		}
 	}
 	
@@ -241,10 +310,70 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	 * {@inheritDoc}
 	 */
 	@Override
-	public synchronized LogEntryEnumerator<GitRepository, GitCommitKey> getLogEntries(final GitRepository repository, 
+	public FetchProgressMonitor getFetchProgress(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+		
+		return fetchesInProgress.get(repository.getId());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getRefState(final GitRepository repository) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		
+		final URIish uri;
+		try {
+			uri = new URIish(repository.getUri());
+		} catch (final URISyntaxException urise) {
+			throw new RepositoryException("URI syntax exception, please check that the syntax is correct", urise);
+		}
+		// The branch rules and paths are part of the state so that changing them causes the repository to be fetched
+		// and indexed
+		if (!uri.isRemote()) {
+			final String localState = getLocalRefState(new File(uri.getPath()));
+			return localState != null ? getScopeState(repository) + localState : null;
+		}
+		
+		final FileRepository fileRepository = getFileRepository(repository);
+		try {
+			final Map<String, ObjectId> heads = new TreeMap<String, ObjectId>();
+			for (final Ref ref : getAdvertisedRefs(fileRepository, repository)) {
+				if (ref.getName().startsWith(Constants.R_HEADS) && ref.getObjectId() != null
+						&& repository.getBranchFilter().matches(ref.getName().substring(Constants.R_HEADS.length()))) {
+					heads.put(ref.getName(), ref.getObjectId());
+				}
+			}
+			final StringBuilder state = new StringBuilder(getScopeState(repository));
+			for (final Map.Entry<String, ObjectId> head : heads.entrySet()) {
+				state.append(head.getKey()).append(' ').append(head.getValue().getName()).append('\n');
+			}
+			return state.toString();
+		} finally {
+			fileRepository.close();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LogEntryEnumerator<GitRepository, GitCommitKey> getLogEntries(final GitRepository repository, 
 			final Map<GitCommitKey, List<String>> commitKeys) throws RepositoryException {
 		Validate.notNull(repository, "repository must not be null");
 		
+		return getLogEntries(repository, commitKeys, true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LogEntryEnumerator<GitRepository, GitCommitKey> getLogEntries(final GitRepository repository, 
+			final Map<GitCommitKey, List<String>> commitKeys, final boolean includeFiles) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		
 		final FileRepository fileRepository = getFileRepository(repository);
 		
 		return new LogEntryEnumerator<GitRepository, GitCommitKey>() {
@@ -256,6 +385,11 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 			/** Will be false if we've already read the next entry and awaiting next() to be called to consume it. */
 			private boolean isNextConsumed = true;
 			private List<String> currentBranchList;
+			/** Branch tracking structure for commit walking. We use/update this so that we know which branch a particular
+			 * commit is on while walking. Owned by this enumerator so that several walks may proceed concurrently. */
+			private final Map<ObjectId, List<String>> branchTracker = new HashMap<ObjectId, List<String>>();
+			/** Lists the files of each commit, reusing its reader from one commit to the next. */
+			private final CommitDiffEngine diffEngine = new CommitDiffEngine(fileRepository, repository);
 			
 			// Represents the number of next() calls until we renew the walk. We do this to conserve memory
 			// following the advice  of the JGit documentation.
@@ -267,9 +401,9 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 					for (final Map.Entry<GitCommitKey, List<String>> commitKey : commitKeys.entrySet()) {
 						objectIds.put(ObjectId.fromString(commitKey.getKey().getCommitHash()), commitKey.getValue());
 					}
-					walk = createRevWalker(fileRepository, objectIds);
+					walk = createRevWalker(fileRepository, objectIds, branchTracker, repository.getBranchFilter());
 				} else {
-					walk = createRevWalker(fileRepository, null);
+					walk = createRevWalker(fileRepository, null, branchTracker, repository.getBranchFilter());
 				}
 			}
 			
@@ -285,7 +419,9 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 				}
 				
 				try {
-					return new LogEntry<GitRepository, GitCommitKey>(
+					final CommitDiffEngine.CommitFiles commitFiles = includeFiles 
+							? diffEngine.getCommitFiles(lastCommit) : CommitDiffEngine.CommitFiles.NONE;
+					final LogEntry<GitRepository, GitCommitKey> logEntry = new LogEntry<GitRepository, GitCommitKey>(
 							repository,
 							currentBranchList,
 							new GitCommitKey(lastCommit.getId().getName(), lastCommit.getCommitTime()),
@@ -294,9 +430,11 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 							lastCommit.getAuthorIdent().getName(),
 							new Date((long)lastCommit.getCommitTime() * 1000),
 							lastCommit.getFullMessage(),
-							getAllFilesFromCommit(fileRepository, lastCommit, walk),
+							commitFiles.getFiles(),
 							lastCommit.getParentCount() > 1
 					);
+					logEntry.setOmittedFileCount(commitFiles.getOmittedCount());
+					return logEntry;
 				} catch (final MissingObjectException e) {
 					throw new RepositoryException("An expected object is missing", e);
 				} catch (final IncorrectObjectTypeException e) {
@@ -315,23 +453,34 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 			}
 			
 			/**
-			 * Reads the next commit from the {@code walk} and updates the internal state.
+			 * Reads the next commit from the {@code walk} and updates the internal state. Commits that don't change any
+			 * of the repository's paths are passed over.
+			 * <p>
+			 * The path filter is applied here rather than set on the walk, as a walk with a tree filter rewrites the
+			 * parents of the commits it returns. That would lose the first parent that changed files are listed 
+			 * against and the merges that the branch tracker relies on.
 			 * 
 			 * @throws RepositoryException
 			 */
 			private void readNext() throws RepositoryException {
 				try {
 					lastLastCommit = lastCommit;
-					lastCommit = walk.next();
-					if (lastCommit != null) {
-						currentBranchList = updateBranchTracker(lastCommit);
-					}
-					
-					// Renew the walk after WALK_REFRESH_INTERVAL
-					if (--walkRefreshInterval == 0) {
-						walkRefreshInterval = WALK_REFRESH_INTERVAL;
-						walk.dispose();
-						walk = createRevWalker(fileRepository, new HashMap<ObjectId, List<String>>(branchTracker));
+					do {
+						lastCommit = walk.next();
+						if (lastCommit != null) {
+							currentBranchList = updateBranchTracker(lastCommit, branchTracker);
+						}
+						
+						// Renew the walk after WALK_REFRESH_INTERVAL
+						if (--walkRefreshInterval == 0) {
+							walkRefreshInterval = WALK_REFRESH_INTERVAL;
+							walk.dispose();
+							walk = createRevWalker(fileRepository, new HashMap<ObjectId, List<String>>(branchTracker), 
+									branchTracker, repository.getBranchFilter());
+						}
+					} while (lastCommit != null && !diffEngine.changesPaths(lastCommit));
+					if (lastCommit == null) {
+						diffEngine.release();
 					}
 					isNextConsumed = false;
 				} catch (final MissingObjectException e) {
@@ -355,26 +504,10 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 		Validate.notNull(commitKey, "commitKey must not be null");
 		
 		final FileRepository fileRepository = getFileRepository(repository);
-		final RevWalk walk = new RevWalk(fileRepository);
-		
-		final MutableObjectId objectId = new MutableObjectId();
-		objectId.fromString(commitKey.getCommitHash());
+		final CommitDiffEngine diffEngine = new CommitDiffEngine(fileRepository, repository);
 		try {
-			walk.markStart(walk.parseCommit(objectId));
-			final RevCommit commit = walk.next();
-			final RevCommit parentCommit = walk.next();
-			
-			return new LogEntry<GitRepository, GitCommitKey>(
-					repository,
-					null,
-					new GitCommitKey(commit.getId().getName(), commit.getCommitTime()),
-					parentCommit != null ? new GitCommitKey(parentCommit.getId().getName(), parentCommit.getCommitTime()) : null,
-					commit.getAuthorIdent().getName(),
-					new Date((long)commit.getCommitTime() * 1000),
-					commit.getFullMessage(),
-					getAllFilesFromCommit(fileRepository, commit, walk),
-					commit.getParentCount() > 1
-			);
+			return createLogEntry(repository, diffEngine, diffEngine.parseCommit(ObjectId.fromString(commitKey.getCommitHash())), 
+					true);
 		} catch (final MissingObjectException e1) {
 			throw new RepositoryException("Could not locate a commit for repository: " + repository.getId() + 
 					" and commit key: " + commitKey.marshal() + ". Does the commit for commitKey exist?", e1);
@@ -383,9 +516,88 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 					" and commit key: " + commitKey.marshal() + ". The object identified by commitKey doesn't appear to be a commit", e1);
 		} catch (final IOException e1) {
 			throw new RepositoryException("Repository access IO error for repository: " + repository.getId(), e1);
+		} finally {
+			diffEngine.release();
+			fileRepository.close();
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<LogEntry<GitRepository, GitCommitKey>> getLogEntriesByKey(final GitRepository repository, 
+			final Collection<GitCommitKey> commitKeys, final boolean includeFiles) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(commitKeys, "commitKeys must not be null");
+		
+		final List<LogEntry<GitRepository, GitCommitKey>> logEntries = 
+				new ArrayList<LogEntry<GitRepository, GitCommitKey>>(commitKeys.size());
+		if (commitKeys.isEmpty()) {
+			return logEntries;
+		}
+		final FileRepository fileRepository = getFileRepository(repository);
+		// A single engine, and so a single reader, serves every commit
+		final CommitDiffEngine diffEngine = new CommitDiffEngine(fileRepository, repository);
+		try {
+			for (final GitCommitKey commitKey : commitKeys) {
+				final RevCommit commit;
+				try {
+					commit = diffEngine.parseCommit(ObjectId.fromString(commitKey.getCommitHash()));
+				} catch (final MissingObjectException moe) {
+					logger.debug("Commit " + commitKey.marshal() + " is missing from repository: " + repository.getId());
+					logEntries.add(null);
+					continue;
+				} catch (final IncorrectObjectTypeException iote) {
+					logger.debug("Object " + commitKey.marshal() + " is not a commit in repository: " + repository.getId());
+					logEntries.add(null);
+					continue;
+				}
+				logEntries.add(createLogEntry(repository, diffEngine, commit, includeFiles));
+			}
+			return logEntries;
+		} catch (final IOException ioe) {
+			throw new RepositoryException("Repository access IO error for repository: " + repository.getId(), ioe);
+		} finally {
+			diffEngine.release();
+			fileRepository.close();
+		}
+	}
+	
+	/**
+	 * Creates the log entry for a {@code commit}, optionally listing its files against its first parent.
+	 * 
+	 * @param repository the repository holding the commit. Must not be {@code null}
+	 * @param diffEngine the engine that parsed the commit. Must not be {@code null}
+	 * @param commit the commit. Must not be {@code null}
+	 * @param includeFiles true to list the commit's files; false to leave them empty
+	 * @return the log entry, without branches. Never {@code null}
+	 * @throws IOException if the commit's parent or files cannot be read
+	 */
+	private LogEntry<GitRepository, GitCommitKey> createLogEntry(final GitRepository repository, 
+			final CommitDiffEngine diffEngine, final RevCommit commit, final boolean includeFiles) throws IOException {
+		assert repository != null : "repository must not be null";
+		assert diffEngine != null : "diffEngine must not be null";
+		assert commit != null : "commit must not be null";
+		
+		final RevCommit parentCommit = commit.getParentCount() > 0 ? diffEngine.parseParent(commit) : null;
+		final CommitDiffEngine.CommitFiles commitFiles = includeFiles 
+				? diffEngine.getCommitFiles(commit) : CommitDiffEngine.CommitFiles.NONE;
+		final LogEntry<GitRepository, GitCommitKey> logEntry = new LogEntry<GitRepository, GitCommitKey>(
+				repository,
+				null,
+				new GitCommitKey(commit.getId().getName(), commit.getCommitTime()),
+				parentCommit != null ? new GitCommitKey(parentCommit.getId().getName(), parentCommit.getCommitTime()) : null,
+				commit.getAuthorIdent().getName(),
+				new Date((long)commit.getCommitTime() * 1000),
+				commit.getFullMessage(),
+				commitFiles.getFiles(),
+				commit.getParentCount() > 1
+		);
+		logEntry.setOmittedFileCount(commitFiles.getOmittedCount());
+		return logEntry;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -402,9 +614,12 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 			final Map<String, GitCommitKey> branches = new HashMap<String, GitCommitKey>();
 			final RevWalk walk = new RevWalk(fileRepository);
 			for (final Ref branch : branchRefs) {
+				final String branchName = branch.getName().substring("refs/heads/".length());
+				if (!repository.getBranchFilter().matches(branchName)) {
+					continue;
+				}
 				final RevCommit revCommit = walk.parseCommit(branch.getObjectId());
-				branches.put(branch.getName().substring("refs/heads/".length()), 
-						new GitCommitKey(branch.getObjectId().getName(), revCommit.getCommitTime()));
+				branches.put(branchName, new GitCommitKey(branch.getObjectId().getName(), revCommit.getCommitTime()));
 			}
 			return branches;
 		} catch (final IOException ioe) {
@@ -414,6 +629,98 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<GitCommitKey, List<String>> getBranchesContaining(final GitRepository repository, 
+			final Collection<GitCommitKey> commitKeys) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(commitKeys, "commitKeys must not be null");
+		
+		final Map<GitCommitKey, List<String>> containing = new HashMap<GitCommitKey, List<String>>();
+		if (commitKeys.isEmpty()) {
+			return containing;
+		}
+		final Map<String, GitCommitKey> wanted = new HashMap<String, GitCommitKey>();
+		for (final GitCommitKey commitKey : commitKeys) {
+			wanted.put(commitKey.getCommitHash(), commitKey);
+		}
+		
+		final FileRepository fileRepository = getFileRepository(repository);
+		try {
+			final Map<ObjectId, List<String>> branchTracker = new HashMap<ObjectId, List<String>>();
+			final RevWalk walk = createRevWalker(fileRepository, null, branchTracker, repository.getBranchFilter());
+			try {
+				// Commit times can't bound the walk, as a commit may be dated later than its descendants, so the walk
+				// goes on until every commit is found or the history is exhausted
+				RevCommit commit;
+				while (!wanted.isEmpty() && (commit = walk.next()) != null) {
+					final List<String> branches = updateBranchTracker(commit, branchTracker);
+					final GitCommitKey commitKey = wanted.remove(commit.getName());
+					if (commitKey != null) {
+						containing.put(commitKey, new ArrayList<String>(branches));
+					}
+				}
+			} finally {
+				walk.dispose();
+			}
+			return containing;
+		} catch (final IOException ioe) {
+			throw new RepositoryException("IO error while walking repository: " + repository.getId(), ioe);
+		} finally {
+			fileRepository.close();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<GitCommitKey> getUnreachableCommits(final GitRepository repository, 
+			final Collection<GitCommitKey> commitKeys) throws RepositoryException {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(commitKeys, "commitKeys must not be null");
+		
+		final Map<ObjectId, GitCommitKey> unreached = new HashMap<ObjectId, GitCommitKey>();
+		for (final GitCommitKey commitKey : commitKeys) {
+			unreached.put(ObjectId.fromString(commitKey.getCommitHash()), commitKey);
+		}
+		
+		if (!unreached.isEmpty()) {
+			final FileRepository fileRepository = getFileRepository(repository);
+			try {
+				final RevWalk walk = createRevWalker(fileRepository, null, new HashMap<ObjectId, List<String>>(), 
+						repository.getBranchFilter());
+				try {
+					// Only the shape of the history is needed, not the messages
+					walk.setRetainBody(false);
+					// Commits found unreachable are removed from the index, so the walk can't be cut short by commit 
+					// times, which may be later than those of descendants. It goes on until every commit is reached or 
+					// the history is exhausted
+					RevCommit commit;
+					while (!unreached.isEmpty() && (commit = walk.next()) != null) {
+						unreached.remove(commit);
+					}
+				} finally {
+					walk.dispose();
+				}
+			} catch (final IOException ioe) {
+				throw new RepositoryException("IO error while walking repository: " + repository.getId(), ioe);
+			} finally {
+				fileRepository.close();
+			}
+		}
+		
+		final List<GitCommitKey> unreachable = new ArrayList<GitCommitKey>(unreached.size());
+		for (final GitCommitKey commitKey : commitKeys) {
+			if (unreached.containsKey(ObjectId.fromString(commitKey.getCommitHash()))) {
+				unreachable.add(commitKey);
+			}
+		}
+		return unreachable;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -705,64 +1012,15 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	}
 	
 	/**
-	 * Gets a list of files committed against the specified {@code commit}.
+	 * Gets the part of a repository's ref state that describes which parts of it are indexed.
 	 * 
-	 * @param fileRepository the repository to examine. Must not be {@code null}
-	 * @param commit the commit to get files for. Must not be {@code null}
-	 * @param walk the walker containing the {@code commit}. Must not be {@code null}
-	 * @return the list of files. Never {@code null}
-	 * @throws IOException 
-	 * @throws IncorrectObjectTypeException 
-	 * @throws MissingObjectException 
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the branch rules and paths, ending in a new line. Never {@code null}
 	 */
-	private List<CommitFile> getAllFilesFromCommit(final FileRepository fileRepository, final RevCommit commit, final RevWalk walk) 
-			throws MissingObjectException, IncorrectObjectTypeException, IOException {
-		assert fileRepository != null : "fileRepository must not be null";
-		assert commit != null : "commit must not be null";
-		assert walk != null : "walk must not be null";
-		
-		final List<CommitFile> commitFiles = new ArrayList<CommitFile>();
-		
-		// Initial commit. Any files on the commit's tree must be new
-		if (commit.getParentCount() == 0) {
-			TreeWalk tw = new TreeWalk(fileRepository);
-			tw.reset();
-			tw.setRecursive(true);
-			tw.addTree(commit.getTree());
-			while (tw.next()) {
-				commitFiles.add(new AddedCommitFile(tw.getPathString()));
-			}
-			tw.release();
-			return commitFiles;
-		}
-		
-		// Create a diff between this commit and the first parent and examine all the diff entries.
-		walk.parseCommit(commit.getParent(0).getId());
-		final DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
-		df.setRepository(fileRepository);
-		df.setDiffComparator(RawTextComparator.DEFAULT);
-		df.setDetectRenames(true);
-		final List<DiffEntry> diffs = df.scan(commit.getParent(0).getTree(), commit.getTree());
-		for (final DiffEntry diff : diffs) {
-			switch (diff.getChangeType()) {
-			case ADD:
-				commitFiles.add(new AddedCommitFile(diff.getNewPath()));
-				break;
-			case MODIFY:
-				commitFiles.add(new ModifiedCommitFile(diff.getOldPath()));
-				break;
-			case RENAME:
-				commitFiles.add(new RenamedCommitFile(diff.getOldPath(), diff.getNewPath()));
-				break;
-			case DELETE:
-				commitFiles.add(new DeletedCommitFile(diff.getOldPath()));
-				break;
-			case COPY:
-				commitFiles.add(new CopiedCommitFile(diff.getOldPath(), diff.getNewPath()));
-				break;
-			}
-		}
-		return commitFiles;
+	private String getScopeState(final GitRepository repository) {
+		assert repository != null : "repository must not be null";
+		
+		return repository.getBranchFilter() + " " + repository.getPaths() + "\n";
 	}
 	
 	/**
@@ -780,24 +1038,33 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	 * @param fileRepository the git repository to walk. Must not be {@code nul}
 	 * @param commitKeys the keys whose identity will be used to exclude these commmits and their parents. If {@code null} then all 
 	 * commits will be walked from all branch leafs
+	 * @param branchTracker the branch tracker to reset with the starting points of the walk. Must not be {@code null}
+	 * @param branchFilter decides which branch leafs to walk from when {@code commitKeys} is {@code null}. Must not be 
+	 * {@code null}
 	 * @return the revision walker instance. Never {@code null}
 	 * @throws RepositoryException if an error occurs while reading the repository
 	 */
-	private RevWalk createRevWalker(final FileRepository fileRepository, final Map<ObjectId, List<String>> commitKeys) 
-			throws RepositoryException {
+	private RevWalk createRevWalker(final FileRepository fileRepository, final Map<ObjectId, List<String>> commitKeys,
+			final Map<ObjectId, List<String>> branchTracker, final BranchFilter branchFilter) throws RepositoryException {
 		assert fileRepository != null : "fileRepository must not be null";
+		assert branchTracker != null : "branchTracker must not be null";
+		assert branchFilter != null : "branchFilter must not be null";
 		
 		try {
 			final RevWalk walk = new RevWalk(fileRepository);
-			branchTracker = new HashMap<ObjectId, List<String>>();
+			branchTracker.clear();
 			
 			if (commitKeys == null) {
 				for (final Ref branch : Git.wrap(fileRepository).branchList().call()) {
+					final String branchName = branch.getName().substring("refs/heads/".length());
+					if (!branchFilter.matches(branchName)) {
+						continue;
+					}
 					List<String> branches = branchTracker.get(branch.getObjectId());
 					if (branches != null) {
-						branches.add(branch.getName().substring("refs/heads/".length()));
+						branches.add(branchName);
 					} else {
-						branches = new ArrayList<String>(Arrays.asList(branch.getName().substring("refs/heads/".length())));
+						branches = new ArrayList<String>(Arrays.asList(branchName));
 					}
 					branchTracker.put(branch.getObjectId(), branches);
 					walk.markStart(walk.parseCommit(branch.getObjectId()));
@@ -826,11 +1093,13 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	 * {@code commit} in sequence while walking.
 	 * 
 	 * @param commit the commit. Must not be {@code null}
+	 * @param branchTracker the branch tracker of the walk producing {@code commit}. Must not be {@code null}
 	 * @return the branch that the specified {@code commit} belongs to. Never {@code null}
 	 * @throws IllegalStateException if the commit's branch isn't known (internal error)
 	 */
-	private List<String> updateBranchTracker(final RevCommit commit) {
+	private List<String> updateBranchTracker(final RevCommit commit, final Map<ObjectId, List<String>> branchTracker) {
 		assert commit != null : "commit must not be null";
+		assert branchTracker != null : "branchTracker must not be null";
 		
 		final List<String> branchNames = branchTracker.get(commit);
 		if (branchNames == null) {
@@ -855,6 +1124,9 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 	
 	/**
 	 * Gets the underlying native Git repository object from domain object.
+	 * <p>
+	 * For repositories indexed in place this is the source repository itself. It is opened through the
+	 * {@link RepositoryCache} so that walks and single commit lookups share one handle along with its pack indexes.
 	 *  
 	 * @param repository the repository to get for. Must not be {@code null}
 	 * @return the native Git repository. Never {@code null}
@@ -864,12 +1136,464 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
 		assert repository != null : "repository must not be null";
 		
 		try {
+			if (repository.isDirect()) {
+				final File sourcePath = new File(new URIish(repository.getUri()).getPath());
+				final File gitDir = RepositoryCache.FileKey.resolve(sourcePath, FS.DETECTED);
+				if (gitDir == null) {
+					throw new RepositoryException("Not a Git repository: " + sourcePath);
+				}
+				return (FileRepository)RepositoryCache.open(RepositoryCache.FileKey.exact(gitDir, FS.DETECTED), true);
+			}
 			return new FileRepository(getRepositoryPath(repository.getId()));
 		} catch (final IOException ioe) {
 			throw new RepositoryException("IOError while attempting to open repository", ioe);
+		} catch (final URISyntaxException urise) {
+			throw new RepositoryException("URI syntax exception, please check that the syntax is correct", urise);
 		}
 	}
     
+    /**
+     * Gets a fingerprint of the branches of a repository on the local file system from the modification state of its
+     * loose branch ref files and its {@code packed-refs} file. Nothing is parsed.
+     * 
+     * @param directory the repository's working directory or Git directory. Must not be {@code null}
+     * @return the fingerprint or {@code null} if a ref was modified too recently to trust its timestamp
+     * @throws RepositoryException if {@code directory} is not a Git repository
+     */
+    private String getLocalRefState(final File directory) throws RepositoryException {
+    	assert directory != null : "directory must not be null";
+    	
+    	final File gitDir = RepositoryCache.FileKey.resolve(directory, FS.DETECTED);
+    	if (gitDir == null) {
+    		throw new RepositoryException("Not a Git repository: " + directory);
+    	}
+    	
+    	final long racyTime = System.currentTimeMillis() - RACY_MODIFICATION_MILLIS;
+    	final StringBuilder state = new StringBuilder();
+    	if (!appendFileState(state, new File(gitDir, PACKED_REFS), PACKED_REFS, racyTime) 
+    			|| !appendDirectoryState(state, new File(gitDir, Constants.R_HEADS), Constants.R_HEADS, racyTime)) {
+    		return null;
+    	}
+    	return state.toString();
+    }
+    
+    /**
+     * Appends the modification state of every file beneath {@code directory} in a stable order.
+     * 
+     * @param state the state to append to. Must not be {@code null}
+     * @param directory the directory to scan. Must not be {@code null}
+     * @param name the name to record the directory under. Must not be {@code null}
+     * @param racyTime files modified after this time cause the scan to fail
+     * @return false if a file was modified after {@code racyTime}
+     */
+    private boolean appendDirectoryState(final StringBuilder state, final File directory, final String name, 
+    		final long racyTime) {
+    	assert state != null : "state must not be null";
+    	assert directory != null : "directory must not be null";
+    	assert name != null : "name must not be null";
+    	
+    	final File[] files = directory.listFiles();
+    	if (files == null) {
+    		return true;
+    	}
+    	Arrays.sort(files);
+    	for (final File file : files) {
+    		final boolean trusted = file.isDirectory() 
+    				? appendDirectoryState(state, file, name + file.getName() + "/", racyTime)
+    				: appendFileState(state, file, name + file.getName(), racyTime);
+    		if (!trusted) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Appends the modification state of a single {@code file}. A missing file is recorded as such.
+     * 
+     * @param state the state to append to. Must not be {@code null}
+     * @param file the file. Must not be {@code null}
+     * @param name the name to record the file under. Must not be {@code null}
+     * @param racyTime if the file was modified after this time, nothing is appended
+     * @return false if the file was modified after {@code racyTime}
+     */
+    private boolean appendFileState(final StringBuilder state, final File file, final String name, final long racyTime) {
+    	assert state != null : "state must not be null";
+    	assert file != null : "file must not be null";
+    	assert name != null : "name must not be null";
+    	
+    	final long lastModified = file.lastModified();
+    	if (lastModified > racyTime) {
+    		return false;
+    	}
+    	state.append(name).append(' ').append(lastModified).append(' ').append(file.length()).append('\n');
+    	return true;
+    }
+    
+    /**
+     * Gets the lock object guarding the clone of the repository identified by {@code id}.
+     * 
+     * @param id the identifier of the repository to get the lock for. Must not be {@code null}
+     * @return the lock. Never {@code null}
+     */
+    private Object getRepositoryLock(final Object id) {
+    	assert id != null : "id must not be null";
+    	
+    	final Object lock = new Object();
+    	final Object existing = repositoryLocks.putIfAbsent(String.valueOf(id), lock);
+    	return existing != null ? existing : lock;
+    }
+    
+    /**
+     * Lists the refs advertised by the source of the {@code repository}, in the same way as {@code git ls-remote}.
+     * 
+     * @param local the local repository to open the transport from. Must not be {@code null}
+     * @param repository the repository whose source to list. Must not be {@code null}
+     * @return the advertised refs. Never {@code null}
+     * @throws RepositoryException if the source cannot be contacted
+     */
+    private Collection<Ref> getAdvertisedRefs(final FileRepository local, final GitRepository repository) 
+    		throws RepositoryException {
+    	assert local != null : "local must not be null";
+    	assert repository != null : "repository must not be null";
+    	
+    	try {
+    		final Transport transport = Transport.open(local, new URIish(repository.getUri()));
+    		try {
+    			configureTransport(transport, repository);
+    			final FetchConnection connection = transport.openFetch();
+    			try {
+    				return connection.getRefs();
+    			} finally {
+    				connection.close();
+    			}
+    		} finally {
+    			transport.close();
+    		}
+    	} catch (final URISyntaxException urise) {
+    		throw new RepositoryException("URI syntax exception, please check that the syntax is correct", urise);
+    	} catch (final IOException ioe) {
+    		throw new RepositoryException("Error listing remote refs for repository: " + repository.getId(), ioe);
+    	}
+    }
+    
+    /**
+     * Creates an empty clone of the {@code repository} that is set up to fetch all branches from it. Nothing is 
+     * downloaded until the clone is fetched.
+     * <p>
+     * Forks of a repository that is already cloned share its objects rather than downloading them again. Such a fork 
+     * is detected by looking for the tip of any advertised branch or tag in the other clones, whose object store is 
+     * then linked through Git alternates so that the fetch only downloads objects that are missing from it.
+     * 
+     * @param repository the repository to clone. Its clone directory must not exist. Must not be {@code null}
+     * @throws RepositoryException if an error occurs whilst creating the clone
+     */
+    private void initClone(final GitRepository repository) throws RepositoryException {
+    	assert repository != null : "repository must not be null";
+    	
+    	final FileRepository fileRepository;
+    	try {
+    		fileRepository = (FileRepository)Git.init().setBare(true).setDirectory(getRepositoryPath(repository.getId()))
+    				.call().getRepository();
+    	} catch (final GitAPIException e) {
+    		throw new RuntimeException(e);
+    	}
+    	
+    	try {
+    		final Collection<Ref> refs = getAdvertisedRefs(fileRepository, repository);
+    		// Hold the lock until the alternates are written so that the shared clone can't be deleted in between
+    		synchronized (sharedObjectsLock) {
+	    		final String sharedId = findCloneSharingHistory(repository.getId(), refs);
+	    		if (sharedId != null) {
+	    			logger.info("Repository " + repository.getId() + " shares history with " + sharedId + "; sharing its objects");
+	    			writeAlternates(fileRepository, Arrays.asList(getRelativeObjectsPath(sharedId)));
+	    		}
+    		}
+    		
+    		// Configuring the remote marks the clone as existing so this must come last
+    		final StoredConfig config = fileRepository.getConfig();
+    		final RemoteConfig remoteConfig = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+    		remoteConfig.addURI(new URIish(repository.getUri()));
+    		remoteConfig.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+    				.setSourceDestination(Constants.R_HEADS + "*", Constants.R_HEADS + "*"));
+    		remoteConfig.update(config);
+    		config.save();
+    	} catch (final IOException ioe) {
+    		throw new RepositoryException("IO error while preparing clone for repository: " + repository.getId(), ioe);
+    	} catch (final URISyntaxException urise) {
+    		throw new RepositoryException("URI syntax exception, please check that the syntax is correct", urise);
+    	} finally {
+    		fileRepository.close();
+    	}
+    }
+    
+    /**
+     * Gets the ref specs to fetch with. These are limited to the included branches where the {@code branchFilter}
+     * allows it, otherwise all branches are fetched and those not included are removed after the fetch.
+     * 
+     * @param branchFilter the branch rules of the repository being fetched. Must not be {@code null}
+     * @return the ref specs. Never {@code null}
+     */
+    private List<RefSpec> getFetchRefSpecs(final BranchFilter branchFilter) {
+    	assert branchFilter != null : "branchFilter must not be null";
+    	
+    	final List<RefSpec> refSpecs = new ArrayList<RefSpec>();
+    	for (final String prefix : branchFilter.getFetchPrefixes()) {
+    		refSpecs.add(new RefSpec().setForceUpdate(true)
+    				.setSourceDestination(Constants.R_HEADS + prefix + "*", Constants.R_HEADS + prefix + "*"));
+    	}
+    	if (refSpecs.isEmpty()) {
+    		refSpecs.add(new RefSpec().setForceUpdate(true)
+    				.setSourceDestination(Constants.R_HEADS + "*", Constants.R_HEADS + "*"));
+    	}
+    	return refSpecs;
+    }
+    
+    /**
+     * Deletes the branches of a clone that its repository's {@code branchFilter} doesn't include. These are either
+     * fetched because the rules can't be expressed as ref specs or are left over from before the rules changed.
+     * 
+     * @param fileRepository the clone. Must not be {@code null}
+     * @param branchFilter the branch rules of the repository. Must not be {@code null}
+     * @return true if any branch was deleted
+     * @throws RepositoryException if the branches cannot be read or deleted
+     */
+    private boolean removeFilteredBranches(final FileRepository fileRepository, final BranchFilter branchFilter) 
+    		throws RepositoryException {
+    	assert fileRepository != null : "fileRepository must not be null";
+    	assert branchFilter != null : "branchFilter must not be null";
+    	
+    	if (branchFilter.isAll()) {
+    		return false;
+    	}
+    	try {
+    		boolean removed = false;
+    		for (final Ref ref : fileRepository.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
+    			final String branchName = ref.getName().substring(Constants.R_HEADS.length());
+    			if (branchFilter.matches(branchName)) {
+    				continue;
+    			}
+    			final RefUpdate refUpdate = fileRepository.updateRef(ref.getName());
+    			refUpdate.setForceUpdate(true);
+    			final RefUpdate.Result result = refUpdate.delete();
+    			if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+    				throw new RepositoryException("Could not remove excluded branch " + branchName + ": " + result);
+    			}
+    			removed = true;
+    		}
+    		return removed;
+    	} catch (final IOException ioe) {
+    		throw new RepositoryException("IO error removing excluded branches of clone: " + fileRepository.getDirectory(), ioe);
+    	}
+    }
+    
+    /**
+     * Tests whether the clone has any branches, which it won't until its first fetch has completed.
+     * 
+     * @param fileRepository the clone. Must not be {@code null}
+     * @return true if it has at least one branch
+     * @throws RepositoryException if the refs cannot be read
+     */
+    private boolean hasBranches(final FileRepository fileRepository) throws RepositoryException {
+    	assert fileRepository != null : "fileRepository must not be null";
+    	
+    	try {
+    		return !fileRepository.getRefDatabase().getRefs(Constants.R_HEADS).isEmpty();
+    	} catch (final IOException ioe) {
+    		throw new RepositoryException("Cannot read branches of clone: " + fileRepository.getDirectory(), ioe);
+    	}
+    }
+    
+    /**
+     * Finds an existing clone that contains any of the {@code refs}' objects.
+     * 
+     * @param id the identifier of the repository being cloned, which is not considered. Must not be {@code null}
+     * @param refs the refs advertised by the repository being cloned. Must not be {@code null}
+     * @return the identifier of the matching clone or {@code null} if there is none
+     * @throws IOException if an error occurs whilst reading a clone
+     */
+    private String findCloneSharingHistory(final Object id, final Collection<Ref> refs) throws IOException {
+    	assert id != null : "id must not be null";
+    	assert refs != null : "refs must not be null";
+    	
+    	final File[] clones = getIndexPath().listFiles();
+    	if (clones == null || refs.isEmpty()) {
+    		return null;
+    	}
+    	for (final File clone : clones) {
+    		final File clonePath = new File(clone, "repo");
+    		if (clone.getName().equals(String.valueOf(id)) || !new File(clonePath, "objects").isDirectory()) {
+    			continue;
+    		}
+    		final FileRepository candidate = new FileRepository(clonePath);
+    		try {
+    			for (final Ref ref : refs) {
+    				final ObjectId objectId = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+    				if (objectId != null && candidate.hasObject(objectId)) {
+    					return clone.getName();
+    				}
+    			}
+    		} finally {
+    			candidate.close();
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * Deletes the clone of the repository identified by {@code id}. Any other clones that borrow objects from it
+     * through alternates are first given their own copies of those objects.
+     * 
+     * @param id the identifier of the repository. Must not be {@code null}
+     * @throws RepositoryException if the clone cannot be deleted
+     */
+    private void deleteClone(final Object id) throws RepositoryException {
+    	assert id != null : "id must not be null";
+    	
+    	final File objectsPath = new File(getRepositoryPath(id), "objects");
+    	synchronized (sharedObjectsLock) {
+	    	try {
+	    		final File[] clones = objectsPath.isDirectory() ? getIndexPath().listFiles() : null;
+	    		if (clones != null) {
+	    			for (final File clone : clones) {
+	    				if (!clone.getName().equals(String.valueOf(id))) {
+	    					dissociate(new File(clone, "repo"), objectsPath);
+	    				}
+	    			}
+	    		}
+	    		FileUtils.deleteDirectory(getRepositoryPath(id));
+	    	} catch (final IOException ioe) {
+	    		throw new RepositoryException("Cannot delete repository clone: " + ioe.getMessage(), ioe);
+	    	}
+    	}
+    }
+    
+    /**
+     * Stops the clone at {@code clonePath} borrowing objects from {@code objectsPath}, if it does. The objects are
+     * copied in to the clone and any alternates of {@code objectsPath} are inherited.
+     * 
+     * @param clonePath the clone that may borrow objects. Must not be {@code null}
+     * @param objectsPath the object directory being removed. Must not be {@code null}
+     * @throws IOException if an error occurs whilst copying
+     */
+    private void dissociate(final File clonePath, final File objectsPath) throws IOException {
+    	assert clonePath != null : "clonePath must not be null";
+    	assert objectsPath != null : "objectsPath must not be null";
+    	
+    	final File cloneObjectsPath = new File(clonePath, "objects");
+    	final List<String> alternates = readAlternates(cloneObjectsPath);
+    	final List<String> newAlternates = new ArrayList<String>();
+    	boolean borrows = false;
+    	for (final String alternate : alternates) {
+    		if (resolveAlternate(cloneObjectsPath, alternate).getCanonicalFile().equals(objectsPath.getCanonicalFile())) {
+    			borrows = true;
+    		} else {
+    			newAlternates.add(alternate);
+    		}
+    	}
+    	if (!borrows) {
+    		return;
+    	}
+    	
+    	logger.info("Copying shared objects in to " + clonePath + " before removing " + objectsPath);
+    	final File[] children = objectsPath.listFiles();
+    	if (children != null) {
+    		for (final File child : children) {
+    			if (child.isDirectory() && !"info".equals(child.getName())) {
+    				FileUtils.copyDirectory(child, new File(cloneObjectsPath, child.getName()));
+    			}
+    		}
+    	}
+    	// Anything the removed store borrowed must still be reachable, so keep its alternates as absolute paths
+    	for (final String inherited : readAlternates(objectsPath)) {
+    		final String path = resolveAlternate(objectsPath, inherited).getCanonicalPath();
+    		if (!newAlternates.contains(path) && !new File(path).equals(cloneObjectsPath.getCanonicalFile())) {
+    			newAlternates.add(path);
+    		}
+    	}
+    	final FileRepository fileRepository = new FileRepository(clonePath);
+    	try {
+    		writeAlternates(fileRepository, newAlternates);
+    	} finally {
+    		fileRepository.close();
+    	}
+    }
+    
+    /**
+     * Reads the alternates of the object directory at {@code objectsPath}.
+     * 
+     * @param objectsPath the object directory. Must not be {@code null}
+     * @return the alternate paths as written in the file. Never {@code null}
+     * @throws IOException if the alternates file cannot be read
+     */
+    @SuppressWarnings("unchecked")
+	private List<String> readAlternates(final File objectsPath) throws IOException {
+    	assert objectsPath != null : "objectsPath must not be null";
+    	
+    	final File alternatesFile = new File(objectsPath, ALTERNATES);
+    	if (!alternatesFile.isFile()) {
+    		return new ArrayList<String>();
+    	}
+    	final List<String> alternates = new ArrayList<String>();
+    	for (final String line : (List<String>)FileUtils.readLines(alternatesFile, "UTF-8")) {
+    		if (line.trim().length() > 0 && !line.startsWith("#")) {
+    			alternates.add(line.trim());
+    		}
+    	}
+    	return alternates;
+    }
+    
+    /**
+     * Replaces the alternates of the {@code fileRepository}'s object directory. An empty list removes the file.
+     * 
+     * @param fileRepository the repository. Must not be {@code null}
+     * @param alternates the alternate object directories, absolute or relative to the object directory. Must not
+     * be {@code null}
+     * @throws IOException if the alternates file cannot be written
+     */
+    private void writeAlternates(final FileRepository fileRepository, final List<String> alternates) throws IOException {
+    	assert fileRepository != null : "fileRepository must not be null";
+    	assert alternates != null : "alternates must not be null";
+    	
+    	final File alternatesFile = new File(fileRepository.getObjectsDirectory(), ALTERNATES);
+    	if (alternates.isEmpty()) {
+    		if (alternatesFile.exists() && !alternatesFile.delete()) {
+    			throw new IOException("Cannot delete alternates file: " + alternatesFile);
+    		}
+    	} else {
+    		FileUtils.writeLines(alternatesFile, "UTF-8", alternates, "\n");
+    	}
+    }
+    
+    /**
+     * Resolves an entry of an alternates file, which may be relative to the object directory containing it.
+     * 
+     * @param objectsPath the object directory holding the alternates file. Must not be {@code null}
+     * @param alternate the entry. Must not be {@code null}
+     * @return the alternate object directory. Never {@code null}
+     */
+    private File resolveAlternate(final File objectsPath, final String alternate) {
+    	assert objectsPath != null : "objectsPath must not be null";
+    	assert alternate != null : "alternate must not be null";
+    	
+    	final File file = new File(alternate);
+    	return file.isAbsolute() ? file : new File(objectsPath, alternate);
+    }
+    
+    /**
+     * Gets the path of the object directory of the clone identified by {@code id} relative to the object directory
+     * of any other clone. Relative paths keep working if the index directory is moved.
+     * 
+     * @param id the repository identifier. Must not be {@code null}
+     * @return the relative path. Never {@code null}
+     */
+    private String getRelativeObjectsPath(final Object id) {
+    	assert id != null : "id must not be null";
+    	
+    	// From <index>/<id>/repo/objects back up to <index>
+    	return "../../../" + id + "/repo/objects";
+    }
+    
     /**
      * Gets the directory at which the cloned repository is stored.
      * 
@@ -883,8 +1607,12 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
     }
     
     /**
-     * Gets the an SshSessionFactory that is customised to allow for authentication for the specified
+     * Gets the SshSessionFactory that is customised to allow for authentication for the specified
      * {@code repository}. This is used when connecting to a Git repository over an SSH tunnel.
+     * <p>
+     * Factories are shared by all repositories on the same host that use the same private key and connect timeout, 
+     * so that the key is only loaded once and their connections to the host are reused. Repositories on different 
+     * hosts use different factories so that connecting to an unresponsive host doesn't hold up connecting to others.
      * 
      * @param repository the repository to get the session factory for. Must not be {@code null}
      * @return the session factory. Never {@code null}
@@ -892,21 +1620,23 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
     private SshSessionFactory getSshSessionFactory(final GitRepository repository) {
     	assert repository != null : "repository must not be null";
     	
-    	final SshSessionFactory sshSessionFactory = new JschConfigSessionFactory() {
-    		@Override
-    		protected void configure(final Host hc, final Session session) {
+    	String host;
+    	try {
+    		final URIish uri = new URIish(repository.getUri());
+    		host = uri.getHost() + ":" + uri.getPort();
+    	} catch (final URISyntaxException urise) {
+    		host = repository.getUri();
+    	}
+    	final String key = host + "|" + repository.getPrivateKeyPath() + "|" + repository.getConnectTimeout();
+    	PooledSshSessionFactory sshSessionFactory = sshSessionFactories.get(key);
+    	if (sshSessionFactory == null) {
+    		final PooledSshSessionFactory newFactory = new PooledSshSessionFactory(repository.getPrivateKeyPath(), 
+    				repository.getConnectTimeout() * DateTimeConstants.MILLIS_PER_SECOND);
+    		sshSessionFactory = sshSessionFactories.putIfAbsent(key, newFactory);
+    		if (sshSessionFactory == null) {
+    			sshSessionFactory = newFactory;
     		}
-			@Override
-			protected JSch createDefaultJSch(final FS fs) throws JSchException {
-				JSch.setConfig("StrictHostKeyChecking", "no");
-				
-				final JSch jsch = new JSch();
-				if (repository.getPrivateKeyPath() != null) {
-					jsch.addIdentity(repository.getPrivateKeyPath().getPath());
-				}
-		    	return jsch;
-			}
-		};
+    	}
 		return sshSessionFactory;
     }
     
@@ -920,6 +1650,9 @@ public class DefaultGitRepositoryService extends AbstractRepositoryService<GitRe
     	assert transport != null : "transport must not be null";
     	assert repository != null : "repository must not be null";
     	
+    	// Give up on a remote that stops responding. Besides reads, JGit uses this as the connect timeout for HTTP
+    	transport.setTimeout(repository.getReadTimeout());
+    	
     	// Configure private key for SSH
     	if (transport instanceof SshTransport) {
 			((SshTransport)transport).setSshSessionFactory(getSshSessionFactory(repository));
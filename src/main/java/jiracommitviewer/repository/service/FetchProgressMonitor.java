@@ -0,0 +1,162 @@
+package jiracommitviewer.repository.service;
+
+import java.io.File;
+
+import org.apache.commons.lang3.Validate;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Tracks the progress of a fetch in to a clone so that it can be shown on the administration pages while the fetch
+ * runs in the background.
+ * <p>
+ * JGit reports the current phase (such as "Receiving objects") and the amount of work done in it. The number of
+ * bytes received is not reported, so it is measured from the size of the incoming pack file being written to the
+ * clone.
+ * <p>
+ * A fetch may be given a deadline, after which the monitor asks JGit to cancel it. JGit checks for cancellation as 
+ * data arrives, so this bounds fetches that are slowly but steadily receiving data; a remote that stops sending 
+ * altogether is caught by the transport's read timeout instead.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class FetchProgressMonitor implements ProgressMonitor {
+
+	/** The prefix JGit gives to pack files while they are being received. */
+	private static final String INCOMING_PACK_PREFIX = "incoming_";
+
+	private final File objectsDirectory;
+	private final boolean initialClone;
+	private final long startTime = System.currentTimeMillis();
+	private final long deadline;
+	private volatile String phase;
+	private volatile int totalWork;
+	private volatile int completedWork;
+
+	/**
+	 * Creates a new monitor.
+	 *
+	 * @param objectsDirectory the object directory of the clone being fetched in to. Must not be {@code null}
+	 * @param initialClone true if this is the first fetch in to the clone
+	 * @param timeoutMillis the longest time the fetch may take or 0 for no limit
+	 */
+	public FetchProgressMonitor(final File objectsDirectory, final boolean initialClone, final long timeoutMillis) {
+		Validate.notNull(objectsDirectory, "objectsDirectory must not be null");
+		Validate.isTrue(timeoutMillis >= 0, "timeoutMillis must not be negative");
+
+		this.objectsDirectory = objectsDirectory;
+		this.initialClone = initialClone;
+		this.deadline = timeoutMillis == 0 ? Long.MAX_VALUE : startTime + timeoutMillis;
+	}
+
+	@Override
+	public void start(final int totalTasks) {
+	}
+
+	@Override
+	public void beginTask(final String title, final int totalWork) {
+		this.phase = title;
+		this.totalWork = totalWork;
+		this.completedWork = 0;
+	}
+
+	@Override
+	public void update(final int completed) {
+		completedWork += completed;
+	}
+
+	@Override
+	public void endTask() {
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return isTimedOut();
+	}
+
+	/**
+	 * Gets whether the fetch has run past its deadline.
+	 *
+	 * @return true if the fetch has timed out
+	 */
+	public boolean isTimedOut() {
+		return System.currentTimeMillis() > deadline;
+	}
+
+	/**
+	 * Gets whether this is the first fetch in to the clone, during which it has no branches.
+	 *
+	 * @return true if the repository is being cloned
+	 */
+	public boolean isInitialClone() {
+		return initialClone;
+	}
+
+	/**
+	 * Gets the name of the current phase of the fetch as reported by JGit, such as "Receiving objects".
+	 *
+	 * @return the phase or {@code null} if the remote hasn't yet started to send anything
+	 */
+	public String getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Gets the amount of work to do in the current phase, which is normally a number of objects.
+	 *
+	 * @return the total work or 0 if unknown
+	 */
+	public int getTotalWork() {
+		return totalWork == ProgressMonitor.UNKNOWN ? 0 : totalWork;
+	}
+
+	/**
+	 * Gets the amount of work done so far in the current phase.
+	 *
+	 * @return the completed work
+	 */
+	public int getCompletedWork() {
+		return completedWork;
+	}
+
+	/**
+	 * Gets the time the fetch started.
+	 *
+	 * @return the start time in milliseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Gets the number of bytes of pack data received so far.
+	 *
+	 * @return the bytes received
+	 */
+	public long getBytesReceived() {
+		return getIncomingBytes(objectsDirectory) + getIncomingBytes(new File(objectsDirectory, "pack"));
+	}
+
+	/**
+	 * Gets the combined size of the packs being received in to the {@code directory}.
+	 *
+	 * @param directory the directory. Must not be {@code null}
+	 * @return the size in bytes
+	 */
+	private long getIncomingBytes(final File directory) {
+		assert directory != null : "directory must not be null";
+
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		long bytes = 0;
+		for (final File file : files) {
+			if (file.getName().startsWith(INCOMING_PACK_PREFIX)) {
+				bytes += file.length();
+			}
+		}
+		return bytes;
+	}
+}
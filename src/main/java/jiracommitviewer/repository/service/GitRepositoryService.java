@@ -1,11 +1,13 @@
 package jiracommitviewer.repository.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import jiracommitviewer.domain.Commit;
 import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.repository.exception.RepositoryException;
 
 /**
@@ -16,23 +18,50 @@ import jiracommitviewer.repository.exception.RepositoryException;
 public interface GitRepositoryService extends RepositoryService<GitRepository, GitCommitKey> {
 
 	/**
-	 * Clones the repository. If the repository has already been cloned then this will do nothing.
+	 * Clones the repository, fetching all of its branches. If the repository has already been cloned or is 
+	 * {@link GitRepository#isDirect() indexed in place} then this will do nothing.
+	 * <p>
+	 * If the download fails part way, the clone is kept and a later {@link #fetch(GitRepository) fetch} retries it. 
+	 * Objects from an interrupted pack transfer are not kept, so the retry downloads them again.
 	 * 
 	 * @param gitRepository the repository to clone. Must not be {@code null}
+	 * @return true if a new clone was made, in which case it is already up to date; false if there was nothing to do
 	 * @throws RepositoryException if an error occurs whilst cloning
 	 */
-	void cloneRepository(GitRepository gitRepository) throws RepositoryException;
+	boolean cloneRepository(GitRepository gitRepository) throws RepositoryException;
 	
 	/**
 	 * Fetches all the latest commits from the repository.
 	 * 
 	 * @param gitRepository the repository whose existant clone to fetch commits. Must not be {@code null}
+	 * @return true if any branch in the clone was created, updated or deleted by the fetch. Always true for repositories 
+	 * indexed in place as there is no clone to fetch in to
 	 * @throws RepositoryException if an error occurs whilst fetching
 	 */
-	void fetch(GitRepository gitRepository) throws RepositoryException;
+	boolean fetch(GitRepository gitRepository) throws RepositoryException;
 	
 	/**
-	 * Tests whether a clone exists for the given {@code repository}.
+	 * Gets a cheap fingerprint of the branches currently advertised by the source of the {@code repository}, without
+	 * fetching any objects. Two equal fingerprints mean that no branch has changed in between.
+	 * <p>
+	 * For remote repositories this lists the remote's refs in the same way as {@code git ls-remote}. For local 
+	 * repositories the modification state of the ref files and {@code packed-refs} is used instead.
+	 * <p>
+	 * Listing a remote's refs is an exchange of its own, separate from the {@link #fetch(GitRepository) fetch} that 
+	 * follows when a change is found, so a poll finding a change receives the remote's refs twice. Over SSH both 
+	 * exchanges share one pooled connection; over HTTP each is a separate request. Most polls find nothing and so 
+	 * only list the refs, which is far cheaper than negotiating a fetch.
+	 * 
+	 * @param repository the repository whose source to examine. Must not be {@code null}
+	 * @return the fingerprint or {@code null} if the state cannot be reliably determined, for instance because a ref 
+	 * file was modified too recently to trust its timestamp. Callers should then assume a change
+	 * @throws RepositoryException if the source cannot be contacted or read
+	 */
+	String getRefState(GitRepository repository) throws RepositoryException;
+	
+	/**
+	 * Tests whether a clone exists for the given {@code repository}. For repositories indexed in place, this tests
+	 * whether the source repository exists.
 	 * 
 	 * @param repository the repository to check for. Must not be {@code null}
 	 * @return true if there is a clone for this repository
@@ -40,6 +69,25 @@ public interface GitRepositoryService extends RepositoryService<GitRepository, G
 	 */
 	boolean isCloned(GitRepository repository) throws RepositoryException;
 	
+	/**
+	 * Tests whether the clone of the {@code repository} has been fetched in to at least once, as opposed to having just
+	 * been created or having had its first fetch interrupted.
+	 * 
+	 * @param repository the repository to check for. Must not be {@code null}
+	 * @return true if the clone has been populated. Always true for repositories indexed in place whose source exists
+	 * @throws RepositoryException if an error occurs whilst checking
+	 */
+	boolean isCloneComplete(GitRepository repository) throws RepositoryException;
+	
+	/**
+	 * Gets the progress of the fetch currently running for the {@code repository}, including a first fetch that
+	 * populates a new clone.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the progress or {@code null} if the repository isn't being fetched
+	 */
+	FetchProgressMonitor getFetchProgress(GitRepository repository);
+	
 	/**
 	 * Gets an iterator of log entries from the repository from the specified {@code commitKeys} representing tips
 	 * of branches to enumerate from.
@@ -53,6 +101,36 @@ public interface GitRepositoryService extends RepositoryService<GitRepository, G
 	LogEntryEnumerator<GitRepository, GitCommitKey> getLogEntries(GitRepository repository, Map<GitCommitKey, List<String>> commitKeys) 
 			throws RepositoryException;
 	
+	/**
+	 * Gets an iterator of log entries from the repository from the specified {@code commitKeys}, optionally without
+	 * working out the files changed by each commit. Skipping the files avoids computing a diff for every commit, which
+	 * is by far the most expensive part of reading the log.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @param commitKeys the commit keys to branch names to enumerate from. When {@code null}, all log entries are returned from the end
+	 * @param includeFiles true to include the changed files in each log entry; false to leave them empty
+	 * @return an enumerator for reading log entries sequentially. Never {@code null}
+	 * @throws RepositoryException if {@code commitKey} is not {@code null} and the identified commit does not exist; or
+	 * if there is an error while accessing the repository
+	 */
+	LogEntryEnumerator<GitRepository, GitCommitKey> getLogEntries(GitRepository repository, Map<GitCommitKey, List<String>> commitKeys,
+			boolean includeFiles) throws RepositoryException;
+	
+	/**
+	 * Gets the log entries of several commits at once, such as those making up a page of search results. All of the
+	 * commits are read through a single reader, which is much cheaper than getting each of them in turn with
+	 * {@code getLogEntry}.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @param commitKeys the commits to get log entries for. Must not be {@code null}
+	 * @param includeFiles true to include the changed files in each log entry; false to leave them empty
+	 * @return the log entries, without branches, in the order of {@code commitKeys}. An entry is {@code null} where
+	 * the commit doesn't exist in the repository. Never {@code null}
+	 * @throws RepositoryException if there is an error while accessing the repository
+	 */
+	List<LogEntry<GitRepository, GitCommitKey>> getLogEntriesByKey(GitRepository repository, 
+			Collection<GitCommitKey> commitKeys, boolean includeFiles) throws RepositoryException;
+	
 	/**
 	 * Gets a list of branch tips in the specified {@code repository} with their commit keys.
 	 * 
@@ -62,6 +140,32 @@ public interface GitRepositoryService extends RepositoryService<GitRepository, G
 	 */
 	Map<String, GitCommitKey> getBranchHeads(GitRepository repository) throws RepositoryException;
 	
+	/**
+	 * Finds which of the {@code commitKeys} are still on one of the branches of the {@code repository}, such as after
+	 * other branches have been deleted. History is walked until all of the commits are found or there is no more.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @param commitKeys the commits to look for. Must not be {@code null}
+	 * @return the branches found to contain each commit. Commits that are on no branch are left out. Never {@code null}
+	 * @throws RepositoryException if there is an error while accessing the repository
+	 */
+	Map<GitCommitKey, List<String>> getBranchesContaining(GitRepository repository, Collection<GitCommitKey> commitKeys) 
+			throws RepositoryException;
+	
+	/**
+	 * Finds which of the {@code commitKeys} can no longer be reached from any branch of the {@code repository}, such 
+	 * as after a branch was rebased or force pushed. Commits that are missing from the repository altogether are 
+	 * unreachable too. History is walked until all of the commits are reached or there is no more, and only commit 
+	 * headers are read.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @param commitKeys the commits to look for. Must not be {@code null}
+	 * @return the unreachable commits in the order of {@code commitKeys}. Never {@code null}
+	 * @throws RepositoryException if there is an error while accessing the repository
+	 */
+	List<GitCommitKey> getUnreachableCommits(GitRepository repository, Collection<GitCommitKey> commitKeys)
+			throws RepositoryException;
+	
 	/**
 	 * Creates a new, non-bare repository at the location specified by the URI within {@code repository}, creates a new
 	 * master branch and checks it out.
@@ -0,0 +1,77 @@
+package jiracommitviewer.repository.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.LogEntry;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Holds the log entries of recently shown commits, along with their files, so that the files of a commit can be
+ * listed a page at a time without reading the commit from its repository for every page.
+ * <p>
+ * At most {@link #MAX_ENTRIES} are held, evicting the least recently used.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class LogEntryCache {
+
+	/** The most log entries held. */
+	public static final int MAX_ENTRIES = 500;
+
+	/** Keyed by repository identifier and commit key. Guarded by this. */
+	private final Map<String, LogEntry<GitRepository, GitCommitKey>> logEntries =
+			new LinkedHashMap<String, LogEntry<GitRepository, GitCommitKey>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, LogEntry<GitRepository, GitCommitKey>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Gets the log entry of a commit.
+	 *
+	 * @param repository the repository of the commit. Must not be {@code null}
+	 * @param commitKey the commit's key. Must not be {@code null}
+	 * @return the log entry or {@code null} if it isn't held
+	 */
+	public synchronized LogEntry<GitRepository, GitCommitKey> get(final GitRepository repository,
+			final GitCommitKey commitKey) {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(commitKey, "commitKey must not be null");
+
+		return logEntries.get(getKey(repository, commitKey));
+	}
+
+	/**
+	 * Holds the log entry of a commit, replacing any held for the same commit of its repository.
+	 *
+	 * @param logEntry the log entry. Must not be {@code null}
+	 */
+	public synchronized void put(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+		Validate.notNull(logEntry, "logEntry must not be null");
+
+		logEntries.put(getKey(logEntry.getRepository(), logEntry.getCommitKey()), logEntry);
+	}
+
+	/**
+	 * Gets the key of a commit's log entry.
+	 *
+	 * @param repository the repository of the commit. Must not be {@code null}
+	 * @param commitKey the commit's key. Must not be {@code null}
+	 * @return the key. Never {@code null}
+	 */
+	private static String getKey(final GitRepository repository, final GitCommitKey commitKey) {
+		assert repository != null : "repository must not be null";
+		assert commitKey != null : "commitKey must not be null";
+
+		return repository.getId() + "\n" + commitKey.marshal();
+	}
+}
@@ -0,0 +1,230 @@
+package jiracommitviewer.repository.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.JschConfigSessionFactory;
+import org.eclipse.jgit.transport.OpenSshConfig.Host;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.joda.time.DateTimeConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * An SSH session factory that keeps its SSH connections open between fetches so that repositories on the same Git
+ * host don't pay for a new handshake every time they are polled.
+ * <p>
+ * A single factory serves all repositories that authenticate with the same private key, which is loaded once. Each
+ * connection is shared by every transport to the same user, host and port, with each transport running its Git
+ * command in its own channel over the connection. Connections send keep-alives so that dead ones are noticed and
+ * replaced, and are closed once they have been unused for {@link #IDLE_TIMEOUT_MILLIS}.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class PooledSshSessionFactory extends JschConfigSessionFactory {
+
+	private final static Logger logger = LoggerFactory.getLogger(PooledSshSessionFactory.class);
+
+	/** The time after which a connection that no transport is using is closed. */
+	public static final long IDLE_TIMEOUT_MILLIS = 10L * DateTimeConstants.MILLIS_PER_MINUTE;
+	/** The time between keep-alive messages on a connection that is otherwise quiet. */
+	private static final int KEEP_ALIVE_INTERVAL_MILLIS = 30 * DateTimeConstants.MILLIS_PER_SECOND;
+	/** The number of keep-alive messages that may go unanswered before the connection is considered dead. */
+	private static final int KEEP_ALIVE_COUNT_MAX = 3;
+
+	private final File privateKeyPath;
+	private final int connectTimeoutMillis;
+	/** Open connections keyed by user, host and port. Guarded by this. */
+	private final Map<String, PooledSession> sessions = new HashMap<String, PooledSession>();
+	/** The connection behind each session handed out to a transport. Guarded by this. */
+	private final Map<RemoteSession, PooledSession> leases = new IdentityHashMap<RemoteSession, PooledSession>();
+	/** The connection chosen by the current call to {@link #createSession(Host, String, String, int, FS)}. Guarded
+	 * by this. */
+	private PooledSession lastCreated;
+
+	/**
+	 * Creates a new factory.
+	 *
+	 * @param privateKeyPath the private key to authenticate with or {@code null} to use none
+	 * @param connectTimeoutMillis the time to wait for a new connection to be established. Must be at least 1
+	 */
+	public PooledSshSessionFactory(final File privateKeyPath, final int connectTimeoutMillis) {
+		Validate.isTrue(connectTimeoutMillis > 0, "connectTimeoutMillis must be at least 1");
+
+		this.privateKeyPath = privateKeyPath;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * An open connection to the same host is reused if there is one. New connections are made with this factory's
+	 * connect timeout rather than {@code tms}, which is the transport's read timeout.
+	 */
+	@Override
+	public synchronized RemoteSession getSession(final URIish uri, final CredentialsProvider credentialsProvider,
+			final FS fs, final int tms) throws TransportException {
+		lastCreated = null;
+		try {
+			final RemoteSession remoteSession;
+			try {
+				remoteSession = super.getSession(uri, credentialsProvider, fs, connectTimeoutMillis);
+			} catch (final TransportException te) {
+				// Don't keep a connection that couldn't be opened
+				if (lastCreated != null && !lastCreated.session.isConnected()) {
+					sessions.values().remove(lastCreated);
+				}
+				throw te;
+			}
+			if (lastCreated != null) {
+				lastCreated.users++;
+				leases.put(remoteSession, lastCreated);
+			}
+			return remoteSession;
+		} finally {
+			lastCreated = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The connection is left open for reuse.
+	 */
+	@Override
+	public synchronized void releaseSession(final RemoteSession remoteSession) {
+		final PooledSession pooled = leases.remove(remoteSession);
+		if (pooled == null) {
+			remoteSession.disconnect();
+			return;
+		}
+		pooled.users--;
+		pooled.lastUsed = System.currentTimeMillis();
+		closeIdleSessions(pooled.lastUsed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * An open connection to the same host is returned if there is one, in which case JGit skips connecting it.
+	 */
+	@Override
+	protected synchronized Session createSession(final Host hc, final String user, final String host, final int port,
+			final FS fs) throws JSchException {
+		final long now = System.currentTimeMillis();
+		closeIdleSessions(now);
+
+		final String key = user + "@" + host + ":" + port;
+		PooledSession pooled = sessions.get(key);
+		if (pooled == null || !pooled.session.isConnected()) {
+			final Session session = super.createSession(hc, user, host, port, fs);
+			session.setServerAliveInterval(KEEP_ALIVE_INTERVAL_MILLIS);
+			session.setServerAliveCountMax(KEEP_ALIVE_COUNT_MAX);
+			// Idle connections mustn't keep the JVM alive
+			session.setDaemonThread(true);
+			pooled = new PooledSession(session);
+			sessions.put(key, pooled);
+			logger.debug("Opening SSH connection to " + key);
+		}
+		pooled.lastUsed = now;
+		lastCreated = pooled;
+		return pooled.session;
+	}
+
+	@Override
+	protected void configure(final Host hc, final Session session) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This is only called once for the factory, so the private key is only read once.
+	 */
+	@Override
+	protected JSch createDefaultJSch(final FS fs) throws JSchException {
+		JSch.setConfig("StrictHostKeyChecking", "no");
+
+		final JSch jsch = new JSch();
+		if (privateKeyPath != null) {
+			jsch.addIdentity(privateKeyPath.getPath());
+		}
+		return jsch;
+	}
+
+	/**
+	 * Gets the number of connections that are currently open.
+	 *
+	 * @return the number of open connections
+	 */
+	public synchronized int getOpenSessionCount() {
+		int count = 0;
+		for (final PooledSession pooled : sessions.values()) {
+			if (pooled.session.isConnected()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Closes all connections, including those in use.
+	 */
+	public synchronized void close() {
+		final List<PooledSession> closing = new ArrayList<PooledSession>(sessions.values());
+		sessions.clear();
+		leases.clear();
+		for (final PooledSession pooled : closing) {
+			pooled.session.disconnect();
+		}
+	}
+
+	/**
+	 * Closes connections that no transport is using and that have either died or been idle for too long.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	private void closeIdleSessions(final long now) {
+		assert Thread.holdsLock(this) : "must hold lock";
+
+		for (final Iterator<PooledSession> it = sessions.values().iterator(); it.hasNext(); ) {
+			final PooledSession pooled = it.next();
+			if (pooled.users > 0) {
+				continue;
+			}
+			if (!pooled.session.isConnected() || now - pooled.lastUsed >= IDLE_TIMEOUT_MILLIS) {
+				it.remove();
+				pooled.session.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * A connection in the pool. Guarded by the factory.
+	 */
+	private static final class PooledSession {
+		private final Session session;
+		/** The number of transports using the connection. */
+		private int users;
+		private long lastUsed;
+
+		private PooledSession(final Session session) {
+			this.session = session;
+		}
+	}
+}
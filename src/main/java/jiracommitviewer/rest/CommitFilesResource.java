@@ -0,0 +1,248 @@
+package jiracommitviewer.rest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.AddedCommitFile;
+import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.CopiedCommitFile;
+import jiracommitviewer.domain.DeletedCommitFile;
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.LogEntry;
+import jiracommitviewer.domain.ModifiedCommitFile;
+import jiracommitviewer.domain.RenamedCommitFile;
+import jiracommitviewer.linkrenderer.GitLinkRenderer;
+import jiracommitviewer.repository.exception.RepositoryException;
+import jiracommitviewer.repository.service.GitRepositoryService;
+import jiracommitviewer.repository.service.LogEntryCache;
+import jiracommitviewer.web.ResponseValidator;
+import jiracommitviewer.web.ResponseValidatorFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.util.JiraKeyUtils;
+import com.google.gson.Gson;
+
+/**
+ * REST resource that lists the files of a commit a page at a time, for the issue and project tabs to load the file
+ * lists of large commits only when they are expanded.
+ * <p>
+ * The commit is identified by its repository ({@code repositoryId}) and marshalled key ({@code commitKey}). The
+ * caller must be permitted to view version control for one of the issues the commit mentions. Each page is a JSON
+ * object holding the rendered {@code files} from {@code start}, the {@code total} number listed and, if there are
+ * more, the {@code next} start.
+ *
+ * @author mark
+ */
+@Path("/files")
+public class CommitFilesResource {
+
+	/** The number of files in a page if no limit is given. */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	/** The most files in a page. */
+	public static final int MAX_PAGE_SIZE = 500;
+
+	private static final Logger logger = LoggerFactory.getLogger(CommitFilesResource.class);
+
+	private final RepositoryManager repositoryManager;
+	private final GitRepositoryService gitRepositoryService;
+	private final LogEntryCache logEntryCache;
+	private final JiraAuthenticationContext authenticationContext;
+	private final PermissionManager permissionManager;
+	private final IssueManager issueManager;
+	private final ResponseValidatorFactory responseValidatorFactory;
+
+	public CommitFilesResource(final RepositoryManager repositoryManager, final GitRepositoryService gitRepositoryService,
+			final LogEntryCache logEntryCache, final JiraAuthenticationContext authenticationContext,
+			final PermissionManager permissionManager, final IssueManager issueManager,
+			final ResponseValidatorFactory responseValidatorFactory) {
+		this.repositoryManager = repositoryManager;
+		this.gitRepositoryService = gitRepositoryService;
+		this.logEntryCache = logEntryCache;
+		this.authenticationContext = authenticationContext;
+		this.permissionManager = permissionManager;
+		this.issueManager = issueManager;
+		this.responseValidatorFactory = responseValidatorFactory;
+	}
+
+	/**
+	 * Gets a page of the files of a commit.
+	 *
+	 * @param repositoryId the identifier of the commit's repository
+	 * @param commitKey the marshalled key of the commit
+	 * @param start the index of the first file to list
+	 * @param limit the most files to list
+	 * @param ifNoneMatch the entity tags of the pages the caller holds or {@code null} if none
+	 * @return {@code 200 OK} with the page; {@code 304 Not Modified} if the caller holds it; or an error status if
+	 * the parameters are invalid, the caller is not permitted or the commit is not known
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getFiles(@QueryParam("repositoryId") final String repositoryId,
+			@QueryParam("commitKey") final String commitKey, @QueryParam("start") @DefaultValue("0") final int start,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) final int limit,
+			@HeaderParam("If-None-Match") final String ifNoneMatch) {
+		if (StringUtils.isBlank(repositoryId) || StringUtils.isBlank(commitKey) || start < 0 || limit < 1) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+
+		final LogEntry<GitRepository, GitCommitKey> logEntry;
+		try {
+			logEntry = getLogEntry(repositoryId.trim(), commitKey.trim());
+		} catch (final IllegalArgumentException iae) {
+			return Response.status(Status.BAD_REQUEST).build();
+		} catch (final RepositoryException re) {
+			logger.debug("Could not read commit " + commitKey + " of repository " + repositoryId, re);
+			return Response.status(Status.NOT_FOUND).build();
+		}
+		if (logEntry == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+		if (!isPermitted(logEntry)) {
+			return Response.status(Status.FORBIDDEN).build();
+		}
+		final ResponseValidator validator = responseValidatorFactory.getCommitValidator(logEntry.getRepository(),
+				logEntry.getCommitKey());
+		if (validator.matches(ifNoneMatch)) {
+			return Response.notModified(new EntityTag(validator.getTag(), true)).build();
+		}
+
+		final List<CommitFile> commitFiles = logEntry.getCommitFiles();
+		final int end = Math.min(commitFiles.size(), start + Math.min(limit, MAX_PAGE_SIZE));
+		final GitLinkRenderer linkRenderer = new GitLinkRenderer(logEntry.getRepository().getLinkFormatter());
+		final List<Map<String, String>> files = new ArrayList<Map<String, String>>();
+		for (int i = start; i < end; i++) {
+			files.add(renderFile(linkRenderer, logEntry, commitFiles.get(i)));
+		}
+
+		final Map<String, Object> page = new LinkedHashMap<String, Object>();
+		page.put("start", start);
+		page.put("total", commitFiles.size());
+		if (end < commitFiles.size()) {
+			page.put("next", end);
+		}
+		page.put("files", files);
+
+		// Commits never change, so a page may be kept by the browser for as long as it is viewing the tab
+		final CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		cacheControl.setMaxAge(3600);
+		return Response.ok(new Gson().toJson(page)).cacheControl(cacheControl).tag(new EntityTag(validator.getTag(), true))
+				.lastModified(new Date(validator.getLastModified())).build();
+	}
+
+	/**
+	 * Gets the log entry of a commit, reading it from its repository only if it isn't cached.
+	 *
+	 * @param repositoryId the identifier of the repository. Must not be {@code null}
+	 * @param commitKey the marshalled commit key. Must not be {@code null}
+	 * @return the log entry or {@code null} if there is no such repository
+	 * @throws IllegalArgumentException if either parameter is malformed
+	 * @throws RepositoryException if the commit could not be read
+	 */
+	private LogEntry<GitRepository, GitCommitKey> getLogEntry(final String repositoryId, final String commitKey)
+			throws RepositoryException {
+		assert repositoryId != null : "repositoryId must not be null";
+		assert commitKey != null : "commitKey must not be null";
+
+		final GitRepository repository = repositoryManager.getRepository(repositoryManager.parseRepositoryId(repositoryId),
+				GitRepository.class);
+		if (repository == null) {
+			return null;
+		}
+		final GitCommitKey key;
+		try {
+			key = GitCommitKey.unmarshal(commitKey);
+		} catch (final RuntimeException re) {
+			throw new IllegalArgumentException("Invalid commit key: " + commitKey, re);
+		}
+
+		LogEntry<GitRepository, GitCommitKey> logEntry = logEntryCache.get(repository, key);
+		if (logEntry == null) {
+			logEntry = gitRepositoryService.getLogEntry(repository, key);
+			logEntryCache.put(logEntry);
+		}
+		return logEntry;
+	}
+
+	/**
+	 * Tests whether the current user may see the commit, which is when they may view version control for any issue
+	 * that its message mentions.
+	 *
+	 * @param logEntry the log entry of the commit. Must not be {@code null}
+	 * @return true if the user is permitted
+	 */
+	private boolean isPermitted(final LogEntry<GitRepository, GitCommitKey> logEntry) {
+		assert logEntry != null : "logEntry must not be null";
+
+		final User user = authenticationContext.getLoggedInUser();
+		for (final String issueKey : JiraKeyUtils.getIssueKeysFromString(StringUtils.upperCase(logEntry.getMessage()))) {
+			final Issue issue = issueManager.getIssueObject(issueKey);
+			if (issue != null && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Renders a file of a commit as its type and links, as shown on the tabs.
+	 *
+	 * @param linkRenderer the renderer of the links. Must not be {@code null}
+	 * @param logEntry the log entry of the commit. Must not be {@code null}
+	 * @param commitFile the file. Must not be {@code null}
+	 * @return the rendered file. Never {@code null}
+	 */
+	private Map<String, String> renderFile(final GitLinkRenderer linkRenderer,
+			final LogEntry<GitRepository, GitCommitKey> logEntry, final CommitFile commitFile) {
+		assert linkRenderer != null : "linkRenderer must not be null";
+		assert logEntry != null : "logEntry must not be null";
+		assert commitFile != null : "commitFile must not be null";
+
+		final Map<String, String> file = new LinkedHashMap<String, String>();
+		if (commitFile instanceof DeletedCommitFile) {
+			file.put("type", "deleted");
+			file.put("link", linkRenderer.getFileDeletedLink(logEntry, (DeletedCommitFile)commitFile));
+		} else if (commitFile instanceof AddedCommitFile) {
+			file.put("type", "added");
+			file.put("link", linkRenderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFile));
+		} else if (commitFile instanceof ModifiedCommitFile) {
+			file.put("type", "modified");
+			file.put("link", linkRenderer.getFileModifiedLink(logEntry, (ModifiedCommitFile)commitFile));
+		} else if (commitFile instanceof RenamedCommitFile) {
+			file.put("type", "replaced");
+			file.put("link", linkRenderer.getFileRenamedLink(logEntry, (RenamedCommitFile)commitFile));
+			file.put("fromLink", linkRenderer.getFileReplacedLink(logEntry, (RenamedCommitFile)commitFile));
+		} else if (commitFile instanceof CopiedCommitFile) {
+			file.put("type", "copied");
+			file.put("link", linkRenderer.getFileReplacedLink(logEntry, (CopiedCommitFile)commitFile));
+			file.put("fromLink", linkRenderer.getFileCopiedLink(logEntry, (CopiedCommitFile)commitFile));
+		}
+		return file;
+	}
+}
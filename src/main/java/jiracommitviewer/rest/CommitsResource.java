@@ -0,0 +1,503 @@
+package jiracommitviewer.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.AbstractPathCommitFile;
+import jiracommitviewer.domain.AddedCommitFile;
+import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.CopiedCommitFile;
+import jiracommitviewer.domain.DeletedCommitFile;
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.LogEntry;
+import jiracommitviewer.domain.ModifiedCommitFile;
+import jiracommitviewer.domain.RenamedCommitFile;
+import jiracommitviewer.index.CommitIndexer;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.LogEntryCursor;
+import jiracommitviewer.index.LogEntryPage;
+import jiracommitviewer.index.exception.IndexException;
+import jiracommitviewer.web.ResponseValidator;
+import jiracommitviewer.web.ResponseValidatorFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.project.version.Version;
+import com.atlassian.jira.project.version.VersionManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * REST resource that lists the commits of an issue, project, version or repository as JSON, for clients that want
+ * commit data without rendering the tabs.
+ * <p>
+ * Commits are listed newest first, a page at a time. Each page holds the {@code commits} and, if there are more, the
+ * {@code next} cursor, which is passed back as the {@code cursor} parameter to get the following page. The
+ * {@code fields} parameter lists the fields of each commit to write, separated by commas; files are only read from
+ * the repositories if {@code files} is among them. Only commits mentioning issues the caller may view version
+ * control for are listed.
+ * <p>
+ * Pages are written out as they are serialized rather than built up as a whole document first. Pages other than
+ * those of versions carry an {@code ETag}, so that a caller holding a page that is unchanged is answered with
+ * {@code 304 Not Modified} without searching.
+ *
+ * @author mark
+ */
+@Path("/commits")
+public class CommitsResource {
+
+	/** The number of commits in a page if no limit is given. */
+	public static final int DEFAULT_PAGE_SIZE = 50;
+	/** The most commits in a page. */
+	public static final int MAX_PAGE_SIZE = 200;
+
+	private static final Logger logger = LoggerFactory.getLogger(CommitsResource.class);
+	private static final DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC();
+
+	/**
+	 * The fields that may be written for each commit.
+	 */
+	enum CommitField {
+		ID, PARENT, DATE, AUTHOR, MESSAGE, REPOSITORIES, BRANCHES, FILES
+	}
+
+	private final GitCommitIndexer gitCommitIndexer;
+	private final RepositoryManager repositoryManager;
+	private final JiraAuthenticationContext authenticationContext;
+	private final PermissionManager permissionManager;
+	private final IssueManager issueManager;
+	private final ProjectManager projectManager;
+	private final VersionManager versionManager;
+	private final ResponseValidatorFactory responseValidatorFactory;
+
+	public CommitsResource(final GitCommitIndexer gitCommitIndexer, final RepositoryManager repositoryManager,
+			final JiraAuthenticationContext authenticationContext, final PermissionManager permissionManager,
+			final IssueManager issueManager, final ProjectManager projectManager, final VersionManager versionManager,
+			final ResponseValidatorFactory responseValidatorFactory) {
+		this.gitCommitIndexer = gitCommitIndexer;
+		this.repositoryManager = repositoryManager;
+		this.authenticationContext = authenticationContext;
+		this.permissionManager = permissionManager;
+		this.issueManager = issueManager;
+		this.projectManager = projectManager;
+		this.versionManager = versionManager;
+		this.responseValidatorFactory = responseValidatorFactory;
+	}
+
+	/**
+	 * Gets a page of the commits that mention an issue.
+	 *
+	 * @param issueKey the key of the issue
+	 * @param cursor the {@code next} cursor of the previous page, or {@code null} for the first page
+	 * @param limit the most commits to list
+	 * @param fields the fields to write, separated by commas, or {@code null} for all of them
+	 * @param ifNoneMatch the entity tags of the pages the caller holds or {@code null} if none
+	 * @return {@code 200 OK} with the page; {@code 304 Not Modified} if the caller holds it; or an error status if
+	 * the parameters are invalid, the caller is not permitted or the issue is not known
+	 */
+	@GET
+	@Path("/issue/{issueKey}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCommitsByIssue(@PathParam("issueKey") final String issueKey, @QueryParam("cursor") final String cursor,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) final int limit,
+			@QueryParam("fields") final String fields, @HeaderParam("If-None-Match") final String ifNoneMatch) {
+		final PageRequest request = PageRequest.parse(cursor, limit, fields);
+		if (request == null) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		final Issue issue = issueManager.getIssueObject(StringUtils.upperCase(issueKey));
+		if (issue == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+		if (!permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue,
+				authenticationContext.getLoggedInUser())) {
+			return Response.status(Status.FORBIDDEN).build();
+		}
+
+		final ResponseValidator validator = responseValidatorFactory.getIssueValidator(issue);
+		if (validator != null && validator.matches(ifNoneMatch)) {
+			return createNotModifiedResponse(validator);
+		}
+
+		try {
+			return createResponse(gitCommitIndexer.getLogEntryPageByIssue(issue, request.after, request.limit,
+					request.fields.contains(CommitField.FILES)), request.fields, validator);
+		} catch (final IndexException ie) {
+			logger.error("Could not list commits of issue " + issue.getKey(), ie);
+			return Response.serverError().build();
+		}
+	}
+
+	/**
+	 * Gets a page of the commits that mention issues of a project.
+	 *
+	 * @param projectKey the key of the project
+	 * @param cursor the {@code next} cursor of the previous page, or {@code null} for the first page
+	 * @param limit the most commits to list
+	 * @param fields the fields to write, separated by commas, or {@code null} for all of them
+	 * @param ifNoneMatch the entity tags of the pages the caller holds or {@code null} if none
+	 * @return {@code 200 OK} with the page; {@code 304 Not Modified} if the caller holds it; or an error status if
+	 * the parameters are invalid, the caller is not logged in or the project is not known
+	 */
+	@GET
+	@Path("/project/{projectKey}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCommitsByProject(@PathParam("projectKey") final String projectKey,
+			@QueryParam("cursor") final String cursor,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) final int limit,
+			@QueryParam("fields") final String fields, @HeaderParam("If-None-Match") final String ifNoneMatch) {
+		final PageRequest request = PageRequest.parse(cursor, limit, fields);
+		if (request == null) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		final User user = authenticationContext.getLoggedInUser();
+		if (user == null) {
+			return Response.status(Status.UNAUTHORIZED).build();
+		}
+		if (StringUtils.isBlank(projectKey) || projectManager.getProjectObjByKey(projectKey) == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+
+		final ResponseValidator validator = responseValidatorFactory.getProjectsValidator("project\n" + projectKey);
+		if (validator != null && validator.matches(ifNoneMatch)) {
+			return createNotModifiedResponse(validator);
+		}
+
+		try {
+			return createResponse(gitCommitIndexer.getLogEntryPageByProject(projectKey, user, request.after,
+					request.limit, request.fields.contains(CommitField.FILES)), request.fields, validator);
+		} catch (final IndexException ie) {
+			logger.error("Could not list commits of project " + projectKey, ie);
+			return Response.serverError().build();
+		}
+	}
+
+	/**
+	 * Gets a page of the commits that mention issues affected by or fixed in a version.
+	 *
+	 * @param versionId the identifier of the version
+	 * @param cursor the {@code next} cursor of the previous page, or {@code null} for the first page
+	 * @param limit the most commits to list
+	 * @param fields the fields to write, separated by commas, or {@code null} for all of them
+	 * @return {@code 200 OK} with the page; or an error status if the parameters are invalid, the caller is not
+	 * logged in or the version is not known
+	 */
+	@GET
+	@Path("/version/{versionId}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCommitsByVersion(@PathParam("versionId") final long versionId,
+			@QueryParam("cursor") final String cursor,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) final int limit,
+			@QueryParam("fields") final String fields) {
+		final PageRequest request = PageRequest.parse(cursor, limit, fields);
+		if (request == null) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		final User user = authenticationContext.getLoggedInUser();
+		if (user == null) {
+			return Response.status(Status.UNAUTHORIZED).build();
+		}
+		final Version version = versionManager.getVersion(versionId);
+		if (version == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+
+		// Which commits a version lists also depends on the issues it holds, which the index doesn't record, so
+		// these pages are never validated
+		try {
+			return createResponse(gitCommitIndexer.getLogEntryPageByVersion(version, user, request.after,
+					request.limit, request.fields.contains(CommitField.FILES)), request.fields, null);
+		} catch (final IndexException ie) {
+			logger.error("Could not list commits of version " + versionId, ie);
+			return Response.serverError().build();
+		}
+	}
+
+	/**
+	 * Gets a page of the commits reachable from a repository.
+	 *
+	 * @param repositoryId the identifier of the repository
+	 * @param cursor the {@code next} cursor of the previous page, or {@code null} for the first page
+	 * @param limit the most commits to list
+	 * @param fields the fields to write, separated by commas, or {@code null} for all of them
+	 * @param ifNoneMatch the entity tags of the pages the caller holds or {@code null} if none
+	 * @return {@code 200 OK} with the page; {@code 304 Not Modified} if the caller holds it; or an error status if
+	 * the parameters are invalid, the caller is not logged in or the repository is not known
+	 */
+	@GET
+	@Path("/repository/{repositoryId}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCommitsByRepository(@PathParam("repositoryId") final String repositoryId,
+			@QueryParam("cursor") final String cursor,
+			@QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) final int limit,
+			@QueryParam("fields") final String fields, @HeaderParam("If-None-Match") final String ifNoneMatch) {
+		final PageRequest request = PageRequest.parse(cursor, limit, fields);
+		if (request == null) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		final User user = authenticationContext.getLoggedInUser();
+		if (user == null) {
+			return Response.status(Status.UNAUTHORIZED).build();
+		}
+		final GitRepository repository;
+		try {
+			repository = repositoryManager.getRepository(repositoryManager.parseRepositoryId(repositoryId),
+					GitRepository.class);
+		} catch (final IllegalArgumentException iae) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		if (repository == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+
+		final ResponseValidator validator = responseValidatorFactory.getProjectsValidator("repository\n" 
+				+ repository.getId());
+		if (validator != null && validator.matches(ifNoneMatch)) {
+			return createNotModifiedResponse(validator);
+		}
+
+		try {
+			return createResponse(gitCommitIndexer.getLogEntryPageByRepository(repository, user, request.after,
+					request.limit, request.fields.contains(CommitField.FILES)), request.fields, validator);
+		} catch (final IndexException ie) {
+			logger.error("Could not list commits of repository " + repositoryId, ie);
+			return Response.serverError().build();
+		}
+	}
+
+	/**
+	 * Creates the response that writes out a page.
+	 *
+	 * @param page the page. Must not be {@code null}
+	 * @param fields the fields to write of each commit. Must not be {@code null}
+	 * @param validator the validator of the page or {@code null} if it can't be validated
+	 * @return the response. Never {@code null}
+	 */
+	private Response createResponse(final LogEntryPage<GitRepository, GitCommitKey> page, final Set<CommitField> fields,
+			final ResponseValidator validator) {
+		assert page != null : "page must not be null";
+		assert fields != null : "fields must not be null";
+
+		final StreamingOutput output = new StreamingOutput() {
+			@Override
+			public void write(final OutputStream out) throws IOException {
+				final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+				writer.beginObject();
+				writer.name("commits").beginArray();
+				for (final LogEntry<GitRepository, GitCommitKey> logEntry : page.getLogEntries()) {
+					writeCommit(writer, logEntry, fields);
+				}
+				writer.endArray();
+				if (page.getNext() != null) {
+					writer.name("next").value(page.getNext().toString());
+				}
+				writer.endObject();
+				writer.flush();
+			}
+		};
+
+		// New commits are indexed all the time, so a page is only kept briefly
+		final CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		cacheControl.setMaxAge(60);
+		final ResponseBuilder builder = Response.ok(output).cacheControl(cacheControl);
+		if (validator != null) {
+			builder.tag(new EntityTag(validator.getTag(), true)).lastModified(new Date(validator.getLastModified()));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Creates the response telling the caller that the page it holds is unchanged.
+	 *
+	 * @param validator the validator of the page. Must not be {@code null}
+	 * @return the response. Never {@code null}
+	 */
+	private static Response createNotModifiedResponse(final ResponseValidator validator) {
+		assert validator != null : "validator must not be null";
+
+		return Response.notModified(new EntityTag(validator.getTag(), true)).build();
+	}
+
+	/**
+	 * Writes a commit as a JSON object.
+	 *
+	 * @param writer the writer. Must not be {@code null}
+	 * @param logEntry the log entry of the commit. Must not be {@code null}
+	 * @param fields the fields to write. Must not be {@code null}
+	 * @throws IOException if the commit could not be written
+	 */
+	private static void writeCommit(final JsonWriter writer, final LogEntry<GitRepository, GitCommitKey> logEntry,
+			final Set<CommitField> fields) throws IOException {
+		assert writer != null : "writer must not be null";
+		assert logEntry != null : "logEntry must not be null";
+		assert fields != null : "fields must not be null";
+
+		writer.beginObject();
+		if (fields.contains(CommitField.ID)) {
+			writer.name("id").value(logEntry.getCommitKey().getCommitHash());
+		}
+		if (fields.contains(CommitField.PARENT) && logEntry.getParentCommitKey() != null) {
+			writer.name("parent").value(logEntry.getParentCommitKey().getCommitHash());
+		}
+		if (fields.contains(CommitField.DATE) && logEntry.getDate() != null) {
+			writer.name("date").value(DATE_FORMAT.print(logEntry.getDate().getTime()));
+		}
+		if (fields.contains(CommitField.AUTHOR) && logEntry.getAuthorName() != null) {
+			writer.name("author").value(logEntry.getAuthorName());
+		}
+		if (fields.contains(CommitField.MESSAGE)) {
+			writer.name("message").value(logEntry.getMessage());
+		}
+		if (fields.contains(CommitField.REPOSITORIES)) {
+			writer.name("repositories").beginArray();
+			for (final GitRepository repository : logEntry.getRepositories()) {
+				writer.beginObject();
+				writer.name("id").value(String.valueOf(repository.getId()));
+				writer.name("name").value(repository.getDisplayName());
+				writer.endObject();
+			}
+			writer.endArray();
+		}
+		if (fields.contains(CommitField.BRANCHES)) {
+			writer.name("branches").beginArray();
+			for (final String branch : logEntry.getBranches()) {
+				writer.value(branch);
+			}
+			writer.endArray();
+		}
+		if (fields.contains(CommitField.FILES)) {
+			writer.name("files").beginArray();
+			for (final CommitFile commitFile : logEntry.getCommitFiles()) {
+				writeFile(writer, commitFile);
+			}
+			writer.endArray();
+			if (logEntry.getOmittedFileCount() > 0) {
+				writer.name("omittedFiles").value(logEntry.getOmittedFileCount());
+			}
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Writes a file of a commit as a JSON object holding its type and paths.
+	 *
+	 * @param writer the writer. Must not be {@code null}
+	 * @param commitFile the file. Must not be {@code null}
+	 * @throws IOException if the file could not be written
+	 */
+	private static void writeFile(final JsonWriter writer, final CommitFile commitFile) throws IOException {
+		assert writer != null : "writer must not be null";
+		assert commitFile != null : "commitFile must not be null";
+
+		writer.beginObject();
+		if (commitFile instanceof AbstractPathCommitFile) {
+			final String type;
+			if (commitFile instanceof AddedCommitFile) {
+				type = "added";
+			} else if (commitFile instanceof DeletedCommitFile) {
+				type = "deleted";
+			} else if (commitFile instanceof ModifiedCommitFile) {
+				type = "modified";
+			} else {
+				type = "changed";
+			}
+			writer.name("type").value(type);
+			writer.name("path").value(((AbstractPathCommitFile)commitFile).getPath());
+		} else if (commitFile instanceof RenamedCommitFile) {
+			writer.name("type").value("renamed");
+			writer.name("path").value(((RenamedCommitFile)commitFile).getToPath());
+			writer.name("fromPath").value(((RenamedCommitFile)commitFile).getFromPath());
+		} else if (commitFile instanceof CopiedCommitFile) {
+			writer.name("type").value("copied");
+			writer.name("path").value(((CopiedCommitFile)commitFile).getToPath());
+			writer.name("fromPath").value(((CopiedCommitFile)commitFile).getFromPath());
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * The paging and field parameters common to all requests.
+	 */
+	private static final class PageRequest {
+
+		private final LogEntryCursor after;
+		private final int limit;
+		private final Set<CommitField> fields;
+
+		private PageRequest(final LogEntryCursor after, final int limit, final Set<CommitField> fields) {
+			this.after = after;
+			this.limit = limit;
+			this.fields = fields;
+		}
+
+		/**
+		 * Parses the parameters of a request.
+		 *
+		 * @param cursor the cursor or {@code null} for the first page
+		 * @param limit the most commits to list
+		 * @param fields the fields separated by commas or {@code null} for all of them
+		 * @return the parsed parameters or {@code null} if any are invalid
+		 */
+		static PageRequest parse(final String cursor, final int limit, final String fields) {
+			if (limit < 1) {
+				return null;
+			}
+			LogEntryCursor after = null;
+			if (StringUtils.isNotBlank(cursor)) {
+				try {
+					after = LogEntryCursor.parse(cursor.trim());
+				} catch (final IllegalArgumentException iae) {
+					return null;
+				}
+			}
+
+			final Set<CommitField> fieldSet;
+			if (StringUtils.isBlank(fields)) {
+				fieldSet = EnumSet.allOf(CommitField.class);
+			} else {
+				fieldSet = EnumSet.noneOf(CommitField.class);
+				for (final String field : StringUtils.split(fields, ',')) {
+					try {
+						fieldSet.add(CommitField.valueOf(field.trim().toUpperCase(Locale.ENGLISH)));
+					} catch (final IllegalArgumentException iae) {
+						return null;
+					}
+				}
+			}
+			return new PageRequest(after, Math.min(Math.min(limit, MAX_PAGE_SIZE), CommitIndexer.MAX_COMMITS), fieldSet);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package jiracommitviewer.rest;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.revisions.scheduling.GitIndexPipeline;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.URIish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+
+/**
+ * REST resource that a Git server calls, typically from a post-receive hook, when a repository has been pushed to.
+ * The matching repositories are fetched and indexed straight away instead of waiting for the next poll.
+ * <p>
+ * The caller must authenticate as a JIRA administrator. The repository is identified either by its plugin
+ * identifier ({@code id}) or by the URI it was configured with ({@code uri}). The updated refs may optionally be
+ * given as repeated {@code ref} parameters; if none of them are branches the notification is ignored.
+ *
+ * @author mark
+ */
+@Path("/notify")
+public class RepositoryNotificationResource {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryNotificationResource.class);
+
+	private final RepositoryManager repositoryManager;
+	private final GitIndexPipeline indexPipeline;
+	private final JiraAuthenticationContext authenticationContext;
+	private final PermissionManager permissionManager;
+
+	public RepositoryNotificationResource(final RepositoryManager repositoryManager, final GitIndexPipeline indexPipeline,
+			final JiraAuthenticationContext authenticationContext, final PermissionManager permissionManager) {
+		this.repositoryManager = repositoryManager;
+		this.indexPipeline = indexPipeline;
+		this.authenticationContext = authenticationContext;
+		this.permissionManager = permissionManager;
+	}
+
+	/**
+	 * Notifies that a repository has been updated.
+	 *
+	 * @param id the identifier of the repository. May be {@code null} if {@code uri} is given
+	 * @param uri the URI of the repository. May be {@code null} if {@code id} is given
+	 * @param refs the full names of the updated refs. May be empty
+	 * @return {@code 202 Accepted} if a fetch was queued; {@code 200 OK} if the notification was ignored; or an error
+	 * status if the caller is not permitted or the repository is not known
+	 */
+	@POST
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response repositoryUpdated(@FormParam("id") final String id, @FormParam("uri") final String uri,
+			@FormParam("ref") final List<String> refs) {
+		final User user = authenticationContext.getLoggedInUser();
+		if (user == null) {
+			return Response.status(Status.UNAUTHORIZED).build();
+		}
+		if (!permissionManager.hasPermission(Permissions.ADMINISTER, user)) {
+			return Response.status(Status.FORBIDDEN).build();
+		}
+		if (StringUtils.isBlank(id) && StringUtils.isBlank(uri)) {
+			return Response.status(Status.BAD_REQUEST).entity("Either id or uri must be given").build();
+		}
+
+		final List<GitRepository> repositories = findRepositories(id, uri);
+		if (repositories.isEmpty()) {
+			return Response.status(Status.NOT_FOUND).entity("No matching repository").build();
+		}
+		if (refs != null && !refs.isEmpty() && !containsBranch(refs)) {
+			return Response.ok("No branches updated").build();
+		}
+
+		for (final GitRepository repository : repositories) {
+			logger.debug("Update notification received for repository: " + repository.getId());
+			indexPipeline.notifyUpdated(repository);
+		}
+		return Response.status(Status.ACCEPTED).entity("Queued " + repositories.size() + " repositories").build();
+	}
+
+	/**
+	 * Finds the repositories identified by {@code id} or configured with {@code uri}.
+	 *
+	 * @param id the repository identifier or {@code null}
+	 * @param uri the repository URI or {@code null}
+	 * @return the matching repositories. Never {@code null}
+	 */
+	private List<GitRepository> findRepositories(final String id, final String uri) {
+		final List<GitRepository> repositories = new ArrayList<GitRepository>();
+		if (StringUtils.isNotBlank(id)) {
+			try {
+				final GitRepository repository = repositoryManager.getRepository(repositoryManager.parseRepositoryId(id.trim()),
+						GitRepository.class);
+				if (repository != null) {
+					repositories.add(repository);
+				}
+			} catch (final IllegalArgumentException iae) {
+				// Not a valid identifier so cannot match
+			}
+			return repositories;
+		}
+
+		for (final GitRepository repository : repositoryManager.getRepositoryList(GitRepository.class)) {
+			if (isSameUri(uri.trim(), repository.getUri())) {
+				repositories.add(repository);
+			}
+		}
+		return repositories;
+	}
+
+	/**
+	 * Tests whether two repository URIs identify the same repository, ignoring trailing slashes.
+	 *
+	 * @param left the first URI. Must not be {@code null}
+	 * @param right the second URI. May be {@code null}
+	 * @return true if they are the same
+	 */
+	private boolean isSameUri(final String left, final String right) {
+		assert left != null : "left must not be null";
+
+		if (right == null) {
+			return false;
+		}
+		try {
+			return new URIish(StringUtils.removeEnd(left, "/")).equals(new URIish(StringUtils.removeEnd(right.trim(), "/")));
+		} catch (final URISyntaxException urise) {
+			return left.equals(right.trim());
+		}
+	}
+
+	/**
+	 * Tests whether any of the {@code refs} are branches.
+	 *
+	 * @param refs the full ref names. Must not be {@code null}
+	 * @return true if at least one is a branch
+	 */
+	private boolean containsBranch(final List<String> refs) {
+		assert refs != null : "refs must not be null";
+
+		for (final String ref : refs) {
+			if (ref != null && ref.trim().startsWith(Constants.R_HEADS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
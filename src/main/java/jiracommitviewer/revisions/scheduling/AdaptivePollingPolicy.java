@@ -0,0 +1,172 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jiracommitviewer.domain.GitRepository;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.joda.time.DateTimeConstants;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+/**
+ * Decides when each repository is next due to be polled for changes. A repository that has just changed is polled
+ * at its minimum interval. Each poll that finds nothing new doubles the interval, up to the repository's maximum, so
+ * idle repositories are fetched far less often than busy ones.
+ * <p>
+ * The current interval of each repository is saved under its own plugin setting, apart from the repository's
+ * settings, so that polling never writes to settings that an administrator may be editing. Idle repositories
+ * therefore keep their interval across restarts. The time of the next poll is only kept in memory, so every
+ * repository is polled soon after start up.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class AdaptivePollingPolicy {
+
+	/** The String plugin setting, keyed by repository identifier, that stores the repository's current interval. */
+	private static final String SETTINGS_POLL_INTERVAL = "pollInterval";
+
+	private final PluginSettingsFactory pluginSettingsFactory;
+	/** The current poll interval of each repository in minutes, keyed by repository identifier. */
+	private final ConcurrentMap<Object, Integer> pollIntervals = new ConcurrentHashMap<Object, Integer>();
+	/** Time at which each repository is next due, keyed by repository identifier. */
+	private final ConcurrentMap<Object, Long> nextPollTimes = new ConcurrentHashMap<Object, Long>();
+
+	public AdaptivePollingPolicy(final PluginSettingsFactory pluginSettingsFactory) {
+		Validate.notNull(pluginSettingsFactory, "pluginSettingsFactory must not be null");
+
+		this.pluginSettingsFactory = pluginSettingsFactory;
+	}
+
+	/**
+	 * Tests whether the {@code repository} is due to be polled.
+	 *
+	 * @param repository the repository to test. Must not be {@code null}
+	 * @param now the current time in milliseconds
+	 * @return true if the repository should be polled now
+	 */
+	public boolean isDue(final GitRepository repository, final long now) {
+		Validate.notNull(repository, "repository must not be null");
+
+		final Long nextPollTime = nextPollTimes.get(repository.getId());
+		return nextPollTime == null || nextPollTime.longValue() <= now;
+	}
+
+	/**
+	 * Records the outcome of polling the {@code repository} and schedules its next poll. The poll interval is reset
+	 * to the minimum when {@code changed}, otherwise it is doubled up to the maximum. A changed interval is saved.
+	 *
+	 * @param repository the repository that was polled. Must not be {@code null}
+	 * @param changed true if the poll found changes
+	 * @param now the time the poll completed in milliseconds
+	 * @return true if the repository's poll interval was changed
+	 */
+	public synchronized boolean polled(final GitRepository repository, final boolean changed, final long now) {
+		Validate.notNull(repository, "repository must not be null");
+
+		final int previousInterval = getPollInterval(repository);
+		final int pollInterval = clamp(repository, changed ? repository.getMinPollInterval() : previousInterval * 2);
+		pollIntervals.put(repository.getId(), pollInterval);
+		nextPollTimes.put(repository.getId(), now + (long)pollInterval * DateTimeConstants.MILLIS_PER_MINUTE);
+		if (pollInterval == previousInterval) {
+			return false;
+		}
+		getSettings(repository).put(SETTINGS_POLL_INTERVAL, String.valueOf(pollInterval));
+		return true;
+	}
+
+	/**
+	 * Makes the {@code repository} due for polling straight away at its minimum interval, such as after its settings
+	 * have changed, and forgets its saved interval.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 */
+	public synchronized void reset(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		pollIntervals.put(repository.getId(), repository.getMinPollInterval());
+		nextPollTimes.remove(repository.getId());
+		getSettings(repository).remove(SETTINGS_POLL_INTERVAL);
+	}
+
+	/**
+	 * Gets the current time to wait between polls of the {@code repository}. This lies between its minimum and
+	 * maximum poll intervals. The saved interval is used until the repository is first polled.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the poll interval in minutes
+	 */
+	public int getPollInterval(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		Integer pollInterval = pollIntervals.get(repository.getId());
+		if (pollInterval == null) {
+			pollInterval = loadPollInterval(repository);
+		}
+		return clamp(repository, pollInterval.intValue());
+	}
+
+	/**
+	 * Gets the time that the {@code repository} is next due to be polled.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the time in milliseconds or {@code null} if it is due now
+	 */
+	public Long getNextPollTime(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		return nextPollTimes.get(repository.getId());
+	}
+
+	/**
+	 * Loads the saved interval of a {@code repository} that isn't yet held in memory.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the saved interval in minutes or the repository's minimum if none is saved
+	 */
+	private synchronized Integer loadPollInterval(final GitRepository repository) {
+		assert repository != null : "repository must not be null";
+
+		// Polled or reset while waiting for the lock
+		final Integer pollInterval = pollIntervals.get(repository.getId());
+		if (pollInterval != null) {
+			return pollInterval;
+		}
+		final int savedInterval = NumberUtils.toInt((String)getSettings(repository).get(SETTINGS_POLL_INTERVAL),
+				repository.getMinPollInterval());
+		pollIntervals.put(repository.getId(), savedInterval);
+		return savedInterval;
+	}
+
+	/**
+	 * Gets the plugin settings kept for the {@code repository}.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return the settings. Never {@code null}
+	 */
+	private PluginSettings getSettings(final GitRepository repository) {
+		assert repository != null : "repository must not be null";
+
+		return pluginSettingsFactory.createSettingsForKey(String.valueOf(repository.getId()));
+	}
+
+	/**
+	 * Limits a poll interval to the {@code repository}'s minimum and maximum, which may have changed since the
+	 * interval was worked out.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @param pollInterval the poll interval in minutes
+	 * @return the limited poll interval in minutes
+	 */
+	private static int clamp(final GitRepository repository, final int pollInterval) {
+		assert repository != null : "repository must not be null";
+
+		final int minPollInterval = repository.getMinPollInterval();
+		return Math.max(minPollInterval, Math.min(pollInterval, Math.max(minPollInterval, repository.getMaxPollInterval())));
+	}
+}
@@ -0,0 +1,253 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jiracommitviewer.domain.GitRepository;
+
+import org.apache.commons.lang3.Validate;
+import org.joda.time.DateTimeConstants;
+
+/**
+ * Stops repositories whose remotes keep failing from being fetched over and over again. Each repository has its own
+ * circuit so that a broken remote never holds up the fetching of healthy ones.
+ * <p>
+ * A circuit starts closed, allowing every fetch. After {@link #FAILURE_THRESHOLD} consecutive failures it opens and
+ * fetches are refused until a retry time. A single trial fetch is then allowed, during which the circuit is half
+ * open: success closes it again, while failure reopens it with twice the previous wait, up to
+ * {@link #MAX_BACKOFF_MILLIS}.
+ * <p>
+ * Circuits are only kept in memory, so every repository is given a fresh chance after a restart.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class CircuitBreaker {
+
+	/** The number of consecutive failures after which a repository's circuit opens. */
+	public static final int FAILURE_THRESHOLD = 3;
+	/** The time to wait before the first retry once a circuit has opened. */
+	public static final long INITIAL_BACKOFF_MILLIS = 5L * DateTimeConstants.MILLIS_PER_MINUTE;
+	/** The longest time to wait between retries of an open circuit. */
+	public static final long MAX_BACKOFF_MILLIS = 6L * DateTimeConstants.MILLIS_PER_HOUR;
+
+	/**
+	 * The state of a repository's circuit.
+	 */
+	public static enum State {
+		/** Fetches are allowed. */
+		CLOSED,
+		/** Fetches are refused until the retry time. */
+		OPEN,
+		/** A single trial fetch is running. */
+		HALF_OPEN
+	}
+
+	/** Circuits of repositories that have failed since they last succeeded, keyed by repository identifier. */
+	private final ConcurrentMap<Object, Circuit> circuits = new ConcurrentHashMap<Object, Circuit>();
+
+	/**
+	 * Tests whether the {@code repository} may be fetched now. If its circuit is open and the retry time has passed,
+	 * the circuit becomes half open and this caller is given the trial fetch.
+	 *
+	 * @param repository the repository to fetch. Must not be {@code null}
+	 * @param now the current time in milliseconds
+	 * @return true if the repository may be fetched
+	 */
+	public boolean allowsAttempt(final GitRepository repository, final long now) {
+		Validate.notNull(repository, "repository must not be null");
+
+		final Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			return true;
+		}
+		synchronized (circuit) {
+			switch (circuit.state) {
+			case OPEN:
+				if (now < circuit.retryTime) {
+					return false;
+				}
+				circuit.state = State.HALF_OPEN;
+				return true;
+			case HALF_OPEN:
+				return false;
+			default:
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Hands back a trial fetch granted by {@link #allowsAttempt(GitRepository, long)} that was never made, so that
+	 * the next caller may make it instead. This does nothing unless the circuit is half open.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 */
+	public void cancelAttempt(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		final Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			return;
+		}
+		synchronized (circuit) {
+			if (circuit.state == State.HALF_OPEN) {
+				circuit.state = State.OPEN;
+			}
+		}
+	}
+
+	/**
+	 * Records a successful fetch of the {@code repository}, closing its circuit.
+	 *
+	 * @param repository the repository that was fetched. Must not be {@code null}
+	 */
+	public void succeeded(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		circuits.remove(repository.getId());
+	}
+
+	/**
+	 * Records a failed fetch of the {@code repository}, opening its circuit if it has now failed too many times in a
+	 * row.
+	 *
+	 * @param repository the repository that failed. Must not be {@code null}
+	 * @param cause the reason for the failure. Must not be {@code null}
+	 * @param now the time of the failure in milliseconds
+	 * @return true if the circuit is now open
+	 */
+	public boolean failed(final GitRepository repository, final Exception cause, final long now) {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(cause, "cause must not be null");
+
+		Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			final Circuit newCircuit = new Circuit();
+			circuit = circuits.putIfAbsent(repository.getId(), newCircuit);
+			if (circuit == null) {
+				circuit = newCircuit;
+			}
+		}
+		synchronized (circuit) {
+			circuit.failures++;
+			circuit.lastFailureTime = now;
+			circuit.lastError = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+			if (circuit.failures < FAILURE_THRESHOLD) {
+				return false;
+			}
+			// Double the wait for each failure beyond the threshold, taking care not to overflow
+			final int doublings = Math.min(circuit.failures - FAILURE_THRESHOLD, 30);
+			circuit.retryTime = now + Math.min(INITIAL_BACKOFF_MILLIS << doublings, MAX_BACKOFF_MILLIS);
+			circuit.state = State.OPEN;
+			return true;
+		}
+	}
+
+	/**
+	 * Closes the {@code repository}'s circuit, such as after its settings have changed.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 */
+	public void reset(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		circuits.remove(repository.getId());
+	}
+
+	/**
+	 * Gets the state of the {@code repository}'s circuit.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return a snapshot of the circuit or {@code null} if the repository hasn't failed since it last succeeded
+	 */
+	public CircuitStatus getStatus(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		final Circuit circuit = circuits.get(repository.getId());
+		if (circuit == null) {
+			return null;
+		}
+		synchronized (circuit) {
+			return new CircuitStatus(circuit.state, circuit.failures, circuit.lastFailureTime, circuit.retryTime,
+					circuit.lastError);
+		}
+	}
+
+	/**
+	 * The mutable state of a single repository's circuit. Guarded by its own monitor.
+	 */
+	private static final class Circuit {
+		private State state = State.CLOSED;
+		private int failures;
+		private long lastFailureTime;
+		private long retryTime;
+		private String lastError;
+	}
+
+	/**
+	 * An immutable snapshot of a repository's circuit for display.
+	 */
+	public static final class CircuitStatus {
+
+		private final State state;
+		private final int failures;
+		private final long lastFailureTime;
+		private final long retryTime;
+		private final String lastError;
+
+		private CircuitStatus(final State state, final int failures, final long lastFailureTime, final long retryTime,
+				final String lastError) {
+			this.state = state;
+			this.failures = failures;
+			this.lastFailureTime = lastFailureTime;
+			this.retryTime = retryTime;
+			this.lastError = lastError;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Gets whether fetches of the repository are currently being refused or trialled.
+		 *
+		 * @return true if the circuit is open or half open
+		 */
+		public boolean isOpen() {
+			return state != State.CLOSED;
+		}
+
+		/**
+		 * Gets the number of consecutive failed fetches.
+		 *
+		 * @return the failure count
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		public long getLastFailureTime() {
+			return lastFailureTime;
+		}
+
+		/**
+		 * Gets the time after which an open circuit allows a trial fetch.
+		 *
+		 * @return the retry time in milliseconds. Only meaningful if the circuit is open
+		 */
+		public long getRetryTime() {
+			return retryTime;
+		}
+
+		/**
+		 * Gets the message of the most recent failure.
+		 *
+		 * @return the error message. Never {@code null}
+		 */
+		public String getLastError() {
+			return lastError;
+		}
+	}
+}
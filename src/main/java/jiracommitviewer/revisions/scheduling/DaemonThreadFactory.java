@@ -0,0 +1,31 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the plugin's background workers, so that they never hold up shutdown of JIRA.
+ * 
+ * @author mark
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	
+	private final String name;
+	private final AtomicInteger threadNumber = new AtomicInteger();
+	
+	/**
+	 * @param name the name of the workers; threads are named after it. Must not be {@code null}
+	 */
+	public DaemonThreadFactory(final String name) {
+		assert name != null : "name must not be null";
+		
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(final Runnable runnable) {
+		final Thread thread = new Thread(runnable, "gitcommitviewer-" + name + "-" + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
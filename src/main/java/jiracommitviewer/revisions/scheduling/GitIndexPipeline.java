@@ -0,0 +1,329 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.MissingCommitListener;
+import jiracommitviewer.index.exception.IndexException;
+import jiracommitviewer.repository.exception.RepositoryException;
+import jiracommitviewer.repository.service.FetchProgressMonitor;
+import jiracommitviewer.repository.service.GitRepositoryService;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+/**
+ * Indexes Git repositories in two pipelined stages: a fetch stage that brings each clone up to date with its
+ * remote and an index stage that indexes the new commits. Fetching is network bound and may run for several
+ * repositories at once, while indexing is CPU and disk bound and is limited to a single thread as the index
+ * only permits a single writer. Fetching one repository therefore overlaps with indexing another. A fetch that
+ * brings nothing new doesn't queue the repository for indexing at all.
+ * <p>
+ * Repositories that have not yet been cloned are fetched by a separate clone stage, so that a large initial clone 
+ * doesn't hold up the fetching of repositories that are already cloned.
+ * <p>
+ * The outcome of each fetch drives the repository's {@link AdaptivePollingPolicy} so that idle repositories are 
+ * polled less often. Repositories may also be queued straight away by {@link #notifyUpdated(GitRepository) 
+ * notifications} from the source repository, such as a post-receive hook.
+ * <p>
+ * Each repository also has a {@link CircuitBreaker circuit} that stops it being fetched for a while after repeated
+ * failures. Together with the fetch timeouts, this keeps repositories with broken remotes from occupying the 
+ * fetch threads that healthy repositories need.
+ * <p>
+ * Commits that searches find to be missing from their repository, such as after a force push, are removed from the
+ * index by queuing the repository on the index stage.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class GitIndexPipeline implements DisposableBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(GitIndexPipeline.class);
+
+	/** The default number of repositories that may be fetched concurrently. */
+	public static final int DEFAULT_FETCH_THREADS = 4;
+	/** The number of repositories that may be cloned concurrently. */
+	private static final int CLONE_THREADS = 2;
+	/** The index only supports a single writer so indexing is always serialised. */
+	private static final int INDEX_THREADS = 1;
+	/** The time to wait after a notification before fetching so that a burst of pushes results in a single fetch. */
+	public static final long NOTIFICATION_DELAY_MILLIS = 2000;
+
+	private final GitCommitIndexer gitCommitIndexer;
+	private final GitRepositoryService gitRepositoryService;
+	private final AdaptivePollingPolicy pollingPolicy;
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+	private final PipelineStage cloneStage;
+	private final PipelineStage fetchStage;
+	private final PipelineStage indexStage;
+	private final ScheduledExecutorService notificationScheduler = 
+			Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("notification"));
+	/** Identifiers of repositories with a notification waiting out its delay. */
+	private final Set<Object> pendingNotifications = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+	public GitIndexPipeline(final GitCommitIndexer gitCommitIndexer, final GitRepositoryService gitRepositoryService,
+			final PluginSettingsFactory pluginSettingsFactory) {
+		this(gitCommitIndexer, gitRepositoryService, pluginSettingsFactory, DEFAULT_FETCH_THREADS);
+	}
+
+	public GitIndexPipeline(final GitCommitIndexer gitCommitIndexer, final GitRepositoryService gitRepositoryService, 
+			final PluginSettingsFactory pluginSettingsFactory, final int fetchThreads) {
+		Validate.notNull(gitCommitIndexer, "gitCommitIndexer must not be null");
+		Validate.notNull(gitRepositoryService, "gitRepositoryService must not be null");
+		Validate.notNull(pluginSettingsFactory, "pluginSettingsFactory must not be null");
+
+		this.gitCommitIndexer = gitCommitIndexer;
+		this.gitRepositoryService = gitRepositoryService;
+		this.pollingPolicy = new AdaptivePollingPolicy(pluginSettingsFactory);
+		this.cloneStage = new PipelineStage("clone", CLONE_THREADS);
+		this.fetchStage = new PipelineStage("fetch", fetchThreads);
+		this.indexStage = new PipelineStage("index", INDEX_THREADS);
+		
+		// Stale documents are removed by the index stage, as it is the only writer
+		gitCommitIndexer.setMissingCommitListener(new MissingCommitListener() {
+			@Override
+			public void commitsMissing(final GitRepository repository) {
+				submitIndex(repository);
+			}
+		});
+	}
+
+	/**
+	 * Queues the {@code repository} to be fetched and then indexed if its polling policy says it is due.
+	 *
+	 * @param repository the repository to update. Must not be {@code null}
+	 * @return true if the repository was queued
+	 */
+	public boolean submitIfDue(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		if (!pollingPolicy.isDue(repository, System.currentTimeMillis())) {
+			return false;
+		}
+		return submit(repository);
+	}
+
+	/**
+	 * Queues the {@code repository} to be fetched and then indexed. If the repository is already waiting to be
+	 * fetched, this does nothing.
+	 *
+	 * @param repository the repository to update. Must not be {@code null}
+	 * @return true if the repository was queued
+	 */
+	public boolean submit(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		return submit(repository, false);
+	}
+
+	/**
+	 * Queues the {@code repository} to be fetched and then indexed.
+	 *
+	 * @param repository the repository to update. Must not be {@code null}
+	 * @param notified true if the source told us it changed. Changes found by such fetches don't speed up polling, 
+	 * as the source can be relied upon to notify again
+	 * @return true if the repository was queued
+	 */
+	private boolean submit(final GitRepository repository, final boolean notified) {
+		assert repository != null : "repository must not be null";
+
+		final PipelineStage stage;
+		if (isCloneComplete(repository)) {
+			stage = fetchStage;
+		} else {
+			// Don't tie up a thread waiting behind a clone that is still downloading
+			final FetchProgressMonitor progress = gitRepositoryService.getFetchProgress(repository);
+			if (progress != null && progress.isInitialClone()) {
+				return false;
+			}
+			stage = cloneStage;
+		}
+		if (!circuitBreaker.allowsAttempt(repository, System.currentTimeMillis())) {
+			return false;
+		}
+		final boolean submitted = stage.submit(repository.getId(), new Runnable() {
+			@Override
+			public void run() {
+				final boolean changed;
+				try {
+					changed = gitCommitIndexer.fetch(repository);
+				} catch (final RepositoryException re) {
+					fetchFailed(repository, re);
+					return;
+				} catch (final RuntimeException re) {
+					fetchFailed(repository, re);
+					throw re;
+				}
+				circuitBreaker.succeeded(repository);
+				polled(repository, changed && !notified);
+				// An idle poll leaves nothing to index, unless an earlier fetch's commits are still to be indexed
+				if (changed || !gitCommitIndexer.isIndexCurrent(repository)) {
+					submitIndex(repository);
+				}
+			}
+		});
+		if (!submitted) {
+			// Hand back a trial attempt that wasn't queued, or the circuit would stay half open
+			circuitBreaker.cancelAttempt(repository);
+		}
+		return submitted;
+	}
+
+	/**
+	 * Records a failed fetch of the {@code repository} with its circuit and polling policy.
+	 *
+	 * @param repository the repository that failed. Must not be {@code null}
+	 * @param cause the reason for the failure. Must not be {@code null}
+	 */
+	private void fetchFailed(final GitRepository repository, final Exception cause) {
+		assert repository != null : "repository must not be null";
+		assert cause != null : "cause must not be null";
+
+		if (circuitBreaker.failed(repository, cause, System.currentTimeMillis())) {
+			final CircuitBreaker.CircuitStatus status = circuitBreaker.getStatus(repository);
+			logger.warn("Fetching repository " + repository.getId() + " has failed " + status.getFailures() 
+					+ " times in a row; not retrying until " + new Date(status.getRetryTime()), cause);
+		} else if (cause instanceof RepositoryException) {
+			logger.error("Error fetching repository: " + repository.getId(), cause);
+		}
+		polled(repository, false);
+	}
+
+	/**
+	 * Tests whether the {@code repository} has been cloned in full, so that it goes to the fetch stage.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return true if the clone is complete; false if it is yet to be cloned or its state cannot be read
+	 */
+	private boolean isCloneComplete(final GitRepository repository) {
+		assert repository != null : "repository must not be null";
+
+		try {
+			return gitRepositoryService.isCloneComplete(repository);
+		} catch (final RepositoryException re) {
+			logger.debug("Cannot read the clone state of repository: " + repository.getId(), re);
+			return false;
+		}
+	}
+
+	/**
+	 * Notifies the pipeline that the source of the {@code repository} has been updated. The repository is queued 
+	 * to be fetched and indexed after a short delay, during which further notifications for the same repository are
+	 * absorbed.
+	 *
+	 * @param repository the updated repository. Must not be {@code null}
+	 */
+	public void notifyUpdated(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		if (!pendingNotifications.add(repository.getId())) {
+			return;
+		}
+		notificationScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				pendingNotifications.remove(repository.getId());
+				submit(repository, true);
+			}
+		}, NOTIFICATION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues the {@code repository} to be indexed from its clone without fetching first.
+	 *
+	 * @param repository the repository to index. Must not be {@code null}
+	 * @return true if the repository was queued
+	 */
+	public boolean submitIndex(final GitRepository repository) {
+		Validate.notNull(repository, "repository must not be null");
+
+		return indexStage.submit(repository.getId(), new Runnable() {
+			@Override
+			public void run() {
+				try {
+					gitCommitIndexer.updateIndex(repository);
+				} catch (final IndexException ie) {
+					logger.error("Error indexing repository: " + repository.getId(), ie);
+				} catch (final RepositoryException re) {
+					logger.error("Error reading repository while indexing: " + repository.getId(), re);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the policy deciding when each repository is next polled.
+	 *
+	 * @return the polling policy. Never {@code null}
+	 */
+	public AdaptivePollingPolicy getPollingPolicy() {
+		return pollingPolicy;
+	}
+
+	/**
+	 * Gets the circuit breaker that stops repositories from being fetched after repeated failures.
+	 *
+	 * @return the circuit breaker. Never {@code null}
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Gets the stages of the pipeline in the order that repositories pass through them.
+	 *
+	 * @return the stages. Never {@code null}
+	 */
+	public List<PipelineStage> getStages() {
+		return Arrays.asList(cloneStage, fetchStage, indexStage);
+	}
+
+	public PipelineStage getCloneStage() {
+		return cloneStage;
+	}
+
+	public PipelineStage getFetchStage() {
+		return fetchStage;
+	}
+
+	public PipelineStage getIndexStage() {
+		return indexStage;
+	}
+
+	/**
+	 * Records a poll of the {@code repository} with its polling policy.
+	 *
+	 * @param repository the repository that was polled. Must not be {@code null}
+	 * @param changed true if the poll found changes
+	 */
+	private void polled(final GitRepository repository, final boolean changed) {
+		assert repository != null : "repository must not be null";
+
+		if (pollingPolicy.polled(repository, changed, System.currentTimeMillis()) && logger.isDebugEnabled()) {
+			logger.debug("Poll interval for repository " + repository.getId() + " is now " 
+					+ pollingPolicy.getPollInterval(repository) + " minutes");
+		}
+	}
+
+	@Override
+	public void destroy() {
+		notificationScheduler.shutdownNow();
+		cloneStage.shutdown();
+		fetchStage.shutdown();
+		indexStage.shutdown();
+	}
+}
@@ -22,14 +22,16 @@ public class GitUpdateIndexMonitorImpl implements UpdateIndexMonitor, LifecycleA
     private final RepositoryManager repositoryManager;
 	private final PluginScheduler pluginScheduler;
     private final GitCommitIndexer gitCommitIndexer;
+    private final GitIndexPipeline indexPipeline;
 
     private static final long DEFAULT_INDEX_INTERVAL = DateTimeConstants.MILLIS_PER_MINUTE;
 
 	public GitUpdateIndexMonitorImpl(final RepositoryManager repositoryManager, 
-			final PluginScheduler pluginScheduler, final GitCommitIndexer gitCommitIndexer) {
+			final PluginScheduler pluginScheduler, final GitCommitIndexer gitCommitIndexer, final GitIndexPipeline indexPipeline) {
 		this.repositoryManager = repositoryManager;
 		this.pluginScheduler = pluginScheduler;
         this.gitCommitIndexer =  gitCommitIndexer;
+        this.indexPipeline = indexPipeline;
 	}
 	
 	public void onStart() {
@@ -44,6 +46,7 @@ public class GitUpdateIndexMonitorImpl implements UpdateIndexMonitor, LifecycleA
                 new HashMap<String, Object>() {{
                     put("UpdateIndexMonitorImpl:instance", GitUpdateIndexMonitorImpl.this);
                     put("GitCommitIndexer", gitCommitIndexer);
+                    put("GitIndexPipeline", indexPipeline);
                     put("RepositoryManager", repositoryManager);
                 }},
                 new Date(),
@@ -0,0 +1,198 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.repository.exception.RepositoryException;
+import jiracommitviewer.repository.service.GitRepositoryService;
+
+import org.apache.commons.lang3.Validate;
+import org.eclipse.jgit.transport.URIish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Watches the refs of repositories whose source is on the local file system ({@code file://}) and notifies the
+ * {@link GitIndexPipeline} as soon as a branch changes, so that on-box repositories are indexed almost immediately
+ * without having to be polled.
+ * <p>
+ * Watching is done by checking the modification state of each source's loose branch refs and {@code packed-refs}.
+ * This only involves reading file attributes. A source that has just changed is checked every second; each check
+ * that finds nothing new doubles the time until its next check, up to {@link #MAX_WATCH_INTERVAL_MILLIS}, so that
+ * many idle sources don't have to be scanned every second. The Git directory is resolved afresh on every check, so
+ * a source that is moved, deleted or recreated is picked up again without any re-registration.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class LocalRefWatcher implements InitializingBean, DisposableBean, Runnable {
+
+	private final static Logger logger = LoggerFactory.getLogger(LocalRefWatcher.class);
+
+	/** The time between checks of the watched refs. */
+	public static final long WATCH_INTERVAL_MILLIS = 1000;
+	/** The longest time between checks of the refs of a source that hasn't changed, well within a poll interval. */
+	public static final long MAX_WATCH_INTERVAL_MILLIS = 30000;
+	/** Recorded for a source whose ref state is changing too quickly to be determined. */
+	private static final String UNSETTLED_STATE = "";
+
+	private final RepositoryManager repositoryManager;
+	private final GitRepositoryService gitRepositoryService;
+	private final GitIndexPipeline indexPipeline;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("watcher"));
+
+	/** The last observed ref state of each watched repository. Only accessed by the watcher thread. */
+	private final Map<Object, String> refStates = new HashMap<Object, String>();
+	/** The current time between checks of each watched repository. Only accessed by the watcher thread. */
+	private final Map<Object, Long> watchIntervals = new HashMap<Object, Long>();
+	/** The time at which each watched repository is next checked. Only accessed by the watcher thread. */
+	private final Map<Object, Long> nextCheckTimes = new HashMap<Object, Long>();
+	/** Repositories whose source could not be read on the last check. Only accessed by the watcher thread. */
+	private final Set<Object> unreadable = new HashSet<Object>();
+
+	public LocalRefWatcher(final RepositoryManager repositoryManager, final GitRepositoryService gitRepositoryService,
+			final GitIndexPipeline indexPipeline) {
+		Validate.notNull(repositoryManager, "repositoryManager must not be null");
+		Validate.notNull(gitRepositoryService, "gitRepositoryService must not be null");
+		Validate.notNull(indexPipeline, "indexPipeline must not be null");
+
+		this.repositoryManager = repositoryManager;
+		this.gitRepositoryService = gitRepositoryService;
+		this.indexPipeline = indexPipeline;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		scheduler.scheduleWithFixedDelay(this, WATCH_INTERVAL_MILLIS, WATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Checks the local repositories that are due, notifying the pipeline of those whose refs have changed since the
+	 * previous check.
+	 */
+	@Override
+	public void run() {
+		try {
+			watch(System.currentTimeMillis());
+		} catch (final RuntimeException re) {
+			// Never let an exception cancel the scheduled checks
+			logger.error("Error watching local repositories", re);
+		}
+	}
+
+	/**
+	 * Checks each local repository that is due at the time, {@code now}.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	void watch(final long now) {
+		final Set<Object> watched = new HashSet<Object>();
+		for (final GitRepository repository : repositoryManager.getRepositoryList(GitRepository.class)) {
+			if (isLocal(repository)) {
+				watched.add(repository.getId());
+				final Long nextCheckTime = nextCheckTimes.get(repository.getId());
+				if (nextCheckTime == null || nextCheckTime.longValue() <= now) {
+					check(repository, now);
+				}
+			}
+		}
+		// Forget repositories that have been removed or are no longer local
+		refStates.keySet().retainAll(watched);
+		watchIntervals.keySet().retainAll(watched);
+		nextCheckTimes.keySet().retainAll(watched);
+		unreadable.retainAll(watched);
+	}
+
+	/**
+	 * Checks the refs of a single local {@code repository} and schedules its next check. The first observation of 
+	 * a repository is only recorded; the regular poll takes care of anything that changed before watching began.
+	 *
+	 * @param repository the repository to check. Must not be {@code null}
+	 * @param now the current time in milliseconds
+	 */
+	private void check(final GitRepository repository, final long now) {
+		assert repository != null : "repository must not be null";
+
+		String refState;
+		try {
+			refState = gitRepositoryService.getRefState(repository);
+			if (unreadable.remove(repository.getId())) {
+				logger.info("Watching local repository again: " + repository.getUri());
+			}
+		} catch (final RepositoryException re) {
+			if (unreadable.add(repository.getId())) {
+				logger.warn("Cannot watch local repository, will keep retrying: " + repository.getUri(), re);
+			}
+			refStates.remove(repository.getId());
+			scheduleCheck(repository, false, now);
+			return;
+		}
+		final boolean settled = refState != null;
+		if (!settled) {
+			refState = UNSETTLED_STATE;
+		}
+
+		final String previousState = refStates.put(repository.getId(), refState);
+		final boolean changed = previousState != null && !previousState.equals(refState);
+		if (changed) {
+			logger.debug("Refs changed for local repository: " + repository.getId());
+			indexPipeline.notifyUpdated(repository);
+		}
+		// An unsettled source is still being written to, so is checked again soon
+		scheduleCheck(repository, changed || !settled, now);
+	}
+
+	/**
+	 * Schedules the next check of the {@code repository}. The time between checks goes back to 
+	 * {@link #WATCH_INTERVAL_MILLIS} when {@code active}, otherwise it is doubled up to 
+	 * {@link #MAX_WATCH_INTERVAL_MILLIS}.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @param active true if the repository's refs are changing
+	 * @param now the current time in milliseconds
+	 */
+	private void scheduleCheck(final GitRepository repository, final boolean active, final long now) {
+		assert repository != null : "repository must not be null";
+
+		final Long previousInterval = watchIntervals.get(repository.getId());
+		final long watchInterval = active || previousInterval == null 
+				? WATCH_INTERVAL_MILLIS : Math.min(previousInterval.longValue() * 2, MAX_WATCH_INTERVAL_MILLIS);
+		watchIntervals.put(repository.getId(), watchInterval);
+		nextCheckTimes.put(repository.getId(), now + watchInterval);
+	}
+
+	/**
+	 * Tests whether the source of the {@code repository} is on the local file system.
+	 *
+	 * @param repository the repository. Must not be {@code null}
+	 * @return true if it is local
+	 */
+	private boolean isLocal(final GitRepository repository) {
+		assert repository != null : "repository must not be null";
+
+		if (repository.getUri() == null) {
+			return false;
+		}
+		try {
+			return !new URIish(repository.getUri()).isRemote();
+		} catch (final URISyntaxException urise) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single stage of the indexing pipeline. Each stage owns a fixed size pool of worker threads fed from an unbounded
+ * queue. Tasks are keyed so that a task whose key is already waiting in the queue is not queued a second time.
+ * <p>
+ * The stage keeps simple statistics about its queue depth and latency for display on the administration pages.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class PipelineStage {
+
+	private final static Logger logger = LoggerFactory.getLogger(PipelineStage.class);
+
+	private final String name;
+	private final int threads;
+	private final ThreadPoolExecutor executor;
+	/** Keys of the tasks that are waiting in the queue but have not yet started. */
+	private final Set<Object> queuedKeys = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong totalRunMillis = new AtomicLong();
+	private final AtomicLong lastRunMillis = new AtomicLong();
+
+	/**
+	 * Creates a new stage.
+	 *
+	 * @param name the name of the stage, used for naming worker threads. Must not be {@code null}
+	 * @param threads the maximum number of tasks the stage will run concurrently. Must be at least 1
+	 */
+	public PipelineStage(final String name, final int threads) {
+		Validate.notNull(name, "name must not be null");
+		Validate.isTrue(threads > 0, "threads must be at least 1");
+
+		this.name = name;
+		this.threads = threads;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new DaemonThreadFactory(name));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues the {@code task} for execution unless a task with the same {@code key} is already waiting in the queue.
+	 * A task whose key is currently running (but no longer waiting) may be queued again.
+	 *
+	 * @param key identifies the unit of work, such as the repository identifier. Must not be {@code null}
+	 * @param task the task to run. Must not be {@code null}
+	 * @return true if the task was queued; false if an equivalent task was already waiting or the stage is shut down
+	 */
+	public boolean submit(final Object key, final Runnable task) {
+		Validate.notNull(key, "key must not be null");
+		Validate.notNull(task, "task must not be null");
+
+		if (executor.isShutdown() || !queuedKeys.add(key)) {
+			return false;
+		}
+
+		final long queuedAt = System.currentTimeMillis();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					queuedKeys.remove(key);
+					final long startedAt = System.currentTimeMillis();
+					totalWaitMillis.addAndGet(startedAt - queuedAt);
+					try {
+						task.run();
+					} catch (final RuntimeException re) {
+						failedCount.incrementAndGet();
+						logger.error("Unexpected error in " + name + " stage for: " + key, re);
+					} finally {
+						final long runMillis = System.currentTimeMillis() - startedAt;
+						lastRunMillis.set(runMillis);
+						totalRunMillis.addAndGet(runMillis);
+						completedCount.incrementAndGet();
+					}
+				}
+			});
+		} catch (final RuntimeException re) {
+			queuedKeys.remove(key);
+			throw re;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting tasks and discards those that have not yet started. Running tasks are allowed to finish.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		queuedKeys.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Gets the number of tasks waiting to be started.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the number of tasks currently running.
+	 *
+	 * @return the active count
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Gets the mean time completed tasks spent waiting in the queue before starting.
+	 *
+	 * @return the average wait in milliseconds
+	 */
+	public long getAverageWaitMillis() {
+		final long completed = completedCount.get();
+		return completed == 0 ? 0 : totalWaitMillis.get() / completed;
+	}
+
+	/**
+	 * Gets the mean time completed tasks spent running.
+	 *
+	 * @return the average run time in milliseconds
+	 */
+	public long getAverageRunMillis() {
+		final long completed = completedCount.get();
+		return completed == 0 ? 0 : totalRunMillis.get() / completed;
+	}
+
+	/**
+	 * Gets the run time of the most recently completed task.
+	 *
+	 * @return the last run time in milliseconds
+	 */
+	public long getLastRunMillis() {
+		return lastRunMillis.get();
+	}
+}
@@ -1,11 +1,9 @@
 package jiracommitviewer.revisions.scheduling;
 
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.GitRepository;
-import jiracommitviewer.index.GitCommitIndexer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,40 +11,34 @@ import org.slf4j.LoggerFactory;
 import com.atlassian.sal.api.scheduling.PluginJob;
 
 /**
- * Task that updates the repository indexes. This should be scheduled to execute frequently.
+ * Task that updates the repository indexes by queuing each repository on the {@link GitIndexPipeline}. This 
+ * should be scheduled to execute frequently.
  * 
  * @author mark
  */
 public class UpdateIndexTask implements PluginJob {
 
     private static final Logger logger = LoggerFactory.getLogger(UpdateIndexTask.class);
-    private static final ReentrantLock lock = new ReentrantLock();
 
     @Override
     public void execute(Map<String, Object> jobDataMap) {
         final GitUpdateIndexMonitorImpl monitor = (GitUpdateIndexMonitorImpl)jobDataMap.get("UpdateIndexMonitorImpl:instance");
-        final GitCommitIndexer gitCommitIndexer = (GitCommitIndexer)jobDataMap.get("GitCommitIndexer");
+        final GitIndexPipeline indexPipeline = (GitIndexPipeline)jobDataMap.get("GitIndexPipeline");
         final RepositoryManager repositoryManager = (RepositoryManager)jobDataMap.get("RepositoryManager");
         assert monitor != null;
 
         try {
-            if (gitCommitIndexer == null) {
+            if (indexPipeline == null) {
                 return; // Just return --- the plugin is disabled. Don't log anything.
             }
             
-            // The JIRA scheduler allows multiple jobs of the same type to run concurrently. We want to prevent this
-            // as the indexer is not thread-safe.
-            if (lock.tryLock()) {
-            	try {
-            		for (final GitRepository repository : repositoryManager.getRepositoryList(GitRepository.class)) {
-            			gitCommitIndexer.index(repository);
-            		}
-            	} finally {
-            		lock.unlock();
-            	}
+            // Only repositories that are due according to their polling policy are queued. Those already waiting
+            // in the pipeline are not queued again, so overlapping runs of this job do not pile up work.
+            for (final GitRepository repository : repositoryManager.getRepositoryList(GitRepository.class)) {
+            	indexPipeline.submitIfDue(repository);
             }
         } catch (final Exception e) {
-            logger.error("Error indexing changes", e);
+            logger.error("Error queuing repositories for indexing", e);
         }
     }
 }
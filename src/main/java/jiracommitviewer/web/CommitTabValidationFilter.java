@@ -0,0 +1,117 @@
+package jiracommitviewer.web;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+
+/**
+ * Answers the requests that load the Git tabs without decoration, such as those of the "more" buttons, with
+ * {@code 304 Not Modified} if the client already holds what would be rendered. Otherwise the response is given an
+ * {@code ETag} and {@code Last-Modified} for the client to validate it with next time.
+ * <p>
+ * Only the issue tab and the project tab showing all versions are validated; which commits a version lists also
+ * depends on the issues it holds, which the index does not record.
+ *
+ * @author mark
+ */
+public class CommitTabValidationFilter implements Filter {
+
+	private static final String BROWSE_PATH = "/browse/";
+	private static final String ISSUE_TAB_SUFFIX = ":git-commits-tabpanel";
+	private static final String PROJECT_TAB_SUFFIX = ":git-project-tab";
+	private static final String ALL_VERSIONS = "-1";
+
+	private final ResponseValidatorFactory responseValidatorFactory;
+	private final IssueManager issueManager;
+
+	public CommitTabValidationFilter(final ResponseValidatorFactory responseValidatorFactory,
+			final IssueManager issueManager) {
+		this.responseValidatorFactory = responseValidatorFactory;
+		this.issueManager = issueManager;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void init(final FilterConfig filterConfig) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+			throws IOException, ServletException {
+		if (request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+			final HttpServletRequest httpRequest = (HttpServletRequest)request;
+			final HttpServletResponse httpResponse = (HttpServletResponse)response;
+			final ResponseValidator validator = getValidator(httpRequest);
+			if (validator != null) {
+				if (validator.matches(httpRequest.getHeader("If-None-Match"))) {
+					httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					httpResponse.setHeader("ETag", validator.getEntityTag());
+					return;
+				}
+				httpResponse.setHeader("ETag", validator.getEntityTag());
+				httpResponse.setDateHeader("Last-Modified", validator.getLastModified());
+				// The client must still check back each time, since the tab changes as soon as commits are indexed
+				httpResponse.setHeader("Cache-Control", "private, no-cache");
+			}
+		}
+		chain.doFilter(request, response);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void destroy() {
+	}
+
+	/**
+	 * Gets the validator of the tab that a request loads.
+	 *
+	 * @param request the request. Must not be {@code null}
+	 * @return the validator or {@code null} if the request isn't one that is validated
+	 */
+	private ResponseValidator getValidator(final HttpServletRequest request) {
+		assert request != null : "request must not be null";
+
+		if (!"GET".equals(request.getMethod()) || !"none".equals(request.getParameter("decorator"))) {
+			return null;
+		}
+		final String path = request.getRequestURI().substring(request.getContextPath().length());
+		if (!path.startsWith(BROWSE_PATH)) {
+			return null;
+		}
+		final String key = path.substring(BROWSE_PATH.length());
+		if (StringUtils.isBlank(key) || key.indexOf('/') != -1) {
+			return null;
+		}
+
+		if (StringUtils.endsWith(request.getParameter("page"), ISSUE_TAB_SUFFIX)) {
+			final Issue issue = issueManager.getIssueObject(key);
+			return issue == null ? null : responseValidatorFactory.getIssueValidator(issue);
+		}
+		if (StringUtils.endsWith(request.getParameter("selectedTab"), PROJECT_TAB_SUFFIX)) {
+			final String version = request.getParameter("selectedVersion");
+			if (version == null || version.equals(ALL_VERSIONS)) {
+				return responseValidatorFactory.getProjectsValidator("project\n" + key);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,88 @@
+package jiracommitviewer.web;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * The entity tag and last modified time of a response listing commits, from which a client that already holds the
+ * response can be told that it is unchanged.
+ * <p>
+ * Tags are weak, since the same listing may be rendered with trivial differences such as the times that are shown
+ * relative to now.
+ * <p>
+ * Immutable and thread safe.
+ *
+ * @author mark
+ */
+public final class ResponseValidator {
+
+	private final String tag;
+	private final long lastModified;
+
+	/**
+	 * Creates a new validator.
+	 *
+	 * @param tag the opaque value of the entity tag, without quotes. Must not be {@code null}
+	 * @param lastModified the time the response last changed in milliseconds
+	 */
+	public ResponseValidator(final String tag, final long lastModified) {
+		Validate.notNull(tag, "tag must not be null");
+
+		this.tag = tag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Gets the opaque value of the entity tag.
+	 *
+	 * @return the value, without quotes. Never {@code null}
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * Gets the entity tag as written in an {@code ETag} header.
+	 *
+	 * @return the header value. Never {@code null}
+	 */
+	public String getEntityTag() {
+		return "W/\"" + tag + "\"";
+	}
+
+	/**
+	 * Gets the time the response last changed.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Tests whether an {@code If-None-Match} header matches this validator, meaning that the client already holds
+	 * the response.
+	 *
+	 * @param ifNoneMatch the header value or {@code null} if there is none
+	 * @return true if the header matches
+	 */
+	public boolean matches(final String ifNoneMatch) {
+		if (StringUtils.isBlank(ifNoneMatch)) {
+			return false;
+		}
+		for (String entityTag : StringUtils.split(ifNoneMatch, ',')) {
+			entityTag = entityTag.trim();
+			if (entityTag.equals("*")) {
+				return true;
+			}
+			// Weak comparison, as is used for If-None-Match
+			if (entityTag.startsWith("W/")) {
+				entityTag = entityTag.substring(2);
+			}
+			if (entityTag.equals("\"" + tag + "\"")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
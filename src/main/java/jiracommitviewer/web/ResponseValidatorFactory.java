@@ -0,0 +1,182 @@
+package jiracommitviewer.web;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.AbstractRepository;
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.IndexGeneration;
+import jiracommitviewer.index.exception.IndexException;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+
+/**
+ * Creates the validators of responses listing commits, so that a repeated request can be answered with
+ * {@code 304 Not Modified} without searching the index or rendering anything.
+ * <p>
+ * A listing can only change if the index does, if the plugin is configured differently, or if the current user
+ * comes to see different commits. A validator therefore combines the {@link IndexGeneration} with a signature of the
+ * configuration and of the user's permissions. Some of what goes into the configuration signature is only held in
+ * memory, so tags also change whenever the plugin is restarted.
+ * <p>
+ * Thread safe.
+ *
+ * @author mark
+ */
+public class ResponseValidatorFactory {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResponseValidatorFactory.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	/** The number of bytes of the signature digest kept in a tag. */
+	private static final int SIGNATURE_BYTES = 8;
+
+	@Autowired
+	private GitCommitIndexer gitCommitIndexer;
+	@Autowired
+	private RepositoryManager repositoryManager;
+	@Autowired
+	private PermissionManager permissionManager;
+	@Autowired
+	private JiraAuthenticationContext authenticationContext;
+
+	private final String startTime = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	/**
+	 * Gets the validator of a listing of the commits that mention an issue, as seen by the current user.
+	 *
+	 * @param issue the issue. Must not be {@code null}
+	 * @return the validator or {@code null} if the index can't be read
+	 */
+	@SuppressWarnings("deprecation")
+	public ResponseValidator getIssueValidator(final Issue issue) {
+		Validate.notNull(issue, "issue must not be null");
+
+		final User user = authenticationContext.getLoggedInUser();
+		final StringBuilder signature = new StringBuilder();
+		signature.append("issue\n").append(issue.getId()).append('\n').append(issue.getKey()).append('\n');
+		signature.append(permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user)).append('\n');
+		return createValidator(user, signature);
+	}
+
+	/**
+	 * Gets the validator of a listing of commits that mention issues of any project, as seen by the current user.
+	 * The listing is assumed to change only if the projects that the user may view version control for do.
+	 *
+	 * @param scope identifies what is listed, such as the key of a project. Must not be {@code null}
+	 * @return the validator or {@code null} if the index can't be read
+	 */
+	public ResponseValidator getProjectsValidator(final String scope) {
+		Validate.notNull(scope, "scope must not be null");
+
+		final User user = authenticationContext.getLoggedInUser();
+		final List<Long> projectIds = new ArrayList<Long>();
+		for (final Project project : permissionManager.getProjectObjects(Permissions.VIEW_VERSION_CONTROL, user)) {
+			projectIds.add(project.getId());
+		}
+		Collections.sort(projectIds);
+
+		final StringBuilder signature = new StringBuilder();
+		signature.append("projects\n").append(scope).append('\n').append(projectIds).append('\n');
+		return createValidator(user, signature);
+	}
+
+	/**
+	 * Gets the validator of a listing of the files of a commit. Commits never change, so this only depends on how
+	 * the links of the commit's repository are formatted.
+	 *
+	 * @param repository the repository of the commit. Must not be {@code null}
+	 * @param commitKey the key of the commit. Must not be {@code null}
+	 * @return the validator. Never {@code null}
+	 */
+	public ResponseValidator getCommitValidator(final GitRepository repository, final GitCommitKey commitKey) {
+		Validate.notNull(repository, "repository must not be null");
+		Validate.notNull(commitKey, "commitKey must not be null");
+
+		final StringBuilder signature = new StringBuilder();
+		signature.append("commit\n").append(repository.getId()).append('\n').append(commitKey.marshal()).append('\n');
+		signature.append(repository.getLinkFormatter().getVersion()).append('\n');
+		return new ResponseValidator(startTime + "-" + digest(signature), commitKey.getCommitTime() * 1000L);
+	}
+
+	/**
+	 * Creates a validator from the index generation, the configuration and a signature of what is listed.
+	 *
+	 * @param user the current user or {@code null} if anonymous
+	 * @param signature the signature of what is listed and of the permissions it depends on. Must not be {@code null}
+	 * @return the validator or {@code null} if the index can't be read
+	 */
+	private ResponseValidator createValidator(final User user, final StringBuilder signature) {
+		assert signature != null : "signature must not be null";
+
+		final IndexGeneration generation;
+		try {
+			generation = gitCommitIndexer.getIndexGeneration();
+		} catch (final IndexException ie) {
+			logger.debug("Could not read the index generation", ie);
+			return null;
+		}
+
+		signature.append(user == null ? "" : user.getName()).append('\n');
+		signature.append(authenticationContext.getLocale()).append('\n');
+		appendConfiguration(signature);
+		return new ResponseValidator(startTime + "-" + Long.toString(generation.getVersion(), Character.MAX_RADIX) + "-"
+				+ digest(signature), generation.getLastModified());
+	}
+
+	/**
+	 * Writes out everything configured that affects how commits are listed.
+	 *
+	 * @param signature the signature to write to. Must not be {@code null}
+	 */
+	private void appendConfiguration(final StringBuilder signature) {
+		assert signature != null : "signature must not be null";
+
+		signature.append(repositoryManager.isCollapseDuplicateCommits()).append('\n');
+		signature.append(repositoryManager.getInlineFileLimit()).append('\n');
+		for (final AbstractRepository repository : repositoryManager.getRepositoryList()) {
+			signature.append(repository.getId()).append('\t').append(repository.getDisplayName()).append('\t');
+			signature.append(repository.isActive()).append('\t').append(repository.getLinkFormatter().getVersion());
+			signature.append('\n');
+		}
+	}
+
+	/**
+	 * Gets the start of the digest of a signature in hexadecimal.
+	 *
+	 * @param signature the signature. Must not be {@code null}
+	 * @return the digest. Never {@code null}
+	 */
+	private static String digest(final CharSequence signature) {
+		assert signature != null : "signature must not be null";
+
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(signature.toString().getBytes(UTF8));
+		} catch (final NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("SHA-1 is not supported", nsae);
+		}
+		final StringBuilder hex = new StringBuilder(SIGNATURE_BYTES * 2);
+		for (int i = 0; i < SIGNATURE_BYTES; i++) {
+			hex.append(HEX_DIGITS[(digest[i] >> 4) & 0xF]).append(HEX_DIGITS[digest[i] & 0xF]);
+		}
+		return hex.toString();
+	}
+}
@@ -101,6 +101,63 @@ jQuery(function($) {
             );
         },
 
+        fileColours : {
+            deleted : "#990000",
+            added : "#009900",
+            modified : "#999933",
+            replaced : "#999933",
+            copied : "#999933"
+        },
+
+        toggleFileList : function(filesContainer) {
+            var fileList = filesContainer.children("div.plugin_git_files_list");
+
+            // Files already loaded are kept, so they are only fetched the first time the list is expanded
+            if (filesContainer.data('loaded') === undefined) {
+                filesContainer.data('loaded', true);
+                this.loadFilePage(filesContainer, fileList, this.getParamsFromFieldSet(filesContainer.children("fieldset")), 0);
+            }
+            fileList.toggle();
+        },
+
+        loadFilePage : function(filesContainer, fileList, params, start) {
+            var wait = $("<img src='" + git.getContextPath() + "/images/icons/wait.gif'/>").appendTo(fileList);
+
+            $.ajax({
+                type : "GET",
+                url : git.getContextPath() + "/rest/gitcommitviewer/1.0/files",
+                dataType : "json",
+                data : { repositoryId : params["repositoryId"], commitKey : params["commitKey"], start : start },
+                success : function(page) {
+                    wait.remove();
+                    $.each(page.files, function() {
+                        fileList.append(git.createFileRow(this, params));
+                    });
+                    // Large commits are listed a page at a time, each shown as soon as it arrives
+                    if (page.next !== undefined) {
+                        git.loadFilePage(filesContainer, fileList, params, page.next);
+                    }
+                },
+                error : function() {
+                    wait.remove();
+                    filesContainer.removeData('loaded');
+                    fileList.empty().hide();
+                }
+            });
+        },
+
+        createFileRow : function(file, params) {
+            var row = $("<span/>");
+            var label = $("<b/>").text(params[file.type]);
+
+            $("<font size='-2'/>").attr("color", this.fileColours[file.type]).append(label).appendTo(row);
+            row.append(" " + file.link);
+            if (file.fromLink !== undefined) {
+                row.append(" (from " + file.fromLink + ")");
+            }
+            return row.add("<br/>");
+        },
+
         initVersionSelectForm : function(theForm) {
             theForm.find("select[name='selectedVersion']").change(function() {
                 theForm.submit();
@@ -120,6 +177,13 @@ jQuery(function($) {
         $(this).data('initialised', false);
     });
 
+    // Delegated so that file lists of commits added by the 'More' buttons work too
+    $(document).delegate("a.plugin_git_files_toggle", "click", function(event) {
+        git.toggleFileList($(this).parent());
+        event.preventDefault();
+        return false;
+    });
+
     $("input.plugin_git_showmore_projectab_button").each(function() {
         git.initShowMoreButtonInProjectTab($(this));
     });
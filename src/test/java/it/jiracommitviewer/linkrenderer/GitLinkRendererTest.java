@@ -78,6 +78,46 @@ public class GitLinkRendererTest {
 				renderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFiles.get(0)));
 	}
 	
+	/**
+	 * Tests that paths are URL encoded within the link and that the link is HTML escaped.
+	 */
+	@Test
+	public void testEscaping() {
+		LinkFormatter formatter = new LinkFormatter();
+		formatter.setFileAddedFormat("http://link.to.web/?p=repo&f=${path}&h=${id}");
+		GitLinkRenderer renderer = new GitLinkRenderer(formatter);
+		List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+		commitFiles.add(new AddedCommitFile("a dir/<b>&c\"\u00e9"));
+		LogEntry<GitRepository, GitCommitKey> logEntry = createBasicLogEntry(commitFiles);
+		
+		Assert.assertEquals("<a href=\"http://link.to.web/?p=repo&amp;f=a%20dir/%3Cb%3E%26c%22%C3%A9&amp;h=1234\">"
+				+ "a dir/&lt;b&gt;&amp;c&quot;\u00e9</a>", 
+				renderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFiles.get(0)));
+	}
+	
+	/**
+	 * Tests that unknown placeholders are left alone and that a formatter's links change when its formats do.
+	 */
+	@Test
+	public void testChangeFormat() {
+		LinkFormatter formatter = new LinkFormatter();
+		formatter.setFileAddedFormat("http://link.to.web/${unknown}/${path}");
+		GitLinkRenderer renderer = new GitLinkRenderer(formatter);
+		List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+		commitFiles.add(new AddedCommitFile("a/path"));
+		LogEntry<GitRepository, GitCommitKey> logEntry = createBasicLogEntry(commitFiles);
+		
+		Assert.assertEquals("<a href=\"http://link.to.web/${unknown}/a/path\">a/path</a>", 
+				renderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFiles.get(0)));
+		
+		formatter.setFileAddedFormat("http://other.web/${path}");
+		Assert.assertEquals("<a href=\"http://other.web/a/path\">a/path</a>", 
+				renderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFiles.get(0)));
+		
+		formatter.setFileAddedFormat("");
+		Assert.assertEquals("a/path", renderer.getFileAddedLink(logEntry, (AddedCommitFile)commitFiles.get(0)));
+	}
+	
 	/**
 	 * Gets a very simple log entry containing the supplied {@code commitFiles}.
 	 * 
@@ -0,0 +1,123 @@
+package jiracommitviewer.issuetabpanels;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests surrounding {@link CommitFragmentCache}.
+ *
+ * @author mark
+ */
+public class CommitFragmentCacheTest {
+
+	private static final String HTML = "<div class=\"commit\">GCV-1 Caf\u00e9 \u6f22\u5b57 <a href=\"#\">file.txt</a></div>";
+
+	/**
+	 * Tests that a cached fragment is given back unchanged and that replacing it doesn't count it twice.
+	 */
+	@Test
+	public void testPutAndGet() {
+		final CommitFragmentCache cache = new CommitFragmentCache();
+		Assert.assertNull(cache.get("a"));
+
+		cache.put("a", HTML);
+		Assert.assertEquals(HTML, cache.get("a"));
+		final int size = cache.getSize();
+		Assert.assertTrue(size > 0);
+
+		cache.put("a", HTML);
+		Assert.assertEquals(size, cache.getSize());
+		Assert.assertEquals(HTML, cache.get("a"));
+	}
+
+	/**
+	 * Tests that fragments are held compressed.
+	 */
+	@Test
+	public void testFragmentsCompressed() {
+		final CommitFragmentCache cache = new CommitFragmentCache();
+		final StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			html.append("<tr><td class=\"file\">src/main/java/File").append(i).append(".java</td></tr>");
+		}
+
+		cache.put("a", html.toString());
+		Assert.assertEquals(html.toString(), cache.get("a"));
+		Assert.assertTrue(cache.getSize() < html.length() / 4);
+	}
+
+	/**
+	 * Tests that the least recently used fragments are evicted once the byte budget is exceeded.
+	 */
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		final int fragmentSize = getFragmentSize(HTML);
+		final CommitFragmentCache cache = new CommitFragmentCache(3 * fragmentSize);
+		cache.put("a", HTML);
+		cache.put("b", HTML);
+		cache.put("c", HTML);
+		Assert.assertEquals(3 * fragmentSize, cache.getSize());
+
+		// Reading a makes b the least recently used
+		Assert.assertNotNull(cache.get("a"));
+		cache.put("d", HTML);
+
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNotNull(cache.get("c"));
+		Assert.assertNotNull(cache.get("d"));
+		Assert.assertEquals(3 * fragmentSize, cache.getSize());
+	}
+
+	/**
+	 * Tests that a single fragment larger than the byte budget is never cached and doesn't evict others.
+	 */
+	@Test
+	public void testFragmentLargerThanBudgetNotCached() {
+		final CommitFragmentCache cache = new CommitFragmentCache(2 * getFragmentSize(HTML));
+		cache.put("a", HTML);
+
+		// Random text barely compresses
+		final Random random = new Random(0);
+		final StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			html.append((char)(' ' + random.nextInt(95)));
+		}
+		cache.put("b", html.toString());
+
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(HTML, cache.get("a"));
+		Assert.assertEquals(getFragmentSize(HTML), cache.getSize());
+	}
+
+	/**
+	 * Tests that clearing the cache removes every fragment.
+	 */
+	@Test
+	public void testClear() {
+		final CommitFragmentCache cache = new CommitFragmentCache();
+		cache.put("a", HTML);
+		cache.put("b", HTML);
+
+		cache.clear();
+		Assert.assertNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * Gets the number of bytes that the {@code html} takes up once cached.
+	 *
+	 * @param html the HTML. Must not be {@code null}
+	 * @return the size in bytes
+	 */
+	private int getFragmentSize(final String html) {
+		assert html != null : "html must not be null";
+
+		final CommitFragmentCache cache = new CommitFragmentCache();
+		cache.put("", html);
+		return cache.getSize();
+	}
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -19,7 +20,11 @@ import jiracommitviewer.domain.GitCommitKey;
 import jiracommitviewer.domain.GitRepository;
 import jiracommitviewer.domain.LogEntry;
 import jiracommitviewer.index.CommitIndexer;
+import jiracommitviewer.index.CommitLink;
+import jiracommitviewer.index.CommitLinkHandler;
 import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.LogEntryCursor;
+import jiracommitviewer.index.LogEntryPage;
 import jiracommitviewer.index.exception.IndexException;
 import jiracommitviewer.repository.RepositoryTestUtils;
 import jiracommitviewer.repository.exception.RepositoryException;
@@ -30,8 +35,13 @@ import mockit.Injectable;
 import mockit.Mock;
 import mockit.MockUp;
 import mockit.NonStrictExpectations;
+import mockit.Verifications;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -126,6 +136,29 @@ public class GitCommitIndexerTest {
 		commitIndexer.index(repository);
 	}
 	
+	/**
+	 * Tests that a repository that has just been cloned isn't fetched again straight after.
+	 * 
+	 * @throws RepositoryException
+	 */
+	@Test
+	public void testNewCloneNotFetchedAgain() throws RepositoryException {
+		final GitRepository repository = new GitRepository("id");
+		final GitCommitIndexer gitCommitIndexer = new GitCommitIndexer();
+		Deencapsulation.setField(gitCommitIndexer, gitRepositoryService);
+		
+		new NonStrictExpectations() {{
+			gitRepositoryService.isCloned(repository); result = false;
+			gitRepositoryService.getRefState(repository); result = "state";
+			gitRepositoryService.cloneRepository(repository); result = true;
+		}};
+		
+		Assert.assertTrue(gitCommitIndexer.fetch(repository));
+		new Verifications() {{
+			gitRepositoryService.fetch(repository); times = 0;
+		}};
+	}
+	
 	/**
 	 * Expects to find a particular commit in the log entries for an issue.
 	 * 
@@ -604,6 +637,465 @@ public class GitCommitIndexerTest {
 		Assert.assertEquals("GCV-1 C1", logEntries.get(2).getMessage());
 	}
 	
+	/**
+	 * Tests that pages read by cursor list every commit once, newest first, even when commits share the same date.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 * @throws IOException
+	 */
+	@Test
+	public void testPagingByCursorForIssue(final MutableIssue issue) throws RepositoryException, URISyntaxException, IOException, 
+			IndexException {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					return Arrays.asList("GCV-1");
+				}
+			};
+			
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			issue.getKey(); result = "GCV-1";
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		
+		// Commit in quick succession so that commits are likely to share the same date
+		for (int i = 1; i <= 3; i++) {
+			RepositoryTestUtils.createRepositoryFile(gitRepository, new File("testfile" + i), ("C" + i).getBytes());
+			realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "author", "GCV-1 C" + i, 
+					new AddedCommitFile("testfile" + i)));
+		}
+		commitIndexer.index(gitRepository);
+		
+		final LogEntryPage<GitRepository, GitCommitKey> firstPage = commitIndexer.getLogEntryPageByIssue(issue, null, 2, false);
+		Assert.assertEquals(2, firstPage.getLogEntries().size());
+		Assert.assertNotNull(firstPage.getNext());
+		Assert.assertTrue(firstPage.getLogEntries().get(0).getCommitFiles().isEmpty());
+		
+		final LogEntryPage<GitRepository, GitCommitKey> secondPage = commitIndexer.getLogEntryPageByIssue(issue, 
+				LogEntryCursor.parse(firstPage.getNext().toString()), 2, true);
+		Assert.assertEquals(1, secondPage.getLogEntries().size());
+		Assert.assertNull(secondPage.getNext());
+		Assert.assertEquals(1, secondPage.getLogEntries().get(0).getCommitFiles().size());
+		
+		final Set<String> messages = new HashSet<String>();
+		for (final LogEntry<GitRepository, GitCommitKey> logEntry : firstPage.getLogEntries()) {
+			messages.add(logEntry.getMessage());
+		}
+		messages.add(secondPage.getLogEntries().get(0).getMessage());
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("GCV-1 C1", "GCV-1 C2", "GCV-1 C3")), messages);
+		Assert.assertFalse(firstPage.getLogEntries().get(1).getDate().before(secondPage.getLogEntries().get(0).getDate()));
+	}
+	
+	/**
+	 * Tests that exporting lists every commit of a project, however many there are, and nothing of other projects.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 * @throws IOException
+	 */
+	@Test
+	public void testExportCommitLinks(final MutableIssue issue) throws RepositoryException, URISyntaxException, IOException, 
+			IndexException {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					Set<String> keys = new HashSet<String>();
+					Pattern issuePattern = Pattern.compile("[A-Z]+-[0-9]+");
+					Matcher matcher = issuePattern.matcher(s);
+					int index = 0;
+					while (matcher.find(index)) {
+						keys.add(matcher.group());
+						index = matcher.end();
+					}
+					return new ArrayList<String>(keys);
+				}
+			};
+			
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("testfile"), "C1".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "author", "GCV-1 GCV-2 C1", 
+				new AddedCommitFile("testfile")));
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("testfile2"), "C2".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "author", "OTHER-1 C2", 
+				new AddedCommitFile("testfile2")));
+		commitIndexer.index(gitRepository);
+		
+		final List<CommitLink> links = new ArrayList<CommitLink>();
+		final int commitCount = ((GitCommitIndexer)commitIndexer).exportCommitLinks(Arrays.asList("GCV"), null, null, 
+				new CommitLinkHandler() {
+					@Override
+					public void handle(final CommitLink link) {
+						links.add(link);
+					}
+				});
+		Assert.assertEquals(1, commitCount);
+		Assert.assertEquals(2, links.size());
+		final Set<String> issueKeys = new HashSet<String>();
+		for (final CommitLink link : links) {
+			issueKeys.add(link.getIssueKey());
+			Assert.assertEquals("GCV-1 GCV-2 C1", link.getMessage());
+			Assert.assertEquals("author", link.getAuthorName());
+			Assert.assertNotNull(link.getDate());
+		}
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("GCV-1", "GCV-2")), issueKeys);
+		
+		Assert.assertEquals(0, ((GitCommitIndexer)commitIndexer).exportCommitLinks(Arrays.asList("GCV"), null, 
+				new Date(0), new CommitLinkHandler() {
+					@Override
+					public void handle(final CommitLink link) {
+						Assert.fail("Commits before the range should not be exported");
+					}
+				}));
+	}
+	
+	/**
+	 * Tests that the commit summary of an issue counts its commits as they are indexed and removed.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 * @throws IOException
+	 */
+	@Test
+	public void testIssueCommitSummary(final MutableIssue issue, final MutableIssue otherIssue) throws RepositoryException, 
+			URISyntaxException, IOException, IndexException {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					return Arrays.asList("GCV-1");
+				}
+			};
+			
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			issue.getKey(); result = "GCV-1";
+			otherIssue.getKey(); result = "GCV-2";
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		realRepositoryService.remove(gitRepository);
+		final GitCommitIndexer gitCommitIndexer = (GitCommitIndexer)commitIndexer;
+		
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file"), "C1".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 C1", 
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		Assert.assertEquals(1, gitCommitIndexer.getIssueCommitSummary(issue).getCommitCount());
+		Assert.assertNotNull(gitCommitIndexer.getIssueCommitSummary(issue).getLatestDate());
+		Assert.assertEquals(0, gitCommitIndexer.getIssueCommitSummary(otherIssue).getCommitCount());
+		
+		// Once loaded, the summary follows commits being indexed
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file2"), "C2".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 C2", 
+				new AddedCommitFile("file2")));
+		commitIndexer.index(gitRepository);
+		Assert.assertEquals(2, gitCommitIndexer.getIssueCommitSummary(issue).getCommitCount());
+		
+		// ...and being removed, as when a force push leaves them unreachable
+		final GitRepository rewritten = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		RepositoryTestUtils.createRepositoryFile(rewritten, new File("file"), "othercontent".getBytes());
+		realRepositoryService.commit(rewritten, new Commit<GitRepository>(rewritten, "testAuthor", "GCV-1 replacement", 
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		Assert.assertEquals(1, gitCommitIndexer.getIssueCommitSummary(issue).getCommitCount());
+	}
+	
+	/**
+	 * Tests that a commit indexed while the issue commit summaries are being loaded from an older reader is counted
+	 * once the load completes.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testIssueCommitSummaryIndexedWhileLoading(final MutableIssue issue) throws Exception {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					return Arrays.asList("GCV-1");
+				}
+			};
+		
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			issue.getKey(); result = "GCV-1";
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		realRepositoryService.remove(gitRepository);
+		final GitCommitIndexer gitCommitIndexer = (GitCommitIndexer)commitIndexer;
+		
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file"), "C1".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 C1",
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file2"), "C2".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 C2",
+				new AddedCommitFile("file2")));
+		
+		// Load the summaries as getIssueCommitSummary does, from a reader opened before the second commit is indexed
+		final Object issueCommits = Deencapsulation.getField(gitCommitIndexer, "issueCommits");
+		final Thread indexer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					commitIndexer.index(gitRepository);
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		synchronized (issueCommits) {
+			final IndexReader reader = IndexReader.open(FSDirectory.open(commitIndexer.getIndexPath()));
+			try {
+				indexer.start();
+				// Wait for the indexer to commit and then wait on the summaries
+				final long timeout = System.currentTimeMillis() + 10000;
+				while (indexer.getState() != Thread.State.BLOCKED && indexer.isAlive()
+						&& System.currentTimeMillis() < timeout) {
+					Thread.sleep(10);
+				}
+				Deencapsulation.invoke(issueCommits, "load", reader);
+			} finally {
+				reader.close();
+			}
+		}
+		indexer.join();
+		
+		Assert.assertEquals(2, gitCommitIndexer.getIssueCommitSummary(issue).getCommitCount());
+	}
+	
+	/**
+	 * Tests that a commit found in two repositories is listed once for each repository, or once in total when collapsed, 
+	 * and remains available when one of the repositories is removed.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 * @throws IOException
+	 */
+	@Test
+	public void testDuplicateCommitsInRepositories(final Issue issue) throws URISyntaxException, RepositoryException, IndexException, 
+			IOException {
+		final String uri = "file://" + new File(ClassLoader.getSystemResource("repository/source").toURI()).getAbsolutePath();
+		final GitRepository repository = new GitRepository("id");
+		repository.setUri(uri);
+		final GitRepository fork = new GitRepository("fork");
+		fork.setUri(uri);
+		
+		new NonStrictExpectations() {{
+			issue.getKey(); result = "GCV-1";
+			issue.getId(); result = 1L;
+			changeHistoryManager.getPreviousIssueKeys(anyLong); result = new ArrayList<String>();
+			repositoryManager.parseRepositoryId("id"); result = "id";
+			repositoryManager.parseRepositoryId("fork"); result = "fork";
+			repositoryManager.getRepository("id"); result = repository;
+			repositoryManager.getRepository("fork"); result = fork;
+		}};
+		
+		// Index both repositories
+		testIndex();
+		commitIndexer.index(fork);
+		
+		final List<LogEntry<GitRepository, GitCommitKey>> logEntries = commitIndexer.getAllLogEntriesByIssue(issue, 0, 100, false, false);
+		final List<LogEntry<GitRepository, GitCommitKey>> collapsedLogEntries = 
+				commitIndexer.getAllLogEntriesByIssue(issue, 0, 100, false, true);
+		Assert.assertFalse("Expected log entries for the issue", collapsedLogEntries.isEmpty());
+		Assert.assertEquals("Expected an entry for each repository", collapsedLogEntries.size() * 2, logEntries.size());
+		for (final LogEntry<GitRepository, GitCommitKey> logEntry : collapsedLogEntries) {
+			Assert.assertEquals("Expected both repositories on the collapsed entry", 2, logEntry.getRepositories().size());
+		}
+		
+		// Commits remain while in any repository
+		commitIndexer.removeEntries(repository);
+		Assert.assertEquals(collapsedLogEntries.size(), commitIndexer.getAllLogEntriesByIssue(issue, 0, 100, false, false).size());
+		Assert.assertTrue("Expected to find marker commit in history", hasCommit("095014f90aac621901d29e1e3986ad5f9e52361a", 
+				commitIndexer.getAllLogEntriesByIssue(issue, 0, 5, false).iterator()));
+	}
+	
+	/**
+	 * Tests that a commit that has gone missing from its repository, such as after a force push, is skipped when 
+	 * reading results and is removed from the index when the repository is next updated.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 */
+	@Test
+	public void testMissingCommitsRemoved(final MutableIssue issue) throws URISyntaxException, IOException, RepositoryException, 
+			IndexException {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					Set<String> keys = new HashSet<String>();
+					Pattern issuePattern = Pattern.compile("GCV-[0-9]+");
+					Matcher matcher = issuePattern.matcher(s);
+					int index = 0;
+					while (matcher.find(index)) {
+						keys.add(matcher.group());
+						index = matcher.end();
+					}
+					return new ArrayList<String>(keys);
+				}
+			};
+			
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			issue.getKey(); result = "GCV-1";
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file"), "content".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 original", 
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		List<LogEntry<GitRepository, GitCommitKey>> logEntries = commitIndexer.getAllLogEntriesByIssue(issue, 0, 10, true);
+		Assert.assertEquals(1, logEntries.size());
+		final String originalCommitKey = logEntries.get(0).getCommitKey().marshal();
+		
+		// Rewrite the source's history and replace the clone, so that the index refers to a commit the clone lacks
+		final GitRepository rewritten = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		RepositoryTestUtils.createRepositoryFile(rewritten, new File("file"), "othercontent".getBytes());
+		realRepositoryService.commit(rewritten, new Commit<GitRepository>(rewritten, "testAuthor", "GCV-1 replacement", 
+				new AddedCommitFile("file")));
+		realRepositoryService.remove(gitRepository);
+		realRepositoryService.cloneRepository(gitRepository);
+		
+		Assert.assertTrue("Missing commit should be skipped", commitIndexer.getAllLogEntriesByIssue(issue, 0, 10, true).isEmpty());
+		Assert.assertTrue("Missing commit should not yet be removed", hasIndexedCommit(originalCommitKey));
+		
+		commitIndexer.index(gitRepository);
+		Assert.assertFalse("Missing commit should have been removed", hasIndexedCommit(originalCommitKey));
+		logEntries = commitIndexer.getAllLogEntriesByIssue(issue, 0, 10, true);
+		Assert.assertEquals(1, logEntries.size());
+		Assert.assertEquals("GCV-1 replacement", logEntries.get(0).getMessage());
+	}
+	
+	/**
+	 * Tests that commits left unreachable by a force push are removed from the index when it is next updated, even 
+	 * though the clone still holds them.
+	 * 
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 * @throws RepositoryException
+	 * @throws IndexException
+	 */
+	@Test
+	public void testForcePushCollectsUnreachableCommits(final MutableIssue issue) throws URISyntaxException, IOException, 
+			RepositoryException, IndexException {
+		final GitRepository gitRepository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		
+		new NonStrictExpectations() {{
+			new MockUp<JiraKeyUtils>() {
+				@Mock
+				public boolean isKeyInString(final String s) {
+					return true;
+				}
+				@Mock
+				public List<String> getIssueKeysFromString(final String s) {
+					Set<String> keys = new HashSet<String>();
+					Pattern issuePattern = Pattern.compile("GCV-[0-9]+");
+					Matcher matcher = issuePattern.matcher(s);
+					int index = 0;
+					while (matcher.find(index)) {
+						keys.add(matcher.group());
+						index = matcher.end();
+					}
+					return new ArrayList<String>(keys);
+				}
+			};
+			
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+			issue.getKey(); result = "GCV-1";
+			repositoryManager.getRepository(anyString); result = gitRepository;
+		}};
+		FileUtils.deleteDirectory(commitIndexer.getIndexPath());
+		realRepositoryService.remove(gitRepository);
+		
+		RepositoryTestUtils.createRepositoryFile(gitRepository, new File("file"), "content".getBytes());
+		realRepositoryService.commit(gitRepository, new Commit<GitRepository>(gitRepository, "testAuthor", "GCV-1 original", 
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		final String originalCommitKey = commitIndexer.getAllLogEntriesByIssue(issue, 0, 10, true).get(0).getCommitKey().marshal();
+		
+		// Replace the source's history, as a force push would
+		final GitRepository rewritten = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		RepositoryTestUtils.createRepositoryFile(rewritten, new File("file"), "othercontent".getBytes());
+		realRepositoryService.commit(rewritten, new Commit<GitRepository>(rewritten, "testAuthor", "GCV-1 replacement", 
+				new AddedCommitFile("file")));
+		commitIndexer.index(gitRepository);
+		
+		Assert.assertFalse("Unreachable commit should have been removed", hasIndexedCommit(originalCommitKey));
+		final List<LogEntry<GitRepository, GitCommitKey>> logEntries = commitIndexer.getAllLogEntriesByIssue(issue, 0, 10, true);
+		Assert.assertEquals(1, logEntries.size());
+		Assert.assertEquals("GCV-1 replacement", logEntries.get(0).getMessage());
+		Assert.assertEquals(1, ((GitCommitIndexer)commitIndexer).getGarbageCollectionStats().getRemovedCount());
+	}
+	
+	/**
+	 * Checks whether the index holds the content of a commit.
+	 * 
+	 * @param commitKey the marshalled commit key. Must not be {@code null}
+	 * @return true if there is a document for the commit; false if not
+	 * @throws IOException
+	 */
+	private boolean hasIndexedCommit(final String commitKey) throws IOException {
+		assert commitKey != null : "commitKey must not be null";
+		
+		final IndexReader reader = IndexReader.open(FSDirectory.open(commitIndexer.getIndexPath()));
+		try {
+			final TermDocs termDocs = reader.termDocs(new Term(CommitIndexer.FIELD_COMMITKEY, commitKey));
+			try {
+				return termDocs.next();
+			} finally {
+				termDocs.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
 	/**
 	 * Checks that a particular commit hash appears in the list of supplied {@code logEntries}.
 	 * 
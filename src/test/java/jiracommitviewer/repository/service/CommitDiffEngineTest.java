@@ -0,0 +1,282 @@
+package jiracommitviewer.repository.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jiracommitviewer.domain.AbstractPathCommitFile;
+import jiracommitviewer.domain.AddedCommitFile;
+import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.CopiedCommitFile;
+import jiracommitviewer.domain.DeletedCommitFile;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.RenamedCommitFile;
+import jiracommitviewer.repository.RepositoryTestUtils;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests surrounding {@link CommitDiffEngine}.
+ * <p>
+ * The files the engine lists are checked against those listed by a {@link DiffFormatter} created for each commit, as
+ * they were before the engine was introduced. Only small text files are committed, as the engine deliberately
+ * doesn't score large or binary files when detecting renames.
+ *
+ * @author mark
+ */
+public class CommitDiffEngineTest {
+
+	private GitRepository repository;
+
+	/**
+	 * Creates a repository whose history adds, modifies, deletes, renames and merges files.
+	 *
+	 * @throws Exception
+	 */
+	@Before
+	public void init() throws Exception {
+		repository = RepositoryTestUtils.getCreatedRepository(new DefaultGitRepositoryService());
+		final Git git = Git.open(RepositoryTestUtils.getRepositoryBase(repository));
+		try {
+			writeFile("a.txt", "a", 0);
+			writeFile("b.txt", "b", 0);
+			writeFile("dir/c.txt", "c", 0);
+			writeFile("dir/d.txt", "d", 0);
+			commit(git, "Initial files");
+
+			writeFile("a.txt", "a", 1);
+			writeFile("e.txt", "e", 0);
+			git.rm().addFilepattern("b.txt").call();
+			commit(git, "Add, modify and delete");
+
+			// An identical rename, a rename with a small change and a modification
+			writeFile("dir/c2.txt", "c", 0);
+			git.rm().addFilepattern("dir/c.txt").call();
+			writeFile("f.txt", "a", 2);
+			git.rm().addFilepattern("a.txt").call();
+			writeFile("dir/d.txt", "d", 1);
+			commit(git, "Rename");
+
+			git.rm().addFilepattern("e.txt").call();
+			commit(git, "Only delete");
+
+			git.checkout().setCreateBranch(true).setName("side").call();
+			writeFile("dir/d.txt", "d", 2);
+			commit(git, "Change on a branch");
+			git.checkout().setName("master").call();
+			writeFile("g.txt", "g", 0);
+			commit(git, "Change on master");
+			git.merge().include(git.getRepository().resolve("side")).call();
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Tests that the engine lists the same files as a diff formatter with rename detection.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMatchesDiffFormatter() throws Exception {
+		assertMatchesDiffFormatter();
+	}
+
+	/**
+	 * Tests that the engine lists the same files as a diff formatter when rename detection is off.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMatchesDiffFormatterWithoutRenames() throws Exception {
+		repository.setRenameLimit(0);
+		assertMatchesDiffFormatter();
+	}
+
+	/**
+	 * Tests that the engine lists the same files as a diff formatter when a commit adds and deletes more files than
+	 * the rename limit.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMatchesDiffFormatterOverRenameLimit() throws Exception {
+		repository.setRenameLimit(1);
+		assertMatchesDiffFormatter();
+	}
+
+	/**
+	 * Tests that the engine lists the same files as a diff formatter when the repository is scoped to a path.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMatchesDiffFormatterWithPaths() throws Exception {
+		repository.setPaths("dir");
+		assertMatchesDiffFormatter();
+	}
+
+	/**
+	 * Walks every commit of the repository with one engine, released part way as happens between walk segments, and
+	 * checks that each commit's files are those that a diff formatter lists.
+	 *
+	 * @throws Exception
+	 */
+	private void assertMatchesDiffFormatter() throws Exception {
+		final Repository fileRepository = Git.open(RepositoryTestUtils.getRepositoryBase(repository)).getRepository();
+		final RevWalk revWalk = new RevWalk(fileRepository);
+		final CommitDiffEngine diffEngine = new CommitDiffEngine(fileRepository, repository);
+		try {
+			revWalk.markStart(revWalk.parseCommit(fileRepository.resolve(Constants.MASTER)));
+			int commitCount = 0;
+			for (final RevCommit commit : revWalk) {
+				Assert.assertEquals(commit.getFullMessage(), getNameStatus(fileRepository, revWalk, commit),
+						getNameStatus(diffEngine.getCommitFiles(commit).getFiles()));
+				Assert.assertEquals(0, diffEngine.getCommitFiles(commit).getOmittedCount());
+				if (++commitCount == 3) {
+					diffEngine.release();
+				}
+			}
+			Assert.assertEquals(7, commitCount);
+		} finally {
+			diffEngine.release();
+			revWalk.release();
+			fileRepository.close();
+		}
+	}
+
+	/**
+	 * Lists the files changed by a {@code commit} against its first parent, using a diff formatter configured from
+	 * the repository.
+	 *
+	 * @param fileRepository the repository holding the commit. Must not be {@code null}
+	 * @param revWalk the walk that gave the commit. Must not be {@code null}
+	 * @param commit the commit. Must not be {@code null}
+	 * @return the files, in name status form. Never {@code null}
+	 * @throws IOException
+	 */
+	private List<String> getNameStatus(final Repository fileRepository, final RevWalk revWalk, final RevCommit commit)
+			throws IOException {
+		assert fileRepository != null : "fileRepository must not be null";
+		assert revWalk != null : "revWalk must not be null";
+		assert commit != null : "commit must not be null";
+
+		final DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+		final ObjectReader reader = fileRepository.newObjectReader();
+		try {
+			diffFormatter.setRepository(fileRepository);
+			diffFormatter.setPathFilter(CommitDiffEngine.createPathFilter(repository));
+			diffFormatter.setDetectRenames(repository.getRenameLimit() > 0);
+			if (repository.getRenameLimit() > 0) {
+				diffFormatter.getRenameDetector().setRenameLimit(repository.getRenameLimit());
+			}
+			final List<DiffEntry> diffs = commit.getParentCount() == 0
+					? diffFormatter.scan(new EmptyTreeIterator(), new CanonicalTreeParser(null, reader, commit.getTree()))
+					: diffFormatter.scan(revWalk.parseCommit(commit.getParent(0)).getTree(), commit.getTree());
+
+			final List<String> nameStatus = new ArrayList<String>();
+			for (final DiffEntry diff : diffs) {
+				switch (diff.getChangeType()) {
+				case ADD:
+					nameStatus.add("A " + diff.getNewPath());
+					break;
+				case MODIFY:
+					nameStatus.add("M " + diff.getOldPath());
+					break;
+				case DELETE:
+					nameStatus.add("D " + diff.getOldPath());
+					break;
+				case RENAME:
+					nameStatus.add("R " + diff.getOldPath() + " " + diff.getNewPath());
+					break;
+				case COPY:
+					nameStatus.add("C " + diff.getOldPath() + " " + diff.getNewPath());
+					break;
+				}
+			}
+			Collections.sort(nameStatus);
+			return nameStatus;
+		} finally {
+			reader.release();
+			diffFormatter.release();
+		}
+	}
+
+	/**
+	 * Gets the files listed by the engine in name status form.
+	 *
+	 * @param commitFiles the files. Must not be {@code null}
+	 * @return the files in name status form. Never {@code null}
+	 */
+	private List<String> getNameStatus(final List<CommitFile> commitFiles) {
+		assert commitFiles != null : "commitFiles must not be null";
+
+		final List<String> nameStatus = new ArrayList<String>();
+		for (final CommitFile commitFile : commitFiles) {
+			if (commitFile instanceof RenamedCommitFile) {
+				final RenamedCommitFile renamed = (RenamedCommitFile)commitFile;
+				nameStatus.add("R " + renamed.getFromPath() + " " + renamed.getToPath());
+			} else if (commitFile instanceof CopiedCommitFile) {
+				final CopiedCommitFile copied = (CopiedCommitFile)commitFile;
+				nameStatus.add("C " + copied.getFromPath() + " " + copied.getToPath());
+			} else {
+				final String status = commitFile instanceof AddedCommitFile ? "A"
+						: commitFile instanceof DeletedCommitFile ? "D" : "M";
+				nameStatus.add(status + " " + ((AbstractPathCommitFile)commitFile).getPath());
+			}
+		}
+		Collections.sort(nameStatus);
+		return nameStatus;
+	}
+
+	/**
+	 * Writes a text file of the repository, whose lines differ from those of other versions of the same file in one
+	 * line only.
+	 *
+	 * @param path the path of the file. Must not be {@code null}
+	 * @param name the name used in the file's lines. Must not be {@code null}
+	 * @param version the version of the file's content
+	 * @throws Exception
+	 */
+	private void writeFile(final String path, final String name, final int version) throws Exception {
+		assert path != null : "path must not be null";
+		assert name != null : "name must not be null";
+
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			content.append("Line ").append(i).append(" of file ").append(name).append('\n');
+		}
+		content.append("Version ").append(version).append('\n');
+		RepositoryTestUtils.createRepositoryFile(repository, new File(path), content.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Commits all changes to the working tree.
+	 *
+	 * @param git the repository opened for committing. Must not be {@code null}
+	 * @param message the commit message. Must not be {@code null}
+	 * @throws Exception
+	 */
+	private void commit(final Git git, final String message) throws Exception {
+		assert git != null : "git must not be null";
+		assert message != null : "message must not be null";
+
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage(message).call();
+	}
+}
@@ -2,12 +2,22 @@ package jiracommitviewer.repository.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.PublicKey;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 import jiracommitviewer.RepositoryManager;
 import jiracommitviewer.domain.AddedCommitFile;
@@ -26,11 +36,26 @@ import mockit.Mocked;
 import mockit.NonStrictExpectations;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.sshd.SshServer;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.PublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.transport.UploadPack;
+import org.joda.time.DateTimeConstants;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.atlassian.jira.config.util.IndexPathManager;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
 
 /**
  * Tests surrounding {@link RepositoryManager}.
@@ -131,6 +156,39 @@ public class GitRepositoryServiceTest {
 		Assert.assertEquals(new Date((long)getGitDateFromString("Mon Sep 9 20:16:53 2013 +0100") * 1000), logEntry.getDate());
 	}
 	
+	/**
+	 * Tests that the log entries of several commits are read in the order asked for, with missing commits left out.
+	 * 
+	 * @throws RepositoryException
+	 * @throws URISyntaxException
+	 */
+	@Test
+	public void testGetLogEntriesByKey() throws RepositoryException, URISyntaxException {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		GitRepository repository = getSourceRepository();
+		gitRepositoryService.cloneRepository(repository);
+		gitRepositoryService.fetch(repository);
+		
+		final LogEntryEnumerator<GitRepository, GitCommitKey> enumerator = gitRepositoryService.getLogEntries(repository, null);
+		final LogEntry<GitRepository, GitCommitKey> newer = enumerator.next();
+		final LogEntry<GitRepository, GitCommitKey> older = enumerator.next();
+		
+		final List<LogEntry<GitRepository, GitCommitKey>> logEntries = gitRepositoryService.getLogEntriesByKey(repository, 
+				Arrays.asList(older.getCommitKey(), new GitCommitKey("0123456789012345678901234567890123456789", 0), 
+						newer.getCommitKey()), true);
+		Assert.assertEquals(3, logEntries.size());
+		Assert.assertEquals(older.getCommitKey().getCommitHash(), logEntries.get(0).getCommitKey().getCommitHash());
+		Assert.assertEquals(older.getMessage(), logEntries.get(0).getMessage());
+		Assert.assertEquals(older.getCommitFiles().size(), logEntries.get(0).getCommitFiles().size());
+		Assert.assertNull("Missing commit should have no entry", logEntries.get(1));
+		Assert.assertEquals(newer.getCommitKey().getCommitHash(), logEntries.get(2).getCommitKey().getCommitHash());
+		Assert.assertEquals(newer.getMessage(), logEntries.get(2).getMessage());
+	}
+	
 	/**
 	 * Checks for a committed file of type ADD.
 	 * 
@@ -517,6 +575,490 @@ public class GitRepositoryServiceTest {
 		Assert.assertEquals(2, logEntry.getBranches().size());
 	}
 	
+	/**
+	 * Tests that branches excluded by a repository's branch rules are removed from its clone and that commits only on
+	 * those branches are no longer found on any branch.
+	 * 
+	 * @throws URISyntaxException 
+	 * @throws IOException 
+	 * @throws RepositoryException 
+	 */
+	@Test
+	public void testExcludedBranches() throws URISyntaxException, IOException, RepositoryException {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		// Create a repository and commit a file - C1
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(gitRepositoryService);
+		RepositoryTestUtils.createRepositoryFile(repository, new File("testfile"), "somecontent".getBytes());
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "message", 
+				new AddedCommitFile("testfile")));
+		
+		// Branch and add a new commit - C2
+		gitRepositoryService.branch(repository, "newbranch");
+		RepositoryTestUtils.createRepositoryFile(repository, new File("branchfile"), "somecontent".getBytes());
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "message", 
+				new AddedCommitFile("branchfile")));
+		gitRepositoryService.checkout(repository, "master");
+		
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		gitRepositoryService.fetch(repository);
+		final Map<String, GitCommitKey> allHeads = gitRepositoryService.getBranchHeads(repository);
+		Assert.assertEquals(2, allHeads.size());
+		final GitCommitKey c1 = allHeads.get("master");
+		final GitCommitKey c2 = allHeads.get("newbranch");
+		
+		// Excluding the branch removes it from the clone on the next fetch
+		repository.setBranchFilter(null, "new*");
+		Assert.assertTrue(gitRepositoryService.fetch(repository));
+		Assert.assertEquals(Collections.singleton("master"), gitRepositoryService.getBranchHeads(repository).keySet());
+		
+		final Map<GitCommitKey, List<String>> containing = gitRepositoryService.getBranchesContaining(repository, 
+				Arrays.asList(c1, c2));
+		Assert.assertEquals(Arrays.asList("master"), containing.get(c1));
+		Assert.assertFalse(containing.containsKey(c2));
+	}
+	
+	/**
+	 * Tests that a commit dated days later than its descendant, as when the committers' clocks disagree, is still 
+	 * found to be reachable and on its branch.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReachableCommitDatedAfterDescendant() throws Exception {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		// C1 is dated now and its child C2 five days earlier
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(gitRepositoryService);
+		final long now = System.currentTimeMillis();
+		final Git git = Git.open(RepositoryTestUtils.getRepositoryBase(repository));
+		try {
+			commitAt(repository, git, "C1", new Date(now));
+			commitAt(repository, git, "C2", new Date(now - 5L * DateTimeConstants.MILLIS_PER_DAY));
+		} finally {
+			git.getRepository().close();
+		}
+		
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		gitRepositoryService.fetch(repository);
+		GitCommitKey c1 = null;
+		final LogEntryEnumerator<GitRepository, GitCommitKey> enumerator = gitRepositoryService.getLogEntries(repository, null);
+		while (enumerator.hasNext()) {
+			final LogEntry<GitRepository, GitCommitKey> logEntry = enumerator.next();
+			if ("C1".equals(logEntry.getMessage().trim())) {
+				c1 = logEntry.getCommitKey();
+			}
+		}
+		Assert.assertNotNull(c1);
+		
+		Assert.assertTrue("C1 should be reachable", 
+				gitRepositoryService.getUnreachableCommits(repository, Arrays.asList(c1)).isEmpty());
+		Assert.assertEquals(Arrays.asList("master"), 
+				gitRepositoryService.getBranchesContaining(repository, Arrays.asList(c1)).get(c1));
+	}
+	
+	/**
+	 * Tests that the ref state of a local repository stays the same until a branch is committed to, and that a ref 
+	 * modified too recently to trust its timestamp gives no state.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLocalRefState() throws Exception {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(gitRepositoryService);
+		final File gitDir = new File(RepositoryTestUtils.getRepositoryBase(repository), ".git");
+		final long now = System.currentTimeMillis();
+		final Git git = Git.open(RepositoryTestUtils.getRepositoryBase(repository));
+		try {
+			commitAt(repository, git, "C1", new Date(now));
+			Assert.assertNull("A ref just written can't be trusted", gitRepositoryService.getRefState(repository));
+			
+			setRefsModified(gitDir, now - 20000);
+			final String refState = gitRepositoryService.getRefState(repository);
+			Assert.assertNotNull(refState);
+			Assert.assertEquals(refState, gitRepositoryService.getRefState(repository));
+			
+			commitAt(repository, git, "C2", new Date(now));
+			setRefsModified(gitDir, now - 10000);
+			Assert.assertFalse("A commit should change the state", refState.equals(gitRepositoryService.getRefState(repository)));
+		} finally {
+			git.getRepository().close();
+		}
+	}
+	
+	/**
+	 * Tests that a repository scoped to a path only lists the commits changing files under it and only those files.
+	 * 
+	 * @throws URISyntaxException 
+	 * @throws IOException 
+	 * @throws RepositoryException 
+	 */
+	@Test
+	public void testPathScopedLogEntries() throws URISyntaxException, IOException, RepositoryException {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		// C1 adds files in and out of scope
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(gitRepositoryService);
+		RepositoryTestUtils.createRepositoryFile(repository, new File("a/file"), "somecontent".getBytes());
+		RepositoryTestUtils.createRepositoryFile(repository, new File("b/file"), "somecontent".getBytes());
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "C1", 
+				new AddedCommitFile("a/file"), new AddedCommitFile("b/file")));
+		// C2 only changes a file out of scope
+		RepositoryTestUtils.createRepositoryFile(repository, new File("b/file"), "othercontent".getBytes());
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "C2", 
+				new ModifiedCommitFile("b/file")));
+		// C3 adds a file in scope
+		RepositoryTestUtils.createRepositoryFile(repository, new File("a/other"), "somecontent".getBytes());
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "C3", 
+				new AddedCommitFile("a/other")));
+		
+		repository.setPaths("/a/");
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		gitRepositoryService.fetch(repository);
+		
+		final LogEntryEnumerator<GitRepository, GitCommitKey> enumerator = gitRepositoryService.getLogEntries(repository, null);
+		Assert.assertTrue(enumerator.hasNext());
+		LogEntry<GitRepository, GitCommitKey> logEntry = enumerator.next();
+		Assert.assertEquals("C3", logEntry.getMessage().trim());
+		Assert.assertEquals(1, logEntry.getCommitFiles().size());
+		Assert.assertEquals("a/other", ((AddedCommitFile)logEntry.getCommitFiles().get(0)).getPath());
+		
+		Assert.assertTrue(enumerator.hasNext());
+		logEntry = enumerator.next();
+		Assert.assertEquals("C1", logEntry.getMessage().trim());
+		Assert.assertEquals(1, logEntry.getCommitFiles().size());
+		Assert.assertEquals("a/file", ((AddedCommitFile)logEntry.getCommitFiles().get(0)).getPath());
+		Assert.assertFalse(enumerator.hasNext());
+	}
+	
+	/**
+	 * Tests that only the maximum number of files are listed for a commit and the rest are counted.
+	 * 
+	 * @throws URISyntaxException 
+	 * @throws IOException 
+	 * @throws RepositoryException 
+	 */
+	@Test
+	public void testMaxCommitFiles() throws URISyntaxException, IOException, RepositoryException {
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = new File(ClassLoader.getSystemResource("indexes").toURI()).getPath();
+		}};
+		
+		// C1 adds 5 files
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(gitRepositoryService);
+		final CommitFile[] addedFiles = new CommitFile[5];
+		for (int i = 0; i < addedFiles.length; i++) {
+			RepositoryTestUtils.createRepositoryFile(repository, new File("file" + i), ("content" + i).getBytes());
+			addedFiles[i] = new AddedCommitFile("file" + i);
+		}
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "C1", addedFiles));
+		// C2 modifies 3 of them
+		final CommitFile[] modifiedFiles = new CommitFile[3];
+		for (int i = 0; i < modifiedFiles.length; i++) {
+			RepositoryTestUtils.createRepositoryFile(repository, new File("file" + i), ("changed" + i).getBytes());
+			modifiedFiles[i] = new ModifiedCommitFile("file" + i);
+		}
+		gitRepositoryService.commit(repository, new Commit<GitRepository>(repository, "author", "C2", modifiedFiles));
+		
+		repository.setMaxCommitFiles(2);
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		gitRepositoryService.fetch(repository);
+		
+		final LogEntryEnumerator<GitRepository, GitCommitKey> enumerator = gitRepositoryService.getLogEntries(repository, null);
+		LogEntry<GitRepository, GitCommitKey> logEntry = enumerator.next();
+		Assert.assertEquals("C2", logEntry.getMessage().trim());
+		Assert.assertEquals(2, logEntry.getCommitFiles().size());
+		Assert.assertEquals(1, logEntry.getOmittedFileCount());
+		
+		logEntry = enumerator.next();
+		Assert.assertEquals("C1", logEntry.getMessage().trim());
+		Assert.assertEquals(2, logEntry.getCommitFiles().size());
+		Assert.assertEquals(3, logEntry.getOmittedFileCount());
+	}
+	
+	/**
+	 * Tests that a repository sharing history with one already cloned borrows its objects, and keeps working after
+	 * the other clone is removed.
+	 * 
+	 * @throws RepositoryException
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	@Test
+	public void testCloneSharesObjects() throws RepositoryException, URISyntaxException, IOException {
+		final File indexRoot = new File(ClassLoader.getSystemResource("indexes").toURI());
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = indexRoot.getPath();
+		}};
+		
+		final GitRepository repository = getSourceRepository();
+		gitRepositoryService.cloneRepository(repository);
+		final GitRepository fork = getSourceRepository("fork");
+		gitRepositoryService.remove(fork);
+		gitRepositoryService.cloneRepository(fork);
+		
+		final File alternates = new File(indexRoot, "gitCommitViewer" + File.separator + "fork" + File.separator + "repo" 
+				+ File.separator + "objects" + File.separator + "info" + File.separator + "alternates");
+		Assert.assertTrue("Fork should borrow objects", alternates.isFile());
+		
+		gitRepositoryService.remove(repository);
+		Assert.assertFalse("Fork should have its own objects", alternates.exists());
+		final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService.getLogEntry(fork, 
+				new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 0));
+		Assert.assertEquals("GCV-1 Added a file", logEntry.getMessage().trim());
+		gitRepositoryService.remove(fork);
+	}
+	
+	/**
+	 * Tests that a clone whose first fetch didn't complete is kept and completed by a later fetch.
+	 * 
+	 * @throws RepositoryException
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	@Test
+	public void testResumeInterruptedClone() throws RepositoryException, URISyntaxException, IOException {
+		final File indexRoot = new File(ClassLoader.getSystemResource("indexes").toURI());
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = indexRoot.getPath();
+		}};
+		
+		final GitRepository repository = getSourceRepository();
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		Assert.assertTrue(gitRepositoryService.isCloneComplete(repository));
+		Assert.assertNull("No fetch should be in progress", gitRepositoryService.getFetchProgress(repository));
+		
+		// Simulate an interrupted first fetch by removing the branches received
+		final File clonePath = new File(indexRoot, "gitCommitViewer" + File.separator + repository.getId() + File.separator + "repo");
+		FileUtils.deleteDirectory(new File(clonePath, "refs" + File.separator + "heads"));
+		new File(clonePath, "refs" + File.separator + "heads").mkdir();
+		new File(clonePath, "packed-refs").delete();
+		Assert.assertTrue(gitRepositoryService.isCloned(repository));
+		Assert.assertFalse(gitRepositoryService.isCloneComplete(repository));
+		
+		// The clone is kept rather than recreated and the fetch completes it
+		gitRepositoryService.cloneRepository(repository);
+		Assert.assertTrue(gitRepositoryService.fetch(repository));
+		Assert.assertTrue(gitRepositoryService.isCloneComplete(repository));
+		final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService.getLogEntry(repository, 
+				new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 0));
+		Assert.assertEquals("GCV-1 Added a file", logEntry.getMessage().trim());
+	}
+	
+	/**
+	 * Tests that a repository indexed in place is read directly from its source without being cloned.
+	 * 
+	 * @throws RepositoryException
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	@Test
+	public void testGetLogEntryInPlace() throws RepositoryException, URISyntaxException, IOException {
+		final File indexRoot = new File(ClassLoader.getSystemResource("indexes").toURI());
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = indexRoot.getPath();
+		}};
+		
+		GitRepository repository = getSourceRepository();
+		repository.setDirect(true);
+		gitRepositoryService.remove(repository);
+		gitRepositoryService.cloneRepository(repository);
+		Assert.assertTrue(gitRepositoryService.fetch(repository));
+		Assert.assertTrue(gitRepositoryService.isCloned(repository));
+		
+		LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService.getLogEntry(repository, 
+				new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 0));
+		Assert.assertEquals("GCV-1 Added a file", logEntry.getMessage().trim());
+		Assert.assertFalse("Repository should not have been cloned", 
+				new File(indexRoot, "gitCommitViewer" + File.separator + repository.getId() + File.separator + "repo").exists());
+	}
+	
+	/**
+	 * Tests that a repository indexed in place is cloned only while its source is a Git repository.
+	 * 
+	 * @throws RepositoryException
+	 * @throws URISyntaxException
+	 */
+	@Test
+	public void testIsClonedInPlace() throws RepositoryException, URISyntaxException {
+		GitRepository repository = getSourceRepository();
+		repository.setDirect(true);
+		Assert.assertTrue(gitRepositoryService.isCloned(repository));
+		
+		repository.setUri("file://" + new File(ClassLoader.getSystemResource("repository").toURI()).getAbsolutePath());
+		Assert.assertFalse(gitRepositoryService.isCloned(repository));
+	}
+	
+	/**
+	 * Tests that fetches and ref listings over SSH reuse a single connection to the host, using an embedded SSH server
+	 * that serves the test source repository.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFetchReusesSshSession() throws Exception {
+		final File indexRoot = new File(ClassLoader.getSystemResource("indexes").toURI());
+		new NonStrictExpectations() {{
+			setField(gitRepositoryService, indexPathManager);
+			indexPathManager.getPluginIndexRootPath(); result = indexRoot.getPath();
+		}};
+		
+		final File sourceDirectory = new File(ClassLoader.getSystemResource("repository/source").toURI());
+		final File keyFile = new File(indexRoot, "ssh-test-key");
+		final File hostKeyFile = new File(indexRoot, "ssh-test-host-key");
+		final KeyPair keyPair = KeyPair.genKeyPair(new JSch(), KeyPair.RSA);
+		keyPair.writePrivateKey(keyFile.getPath());
+		keyPair.dispose();
+		
+		// Each SSH connection authenticates in its own server session
+		final Set<ServerSession> serverSessions = Collections.synchronizedSet(new HashSet<ServerSession>());
+		final SshServer sshd = SshServer.setUpDefaultServer();
+		sshd.setPort(getFreePort());
+		sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(hostKeyFile.getPath()));
+		sshd.setPublickeyAuthenticator(new PublickeyAuthenticator() {
+			@Override
+			public boolean authenticate(final String username, final PublicKey key, final ServerSession session) {
+				serverSessions.add(session);
+				return true;
+			}
+		});
+		sshd.setCommandFactory(new CommandFactory() {
+			@Override
+			public Command createCommand(final String command) {
+				return new UploadPackCommand(sourceDirectory);
+			}
+		});
+		sshd.start();
+		try {
+			final GitRepository repository = new GitRepository("ssh");
+			repository.setUri("ssh://git@localhost:" + sshd.getPort() + sourceDirectory.getAbsolutePath());
+			repository.setPrivateKeyPath(keyFile.getPath());
+			gitRepositoryService.remove(repository);
+			
+			// Cloning lists the remote's refs and then fetches; the second fetch finds nothing new
+			gitRepositoryService.cloneRepository(repository);
+			Assert.assertTrue(gitRepositoryService.isCloneComplete(repository));
+			Assert.assertFalse(gitRepositoryService.fetch(repository));
+			
+			// Listing the remote's refs gives the same state each time and shares the fetches' connection
+			final String refState = gitRepositoryService.getRefState(repository);
+			Assert.assertTrue(refState.contains("refs/heads/master c57fa9d79c1d6f00a4ce1db23bd3362790a01507\n"));
+			Assert.assertTrue(refState.contains("refs/heads/firstbranch c1c33efe62aeeb02aa568e9075577f61c48a5568\n"));
+			Assert.assertEquals(refState, gitRepositoryService.getRefState(repository));
+			Assert.assertEquals("Fetches should share one connection", 1, serverSessions.size());
+			
+			final LogEntry<GitRepository, GitCommitKey> logEntry = gitRepositoryService.getLogEntry(repository, 
+					new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 0));
+			Assert.assertEquals("GCV-1 Added a file", logEntry.getMessage().trim());
+			gitRepositoryService.remove(repository);
+		} finally {
+			((DefaultGitRepositoryService)gitRepositoryService).destroy();
+			sshd.stop(true);
+			keyFile.delete();
+			hostKeyFile.delete();
+		}
+	}
+	
+	/**
+	 * Finds a port that is free to listen on.
+	 * 
+	 * @return the port
+	 * @throws IOException
+	 */
+	private int getFreePort() throws IOException {
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+	
+	/**
+	 * An SSH command that serves {@code git-upload-pack} for a single repository, whatever path is asked for.
+	 */
+	private static class UploadPackCommand implements Command, Runnable {
+		
+		private final File directory;
+		private InputStream in;
+		private OutputStream out;
+		private OutputStream err;
+		private ExitCallback exitCallback;
+		
+		public UploadPackCommand(final File directory) {
+			this.directory = directory;
+		}
+		
+		@Override
+		public void setInputStream(final InputStream in) {
+			this.in = in;
+		}
+		
+		@Override
+		public void setOutputStream(final OutputStream out) {
+			this.out = out;
+		}
+		
+		@Override
+		public void setErrorStream(final OutputStream err) {
+			this.err = err;
+		}
+		
+		@Override
+		public void setExitCallback(final ExitCallback exitCallback) {
+			this.exitCallback = exitCallback;
+		}
+		
+		@Override
+		public void start(final Environment environment) {
+			new Thread(this, "upload-pack").start();
+		}
+		
+		@Override
+		public void run() {
+			int status = 0;
+			try {
+				final FileRepository repository = new FileRepository(directory);
+				try {
+					new UploadPack(repository).upload(in, out, err);
+				} finally {
+					repository.close();
+				}
+				out.flush();
+			} catch (final IOException ioe) {
+				status = 1;
+			}
+			exitCallback.onExit(status);
+		}
+		
+		@Override
+		public void destroy() {
+		}
+	}
+	
 	/**
 	 * Gets the source repository used for testing.
 	 * 
@@ -524,11 +1066,60 @@ public class GitRepositoryServiceTest {
 	 * @throws URISyntaxException if there was a programmatic error getting the repository
 	 */
 	private GitRepository getSourceRepository() throws URISyntaxException {
-		GitRepository repository = new GitRepository("id");
+		return getSourceRepository("id");
+	}
+	
+	/**
+	 * Gets a repository for the test source repository with the specified {@code id}.
+	 * 
+	 * @param id the identifier of the repository. Must not be {@code null}
+	 * @return the repository. Never {@code null}
+	 * @throws URISyntaxException
+	 */
+	private GitRepository getSourceRepository(final String id) throws URISyntaxException {
+		GitRepository repository = new GitRepository(id);
 		repository.setUri("file://" + new File(ClassLoader.getSystemResource("repository/source").toURI()).getAbsolutePath());
 		return repository;
 	}
 	
+	/**
+	 * Adds a file to the {@code repository} and commits it as if at the specified {@code date}.
+	 * 
+	 * @param repository the repository. Must not be {@code null}
+	 * @param git the repository opened for committing. Must not be {@code null}
+	 * @param message the commit message, which is also the name of the file. Must not be {@code null}
+	 * @param date the committer date. Must not be {@code null}
+	 * @throws Exception
+	 */
+	private void commitAt(final GitRepository repository, final Git git, final String message, final Date date) 
+			throws Exception {
+		assert repository != null : "repository must not be null";
+		assert git != null : "git must not be null";
+		assert message != null : "message must not be null";
+		assert date != null : "date must not be null";
+		
+		RepositoryTestUtils.createRepositoryFile(repository, new File(message), message.getBytes());
+		git.add().addFilepattern(message).call();
+		final PersonIdent ident = new PersonIdent("author", "author", date, TimeZone.getDefault());
+		git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+	}
+	
+	/**
+	 * Sets the modification time of the branch ref files of a repository, so that they are old enough for their 
+	 * timestamps to be trusted.
+	 * 
+	 * @param gitDir the repository's Git directory. Must not be {@code null}
+	 * @param time the modification time in milliseconds
+	 */
+	private void setRefsModified(final File gitDir, final long time) {
+		assert gitDir != null : "gitDir must not be null";
+		
+		new File(gitDir, "packed-refs").setLastModified(time);
+		for (final File file : FileUtils.listFiles(new File(gitDir, "refs/heads"), null, true)) {
+			file.setLastModified(time);
+		}
+	}
+	
 	/**
 	 * Gets a Git date integer from the supplied date string in the default git log format.
 	 * 
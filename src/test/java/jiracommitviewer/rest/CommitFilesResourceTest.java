@@ -0,0 +1,214 @@
+package jiracommitviewer.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.CommitFile;
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.domain.LogEntry;
+import jiracommitviewer.domain.ModifiedCommitFile;
+import jiracommitviewer.repository.service.GitRepositoryService;
+import jiracommitviewer.repository.service.LogEntryCache;
+import jiracommitviewer.web.ResponseValidator;
+import jiracommitviewer.web.ResponseValidatorFactory;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.util.JiraKeyUtils;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests surrounding {@link CommitFilesResource}.
+ *
+ * @author mark
+ */
+public class CommitFilesResourceTest {
+
+	/** The number of files in the test commit, more than fit in the largest page. */
+	private static final int FILE_COUNT = CommitFilesResource.MAX_PAGE_SIZE + 100;
+	private static final String TAG = "tag";
+
+	@Mocked
+	private RepositoryManager repositoryManager;
+	@Mocked
+	private GitRepositoryService gitRepositoryService;
+	@Mocked
+	private LogEntryCache logEntryCache;
+	@Mocked
+	private JiraAuthenticationContext authenticationContext;
+	@Mocked
+	private PermissionManager permissionManager;
+	@Mocked
+	private IssueManager issueManager;
+	@Mocked
+	private ResponseValidatorFactory responseValidatorFactory;
+	@Mocked
+	private Issue issue;
+	@Mocked
+	private User user;
+
+	private CommitFilesResource resource;
+	private final GitRepository repository = new GitRepository(1L);
+	private final GitCommitKey commitKey = new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 1000);
+
+	@Before
+	public void init() {
+		final List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+		for (int i = 0; i < FILE_COUNT; i++) {
+			commitFiles.add(new ModifiedCommitFile("file" + i));
+		}
+		final LogEntry<GitRepository, GitCommitKey> logEntry = new LogEntry<GitRepository, GitCommitKey>(repository,
+				Arrays.asList("master"), commitKey, null, "author", new Date(), "GCV-1 Changed many files", commitFiles,
+				false);
+
+		new MockUp<JiraKeyUtils>() {
+			@Mock
+			public List<String> getIssueKeysFromString(final String s) {
+				return Arrays.asList("GCV-1");
+			}
+		};
+		new NonStrictExpectations() {{
+			repositoryManager.parseRepositoryId("1"); result = 1L;
+			repositoryManager.getRepository(1L, GitRepository.class); result = repository;
+			// Commit keys are compared by identity, so any key is matched
+			logEntryCache.get((GitRepository)any, (GitCommitKey)any); result = logEntry;
+			authenticationContext.getLoggedInUser(); result = user;
+			issueManager.getIssueObject("GCV-1"); result = issue;
+			permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user); result = true;
+			responseValidatorFactory.getCommitValidator((GitRepository)any, (GitCommitKey)any);
+			result = new ResponseValidator(TAG, 1000000L);
+		}};
+
+		resource = new CommitFilesResource(repositoryManager, gitRepositoryService, logEntryCache, authenticationContext,
+				permissionManager, issueManager, responseValidatorFactory);
+	}
+
+	/**
+	 * Tests that the first page holds the default number of files and gives the start of the next.
+	 */
+	@Test
+	public void testFirstPage() {
+		final JsonObject page = getPage(resource.getFiles("1", commitKey.marshal(), 0,
+				CommitFilesResource.DEFAULT_PAGE_SIZE, null));
+
+		Assert.assertEquals(0, page.get("start").getAsInt());
+		Assert.assertEquals(FILE_COUNT, page.get("total").getAsInt());
+		Assert.assertEquals(CommitFilesResource.DEFAULT_PAGE_SIZE, page.get("next").getAsInt());
+		final JsonArray files = page.getAsJsonArray("files");
+		Assert.assertEquals(CommitFilesResource.DEFAULT_PAGE_SIZE, files.size());
+		Assert.assertEquals("modified", files.get(0).getAsJsonObject().get("type").getAsString());
+		Assert.assertEquals("file0", files.get(0).getAsJsonObject().get("link").getAsString());
+		Assert.assertEquals("file99", files.get(99).getAsJsonObject().get("link").getAsString());
+	}
+
+	/**
+	 * Tests that the last page holds the remaining files and gives no next start.
+	 */
+	@Test
+	public void testLastPage() {
+		final JsonObject page = getPage(resource.getFiles("1", commitKey.marshal(), FILE_COUNT - 30, 100, null));
+
+		Assert.assertEquals(FILE_COUNT - 30, page.get("start").getAsInt());
+		Assert.assertFalse(page.has("next"));
+		final JsonArray files = page.getAsJsonArray("files");
+		Assert.assertEquals(30, files.size());
+		Assert.assertEquals("file" + (FILE_COUNT - 1), files.get(29).getAsJsonObject().get("link").getAsString());
+	}
+
+	/**
+	 * Tests that a page never holds more than the maximum number of files, however many are asked for.
+	 */
+	@Test
+	public void testLimitCapped() {
+		final JsonObject page = getPage(resource.getFiles("1", commitKey.marshal(), 0, FILE_COUNT, null));
+
+		Assert.assertEquals(CommitFilesResource.MAX_PAGE_SIZE, page.getAsJsonArray("files").size());
+		Assert.assertEquals(CommitFilesResource.MAX_PAGE_SIZE, page.get("next").getAsInt());
+	}
+
+	/**
+	 * Tests that a page starting beyond the last file is empty.
+	 */
+	@Test
+	public void testPageBeyondEnd() {
+		final JsonObject page = getPage(resource.getFiles("1", commitKey.marshal(), FILE_COUNT + 10, 100, null));
+
+		Assert.assertEquals(0, page.getAsJsonArray("files").size());
+		Assert.assertEquals(FILE_COUNT, page.get("total").getAsInt());
+		Assert.assertFalse(page.has("next"));
+	}
+
+	/**
+	 * Tests that a negative start, a limit below one or a malformed commit key is rejected.
+	 */
+	@Test
+	public void testInvalidParameters() {
+		Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(),
+				resource.getFiles("1", commitKey.marshal(), -1, 100, null).getStatus());
+		Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(),
+				resource.getFiles("1", commitKey.marshal(), 0, 0, null).getStatus());
+		Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(),
+				resource.getFiles("1", "nonsense", 0, 100, null).getStatus());
+	}
+
+	/**
+	 * Tests that a user who may not view version control for the commit's issue is refused.
+	 */
+	@Test
+	public void testNotPermitted() {
+		new NonStrictExpectations() {{
+			permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user); result = false;
+		}};
+
+		Assert.assertEquals(Status.FORBIDDEN.getStatusCode(),
+				resource.getFiles("1", commitKey.marshal(), 0, 100, null).getStatus());
+	}
+
+	/**
+	 * Tests that a page is tagged and that a caller already holding it is told it is unchanged.
+	 */
+	@Test
+	public void testNotModified() {
+		final Response response = resource.getFiles("1", commitKey.marshal(), 0, 100, null);
+		Assert.assertEquals("W/\"" + TAG + "\"", response.getMetadata().getFirst("ETag").toString());
+
+		Assert.assertEquals(Status.NOT_MODIFIED.getStatusCode(),
+				resource.getFiles("1", commitKey.marshal(), 0, 100, "W/\"" + TAG + "\"").getStatus());
+		Assert.assertEquals(Status.OK.getStatusCode(),
+				resource.getFiles("1", commitKey.marshal(), 0, 100, "W/\"other\"").getStatus());
+	}
+
+	/**
+	 * Parses the page of files from a successful response.
+	 *
+	 * @param response the response. Must not be {@code null}
+	 * @return the page. Never {@code null}
+	 */
+	private JsonObject getPage(final Response response) {
+		assert response != null : "response must not be null";
+
+		Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		return new JsonParser().parse((String)response.getEntity()).getAsJsonObject();
+	}
+}
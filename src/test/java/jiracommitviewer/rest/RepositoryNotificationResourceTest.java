@@ -0,0 +1,190 @@
+package jiracommitviewer.rest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.revisions.scheduling.GitIndexPipeline;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+
+/**
+ * Tests surrounding {@link RepositoryNotificationResource}.
+ *
+ * @author mark
+ */
+public class RepositoryNotificationResourceTest {
+
+	private static final String URI = "ssh://git@example.com/project.git";
+
+	@Mocked
+	private RepositoryManager repositoryManager;
+	@Mocked
+	private GitIndexPipeline indexPipeline;
+	@Mocked
+	private JiraAuthenticationContext authenticationContext;
+	@Mocked
+	private PermissionManager permissionManager;
+	@Mocked
+	private User user;
+
+	private RepositoryNotificationResource resource;
+	private final GitRepository repository = new GitRepository(1L);
+
+	@Before
+	public void init() {
+		repository.setUri(URI);
+		resource = new RepositoryNotificationResource(repositoryManager, indexPipeline, authenticationContext,
+				permissionManager);
+	}
+
+	/**
+	 * Tests that a caller who hasn't logged in is refused.
+	 */
+	@Test
+	public void testNotLoggedIn() {
+		new NonStrictExpectations() {{
+			authenticationContext.getLoggedInUser(); result = null;
+		}};
+
+		final Response response = resource.repositoryUpdated("1", null, Collections.<String>emptyList());
+		Assert.assertEquals(Status.UNAUTHORIZED.getStatusCode(), response.getStatus());
+		verifyNotQueued();
+	}
+
+	/**
+	 * Tests that a caller who isn't an administrator is refused.
+	 */
+	@Test
+	public void testNotAdministrator() {
+		new NonStrictExpectations() {{
+			authenticationContext.getLoggedInUser(); result = user;
+			permissionManager.hasPermission(Permissions.ADMINISTER, user); result = false;
+		}};
+
+		final Response response = resource.repositoryUpdated("1", null, Collections.<String>emptyList());
+		Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), response.getStatus());
+		verifyNotQueued();
+	}
+
+	/**
+	 * Tests that a notification naming no repository is rejected.
+	 */
+	@Test
+	public void testNoRepositoryGiven() {
+		expectAdministrator();
+
+		final Response response = resource.repositoryUpdated(" ", null, Collections.<String>emptyList());
+		Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		verifyNotQueued();
+	}
+
+	/**
+	 * Tests that a repository identified by its identifier is queued.
+	 */
+	@Test
+	public void testNotifyById() {
+		expectAdministrator();
+		new NonStrictExpectations() {{
+			repositoryManager.parseRepositoryId("1"); result = 1L;
+			repositoryManager.getRepository(1L, GitRepository.class); result = repository;
+		}};
+
+		final Response response = resource.repositoryUpdated(" 1 ", null, Collections.<String>emptyList());
+		Assert.assertEquals(Status.ACCEPTED.getStatusCode(), response.getStatus());
+		new Verifications() {{
+			indexPipeline.notifyUpdated(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that a repository identified by the URI it was configured with is queued, ignoring a trailing slash.
+	 */
+	@Test
+	public void testNotifyByUri() {
+		expectAdministrator();
+		final GitRepository other = new GitRepository(2L);
+		other.setUri("ssh://git@example.com/other.git");
+		new NonStrictExpectations() {{
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(other, repository);
+		}};
+
+		final Response response = resource.repositoryUpdated(null, URI + "/", Arrays.asList("refs/heads/master"));
+		Assert.assertEquals(Status.ACCEPTED.getStatusCode(), response.getStatus());
+		new Verifications() {{
+			indexPipeline.notifyUpdated(repository); times = 1;
+			indexPipeline.notifyUpdated(other); times = 0;
+		}};
+	}
+
+	/**
+	 * Tests that a notification for an unknown repository identifier or URI is not found.
+	 */
+	@Test
+	public void testUnknownRepository() {
+		expectAdministrator();
+		new NonStrictExpectations() {{
+			repositoryManager.parseRepositoryId("9"); result = 9L;
+			repositoryManager.getRepository(9L, GitRepository.class); result = null;
+			repositoryManager.parseRepositoryId("x"); result = new IllegalArgumentException();
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(repository);
+		}};
+
+		Assert.assertEquals(Status.NOT_FOUND.getStatusCode(),
+				resource.repositoryUpdated("9", null, Collections.<String>emptyList()).getStatus());
+		Assert.assertEquals(Status.NOT_FOUND.getStatusCode(),
+				resource.repositoryUpdated("x", null, Collections.<String>emptyList()).getStatus());
+		Assert.assertEquals(Status.NOT_FOUND.getStatusCode(),
+				resource.repositoryUpdated(null, "ssh://git@example.com/unknown.git", Collections.<String>emptyList())
+				.getStatus());
+		verifyNotQueued();
+	}
+
+	/**
+	 * Tests that a notification only updating refs other than branches is ignored.
+	 */
+	@Test
+	public void testNoBranchesUpdated() {
+		expectAdministrator();
+		new NonStrictExpectations() {{
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(repository);
+		}};
+
+		final Response response = resource.repositoryUpdated(null, URI, Arrays.asList("refs/tags/v1.0"));
+		Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		verifyNotQueued();
+	}
+
+	/**
+	 * Records that the caller is a logged in administrator.
+	 */
+	private void expectAdministrator() {
+		new NonStrictExpectations() {{
+			authenticationContext.getLoggedInUser(); result = user;
+			permissionManager.hasPermission(Permissions.ADMINISTER, user); result = true;
+		}};
+	}
+
+	/**
+	 * Verifies that no repository was queued with the pipeline.
+	 */
+	private void verifyNotQueued() {
+		new Verifications() {{
+			indexPipeline.notifyUpdated((GitRepository)any); times = 0;
+		}};
+	}
+}
@@ -0,0 +1,181 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jiracommitviewer.domain.GitRepository;
+
+import org.joda.time.DateTimeConstants;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+/**
+ * Tests surrounding {@link AdaptivePollingPolicy}.
+ *
+ * @author mark
+ */
+public class AdaptivePollingPolicyTest {
+
+	private static final long NOW = 1000000L;
+
+	/** Plugin settings held in memory, keyed by settings key and then by setting. */
+	private final Map<String, Map<String, Object>> settings = new HashMap<String, Map<String, Object>>();
+	private final PluginSettingsFactory pluginSettingsFactory = new PluginSettingsFactory() {
+		@Override
+		public PluginSettings createSettingsForKey(final String key) {
+			if (!settings.containsKey(key)) {
+				settings.put(key, new HashMap<String, Object>());
+			}
+			final Map<String, Object> values = settings.get(key);
+			return new PluginSettings() {
+				@Override
+				public Object get(final String key) {
+					return values.get(key);
+				}
+
+				@Override
+				public Object put(final String key, final Object value) {
+					return values.put(key, value);
+				}
+
+				@Override
+				public Object remove(final String key) {
+					return values.remove(key);
+				}
+			};
+		}
+
+		@Override
+		public PluginSettings createGlobalSettings() {
+			return createSettingsForKey(null);
+		}
+	};
+
+	private AdaptivePollingPolicy pollingPolicy;
+	private GitRepository repository;
+
+	@Before
+	public void init() {
+		pollingPolicy = new AdaptivePollingPolicy(pluginSettingsFactory);
+		repository = new GitRepository("id");
+		repository.setMinPollInterval(1);
+		repository.setMaxPollInterval(8);
+	}
+
+	/**
+	 * Tests that a repository that hasn't been polled is due straight away at its minimum interval.
+	 */
+	@Test
+	public void testDueBeforeFirstPoll() {
+		Assert.assertTrue(pollingPolicy.isDue(repository, NOW));
+		Assert.assertNull(pollingPolicy.getNextPollTime(repository));
+		Assert.assertEquals(1, pollingPolicy.getPollInterval(repository));
+	}
+
+	/**
+	 * Tests that each idle poll doubles the interval up to the maximum and schedules the next poll by it.
+	 */
+	@Test
+	public void testIdlePollsBackOffToMaximum() {
+		Assert.assertTrue(pollingPolicy.polled(repository, false, NOW));
+		Assert.assertEquals(2, pollingPolicy.getPollInterval(repository));
+		Assert.assertEquals(Long.valueOf(NOW + 2 * DateTimeConstants.MILLIS_PER_MINUTE), pollingPolicy.getNextPollTime(repository));
+		Assert.assertFalse(pollingPolicy.isDue(repository, NOW + 2 * DateTimeConstants.MILLIS_PER_MINUTE - 1));
+		Assert.assertTrue(pollingPolicy.isDue(repository, NOW + 2 * DateTimeConstants.MILLIS_PER_MINUTE));
+
+		Assert.assertTrue(pollingPolicy.polled(repository, false, NOW));
+		Assert.assertTrue(pollingPolicy.polled(repository, false, NOW));
+		Assert.assertEquals(8, pollingPolicy.getPollInterval(repository));
+		Assert.assertFalse("Interval should stay at the maximum", pollingPolicy.polled(repository, false, NOW));
+		Assert.assertEquals(8, pollingPolicy.getPollInterval(repository));
+	}
+
+	/**
+	 * Tests that a poll finding changes goes back to the minimum interval.
+	 */
+	@Test
+	public void testChangeResetsToMinimum() {
+		pollingPolicy.polled(repository, false, NOW);
+		pollingPolicy.polled(repository, false, NOW);
+		Assert.assertEquals(4, pollingPolicy.getPollInterval(repository));
+
+		Assert.assertTrue(pollingPolicy.polled(repository, true, NOW));
+		Assert.assertEquals(1, pollingPolicy.getPollInterval(repository));
+		Assert.assertEquals(Long.valueOf(NOW + DateTimeConstants.MILLIS_PER_MINUTE), pollingPolicy.getNextPollTime(repository));
+	}
+
+	/**
+	 * Tests that resetting makes the repository due straight away at its minimum interval.
+	 */
+	@Test
+	public void testReset() {
+		pollingPolicy.polled(repository, false, NOW);
+		Assert.assertFalse(pollingPolicy.isDue(repository, NOW));
+
+		pollingPolicy.reset(repository);
+		Assert.assertTrue(pollingPolicy.isDue(repository, NOW));
+		Assert.assertEquals(1, pollingPolicy.getPollInterval(repository));
+	}
+
+	/**
+	 * Tests that the current interval follows changes to the repository's minimum and maximum.
+	 */
+	@Test
+	public void testIntervalLimitedBySettings() {
+		pollingPolicy.polled(repository, false, NOW);
+		pollingPolicy.polled(repository, false, NOW);
+		Assert.assertEquals(4, pollingPolicy.getPollInterval(repository));
+
+		repository.setMaxPollInterval(3);
+		Assert.assertEquals(3, pollingPolicy.getPollInterval(repository));
+		repository.setMinPollInterval(5);
+		repository.setMaxPollInterval(10);
+		Assert.assertEquals(5, pollingPolicy.getPollInterval(repository));
+		Assert.assertTrue(pollingPolicy.polled(repository, false, NOW));
+		Assert.assertEquals(10, pollingPolicy.getPollInterval(repository));
+	}
+
+	/**
+	 * Tests that the state of one repository doesn't affect another.
+	 */
+	@Test
+	public void testRepositoriesPolledIndependently() {
+		final GitRepository other = new GitRepository("other");
+		pollingPolicy.polled(repository, false, NOW);
+
+		Assert.assertTrue(pollingPolicy.isDue(other, NOW));
+		Assert.assertEquals(other.getMinPollInterval(), pollingPolicy.getPollInterval(other));
+	}
+
+	/**
+	 * Tests that the current interval is saved, so that an idle repository keeps it after a restart.
+	 */
+	@Test
+	public void testIntervalSaved() {
+		pollingPolicy.polled(repository, false, NOW);
+		pollingPolicy.polled(repository, false, NOW);
+
+		final AdaptivePollingPolicy restarted = new AdaptivePollingPolicy(pluginSettingsFactory);
+		Assert.assertEquals(4, restarted.getPollInterval(repository));
+		Assert.assertTrue("Polling should start straight away", restarted.isDue(repository, NOW));
+		Assert.assertTrue(restarted.polled(repository, false, NOW));
+		Assert.assertEquals(8, restarted.getPollInterval(repository));
+		Assert.assertEquals("8", settings.get("id").get("pollInterval"));
+	}
+
+	/**
+	 * Tests that resetting forgets the saved interval.
+	 */
+	@Test
+	public void testResetForgetsSavedInterval() {
+		pollingPolicy.polled(repository, false, NOW);
+		pollingPolicy.reset(repository);
+
+		Assert.assertEquals(1, new AdaptivePollingPolicy(pluginSettingsFactory).getPollInterval(repository));
+		Assert.assertFalse(settings.get("id").containsKey("pollInterval"));
+	}
+}
@@ -0,0 +1,154 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.io.IOException;
+
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.revisions.scheduling.CircuitBreaker.CircuitStatus;
+import jiracommitviewer.revisions.scheduling.CircuitBreaker.State;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests surrounding {@link CircuitBreaker}.
+ *
+ * @author mark
+ */
+public class CircuitBreakerTest {
+
+	private static final long NOW = 1000000L;
+
+	private CircuitBreaker circuitBreaker;
+	private GitRepository repository;
+	private final Exception cause = new IOException("Connection refused");
+
+	@Before
+	public void init() {
+		circuitBreaker = new CircuitBreaker();
+		repository = new GitRepository("id");
+	}
+
+	/**
+	 * Tests that a circuit stays closed, allowing fetches, until the failure threshold is reached.
+	 */
+	@Test
+	public void testClosedBelowThreshold() {
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, NOW));
+		Assert.assertNull(circuitBreaker.getStatus(repository));
+
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+			Assert.assertFalse(circuitBreaker.failed(repository, cause, NOW));
+			Assert.assertTrue(circuitBreaker.allowsAttempt(repository, NOW));
+		}
+		final CircuitStatus status = circuitBreaker.getStatus(repository);
+		Assert.assertEquals(State.CLOSED, status.getState());
+		Assert.assertFalse(status.isOpen());
+		Assert.assertEquals(CircuitBreaker.FAILURE_THRESHOLD - 1, status.getFailures());
+		Assert.assertEquals("Connection refused", status.getLastError());
+	}
+
+	/**
+	 * Tests that a circuit opens at the failure threshold and refuses fetches until the retry time.
+	 */
+	@Test
+	public void testOpensAtThreshold() {
+		openCircuit();
+
+		final CircuitStatus status = circuitBreaker.getStatus(repository);
+		Assert.assertEquals(State.OPEN, status.getState());
+		Assert.assertTrue(status.isOpen());
+		Assert.assertEquals(NOW + CircuitBreaker.INITIAL_BACKOFF_MILLIS, status.getRetryTime());
+		Assert.assertFalse(circuitBreaker.allowsAttempt(repository, NOW + CircuitBreaker.INITIAL_BACKOFF_MILLIS - 1));
+	}
+
+	/**
+	 * Tests that once the retry time has passed a single trial fetch is allowed, and that a trial handed back can be
+	 * taken by the next caller.
+	 */
+	@Test
+	public void testHalfOpenAllowsSingleTrial() {
+		openCircuit();
+		final long retryTime = NOW + CircuitBreaker.INITIAL_BACKOFF_MILLIS;
+
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, retryTime));
+		Assert.assertEquals(State.HALF_OPEN, circuitBreaker.getStatus(repository).getState());
+		Assert.assertFalse("Only one trial may run", circuitBreaker.allowsAttempt(repository, retryTime));
+
+		circuitBreaker.cancelAttempt(repository);
+		Assert.assertEquals(State.OPEN, circuitBreaker.getStatus(repository).getState());
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, retryTime));
+	}
+
+	/**
+	 * Tests that a successful trial closes the circuit and forgets the failures.
+	 */
+	@Test
+	public void testTrialSuccessCloses() {
+		openCircuit();
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, NOW + CircuitBreaker.INITIAL_BACKOFF_MILLIS));
+
+		circuitBreaker.succeeded(repository);
+		Assert.assertNull(circuitBreaker.getStatus(repository));
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, NOW));
+		Assert.assertFalse("Failures should be counted afresh", circuitBreaker.failed(repository, cause, NOW));
+	}
+
+	/**
+	 * Tests that each failed trial doubles the wait until the next, up to the maximum.
+	 */
+	@Test
+	public void testTrialFailureBacksOffToMaximum() {
+		openCircuit();
+
+		long now = NOW;
+		long backoff = CircuitBreaker.INITIAL_BACKOFF_MILLIS;
+		while (backoff < CircuitBreaker.MAX_BACKOFF_MILLIS) {
+			now += backoff;
+			Assert.assertTrue(circuitBreaker.allowsAttempt(repository, now));
+			Assert.assertTrue(circuitBreaker.failed(repository, cause, now));
+			backoff = Math.min(backoff * 2, CircuitBreaker.MAX_BACKOFF_MILLIS);
+			Assert.assertEquals(now + backoff, circuitBreaker.getStatus(repository).getRetryTime());
+		}
+
+		// Many more failures never wait longer than the maximum
+		for (int i = 0; i < 100; i++) {
+			circuitBreaker.failed(repository, cause, now);
+		}
+		Assert.assertEquals(now + CircuitBreaker.MAX_BACKOFF_MILLIS, circuitBreaker.getStatus(repository).getRetryTime());
+	}
+
+	/**
+	 * Tests that resetting closes an open circuit straight away.
+	 */
+	@Test
+	public void testReset() {
+		openCircuit();
+
+		circuitBreaker.reset(repository);
+		Assert.assertNull(circuitBreaker.getStatus(repository));
+		Assert.assertTrue(circuitBreaker.allowsAttempt(repository, NOW));
+	}
+
+	/**
+	 * Tests that the circuit of one repository doesn't affect another.
+	 */
+	@Test
+	public void testRepositoriesIndependent() {
+		openCircuit();
+
+		final GitRepository other = new GitRepository("other");
+		Assert.assertTrue(circuitBreaker.allowsAttempt(other, NOW));
+		Assert.assertNull(circuitBreaker.getStatus(other));
+	}
+
+	/**
+	 * Fails the repository enough times at {@link #NOW} to open its circuit.
+	 */
+	private void openCircuit() {
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+			circuitBreaker.failed(repository, cause, NOW);
+		}
+		Assert.assertTrue(circuitBreaker.failed(repository, cause, NOW));
+	}
+}
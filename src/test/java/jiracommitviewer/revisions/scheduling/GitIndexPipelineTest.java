@@ -0,0 +1,161 @@
+package jiracommitviewer.revisions.scheduling;
+
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.repository.service.GitRepositoryService;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+/**
+ * Tests surrounding {@link GitIndexPipeline}.
+ *
+ * @author mark
+ */
+public class GitIndexPipelineTest {
+
+	/** The longest to wait for a stage to run its tasks. */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Mocked
+	private GitCommitIndexer gitCommitIndexer;
+	@Mocked
+	private GitRepositoryService gitRepositoryService;
+	@Mocked
+	private PluginSettingsFactory pluginSettingsFactory;
+	@Mocked
+	private PluginSettings pluginSettings;
+
+	private GitIndexPipeline pipeline;
+	private final GitRepository repository = new GitRepository("id");
+
+	@Before
+	public void init() {
+		new NonStrictExpectations() {{
+			pluginSettingsFactory.createSettingsForKey(anyString); result = pluginSettings;
+		}};
+		pipeline = new GitIndexPipeline(gitCommitIndexer, gitRepositoryService, pluginSettingsFactory);
+	}
+
+	@After
+	public void destroy() {
+		pipeline.destroy();
+	}
+
+	/**
+	 * Tests that a fetch finding nothing new doesn't queue the repository for indexing.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIdleFetchNotIndexed() throws Exception {
+		new NonStrictExpectations() {{
+			gitRepositoryService.isCloneComplete(repository); result = true;
+			gitCommitIndexer.fetch(repository); result = false;
+			gitCommitIndexer.isIndexCurrent(repository); result = true;
+		}};
+
+		Assert.assertTrue(pipeline.submit(repository));
+		awaitCompleted(pipeline.getFetchStage(), 1);
+
+		// The index stage is queued before the fetch task completes, so it would be seen by now
+		Assert.assertEquals(0, pipeline.getIndexStage().getQueueDepth());
+		Assert.assertEquals(0, pipeline.getIndexStage().getActiveCount());
+		Assert.assertEquals(0, pipeline.getIndexStage().getCompletedCount());
+		new Verifications() {{
+			gitCommitIndexer.updateIndex(repository); times = 0;
+		}};
+	}
+
+	/**
+	 * Tests that a fetch bringing changes queues the repository for indexing.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testChangedFetchIndexed() throws Exception {
+		new NonStrictExpectations() {{
+			gitRepositoryService.isCloneComplete(repository); result = true;
+			gitCommitIndexer.fetch(repository); result = true;
+			gitCommitIndexer.isIndexCurrent(repository); result = true;
+		}};
+
+		Assert.assertTrue(pipeline.submit(repository));
+		awaitCompleted(pipeline.getIndexStage(), 1);
+		new Verifications() {{
+			gitCommitIndexer.updateIndex(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that a repository whose fetched commits haven't been indexed yet, such as after a restart, is indexed even
+	 * though the fetch found nothing new.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnindexedRepositoryIndexed() throws Exception {
+		new NonStrictExpectations() {{
+			gitRepositoryService.isCloneComplete(repository); result = true;
+			gitCommitIndexer.fetch(repository); result = false;
+			gitCommitIndexer.isIndexCurrent(repository); result = false;
+		}};
+
+		Assert.assertTrue(pipeline.submit(repository));
+		awaitCompleted(pipeline.getIndexStage(), 1);
+		new Verifications() {{
+			gitCommitIndexer.updateIndex(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that a burst of notifications for a repository results in a single fetch once the delay has passed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testNotificationsDebounced() throws Exception {
+		new NonStrictExpectations() {{
+			gitRepositoryService.isCloneComplete(repository); result = true;
+			gitCommitIndexer.fetch(repository); result = false;
+			gitCommitIndexer.isIndexCurrent(repository); result = true;
+		}};
+
+		pipeline.notifyUpdated(repository);
+		pipeline.notifyUpdated(repository);
+		pipeline.notifyUpdated(repository);
+		Assert.assertEquals("Nothing should be fetched before the delay", 0, pipeline.getFetchStage().getCompletedCount());
+
+		awaitCompleted(pipeline.getFetchStage(), 1);
+		Thread.sleep(GitIndexPipeline.NOTIFICATION_DELAY_MILLIS);
+		Assert.assertEquals(1, pipeline.getFetchStage().getCompletedCount());
+		new Verifications() {{
+			gitCommitIndexer.fetch(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Waits for the {@code stage} to have completed at least {@code count} tasks.
+	 *
+	 * @param stage the stage. Must not be {@code null}
+	 * @param count the number of tasks
+	 * @throws InterruptedException
+	 */
+	private void awaitCompleted(final PipelineStage stage, final long count) throws InterruptedException {
+		assert stage != null : "stage must not be null";
+
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (stage.getCompletedCount() < count) {
+			Assert.assertTrue("Timed out waiting for the " + stage.getName() + " stage", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
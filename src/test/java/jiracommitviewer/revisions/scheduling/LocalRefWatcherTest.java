@@ -0,0 +1,130 @@
+package jiracommitviewer.revisions.scheduling;
+
+import java.io.File;
+import java.util.Arrays;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.repository.RepositoryTestUtils;
+import jiracommitviewer.repository.service.DefaultGitRepositoryService;
+import jiracommitviewer.repository.service.GitRepositoryService;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Test;
+
+/**
+ * Tests surrounding {@link LocalRefWatcher}.
+ *
+ * @author mark
+ */
+public class LocalRefWatcherTest {
+
+	private static final long NOW = 1000000L;
+
+	@Mocked
+	private RepositoryManager repositoryManager;
+	@Mocked
+	private GitIndexPipeline indexPipeline;
+	@Injectable
+	private GitRepositoryService gitRepositoryService;
+
+	/**
+	 * Tests that committing to a local repository notifies the pipeline.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLocalCommitNotifies() throws Exception {
+		final GitRepositoryService realRepositoryService = new DefaultGitRepositoryService();
+		final GitRepository repository = RepositoryTestUtils.getCreatedRepository(realRepositoryService);
+		new NonStrictExpectations() {{
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(repository);
+		}};
+		final LocalRefWatcher watcher = new LocalRefWatcher(repositoryManager, realRepositoryService, indexPipeline);
+
+		// The first check is only recorded
+		watcher.watch(NOW);
+		final Git git = Git.open(RepositoryTestUtils.getRepositoryBase(repository));
+		try {
+			RepositoryTestUtils.createRepositoryFile(repository, new File("file"), "content".getBytes());
+			git.add().addFilepattern("file").call();
+			git.commit().setMessage("GCV-1 Added a file").call();
+		} finally {
+			git.getRepository().close();
+		}
+		watcher.watch(NOW + LocalRefWatcher.WATCH_INTERVAL_MILLIS);
+
+		new Verifications() {{
+			indexPipeline.notifyUpdated(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that a repository whose refs don't change is checked less and less often, down to a limit.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIdleRepositoryBacksOff() throws Exception {
+		final GitRepository repository = getLocalRepository();
+		new NonStrictExpectations() {{
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(repository);
+			gitRepositoryService.getRefState(repository); result = "state";
+		}};
+		final LocalRefWatcher watcher = new LocalRefWatcher(repositoryManager, gitRepositoryService, indexPipeline);
+
+		// Checked after 0, 1, 3, 7, 15 and 31 seconds and then every 30 seconds: 8 checks in 2 minutes
+		for (long time = 0; time <= 120000; time += 1000) {
+			watcher.watch(NOW + time);
+		}
+
+		new Verifications() {{
+			gitRepositoryService.getRefState(repository); times = 8;
+			indexPipeline.notifyUpdated(repository); times = 0;
+		}};
+	}
+
+	/**
+	 * Tests that a repository whose refs change is checked every second again.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testChangeResetsInterval() throws Exception {
+		final GitRepository repository = getLocalRepository();
+		new NonStrictExpectations() {{
+			repositoryManager.getRepositoryList(GitRepository.class); result = Arrays.asList(repository);
+			gitRepositoryService.getRefState(repository); returns("state", "state", "state", "changed");
+		}};
+		final LocalRefWatcher watcher = new LocalRefWatcher(repositoryManager, gitRepositoryService, indexPipeline);
+
+		watcher.watch(NOW);
+		watcher.watch(NOW + 1000);
+		// Not due until 2 seconds after the previous check
+		watcher.watch(NOW + 2000);
+		watcher.watch(NOW + 3000);
+		// Finds the change
+		watcher.watch(NOW + 7000);
+		watcher.watch(NOW + 8000);
+
+		new Verifications() {{
+			gitRepositoryService.getRefState(repository); times = 5;
+			indexPipeline.notifyUpdated(repository); times = 1;
+		}};
+	}
+
+	/**
+	 * Gets a repository whose source is on the local file system.
+	 *
+	 * @return the repository. Never {@code null}
+	 */
+	private GitRepository getLocalRepository() {
+		final GitRepository repository = new GitRepository("id");
+		repository.setUri("file:///tmp/repository");
+		return repository;
+	}
+}
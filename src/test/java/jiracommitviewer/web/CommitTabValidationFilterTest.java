@@ -0,0 +1,188 @@
+package jiracommitviewer.web;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+
+/**
+ * Tests surrounding {@link CommitTabValidationFilter}.
+ *
+ * @author mark
+ */
+public class CommitTabValidationFilterTest {
+
+	private static final String ENTITY_TAG = "W/\"tag\"";
+
+	@Mocked
+	private ResponseValidatorFactory responseValidatorFactory;
+	@Mocked
+	private IssueManager issueManager;
+	@Mocked
+	private Issue issue;
+	@Mocked
+	private HttpServletRequest request;
+	@Mocked
+	private HttpServletResponse response;
+	@Mocked
+	private FilterChain chain;
+
+	private CommitTabValidationFilter filter;
+	private final ResponseValidator validator = new ResponseValidator("tag", 5000L);
+
+	@Before
+	public void init() {
+		filter = new CommitTabValidationFilter(responseValidatorFactory, issueManager);
+
+		new NonStrictExpectations() {{
+			request.getMethod(); result = "GET";
+			request.getContextPath(); result = "/jira";
+			request.getParameter("decorator"); result = "none";
+			issueManager.getIssueObject("GCV-1"); result = issue;
+			responseValidatorFactory.getIssueValidator(issue); result = validator;
+			responseValidatorFactory.getProjectsValidator("project\nGCV"); result = validator;
+		}};
+	}
+
+	/**
+	 * Tests that an issue tab is tagged and rendered when the client doesn't hold it.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIssueTabTagged() throws Exception {
+		expectIssueTab(null);
+
+		filter.doFilter(request, response, chain);
+		new Verifications() {{
+			response.setHeader("ETag", ENTITY_TAG);
+			response.setDateHeader("Last-Modified", 5000L);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); times = 0;
+			chain.doFilter(request, response); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that an issue tab that the client holds is answered as not modified without being rendered.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIssueTabNotModified() throws Exception {
+		expectIssueTab(ENTITY_TAG);
+
+		filter.doFilter(request, response, chain);
+		new Verifications() {{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); times = 1;
+			response.setHeader("ETag", ENTITY_TAG);
+			chain.doFilter(request, response); times = 0;
+		}};
+	}
+
+	/**
+	 * Tests that an issue tab is rendered again when the client holds an older version of it.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIssueTabChanged() throws Exception {
+		expectIssueTab("W/\"older\"");
+
+		filter.doFilter(request, response, chain);
+		new Verifications() {{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); times = 0;
+			response.setHeader("ETag", ENTITY_TAG);
+			chain.doFilter(request, response); times = 1;
+		}};
+	}
+
+	/**
+	 * Tests that the project tab listing all versions is validated.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testProjectTabAllVersionsNotModified() throws Exception {
+		new NonStrictExpectations() {{
+			request.getRequestURI(); result = "/jira/browse/GCV";
+			request.getParameter("selectedTab"); result = "jiracommitviewer.jiracommitviewer:git-project-tab";
+			request.getParameter("selectedVersion"); result = "-1";
+			request.getHeader("If-None-Match"); result = ENTITY_TAG;
+		}};
+
+		filter.doFilter(request, response, chain);
+		new Verifications() {{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); times = 1;
+			chain.doFilter(request, response); times = 0;
+		}};
+	}
+
+	/**
+	 * Tests that the project tab listing a single version is never validated.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testProjectTabVersionNotValidated() throws Exception {
+		new NonStrictExpectations() {{
+			request.getRequestURI(); result = "/jira/browse/GCV";
+			request.getParameter("selectedTab"); result = "jiracommitviewer.jiracommitviewer:git-project-tab";
+			request.getParameter("selectedVersion"); result = "10000";
+			request.getHeader("If-None-Match"); result = ENTITY_TAG;
+		}};
+
+		filter.doFilter(request, response, chain);
+		verifyNotValidated();
+	}
+
+	/**
+	 * Tests that decorated requests, which render the whole page, are never validated.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testDecoratedRequestNotValidated() throws Exception {
+		expectIssueTab(ENTITY_TAG);
+		new NonStrictExpectations() {{
+			request.getParameter("decorator"); result = null;
+		}};
+
+		filter.doFilter(request, response, chain);
+		verifyNotValidated();
+	}
+
+	/**
+	 * Records a request for the issue tab of GCV-1.
+	 *
+	 * @param ifNoneMatch the tags the client holds or {@code null} if none
+	 */
+	private void expectIssueTab(final String ifNoneMatch) {
+		new NonStrictExpectations() {{
+			request.getRequestURI(); result = "/jira/browse/GCV-1";
+			request.getParameter("page"); result = "jiracommitviewer.jiracommitviewer:git-commits-tabpanel";
+			request.getHeader("If-None-Match"); result = ifNoneMatch;
+		}};
+	}
+
+	/**
+	 * Verifies that the request was passed on untouched.
+	 *
+	 * @throws Exception
+	 */
+	private void verifyNotValidated() throws Exception {
+		new Verifications() {{
+			response.setStatus(anyInt); times = 0;
+			response.setHeader(anyString, anyString); times = 0;
+			chain.doFilter(request, response); times = 1;
+		}};
+	}
+}
@@ -0,0 +1,174 @@
+package jiracommitviewer.web;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import jiracommitviewer.RepositoryManager;
+import jiracommitviewer.domain.AbstractRepository;
+import jiracommitviewer.domain.GitCommitKey;
+import jiracommitviewer.domain.GitRepository;
+import jiracommitviewer.index.GitCommitIndexer;
+import jiracommitviewer.index.IndexGeneration;
+import jiracommitviewer.index.exception.IndexException;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+
+/**
+ * Tests surrounding {@link ResponseValidatorFactory}.
+ *
+ * @author mark
+ */
+public class ResponseValidatorFactoryTest {
+
+	@Mocked
+	private GitCommitIndexer gitCommitIndexer;
+	@Mocked
+	private RepositoryManager repositoryManager;
+	@Mocked
+	private PermissionManager permissionManager;
+	@Mocked
+	private JiraAuthenticationContext authenticationContext;
+	@Mocked
+	private Issue issue;
+	@Mocked
+	private User user;
+	@Mocked
+	private Project project;
+	@Mocked
+	private Project otherProject;
+
+	private ResponseValidatorFactory responseValidatorFactory;
+	private final GitRepository repository = new GitRepository(1L);
+
+	@Before
+	public void init() throws IndexException {
+		responseValidatorFactory = new ResponseValidatorFactory();
+		Deencapsulation.setField(responseValidatorFactory, gitCommitIndexer);
+		Deencapsulation.setField(responseValidatorFactory, repositoryManager);
+		Deencapsulation.setField(responseValidatorFactory, permissionManager);
+		Deencapsulation.setField(responseValidatorFactory, authenticationContext);
+
+		new NonStrictExpectations() {{
+			gitCommitIndexer.getIndexGeneration(); result = new IndexGeneration(1, 5000L);
+			authenticationContext.getLoggedInUser(); result = user;
+			authenticationContext.getLocale(); result = Locale.ENGLISH;
+			user.getName(); result = "user";
+			issue.getId(); result = 10000L;
+			issue.getKey(); result = "GCV-1";
+			permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user); result = true;
+			project.getId(); result = 1L;
+			otherProject.getId(); result = 2L;
+			permissionManager.getProjectObjects(Permissions.VIEW_VERSION_CONTROL, user); result = Arrays.asList(project);
+			repositoryManager.getRepositoryList(); result = Collections.<AbstractRepository>singletonList(repository);
+		}};
+	}
+
+	/**
+	 * Tests that the tag of an issue's listing stays the same until the index changes, and that its last modified
+	 * time is that of the index.
+	 *
+	 * @throws IndexException
+	 */
+	@Test
+	public void testIssueTagChangesWithIndexGeneration() throws IndexException {
+		final ResponseValidator validator = responseValidatorFactory.getIssueValidator(issue);
+		Assert.assertEquals(validator.getTag(), responseValidatorFactory.getIssueValidator(issue).getTag());
+		Assert.assertEquals(5000L, validator.getLastModified());
+
+		new NonStrictExpectations() {{
+			gitCommitIndexer.getIndexGeneration(); result = new IndexGeneration(2, 6000L);
+		}};
+		final ResponseValidator changed = responseValidatorFactory.getIssueValidator(issue);
+		Assert.assertFalse(validator.getTag().equals(changed.getTag()));
+		Assert.assertEquals(6000L, changed.getLastModified());
+	}
+
+	/**
+	 * Tests that the tag of an issue's listing changes with whether the user may view version control for it.
+	 */
+	@Test
+	public void testIssueTagChangesWithPermission() {
+		final String tag = responseValidatorFactory.getIssueValidator(issue).getTag();
+
+		new NonStrictExpectations() {{
+			permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user); result = false;
+		}};
+		Assert.assertFalse(tag.equals(responseValidatorFactory.getIssueValidator(issue).getTag()));
+	}
+
+	/**
+	 * Tests that the tag of an issue's listing differs between users.
+	 */
+	@Test
+	public void testIssueTagChangesWithUser() {
+		final String tag = responseValidatorFactory.getIssueValidator(issue).getTag();
+
+		new NonStrictExpectations() {{
+			user.getName(); result = "other";
+		}};
+		Assert.assertFalse(tag.equals(responseValidatorFactory.getIssueValidator(issue).getTag()));
+	}
+
+	/**
+	 * Tests that the tag of a listing across projects changes with the projects the user may view version control
+	 * for, and differs with what is listed.
+	 */
+	@Test
+	public void testProjectsTagChangesWithPermittedProjects() {
+		final String tag = responseValidatorFactory.getProjectsValidator("project\nGCV").getTag();
+		Assert.assertEquals(tag, responseValidatorFactory.getProjectsValidator("project\nGCV").getTag());
+		Assert.assertFalse(tag.equals(responseValidatorFactory.getProjectsValidator("project\nOTHER").getTag()));
+
+		new NonStrictExpectations() {{
+			permissionManager.getProjectObjects(Permissions.VIEW_VERSION_CONTROL, user);
+			result = Arrays.asList(project, otherProject);
+		}};
+		Assert.assertFalse(tag.equals(responseValidatorFactory.getProjectsValidator("project\nGCV").getTag()));
+	}
+
+	/**
+	 * Tests that tags change when the link formats of a repository do.
+	 */
+	@Test
+	public void testTagsChangeWithLinkFormat() {
+		final GitCommitKey commitKey = new GitCommitKey("c66feec2fc0ad9887949c04839232e17b440c690", 1000);
+		final String issueTag = responseValidatorFactory.getIssueValidator(issue).getTag();
+		final ResponseValidator commitValidator = responseValidatorFactory.getCommitValidator(repository, commitKey);
+		Assert.assertEquals(1000000L, commitValidator.getLastModified());
+		Assert.assertEquals(commitValidator.getTag(), responseValidatorFactory.getCommitValidator(repository, commitKey)
+				.getTag());
+
+		repository.getLinkFormatter().setChangesetFormat("http://example.com/${id}");
+		Assert.assertFalse(issueTag.equals(responseValidatorFactory.getIssueValidator(issue).getTag()));
+		Assert.assertFalse(commitValidator.getTag().equals(responseValidatorFactory.getCommitValidator(repository,
+				commitKey).getTag()));
+	}
+
+	/**
+	 * Tests that no validator is given when the index can't be read.
+	 *
+	 * @throws IndexException
+	 */
+	@Test
+	public void testIndexUnreadable() throws IndexException {
+		new NonStrictExpectations() {{
+			gitCommitIndexer.getIndexGeneration(); result = new IndexException("Index IO access error");
+		}};
+
+		Assert.assertNull(responseValidatorFactory.getIssueValidator(issue));
+		Assert.assertNull(responseValidatorFactory.getProjectsValidator("project\nGCV"));
+	}
+}
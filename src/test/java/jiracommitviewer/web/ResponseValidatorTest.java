@@ -0,0 +1,56 @@
+package jiracommitviewer.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests surrounding {@link ResponseValidator}.
+ *
+ * @author mark
+ */
+public class ResponseValidatorTest {
+
+	private final ResponseValidator validator = new ResponseValidator("abc-123", 1000L);
+
+	/**
+	 * Tests that the entity tag is weak and quoted.
+	 */
+	@Test
+	public void testEntityTag() {
+		Assert.assertEquals("abc-123", validator.getTag());
+		Assert.assertEquals("W/\"abc-123\"", validator.getEntityTag());
+		Assert.assertEquals(1000L, validator.getLastModified());
+	}
+
+	/**
+	 * Tests that the tag matches whether it is given weak or strong.
+	 */
+	@Test
+	public void testMatchesTag() {
+		Assert.assertTrue(validator.matches("W/\"abc-123\""));
+		Assert.assertTrue(validator.matches("\"abc-123\""));
+		Assert.assertTrue(validator.matches(" W/\"abc-123\" "));
+	}
+
+	/**
+	 * Tests that the tag matches anywhere in a list of tags, and that a wildcard matches anything.
+	 */
+	@Test
+	public void testMatchesList() {
+		Assert.assertTrue(validator.matches("W/\"other\", W/\"abc-123\""));
+		Assert.assertTrue(validator.matches("W/\"other\",\"abc-123\""));
+		Assert.assertTrue(validator.matches("*"));
+	}
+
+	/**
+	 * Tests that missing, different or malformed tags don't match.
+	 */
+	@Test
+	public void testNoMatch() {
+		Assert.assertFalse(validator.matches(null));
+		Assert.assertFalse(validator.matches(""));
+		Assert.assertFalse(validator.matches("W/\"other\""));
+		Assert.assertFalse(validator.matches("W/\"abc-1234\""));
+		Assert.assertFalse("Tags must be quoted", validator.matches("abc-123"));
+	}
+}